@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * A {@link LivePlaybackSpeedControl} that adjusts the playback speed proportionally to the
+ * difference between the current and the target live offset, within a narrow range of speeds that
+ * is hardly noticeable when the audio is time-stretched.
+ *
+ * <p>The target live offset is the one set with {@link Builder#setTargetLiveOffsetMs(long)}, or the
+ * live offset of the default position of the live window otherwise. Each rebuffer increases the
+ * target live offset by {@link Builder#setTargetLiveOffsetIncrementOnRebufferMs(long)}, so that
+ * playback doesn't repeatedly stall when the target is too close to the live edge for the network
+ * conditions. The target live offset never exceeds the live offset of the start of the live window,
+ * and each {@link Builder#setTargetLiveOffsetDecrementIntervalMs(long)} of playback without
+ * rebuffers undoes one increment. Increments are discarded when a different live stream is played.
+ */
+public final class DefaultLivePlaybackSpeedControl implements LivePlaybackSpeedControl {
+
+  /** The default minimum playback speed. */
+  public static final float DEFAULT_MIN_PLAYBACK_SPEED = 0.97f;
+  /** The default maximum playback speed. */
+  public static final float DEFAULT_MAX_PLAYBACK_SPEED = 1.03f;
+  /** The default minimum interval between playback speed changes, in milliseconds. */
+  public static final long DEFAULT_MIN_UPDATE_INTERVAL_MS = 1000;
+  /**
+   * The default proportional control factor, which is the playback speed change per second of
+   * difference between the current and the target live offset.
+   */
+  public static final float DEFAULT_PROPORTIONAL_CONTROL_FACTOR = 0.1f;
+  /** The default increment of the target live offset on each rebuffer, in milliseconds. */
+  public static final long DEFAULT_TARGET_LIVE_OFFSET_INCREMENT_ON_REBUFFER_MS = 500;
+  /**
+   * The default duration of playback without rebuffers after which the target live offset is
+   * decreased by one increment, in milliseconds.
+   */
+  public static final long DEFAULT_TARGET_LIVE_OFFSET_DECREMENT_INTERVAL_MS = 30_000;
+  /**
+   * The default maximum difference between the current and the target live offset for which the
+   * playback speed isn't adjusted, in milliseconds.
+   */
+  public static final long DEFAULT_MAX_LIVE_OFFSET_ERROR_MS_FOR_UNIT_SPEED = 20;
+
+  /** Builder for {@link DefaultLivePlaybackSpeedControl}. */
+  public static final class Builder {
+
+    private long targetLiveOffsetMs;
+    private float minPlaybackSpeed;
+    private float maxPlaybackSpeed;
+    private long minUpdateIntervalMs;
+    private float proportionalControlFactor;
+    private long targetLiveOffsetIncrementOnRebufferMs;
+    private long targetLiveOffsetDecrementIntervalMs;
+    private long maxLiveOffsetErrorMsForUnitSpeed;
+    private Clock clock;
+
+    /** Creates a builder with default parameters. */
+    public Builder() {
+      targetLiveOffsetMs = C.TIME_UNSET;
+      minPlaybackSpeed = DEFAULT_MIN_PLAYBACK_SPEED;
+      maxPlaybackSpeed = DEFAULT_MAX_PLAYBACK_SPEED;
+      minUpdateIntervalMs = DEFAULT_MIN_UPDATE_INTERVAL_MS;
+      proportionalControlFactor = DEFAULT_PROPORTIONAL_CONTROL_FACTOR;
+      targetLiveOffsetIncrementOnRebufferMs = DEFAULT_TARGET_LIVE_OFFSET_INCREMENT_ON_REBUFFER_MS;
+      targetLiveOffsetDecrementIntervalMs = DEFAULT_TARGET_LIVE_OFFSET_DECREMENT_INTERVAL_MS;
+      maxLiveOffsetErrorMsForUnitSpeed = DEFAULT_MAX_LIVE_OFFSET_ERROR_MS_FOR_UNIT_SPEED;
+      clock = Clock.DEFAULT;
+    }
+
+    /**
+     * Sets the target live offset. The default value is {@link C#TIME_UNSET}, which means that the
+     * live offset of the default position of the live window is targeted.
+     *
+     * @param targetLiveOffsetMs The target live offset, in milliseconds, or {@link C#TIME_UNSET}.
+     * @return This builder, for convenience.
+     */
+    public Builder setTargetLiveOffsetMs(long targetLiveOffsetMs) {
+      Assertions.checkArgument(targetLiveOffsetMs == C.TIME_UNSET || targetLiveOffsetMs >= 0);
+      this.targetLiveOffsetMs = targetLiveOffsetMs;
+      return this;
+    }
+
+    /**
+     * Sets the range of playback speeds. The default range is from {@link
+     * #DEFAULT_MIN_PLAYBACK_SPEED} to {@link #DEFAULT_MAX_PLAYBACK_SPEED}.
+     *
+     * @param minPlaybackSpeed The minimum playback speed, at most 1.
+     * @param maxPlaybackSpeed The maximum playback speed, at least 1.
+     * @return This builder, for convenience.
+     */
+    public Builder setPlaybackSpeedRange(float minPlaybackSpeed, float maxPlaybackSpeed) {
+      Assertions.checkArgument(0 < minPlaybackSpeed && minPlaybackSpeed <= 1f);
+      Assertions.checkArgument(maxPlaybackSpeed >= 1f);
+      this.minPlaybackSpeed = minPlaybackSpeed;
+      this.maxPlaybackSpeed = maxPlaybackSpeed;
+      return this;
+    }
+
+    /**
+     * Sets the minimum interval between playback speed changes. The default value is {@link
+     * #DEFAULT_MIN_UPDATE_INTERVAL_MS}.
+     *
+     * @param minUpdateIntervalMs The minimum interval between playback speed changes, in
+     *     milliseconds.
+     * @return This builder, for convenience.
+     */
+    public Builder setMinUpdateIntervalMs(long minUpdateIntervalMs) {
+      Assertions.checkArgument(minUpdateIntervalMs >= 0);
+      this.minUpdateIntervalMs = minUpdateIntervalMs;
+      return this;
+    }
+
+    /**
+     * Sets the proportional control factor, which is the playback speed change per second of
+     * difference between the current and the target live offset. The default value is {@link
+     * #DEFAULT_PROPORTIONAL_CONTROL_FACTOR}.
+     *
+     * @param proportionalControlFactor The proportional control factor.
+     * @return This builder, for convenience.
+     */
+    public Builder setProportionalControlFactor(float proportionalControlFactor) {
+      Assertions.checkArgument(proportionalControlFactor > 0);
+      this.proportionalControlFactor = proportionalControlFactor;
+      return this;
+    }
+
+    /**
+     * Sets the increment of the target live offset on each rebuffer. The target live offset is
+     * never incremented beyond the maximum live offset defined by the media. The default value is
+     * {@link #DEFAULT_TARGET_LIVE_OFFSET_INCREMENT_ON_REBUFFER_MS}.
+     *
+     * @param targetLiveOffsetIncrementOnRebufferMs The increment of the target live offset, in
+     *     milliseconds.
+     * @return This builder, for convenience.
+     */
+    public Builder setTargetLiveOffsetIncrementOnRebufferMs(
+        long targetLiveOffsetIncrementOnRebufferMs) {
+      Assertions.checkArgument(targetLiveOffsetIncrementOnRebufferMs >= 0);
+      this.targetLiveOffsetIncrementOnRebufferMs = targetLiveOffsetIncrementOnRebufferMs;
+      return this;
+    }
+
+    /**
+     * Sets the duration of playback without rebuffers after which the target live offset is
+     * decreased by one increment, until the increments made on rebuffers are undone. The default
+     * value is {@link #DEFAULT_TARGET_LIVE_OFFSET_DECREMENT_INTERVAL_MS}.
+     *
+     * @param targetLiveOffsetDecrementIntervalMs The duration of playback without rebuffers, in
+     *     milliseconds.
+     * @return This builder, for convenience.
+     */
+    public Builder setTargetLiveOffsetDecrementIntervalMs(
+        long targetLiveOffsetDecrementIntervalMs) {
+      Assertions.checkArgument(targetLiveOffsetDecrementIntervalMs >= 0);
+      this.targetLiveOffsetDecrementIntervalMs = targetLiveOffsetDecrementIntervalMs;
+      return this;
+    }
+
+    /**
+     * Sets the maximum difference between the current and the target live offset for which the
+     * playback speed isn't adjusted. The default value is {@link
+     * #DEFAULT_MAX_LIVE_OFFSET_ERROR_MS_FOR_UNIT_SPEED}.
+     *
+     * @param maxLiveOffsetErrorMsForUnitSpeed The maximum difference, in milliseconds.
+     * @return This builder, for convenience.
+     */
+    public Builder setMaxLiveOffsetErrorMsForUnitSpeed(long maxLiveOffsetErrorMsForUnitSpeed) {
+      Assertions.checkArgument(maxLiveOffsetErrorMsForUnitSpeed >= 0);
+      this.maxLiveOffsetErrorMsForUnitSpeed = maxLiveOffsetErrorMsForUnitSpeed;
+      return this;
+    }
+
+    /**
+     * Sets the clock used to limit the frequency of playback speed changes. Should only be set for
+     * testing purposes.
+     *
+     * @param clock The {@link Clock}.
+     * @return This builder, for convenience.
+     */
+    public Builder setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** Builds the {@link DefaultLivePlaybackSpeedControl}. */
+    public DefaultLivePlaybackSpeedControl build() {
+      return new DefaultLivePlaybackSpeedControl(
+          C.msToUs(targetLiveOffsetMs),
+          minPlaybackSpeed,
+          maxPlaybackSpeed,
+          minUpdateIntervalMs,
+          proportionalControlFactor,
+          C.msToUs(targetLiveOffsetIncrementOnRebufferMs),
+          targetLiveOffsetDecrementIntervalMs,
+          C.msToUs(maxLiveOffsetErrorMsForUnitSpeed),
+          clock);
+    }
+  }
+
+  private final long configuredTargetLiveOffsetUs;
+  private final float minPlaybackSpeed;
+  private final float maxPlaybackSpeed;
+  private final long minUpdateIntervalMs;
+  private final float proportionalControlFactor;
+  private final long targetLiveOffsetIncrementOnRebufferUs;
+  private final long targetLiveOffsetDecrementIntervalMs;
+  private final long maxLiveOffsetErrorUsForUnitSpeed;
+  private final Clock clock;
+
+  private long defaultTargetLiveOffsetUs;
+  private long maxLiveOffsetUs;
+  private long targetLiveOffsetIncrementUs;
+  private long lastTargetLiveOffsetChangeTimeMs;
+  private long lastUpdateTimeMs;
+  private float adjustedPlaybackSpeed;
+
+  private DefaultLivePlaybackSpeedControl(
+      long configuredTargetLiveOffsetUs,
+      float minPlaybackSpeed,
+      float maxPlaybackSpeed,
+      long minUpdateIntervalMs,
+      float proportionalControlFactor,
+      long targetLiveOffsetIncrementOnRebufferUs,
+      long targetLiveOffsetDecrementIntervalMs,
+      long maxLiveOffsetErrorUsForUnitSpeed,
+      Clock clock) {
+    this.configuredTargetLiveOffsetUs = configuredTargetLiveOffsetUs;
+    this.minPlaybackSpeed = minPlaybackSpeed;
+    this.maxPlaybackSpeed = maxPlaybackSpeed;
+    this.minUpdateIntervalMs = minUpdateIntervalMs;
+    this.proportionalControlFactor = proportionalControlFactor;
+    this.targetLiveOffsetIncrementOnRebufferUs = targetLiveOffsetIncrementOnRebufferUs;
+    this.targetLiveOffsetDecrementIntervalMs = targetLiveOffsetDecrementIntervalMs;
+    this.maxLiveOffsetErrorUsForUnitSpeed = maxLiveOffsetErrorUsForUnitSpeed;
+    this.clock = clock;
+    defaultTargetLiveOffsetUs = C.TIME_UNSET;
+    maxLiveOffsetUs = C.TIME_UNSET;
+    lastTargetLiveOffsetChangeTimeMs = C.TIME_UNSET;
+    lastUpdateTimeMs = C.TIME_UNSET;
+    adjustedPlaybackSpeed = 1f;
+  }
+
+  @Override
+  public void setLiveConfiguration(long defaultTargetLiveOffsetUs, long maxLiveOffsetUs) {
+    this.defaultTargetLiveOffsetUs = defaultTargetLiveOffsetUs;
+    this.maxLiveOffsetUs = maxLiveOffsetUs;
+  }
+
+  @Override
+  public void notifyLiveStreamChanged() {
+    defaultTargetLiveOffsetUs = C.TIME_UNSET;
+    maxLiveOffsetUs = C.TIME_UNSET;
+    targetLiveOffsetIncrementUs = 0;
+    lastTargetLiveOffsetChangeTimeMs = C.TIME_UNSET;
+    lastUpdateTimeMs = C.TIME_UNSET;
+  }
+
+  @Override
+  public void notifyRebuffer() {
+    long maxTargetLiveOffsetIncrementUs = getMaxTargetLiveOffsetIncrementUs();
+    if (maxTargetLiveOffsetIncrementUs != C.TIME_UNSET) {
+      targetLiveOffsetIncrementUs =
+          Math.min(
+              targetLiveOffsetIncrementUs + targetLiveOffsetIncrementOnRebufferUs,
+              maxTargetLiveOffsetIncrementUs);
+    } else {
+      targetLiveOffsetIncrementUs += targetLiveOffsetIncrementOnRebufferUs;
+    }
+    // Playback is stable again once it resumed for the decrement interval.
+    lastTargetLiveOffsetChangeTimeMs = C.TIME_UNSET;
+    // Reevaluate the playback speed as soon as playback resumes.
+    lastUpdateTimeMs = C.TIME_UNSET;
+  }
+
+  @Override
+  public float getAdjustedPlaybackSpeed(long liveOffsetUs) {
+    long nowMs = clock.elapsedRealtime();
+    maybeDecrementTargetLiveOffset(nowMs);
+    long targetLiveOffsetUs = getTargetLiveOffsetUs();
+    if (targetLiveOffsetUs == C.TIME_UNSET) {
+      return 1f;
+    }
+    if (lastUpdateTimeMs != C.TIME_UNSET && nowMs - lastUpdateTimeMs < minUpdateIntervalMs) {
+      return adjustedPlaybackSpeed;
+    }
+    lastUpdateTimeMs = nowMs;
+    long liveOffsetErrorUs = liveOffsetUs - targetLiveOffsetUs;
+    if (Math.abs(liveOffsetErrorUs) <= maxLiveOffsetErrorUsForUnitSpeed) {
+      adjustedPlaybackSpeed = 1f;
+    } else {
+      float calculatedSpeed =
+          1f + proportionalControlFactor * liveOffsetErrorUs / C.MICROS_PER_SECOND;
+      adjustedPlaybackSpeed =
+          Util.constrainValue(calculatedSpeed, minPlaybackSpeed, maxPlaybackSpeed);
+    }
+    return adjustedPlaybackSpeed;
+  }
+
+  @Override
+  public long getTargetLiveOffsetUs() {
+    long baseTargetLiveOffsetUs = getBaseTargetLiveOffsetUs();
+    if (baseTargetLiveOffsetUs == C.TIME_UNSET) {
+      return C.TIME_UNSET;
+    }
+    long maxTargetLiveOffsetIncrementUs = getMaxTargetLiveOffsetIncrementUs();
+    return baseTargetLiveOffsetUs
+        + (maxTargetLiveOffsetIncrementUs != C.TIME_UNSET
+            ? Math.min(targetLiveOffsetIncrementUs, maxTargetLiveOffsetIncrementUs)
+            : targetLiveOffsetIncrementUs);
+  }
+
+  private long getBaseTargetLiveOffsetUs() {
+    return configuredTargetLiveOffsetUs != C.TIME_UNSET
+        ? configuredTargetLiveOffsetUs
+        : defaultTargetLiveOffsetUs;
+  }
+
+  /**
+   * Returns the maximum increment of the target live offset that keeps it within the maximum live
+   * offset, or {@link C#TIME_UNSET} if unknown.
+   */
+  private long getMaxTargetLiveOffsetIncrementUs() {
+    long baseTargetLiveOffsetUs = getBaseTargetLiveOffsetUs();
+    if (baseTargetLiveOffsetUs == C.TIME_UNSET || maxLiveOffsetUs == C.TIME_UNSET) {
+      return C.TIME_UNSET;
+    }
+    return Math.max(0, maxLiveOffsetUs - baseTargetLiveOffsetUs);
+  }
+
+  private void maybeDecrementTargetLiveOffset(long nowMs) {
+    if (targetLiveOffsetIncrementUs == 0) {
+      return;
+    }
+    if (lastTargetLiveOffsetChangeTimeMs == C.TIME_UNSET) {
+      // Playback resumed after a rebuffer.
+      lastTargetLiveOffsetChangeTimeMs = nowMs;
+    } else if (nowMs - lastTargetLiveOffsetChangeTimeMs >= targetLiveOffsetDecrementIntervalMs) {
+      targetLiveOffsetIncrementUs =
+          Math.max(0, targetLiveOffsetIncrementUs - targetLiveOffsetIncrementOnRebufferUs);
+      lastTargetLiveOffsetChangeTimeMs = nowMs;
+    }
+  }
+}
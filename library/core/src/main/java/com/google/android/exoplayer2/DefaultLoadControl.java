@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2;
 
+import android.util.SparseIntArray;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
@@ -99,6 +100,8 @@ public class DefaultLoadControl implements LoadControl {
     private boolean prioritizeTimeOverSizeThresholds;
     private int backBufferDurationMs;
     private boolean retainBackBufferFromKeyframe;
+    private final SparseIntArray trackTypeMinBufferMs;
+    private final SparseIntArray trackTypeTargetBufferBytes;
     private boolean createDefaultLoadControlCalled;
 
     /** Constructs a new instance. */
@@ -112,6 +115,8 @@ public class DefaultLoadControl implements LoadControl {
       prioritizeTimeOverSizeThresholds = DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS;
       backBufferDurationMs = DEFAULT_BACK_BUFFER_DURATION_MS;
       retainBackBufferFromKeyframe = DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME;
+      trackTypeMinBufferMs = new SparseIntArray();
+      trackTypeTargetBufferBytes = new SparseIntArray();
     }
 
     /**
@@ -213,6 +218,48 @@ public class DefaultLoadControl implements LoadControl {
       return this;
     }
 
+    /**
+     * Sets global buffer targets that apply while a track of the given type is selected.
+     *
+     * <p>This is a heuristic for content with a track type that needs a larger buffer. The targets
+     * are not enforced per track type. The player buffers all selected tracks together and reports
+     * a single buffered duration, which is the duration buffered for all of them, and all tracks
+     * share the same allocator.
+     *
+     * <p>While a track of the type is selected, the player will attempt to ensure that at least
+     * {@code minBufferMs} of media is buffered for all selected tracks, capped to the maximum
+     * buffer duration.
+     *
+     * <p>When the target buffer size is calculated based on the selected tracks, {@code
+     * targetBufferBytes} replaces the default contribution of tracks of the type to the global
+     * target buffer size, such as {@link #DEFAULT_VIDEO_BUFFER_SIZE} for video tracks.
+     *
+     * @param trackType The track type. One of the {@link C} {@code TRACK_TYPE_*} constants.
+     * @param minBufferMs The minimum duration of media to buffer while a track of the type is
+     *     selected, in milliseconds, or {@link C#LENGTH_UNSET} to not set a minimum for the type.
+     * @param targetBufferBytes The contribution of tracks of the type to the target buffer size,
+     *     in bytes, or {@link C#LENGTH_UNSET} to use the default contribution.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #createDefaultLoadControl()} has already been called.
+     */
+    public Builder setGlobalBufferTargetsForTrackType(
+        int trackType, int minBufferMs, int targetBufferBytes) {
+      Assertions.checkState(!createDefaultLoadControlCalled);
+      if (minBufferMs == C.LENGTH_UNSET) {
+        trackTypeMinBufferMs.delete(trackType);
+      } else {
+        assertGreaterOrEqual(minBufferMs, 0, "minBufferMs", "0");
+        trackTypeMinBufferMs.put(trackType, minBufferMs);
+      }
+      if (targetBufferBytes == C.LENGTH_UNSET) {
+        trackTypeTargetBufferBytes.delete(trackType);
+      } else {
+        assertGreaterOrEqual(targetBufferBytes, 0, "targetBufferBytes", "0");
+        trackTypeTargetBufferBytes.put(trackType, targetBufferBytes);
+      }
+      return this;
+    }
+
     /** Creates a {@link DefaultLoadControl}. */
     public DefaultLoadControl createDefaultLoadControl() {
       Assertions.checkState(!createDefaultLoadControlCalled);
@@ -230,7 +277,9 @@ public class DefaultLoadControl implements LoadControl {
           targetBufferBytes,
           prioritizeTimeOverSizeThresholds,
           backBufferDurationMs,
-          retainBackBufferFromKeyframe);
+          retainBackBufferFromKeyframe,
+          trackTypeMinBufferMs.clone(),
+          trackTypeTargetBufferBytes.clone());
     }
   }
 
@@ -245,10 +294,13 @@ public class DefaultLoadControl implements LoadControl {
   private final boolean prioritizeTimeOverSizeThresholds;
   private final long backBufferDurationUs;
   private final boolean retainBackBufferFromKeyframe;
+  private final SparseIntArray trackTypeMinBufferMs;
+  private final SparseIntArray trackTypeTargetBufferBytes;
 
   private int targetBufferSize;
   private boolean isBuffering;
   private boolean hasVideo;
+  private long trackTypeMinBufferUs;
 
   /** Constructs a new instance, using the {@code DEFAULT_*} constants defined in this class. */
   @SuppressWarnings("deprecation")
@@ -306,6 +358,34 @@ public class DefaultLoadControl implements LoadControl {
       boolean prioritizeTimeOverSizeThresholds,
       int backBufferDurationMs,
       boolean retainBackBufferFromKeyframe) {
+    this(
+        allocator,
+        minBufferAudioMs,
+        minBufferVideoMs,
+        maxBufferMs,
+        bufferForPlaybackMs,
+        bufferForPlaybackAfterRebufferMs,
+        targetBufferBytes,
+        prioritizeTimeOverSizeThresholds,
+        backBufferDurationMs,
+        retainBackBufferFromKeyframe,
+        /* trackTypeMinBufferMs= */ new SparseIntArray(),
+        /* trackTypeTargetBufferBytes= */ new SparseIntArray());
+  }
+
+  private DefaultLoadControl(
+      DefaultAllocator allocator,
+      int minBufferAudioMs,
+      int minBufferVideoMs,
+      int maxBufferMs,
+      int bufferForPlaybackMs,
+      int bufferForPlaybackAfterRebufferMs,
+      int targetBufferBytes,
+      boolean prioritizeTimeOverSizeThresholds,
+      int backBufferDurationMs,
+      boolean retainBackBufferFromKeyframe,
+      SparseIntArray trackTypeMinBufferMs,
+      SparseIntArray trackTypeTargetBufferBytes) {
     assertGreaterOrEqual(bufferForPlaybackMs, 0, "bufferForPlaybackMs", "0");
     assertGreaterOrEqual(
         bufferForPlaybackAfterRebufferMs, 0, "bufferForPlaybackAfterRebufferMs", "0");
@@ -337,6 +417,8 @@ public class DefaultLoadControl implements LoadControl {
     this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
     this.backBufferDurationUs = C.msToUs(backBufferDurationMs);
     this.retainBackBufferFromKeyframe = retainBackBufferFromKeyframe;
+    this.trackTypeMinBufferMs = trackTypeMinBufferMs;
+    this.trackTypeTargetBufferBytes = trackTypeTargetBufferBytes;
   }
 
   @Override
@@ -348,6 +430,14 @@ public class DefaultLoadControl implements LoadControl {
   public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
       TrackSelectionArray trackSelections) {
     hasVideo = hasVideo(renderers, trackSelections);
+    trackTypeMinBufferUs = 0;
+    for (int i = 0; i < renderers.length; i++) {
+      if (trackSelections.get(i) != null) {
+        int minBufferMs =
+            trackTypeMinBufferMs.get(renderers[i].getTrackType(), /* valueIfKeyNotFound= */ 0);
+        trackTypeMinBufferUs = Math.max(trackTypeMinBufferUs, C.msToUs(minBufferMs));
+      }
+    }
     targetBufferSize =
         targetBufferBytesOverwrite == C.LENGTH_UNSET
             ? calculateTargetBufferSize(renderers, trackSelections)
@@ -384,6 +474,7 @@ public class DefaultLoadControl implements LoadControl {
   public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
     boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferSize;
     long minBufferUs = hasVideo ? minBufferVideoUs : minBufferAudioUs;
+    minBufferUs = Math.min(Math.max(minBufferUs, trackTypeMinBufferUs), maxBufferUs);
     if (playbackSpeed > 1) {
       // The playback speed is faster than real time, so scale up the minimum required media
       // duration to keep enough media buffered for a playout duration of minBufferUs.
@@ -423,7 +514,13 @@ public class DefaultLoadControl implements LoadControl {
     int targetBufferSize = 0;
     for (int i = 0; i < renderers.length; i++) {
       if (trackSelectionArray.get(i) != null) {
-        targetBufferSize += getDefaultBufferSize(renderers[i].getTrackType());
+        int trackType = renderers[i].getTrackType();
+        int trackTypeTargetBufferSize =
+            trackTypeTargetBufferBytes.get(trackType, /* valueIfKeyNotFound= */ C.LENGTH_UNSET);
+        targetBufferSize +=
+            trackTypeTargetBufferSize != C.LENGTH_UNSET
+                ? trackTypeTargetBufferSize
+                : getDefaultBufferSize(trackType);
       }
     }
     return targetBufferSize;
@@ -28,6 +28,7 @@ import com.google.android.exoplayer2.audio.DefaultAudioSink;
 import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
 import com.google.android.exoplayer2.drm.DrmSessionManager;
 import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.mediacodec.MediaCodecPool;
 import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
 import com.google.android.exoplayer2.metadata.MetadataOutput;
 import com.google.android.exoplayer2.metadata.MetadataRenderer;
@@ -93,6 +94,7 @@ public class DefaultRenderersFactory implements RenderersFactory {
   private boolean playClearSamplesWithoutKeys;
   private boolean enableDecoderFallback;
   private MediaCodecSelector mediaCodecSelector;
+  @Nullable private MediaCodecPool mediaCodecPool;
 
   /** @param context A {@link Context}. */
   public DefaultRenderersFactory(Context context) {
@@ -217,6 +219,23 @@ public class DefaultRenderersFactory implements RenderersFactory {
     return this;
   }
 
+  /**
+   * Sets a {@link MediaCodecPool} used by the video renderer to reuse compatible codecs instead of
+   * creating new ones, for example when switching between playlist items. The same pool can be set
+   * on the factories of several players. The default value is null, meaning that codecs are always
+   * created and released.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param mediaCodecPool The {@link MediaCodecPool}, or null to disable codec reuse.
+   * @return This factory, for convenience.
+   */
+  public DefaultRenderersFactory experimental_setMediaCodecPool(
+      @Nullable MediaCodecPool mediaCodecPool) {
+    this.mediaCodecPool = mediaCodecPool;
+    return this;
+  }
+
   /**
    * Sets a {@link MediaCodecSelector} for use by {@link MediaCodec} based renderers.
    *
@@ -319,7 +338,7 @@ public class DefaultRenderersFactory implements RenderersFactory {
       VideoRendererEventListener eventListener,
       long allowedVideoJoiningTimeMs,
       ArrayList<Renderer> out) {
-    out.add(
+    MediaCodecVideoRenderer videoRenderer =
         new MediaCodecVideoRenderer(
             context,
             mediaCodecSelector,
@@ -329,7 +348,9 @@ public class DefaultRenderersFactory implements RenderersFactory {
             enableDecoderFallback,
             eventHandler,
             eventListener,
-            MAX_DROPPED_VIDEO_FRAME_COUNT_TO_NOTIFY));
+            MAX_DROPPED_VIDEO_FRAME_COUNT_TO_NOTIFY);
+    videoRenderer.experimental_setCodecPool(mediaCodecPool);
+    out.add(videoRenderer);
 
     if (extensionRendererMode == EXTENSION_RENDERER_MODE_OFF) {
       return;
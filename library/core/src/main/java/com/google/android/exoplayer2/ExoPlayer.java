@@ -139,6 +139,7 @@ public interface ExoPlayer extends Player {
     private LoadControl loadControl;
     private BandwidthMeter bandwidthMeter;
     private Looper looper;
+    @Nullable private Looper playbackLooper;
     private AnalyticsCollector analyticsCollector;
     private boolean useLazyPreparation;
     private boolean buildCalled;
@@ -264,6 +265,24 @@ public interface ExoPlayer extends Player {
       return this;
     }
 
+    /**
+     * Sets the {@link Looper} of a playback thread that is shared with other players. If not set,
+     * the player creates and owns a dedicated playback thread.
+     *
+     * <p>Sharing a playback thread reduces the number of threads when many players are used at the
+     * same time, for example in a feed of short videos. See {@link PlayerPool}.
+     *
+     * @param playbackLooper The {@link Looper} of the shared playback thread, or null to use a
+     *     dedicated playback thread.
+     * @return This builder.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setPlaybackLooper(@Nullable Looper playbackLooper) {
+      Assertions.checkState(!buildCalled);
+      this.playbackLooper = playbackLooper;
+      return this;
+    }
+
     /**
      * Sets the {@link AnalyticsCollector} that will collect and forward all player events.
      *
@@ -318,7 +337,7 @@ public interface ExoPlayer extends Player {
       Assertions.checkState(!buildCalled);
       buildCalled = true;
       return new ExoPlayerImpl(
-          renderers, trackSelector, loadControl, bandwidthMeter, clock, looper);
+          renderers, trackSelector, loadControl, bandwidthMeter, clock, looper, playbackLooper);
     }
   }
 
@@ -372,6 +391,44 @@ public interface ExoPlayer extends Player {
   /** Returns the currently active {@link SeekParameters} of the player. */
   SeekParameters getSeekParameters();
 
+  /**
+   * Sets whether the player is in scrubbing mode. Scrubbing mode should be enabled while the user
+   * drags a seek bar and the player is asked to seek many times in quick succession. In scrubbing
+   * mode:
+   *
+   * <ul>
+   *   <li>Seeks snap to the closest sync point, as with {@link SeekParameters#CLOSEST_SYNC}, so that
+   *       only keyframes need to be decoded.
+   *   <li>A seek to the keyframe that is currently shown does not flush the renderers.
+   * </ul>
+   *
+   * <p>The {@link SeekParameters} set with {@link #setSeekParameters(SeekParameters)} apply again
+   * once scrubbing mode is disabled. The final position should be sought after disabling scrubbing
+   * mode if an exact position is required.
+   *
+   * @param scrubbingModeEnabled Whether scrubbing mode is enabled.
+   */
+  void setScrubbingModeEnabled(boolean scrubbingModeEnabled);
+
+  /** Returns whether the player is in scrubbing mode. */
+  boolean isScrubbingModeEnabled();
+
+  /**
+   * Sets the {@link LivePlaybackSpeedControl} that adjusts the playback speed while playing live
+   * streams, to keep the playback position at a target offset from the live edge. Playback speed
+   * adjustments are reported as changes of the {@link PlaybackParameters}.
+   *
+   * <p>The playback speed is only adjusted while the speed set with {@link
+   * #setPlaybackParameters(PlaybackParameters)} is 1, for live windows whose {@link
+   * Timeline.Window#windowStartTimeMs} is known. The live offset is calculated using the wall clock
+   * time of the device. The playback speed isn't increased if the buffered duration is too short
+   * for the {@link LoadControl} to start playback at the increased speed.
+   *
+   * @param livePlaybackSpeedControl The {@link LivePlaybackSpeedControl}, or null to play live
+   *     streams at the requested playback speed. The default value is null.
+   */
+  void setLivePlaybackSpeedControl(@Nullable LivePlaybackSpeedControl livePlaybackSpeedControl);
+
   /**
    * Sets whether the player is allowed to keep holding limited resources such as video decoders,
    * even when in the idle state. By doing so, the player may be able to reduce latency when
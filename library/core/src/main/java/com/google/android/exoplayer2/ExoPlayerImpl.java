@@ -71,6 +71,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
   private boolean hasPendingPrepare;
   private boolean hasPendingSeek;
   private boolean foregroundMode;
+  private boolean scrubbingModeEnabled;
   private int pendingSetPlaybackParametersAcks;
   private PlaybackParameters playbackParameters;
   private SeekParameters seekParameters;
@@ -93,6 +94,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
    * @param clock The {@link Clock} that will be used by the instance.
    * @param looper The {@link Looper} which must be used for all calls to the player and which is
    *     used to call listeners on.
+   * @param playbackLooper The {@link Looper} of a playback thread shared with other players, or
+   *     null if the instance should create and own its playback thread.
    */
   @SuppressLint("HandlerLeak")
   public ExoPlayerImpl(
@@ -101,7 +104,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
       LoadControl loadControl,
       BandwidthMeter bandwidthMeter,
       Clock clock,
-      Looper looper) {
+      Looper looper,
+      @Nullable Looper playbackLooper) {
     Log.i(TAG, "Init " + Integer.toHexString(System.identityHashCode(this)) + " ["
         + ExoPlayerLibraryInfo.VERSION_SLASHY + "] [" + Util.DEVICE_DEBUG_INFO + "]");
     Assertions.checkState(renderers.length > 0);
@@ -139,7 +143,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
             repeatMode,
             shuffleModeEnabled,
             eventHandler,
-            clock);
+            clock,
+            playbackLooper);
     internalPlayerHandler = new Handler(internalPlayer.getPlaybackLooper());
   }
 
@@ -370,6 +375,25 @@ import java.util.concurrent.CopyOnWriteArrayList;
     return seekParameters;
   }
 
+  @Override
+  public void setScrubbingModeEnabled(boolean scrubbingModeEnabled) {
+    if (this.scrubbingModeEnabled != scrubbingModeEnabled) {
+      this.scrubbingModeEnabled = scrubbingModeEnabled;
+      internalPlayer.setScrubbingModeEnabled(scrubbingModeEnabled);
+    }
+  }
+
+  @Override
+  public boolean isScrubbingModeEnabled() {
+    return scrubbingModeEnabled;
+  }
+
+  @Override
+  public void setLivePlaybackSpeedControl(
+      @Nullable LivePlaybackSpeedControl livePlaybackSpeedControl) {
+    internalPlayer.setLivePlaybackSpeedControl(livePlaybackSpeedControl);
+  }
+
   @Override
   public void setForegroundMode(boolean foregroundMode) {
     if (this.foregroundMode != foregroundMode) {
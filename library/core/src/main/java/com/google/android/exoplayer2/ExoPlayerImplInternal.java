@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Implements the internal behavior of {@link ExoPlayerImpl}. */
 /* package */ final class ExoPlayerImplInternal
@@ -81,6 +82,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
   private static final int MSG_SEND_MESSAGE = 15;
   private static final int MSG_SEND_MESSAGE_TO_TARGET_THREAD = 16;
   private static final int MSG_PLAYBACK_PARAMETERS_CHANGED_INTERNAL = 17;
+  private static final int MSG_SET_SCRUBBING_MODE_ENABLED = 18;
+  private static final int MSG_SET_LIVE_PLAYBACK_SPEED_CONTROL = 19;
 
   private static final int ACTIVE_INTERVAL_MS = 10;
   private static final int IDLE_INTERVAL_MS = 1000;
@@ -92,17 +95,18 @@ import java.util.concurrent.atomic.AtomicBoolean;
   private final LoadControl loadControl;
   private final BandwidthMeter bandwidthMeter;
   private final HandlerWrapper handler;
-  private final HandlerThread internalPlaybackThread;
+  @Nullable private final HandlerThread internalPlaybackThread;
+  private final Looper playbackLooper;
   private final Handler eventHandler;
   private final Timeline.Window window;
   private final Timeline.Period period;
-  private final long backBufferDurationUs;
   private final boolean retainBackBufferFromKeyframe;
   private final DefaultMediaClock mediaClock;
   private final PlaybackInfoUpdate playbackInfoUpdate;
   private final ArrayList<PendingMessageInfo> pendingMessages;
   private final Clock clock;
   private final MediaPeriodQueue queue;
+  private final AtomicInteger pendingSeekCount;
 
   @SuppressWarnings("unused")
   private SeekParameters seekParameters;
@@ -116,6 +120,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
   @Player.RepeatMode private int repeatMode;
   private boolean shuffleModeEnabled;
   private boolean foregroundMode;
+  private boolean scrubbingModeEnabled;
+  @Nullable private LivePlaybackSpeedControl livePlaybackSpeedControl;
+  private PlaybackParameters requestedPlaybackParameters;
+  private float livePlaybackSpeed;
+  private int livePlaybackWindowIndex;
+  @Nullable private Timeline liveConfigurationTimeline;
 
   private int pendingPrepareCount;
   private SeekPosition pendingInitialSeekPosition;
@@ -132,7 +142,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
       @Player.RepeatMode int repeatMode,
       boolean shuffleModeEnabled,
       Handler eventHandler,
-      Clock clock) {
+      Clock clock,
+      @Nullable Looper playbackLooper) {
     this.renderers = renderers;
     this.trackSelector = trackSelector;
     this.emptyTrackSelectorResult = emptyTrackSelectorResult;
@@ -144,11 +155,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
     this.eventHandler = eventHandler;
     this.clock = clock;
     this.queue = new MediaPeriodQueue();
+    pendingSeekCount = new AtomicInteger();
 
-    backBufferDurationUs = loadControl.getBackBufferDurationUs();
     retainBackBufferFromKeyframe = loadControl.retainBackBufferFromKeyframe();
 
     seekParameters = SeekParameters.DEFAULT;
+    requestedPlaybackParameters = PlaybackParameters.DEFAULT;
+    livePlaybackSpeed = 1f;
+    livePlaybackWindowIndex = C.INDEX_UNSET;
     playbackInfo =
         PlaybackInfo.createDummy(/* startPositionUs= */ C.TIME_UNSET, emptyTrackSelectorResult);
     playbackInfoUpdate = new PlaybackInfoUpdate();
@@ -164,12 +178,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
     period = new Timeline.Period();
     trackSelector.init(/* listener= */ this, bandwidthMeter);
 
-    // Note: The documentation for Process.THREAD_PRIORITY_AUDIO that states "Applications can
-    // not normally change to this priority" is incorrect.
-    internalPlaybackThread = new HandlerThread("ExoPlayerImplInternal:Handler",
-        Process.THREAD_PRIORITY_AUDIO);
-    internalPlaybackThread.start();
-    handler = clock.createHandler(internalPlaybackThread.getLooper(), this);
+    if (playbackLooper != null) {
+      // The playback thread is shared with other players and is not owned by this instance.
+      internalPlaybackThread = null;
+      this.playbackLooper = playbackLooper;
+    } else {
+      // Note: The documentation for Process.THREAD_PRIORITY_AUDIO that states "Applications can
+      // not normally change to this priority" is incorrect.
+      internalPlaybackThread =
+          new HandlerThread("ExoPlayerImplInternal:Handler", Process.THREAD_PRIORITY_AUDIO);
+      internalPlaybackThread.start();
+      this.playbackLooper = internalPlaybackThread.getLooper();
+    }
+    handler = clock.createHandler(this.playbackLooper, this);
   }
 
   public void prepare(MediaSource mediaSource, boolean resetPosition, boolean resetState) {
@@ -191,6 +212,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
   }
 
   public void seekTo(Timeline timeline, int windowIndex, long positionUs) {
+    pendingSeekCount.incrementAndGet();
     handler.obtainMessage(MSG_SEEK_TO, new SeekPosition(timeline, windowIndex, positionUs))
         .sendToTarget();
   }
@@ -203,6 +225,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
     handler.obtainMessage(MSG_SET_SEEK_PARAMETERS, seekParameters).sendToTarget();
   }
 
+  public void setScrubbingModeEnabled(boolean scrubbingModeEnabled) {
+    handler
+        .obtainMessage(MSG_SET_SCRUBBING_MODE_ENABLED, scrubbingModeEnabled ? 1 : 0, 0)
+        .sendToTarget();
+  }
+
+  public void setLivePlaybackSpeedControl(
+      @Nullable LivePlaybackSpeedControl livePlaybackSpeedControl) {
+    handler
+        .obtainMessage(MSG_SET_LIVE_PLAYBACK_SPEED_CONTROL, livePlaybackSpeedControl)
+        .sendToTarget();
+  }
+
   public void stop(boolean reset) {
     handler.obtainMessage(MSG_STOP, reset ? 1 : 0, 0).sendToTarget();
   }
@@ -260,7 +295,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
   }
 
   public Looper getPlaybackLooper() {
-    return internalPlaybackThread.getLooper();
+    return playbackLooper;
   }
 
   // MediaSource.MediaSourceCaller implementation.
@@ -331,6 +366,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
         case MSG_SET_SEEK_PARAMETERS:
           setSeekParametersInternal((SeekParameters) msg.obj);
           break;
+        case MSG_SET_SCRUBBING_MODE_ENABLED:
+          scrubbingModeEnabled = msg.arg1 != 0;
+          break;
+        case MSG_SET_LIVE_PLAYBACK_SPEED_CONTROL:
+          setLivePlaybackSpeedControlInternal((LivePlaybackSpeedControl) msg.obj);
+          break;
         case MSG_SET_FOREGROUND_MODE:
           setForegroundModeInternal(
               /* foregroundMode= */ msg.arg1 != 0, /* processedFlag= */ (AtomicBoolean) msg.obj);
@@ -442,6 +483,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
         /* resetError= */ true);
     loadControl.onPrepared();
     this.mediaSource = mediaSource;
+    livePlaybackWindowIndex = C.INDEX_UNSET;
     setState(Player.STATE_BUFFERING);
     mediaSource.prepareSource(/* caller= */ this, bandwidthMeter.getTransferListener());
     handler.sendEmptyMessage(MSG_DO_SOME_WORK);
@@ -574,7 +616,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
     if (playingPeriodHolder.prepared) {
       long rendererPositionElapsedRealtimeUs = SystemClock.elapsedRealtime() * 1000;
       playingPeriodHolder.mediaPeriod.discardBuffer(
-          playbackInfo.positionUs - backBufferDurationUs, retainBackBufferFromKeyframe);
+          playbackInfo.positionUs - loadControl.getBackBufferDurationUs(),
+          retainBackBufferFromKeyframe);
       for (int i = 0; i < renderers.length; i++) {
         Renderer renderer = renderers[i];
         if (renderer.getState() == Renderer.STATE_DISABLED) {
@@ -625,6 +668,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
       rebuffering = playWhenReady;
       setState(Player.STATE_BUFFERING);
       stopRenderers();
+      if (rebuffering && livePlaybackSpeedControl != null && isPlayingLiveWindow()) {
+        livePlaybackSpeedControl.notifyRebuffer();
+      }
+    }
+
+    if (playWhenReady && playbackInfo.playbackState == Player.STATE_READY) {
+      maybeUpdateLivePlaybackSpeed();
     }
 
     if (playbackInfo.playbackState == Player.STATE_BUFFERING) {
@@ -652,6 +702,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
   private void seekToInternal(SeekPosition seekPosition) throws ExoPlaybackException {
     playbackInfoUpdate.incrementPendingOperationAcks(/* operationAcks= */ 1);
+    if (pendingSeekCount.decrementAndGet() > 0) {
+      // A newer seek is pending. Skip this one to avoid preparing periods and starting loads for a
+      // position that is about to be superseded. The newer seek cancels loads for the current one.
+      return;
+    }
 
     MediaPeriodId periodId;
     long periodPositionUs;
@@ -703,7 +758,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
               && newPeriodPositionUs != 0) {
             newPeriodPositionUs =
                 playingPeriodHolder.mediaPeriod.getAdjustedSeekPositionUs(
-                    newPeriodPositionUs, seekParameters);
+                    newPeriodPositionUs,
+                    scrubbingModeEnabled ? SeekParameters.CLOSEST_SYNC : seekParameters);
           }
           if (C.usToMs(newPeriodPositionUs) == C.usToMs(playbackInfo.positionUs)) {
             // Seek will be performed to the current position. Do nothing.
@@ -772,7 +828,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
       if (newPlayingPeriodHolder.hasEnabledTracks) {
         periodPositionUs = newPlayingPeriodHolder.mediaPeriod.seekToUs(periodPositionUs);
         newPlayingPeriodHolder.mediaPeriod.discardBuffer(
-            periodPositionUs - backBufferDurationUs, retainBackBufferFromKeyframe);
+            periodPositionUs - loadControl.getBackBufferDurationUs(), retainBackBufferFromKeyframe);
       }
       resetRendererPosition(periodPositionUs);
       maybeContinueLoading();
@@ -803,11 +859,90 @@ import java.util.concurrent.atomic.AtomicBoolean;
   }
 
   private void setPlaybackParametersInternal(PlaybackParameters playbackParameters) {
+    requestedPlaybackParameters = playbackParameters;
+    livePlaybackSpeed = 1f;
     mediaClock.setPlaybackParameters(playbackParameters);
     sendPlaybackParametersChangedInternal(
         mediaClock.getPlaybackParameters(), /* acknowledgeCommand= */ true);
   }
 
+  private void setLivePlaybackSpeedControlInternal(
+      @Nullable LivePlaybackSpeedControl livePlaybackSpeedControl) {
+    this.livePlaybackSpeedControl = livePlaybackSpeedControl;
+    livePlaybackWindowIndex = C.INDEX_UNSET;
+    if (livePlaybackSpeedControl == null) {
+      setLivePlaybackSpeed(1f);
+    }
+  }
+
+  private void maybeUpdateLivePlaybackSpeed() {
+    if (livePlaybackSpeedControl == null) {
+      return;
+    }
+    float speed = 1f;
+    // Only adjust the speed if the application hasn't changed it.
+    if (requestedPlaybackParameters.speed == 1f && isPlayingLiveWindow()) {
+      if (period.windowIndex != livePlaybackWindowIndex) {
+        livePlaybackWindowIndex = period.windowIndex;
+        livePlaybackSpeedControl.notifyLiveStreamChanged();
+        liveConfigurationTimeline = null;
+      }
+      long windowStartLiveOffsetUs =
+          C.msToUs(System.currentTimeMillis() - window.windowStartTimeMs);
+      if (playbackInfo.timeline != liveConfigurationTimeline) {
+        // Live offsets are measured from now rather than from the end of the window, which may lag
+        // behind the live edge. So they're derived from the window start when the timeline updates.
+        liveConfigurationTimeline = playbackInfo.timeline;
+        livePlaybackSpeedControl.setLiveConfiguration(
+            /* defaultTargetLiveOffsetUs= */ window.defaultPositionUs != C.TIME_UNSET
+                ? windowStartLiveOffsetUs - window.defaultPositionUs
+                : C.TIME_UNSET,
+            /* maxLiveOffsetUs= */ windowStartLiveOffsetUs);
+      }
+      long positionInWindowUs = playbackInfo.positionUs + period.getPositionInWindowUs();
+      long liveOffsetUs = windowStartLiveOffsetUs - positionInWindowUs;
+      speed = livePlaybackSpeedControl.getAdjustedPlaybackSpeed(liveOffsetUs);
+      if (speed > 1f
+          && !loadControl.shouldStartPlayback(
+              getTotalBufferedDurationUs(), speed, /* rebuffering= */ false)) {
+        // Catching up would drain the buffer below what the load control needs to play at the
+        // faster speed, so play at normal speed rather than risk a rebuffer.
+        speed = 1f;
+      }
+    }
+    setLivePlaybackSpeed(speed);
+  }
+
+  private void setLivePlaybackSpeed(float speed) {
+    if (livePlaybackSpeed == speed) {
+      return;
+    }
+    livePlaybackSpeed = speed;
+    // Audio renderers time-stretch the audio to keep its pitch at the adjusted speed.
+    mediaClock.setPlaybackParameters(
+        speed == 1f
+            ? requestedPlaybackParameters
+            : new PlaybackParameters(
+                speed, requestedPlaybackParameters.pitch, requestedPlaybackParameters.skipSilence));
+    sendPlaybackParametersChangedInternal(
+        mediaClock.getPlaybackParameters(), /* acknowledgeCommand= */ false);
+  }
+
+  /**
+   * Returns whether the playing period belongs to a live window whose start time is known. If so,
+   * {@link #window} and {@link #period} are populated with the window and the playing period.
+   */
+  private boolean isPlayingLiveWindow() {
+    Timeline timeline = playbackInfo.timeline;
+    MediaPeriodId periodId = playbackInfo.periodId;
+    if (timeline.isEmpty() || periodId.isAd()) {
+      return false;
+    }
+    timeline.getPeriodByUid(periodId.periodUid, period);
+    timeline.getWindow(period.windowIndex, window);
+    return window.isDynamic && window.windowStartTimeMs != C.TIME_UNSET;
+  }
+
   private void setSeekParametersInternal(SeekParameters seekParameters) {
     this.seekParameters = seekParameters;
   }
@@ -856,7 +991,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
         /* resetError= */ false);
     loadControl.onReleased();
     setState(Player.STATE_IDLE);
-    internalPlaybackThread.quit();
+    if (internalPlaybackThread != null) {
+      internalPlaybackThread.quit();
+    } else {
+      // The shared playback thread keeps running, so drop any messages still pending for this
+      // instance.
+      handler.removeCallbacksAndMessages(/* token= */ null);
+    }
     synchronized (this) {
       released = true;
       notifyAll();
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+/**
+ * Controls the playback speed while playing live streams, in order to keep the live offset close to
+ * a target live offset.
+ *
+ * <p>The live offset is the duration between the current wall clock time and the wall clock time
+ * of the playback position. All methods are called on the playback thread.
+ */
+public interface LivePlaybackSpeedControl {
+
+  /**
+   * Sets the live configuration defined by the media.
+   *
+   * @param defaultTargetLiveOffsetUs The target live offset defined by the media, which is the live
+   *     offset of the default position of the live window, in microseconds, or {@link C#TIME_UNSET}
+   *     if unknown.
+   * @param maxLiveOffsetUs The maximum live offset defined by the media, which is the live offset
+   *     of the start of the live window, in microseconds, or {@link C#TIME_UNSET} if unknown.
+   */
+  void setLiveConfiguration(long defaultTargetLiveOffsetUs, long maxLiveOffsetUs);
+
+  /**
+   * Called by the player when it starts playing a different live stream. Adjustments of the target
+   * live offset made for the previous live stream should be discarded.
+   */
+  void notifyLiveStreamChanged();
+
+  /** Called by the player when playback of a live stream stalls because the buffer ran out. */
+  void notifyRebuffer();
+
+  /**
+   * Returns the adjusted playback speed for the current live offset.
+   *
+   * @param liveOffsetUs The current live offset, in microseconds.
+   * @return The adjusted playback speed.
+   */
+  float getAdjustedPlaybackSpeed(long liveOffsetUs);
+
+  /**
+   * Returns the current target live offset, in microseconds, or {@link C#TIME_UNSET} if no target
+   * live offset is defined.
+   */
+  long getTargetLiveOffsetUs();
+}
@@ -62,8 +62,9 @@ public interface LoadControl {
    * Note: If {@link #retainBackBufferFromKeyframe()} is false then seeking in the back-buffer will
    * only be fast if the back-buffer contains a keyframe prior to the seek position.
    * <p>
-   * Note: Implementations should return a single value. Dynamic changes to the back-buffer are not
-   * currently supported.
+   * The player queries this value each time it discards media from the back-buffer, so it may
+   * change during playback, for example to release memory. Media that has already been discarded
+   * is not reloaded if the value increases.
    *
    * @return The duration of media to retain in the buffer prior to the current playback position,
    *     in microseconds.
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+
+/**
+ * A {@link LoadControl} that wraps another {@link LoadControl} and reduces the memory used for
+ * buffering when the system is low on memory.
+ *
+ * <p>Memory pressure is signalled through {@link #onTrimMemory(int)} and {@link #onLowMemory()}.
+ * The instance can be registered with {@link
+ * android.content.Context#registerComponentCallbacks(android.content.ComponentCallbacks)} to
+ * receive the signals from the system. When memory pressure is signalled:
+ *
+ * <ul>
+ *   <li>The buffer is capped to a fraction of the memory allocated at the time of the signal,
+ *       depending on the severity of the memory pressure. Loading continues beyond the cap only
+ *       while less than the minimum buffer duration is buffered, so that playback can continue.
+ *   <li>If the allocator is a {@link DefaultAllocator}, its target buffer size is reduced to the
+ *       cap and unused allocations are released. The original target buffer size is restored when
+ *       the cap is removed.
+ *   <li>No back-buffer is retained.
+ * </ul>
+ *
+ * <p>Allocations are released as the buffered media is played out. When no memory pressure has
+ * been signalled for a recovery interval, the cap is doubled. This repeats until the cap reaches
+ * the memory that was allocated when the pressure was first signalled, at which point it's
+ * removed.
+ */
+public final class MemoryPressureLoadControl implements LoadControl, ComponentCallbacks2 {
+
+  /**
+   * The default minimum duration of media that's buffered regardless of memory pressure, in
+   * milliseconds.
+   */
+  public static final int DEFAULT_MIN_BUFFER_MS =
+      DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
+
+  /**
+   * The default duration without memory pressure after which the buffer cap is doubled, in
+   * milliseconds.
+   */
+  public static final int DEFAULT_RECOVERY_INTERVAL_MS = 10_000;
+
+  /** The fraction of the allocated memory retained under moderate memory pressure. */
+  private static final float MODERATE_PRESSURE_BUFFER_FRACTION = 0.5f;
+  /** The fraction of the allocated memory retained under low memory conditions. */
+  private static final float LOW_MEMORY_BUFFER_FRACTION = 0.25f;
+
+  private final LoadControl loadControl;
+  private final long minBufferUs;
+  private final long recoveryIntervalMs;
+  private final Clock clock;
+
+  private int targetBufferBytesCap;
+  private int targetBufferBytesBeforePressure;
+  private int allocatorTargetBufferSizeBeforePressure;
+  private long lastCapUpdateTimeMs;
+
+  /**
+   * Creates an instance using {@link #DEFAULT_MIN_BUFFER_MS} and {@link
+   * #DEFAULT_RECOVERY_INTERVAL_MS}.
+   *
+   * @param loadControl The wrapped {@link LoadControl}.
+   */
+  public MemoryPressureLoadControl(LoadControl loadControl) {
+    this(loadControl, DEFAULT_MIN_BUFFER_MS, DEFAULT_RECOVERY_INTERVAL_MS, Clock.DEFAULT);
+  }
+
+  /**
+   * @param loadControl The wrapped {@link LoadControl}.
+   * @param minBufferMs The minimum duration of media that's buffered regardless of memory
+   *     pressure, in milliseconds.
+   * @param recoveryIntervalMs The duration without memory pressure after which the buffer cap is
+   *     doubled, in milliseconds.
+   * @param clock The {@link Clock} used to measure the recovery interval.
+   */
+  public MemoryPressureLoadControl(
+      LoadControl loadControl, int minBufferMs, int recoveryIntervalMs, Clock clock) {
+    Assertions.checkArgument(minBufferMs >= 0 && recoveryIntervalMs >= 0);
+    this.loadControl = loadControl;
+    this.minBufferUs = C.msToUs(minBufferMs);
+    this.recoveryIntervalMs = recoveryIntervalMs;
+    this.clock = clock;
+    targetBufferBytesCap = C.LENGTH_UNSET;
+  }
+
+  /**
+   * Returns the current cap on the memory used for buffering in bytes, or {@link C#LENGTH_UNSET}
+   * if there's no cap.
+   */
+  public synchronized int getTargetBufferBytesCap() {
+    return targetBufferBytesCap;
+  }
+
+  // ComponentCallbacks2 implementation.
+
+  @Override
+  public void onTrimMemory(int level) {
+    switch (level) {
+      case TRIM_MEMORY_RUNNING_MODERATE:
+        onMemoryPressure(MODERATE_PRESSURE_BUFFER_FRACTION);
+        break;
+      case TRIM_MEMORY_RUNNING_LOW:
+      case TRIM_MEMORY_BACKGROUND:
+        onMemoryPressure(LOW_MEMORY_BUFFER_FRACTION);
+        break;
+      case TRIM_MEMORY_RUNNING_CRITICAL:
+      case TRIM_MEMORY_MODERATE:
+      case TRIM_MEMORY_COMPLETE:
+        onMemoryPressure(/* bufferFraction= */ 0);
+        break;
+      default:
+        // Not a memory pressure signal (e.g. TRIM_MEMORY_UI_HIDDEN).
+        break;
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    onMemoryPressure(/* bufferFraction= */ 0);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
+    // Do nothing.
+  }
+
+  // LoadControl implementation.
+
+  @Override
+  public void onPrepared() {
+    loadControl.onPrepared();
+  }
+
+  @Override
+  public void onTracksSelected(
+      Renderer[] renderers, TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+    loadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+    synchronized (this) {
+      if (targetBufferBytesCap != C.LENGTH_UNSET) {
+        // The wrapped load control may have set a new target buffer size, which applies once the
+        // cap is removed.
+        allocatorTargetBufferSizeBeforePressure = getAllocatorTargetBufferSize();
+        updateAllocatorTargetBufferSize();
+      }
+    }
+  }
+
+  @Override
+  public void onStopped() {
+    loadControl.onStopped();
+  }
+
+  @Override
+  public void onReleased() {
+    loadControl.onReleased();
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return loadControl.getAllocator();
+  }
+
+  @Override
+  public synchronized long getBackBufferDurationUs() {
+    return targetBufferBytesCap != C.LENGTH_UNSET ? 0 : loadControl.getBackBufferDurationUs();
+  }
+
+  @Override
+  public boolean retainBackBufferFromKeyframe() {
+    return loadControl.retainBackBufferFromKeyframe();
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+    boolean shouldContinueLoading =
+        loadControl.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+    synchronized (this) {
+      maybeRelaxCap();
+      if (targetBufferBytesCap == C.LENGTH_UNSET || bufferedDurationUs < minBufferUs) {
+        return shouldContinueLoading;
+      }
+      return shouldContinueLoading
+          && getAllocator().getTotalBytesAllocated() < targetBufferBytesCap;
+    }
+  }
+
+  @Override
+  public boolean shouldStartPlayback(
+      long bufferedDurationUs, float playbackSpeed, boolean rebuffering) {
+    return loadControl.shouldStartPlayback(bufferedDurationUs, playbackSpeed, rebuffering);
+  }
+
+  // Internal methods.
+
+  private synchronized void onMemoryPressure(float bufferFraction) {
+    int totalBytesAllocated = getAllocator().getTotalBytesAllocated();
+    int cap = (int) (totalBytesAllocated * bufferFraction);
+    lastCapUpdateTimeMs = clock.elapsedRealtime();
+    if (targetBufferBytesCap == C.LENGTH_UNSET) {
+      targetBufferBytesBeforePressure = totalBytesAllocated;
+      allocatorTargetBufferSizeBeforePressure = getAllocatorTargetBufferSize();
+    } else if (cap >= targetBufferBytesCap) {
+      // The allocator has already been trimmed to the current cap.
+      return;
+    }
+    targetBufferBytesCap = cap;
+    updateAllocatorTargetBufferSize();
+  }
+
+  private void maybeRelaxCap() {
+    if (targetBufferBytesCap == C.LENGTH_UNSET) {
+      return;
+    }
+    long nowMs = clock.elapsedRealtime();
+    if (nowMs - lastCapUpdateTimeMs < recoveryIntervalMs) {
+      return;
+    }
+    lastCapUpdateTimeMs = nowMs;
+    // Grow back gradually. A zero cap grows from the size of a single allocation.
+    int allocationLength = getAllocator().getIndividualAllocationLength();
+    targetBufferBytesCap = Math.max(2 * targetBufferBytesCap, allocationLength);
+    if (targetBufferBytesCap >= targetBufferBytesBeforePressure) {
+      targetBufferBytesCap = C.LENGTH_UNSET;
+    }
+    updateAllocatorTargetBufferSize();
+  }
+
+  private int getAllocatorTargetBufferSize() {
+    Allocator allocator = getAllocator();
+    return allocator instanceof DefaultAllocator
+        ? ((DefaultAllocator) allocator).getTargetBufferSize()
+        : C.LENGTH_UNSET;
+  }
+
+  private void updateAllocatorTargetBufferSize() {
+    Allocator allocator = getAllocator();
+    if (!(allocator instanceof DefaultAllocator)) {
+      return;
+    }
+    // Lowering the target buffer size releases unused allocations beyond the target.
+    ((DefaultAllocator) allocator)
+        .setTargetBufferSize(
+            targetBufferBytesCap == C.LENGTH_UNSET
+                ? allocatorTargetBufferSizeBeforePressure
+                : Math.min(targetBufferBytesCap, allocatorTargetBufferSizeBeforePressure));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.Assertions;
+import java.util.ArrayList;
+
+/**
+ * Resources shared by a group of players that are used at the same time, for example in a
+ * scrolling feed of short videos.
+ *
+ * <p>Players in a pool share a single playback thread and a single {@link DefaultAllocator}, whose
+ * total size is bounded by a memory budget for the whole pool. Each player must use its own {@link
+ * PooledLoadControl} obtained from {@link #createLoadControl()}:
+ *
+ * <pre>{@code
+ * PooledLoadControl loadControl = playerPool.createLoadControl();
+ * SimpleExoPlayer player =
+ *     new SimpleExoPlayer.Builder(context)
+ *         .setPlaybackLooper(playerPool.getPlaybackLooper())
+ *         .setLoadControl(loadControl)
+ *         .build();
+ * }</pre>
+ *
+ * <p>Load controls have a priority. Players whose load control has the highest priority in the pool
+ * (typically the visible player) may fill the whole memory budget. All other players only buffer up
+ * to a short duration and a smaller share of the budget, so that the player with the highest
+ * priority gets loading bandwidth and memory first.
+ *
+ * <p>Players created with the default {@link SimpleExoPlayer.Builder} configuration already share
+ * the singleton {@link com.google.android.exoplayer2.upstream.DefaultBandwidthMeter}.
+ */
+public final class PlayerPool {
+
+  /** The default memory budget of the pool, in bytes. */
+  public static final int DEFAULT_TOTAL_BUFFER_BYTES =
+      2 * DefaultLoadControl.DEFAULT_VIDEO_BUFFER_SIZE;
+
+  /** The default share of the memory budget that players without the highest priority may use. */
+  public static final int DEFAULT_BACKGROUND_BUFFER_BYTES =
+      DefaultLoadControl.DEFAULT_VIDEO_BUFFER_SIZE / 2;
+
+  /**
+   * The default duration of media that players without the highest priority buffer, in
+   * milliseconds.
+   */
+  public static final int DEFAULT_BACKGROUND_BUFFER_MS =
+      DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
+
+  private final HandlerThread playbackThread;
+  private final DefaultAllocator allocator;
+  private final int totalBufferBytes;
+  private final int backgroundBufferBytes;
+  private final long backgroundBufferUs;
+  private final ArrayList<PooledLoadControl> loadControls;
+
+  private boolean released;
+
+  /** Creates an instance using the {@code DEFAULT_*} constants defined in this class. */
+  public PlayerPool() {
+    this(DEFAULT_TOTAL_BUFFER_BYTES, DEFAULT_BACKGROUND_BUFFER_BYTES, DEFAULT_BACKGROUND_BUFFER_MS);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param totalBufferBytes The memory budget of the pool, in bytes.
+   * @param backgroundBufferBytes The share of the memory budget that players without the highest
+   *     priority may use, in bytes.
+   * @param backgroundBufferMs The duration of media that players without the highest priority
+   *     buffer, in milliseconds.
+   */
+  public PlayerPool(int totalBufferBytes, int backgroundBufferBytes, int backgroundBufferMs) {
+    Assertions.checkArgument(totalBufferBytes > 0);
+    Assertions.checkArgument(
+        backgroundBufferBytes >= 0 && backgroundBufferBytes <= totalBufferBytes);
+    Assertions.checkArgument(backgroundBufferMs >= 0);
+    this.totalBufferBytes = totalBufferBytes;
+    this.backgroundBufferBytes = backgroundBufferBytes;
+    this.backgroundBufferUs = C.msToUs(backgroundBufferMs);
+    allocator = new DefaultAllocator(/* trimOnReset= */ false, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    loadControls = new ArrayList<>();
+    playbackThread = new HandlerThread("PlayerPool:Handler", Process.THREAD_PRIORITY_AUDIO);
+    playbackThread.start();
+  }
+
+  /**
+   * Returns the {@link Looper} of the shared playback thread, to be passed to {@link
+   * SimpleExoPlayer.Builder#setPlaybackLooper(Looper)} or {@link
+   * ExoPlayer.Builder#setPlaybackLooper(Looper)}.
+   */
+  public Looper getPlaybackLooper() {
+    return playbackThread.getLooper();
+  }
+
+  /** Returns the {@link DefaultAllocator} shared by all players in the pool. */
+  public DefaultAllocator getAllocator() {
+    return allocator;
+  }
+
+  /**
+   * Creates a {@link PooledLoadControl} for a new player in the pool. The load control has priority
+   * {@link C#PRIORITY_PLAYBACK} until {@link PooledLoadControl#setPriority(int)} is called.
+   *
+   * @throws IllegalStateException If the pool has been released.
+   */
+  public synchronized PooledLoadControl createLoadControl() {
+    Assertions.checkState(!released);
+    PooledLoadControl loadControl = new PooledLoadControl();
+    loadControls.add(loadControl);
+    return loadControl;
+  }
+
+  /**
+   * Releases the pool. Must only be called once all players in the pool have been released.
+   *
+   * @throws IllegalStateException If a player in the pool has not been released.
+   */
+  public synchronized void release() {
+    if (released) {
+      return;
+    }
+    Assertions.checkState(loadControls.isEmpty());
+    released = true;
+    playbackThread.quit();
+    allocator.setTargetBufferSize(0);
+  }
+
+  private synchronized boolean hasHighestPriority(PooledLoadControl loadControl) {
+    int priority = loadControl.priority;
+    for (int i = 0; i < loadControls.size(); i++) {
+      if (loadControls.get(i).priority > priority) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized void onLoadControlReleased(PooledLoadControl loadControl) {
+    loadControls.remove(loadControl);
+    if (loadControls.isEmpty()) {
+      // Free the cached allocations while no player is using the pool.
+      allocator.setTargetBufferSize(0);
+    }
+  }
+
+  /** A {@link LoadControl} for a player in a {@link PlayerPool}. */
+  public final class PooledLoadControl extends DefaultLoadControl {
+
+    private volatile int priority;
+
+    private PooledLoadControl() {
+      super(
+          allocator,
+          /* minBufferAudioMs= */ DEFAULT_MIN_BUFFER_MS,
+          /* minBufferVideoMs= */ DEFAULT_MAX_BUFFER_MS,
+          DEFAULT_MAX_BUFFER_MS,
+          DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+          DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+          totalBufferBytes,
+          DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS,
+          DEFAULT_BACK_BUFFER_DURATION_MS,
+          DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
+      priority = C.PRIORITY_PLAYBACK;
+    }
+
+    /**
+     * Sets the loading priority of the player. Larger values indicate higher priorities. The
+     * visible player should typically be given the highest priority in the pool.
+     *
+     * @param priority The loading priority.
+     */
+    public void setPriority(int priority) {
+      this.priority = priority;
+    }
+
+    /** Returns the loading priority of the player. */
+    public int getPriority() {
+      return priority;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+      boolean shouldContinueLoading =
+          super.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+      if (!shouldContinueLoading || hasHighestPriority(this)) {
+        return shouldContinueLoading;
+      }
+      return bufferedDurationUs < backgroundBufferUs
+          && allocator.getTotalBytesAllocated() < backgroundBufferBytes;
+    }
+
+    @Override
+    public void onReleased() {
+      super.onReleased();
+      onLoadControlReleased(this);
+    }
+  }
+}
@@ -95,6 +95,7 @@ public class SimpleExoPlayer extends BasePlayer
     private BandwidthMeter bandwidthMeter;
     private AnalyticsCollector analyticsCollector;
     private Looper looper;
+    @Nullable private Looper playbackLooper;
     private boolean useLazyPreparation;
     private boolean buildCalled;
 
@@ -240,6 +241,24 @@ public class SimpleExoPlayer extends BasePlayer
       return this;
     }
 
+    /**
+     * Sets the {@link Looper} of a playback thread that is shared with other players. If not set,
+     * the player creates and owns a dedicated playback thread.
+     *
+     * <p>Sharing a playback thread reduces the number of threads when many players are used at the
+     * same time, for example in a feed of short videos. See {@link PlayerPool}.
+     *
+     * @param playbackLooper The {@link Looper} of the shared playback thread, or null to use a
+     *     dedicated playback thread.
+     * @return This builder.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setPlaybackLooper(@Nullable Looper playbackLooper) {
+      Assertions.checkState(!buildCalled);
+      this.playbackLooper = playbackLooper;
+      return this;
+    }
+
     /**
      * Sets the {@link AnalyticsCollector} that will collect and forward all player events.
      *
@@ -301,7 +320,8 @@ public class SimpleExoPlayer extends BasePlayer
           bandwidthMeter,
           analyticsCollector,
           clock,
-          looper);
+          looper,
+          playbackLooper);
     }
   }
 
@@ -370,6 +390,44 @@ public class SimpleExoPlayer extends BasePlayer
       AnalyticsCollector analyticsCollector,
       Clock clock,
       Looper looper) {
+    this(
+        context,
+        renderersFactory,
+        trackSelector,
+        loadControl,
+        bandwidthMeter,
+        analyticsCollector,
+        clock,
+        looper,
+        /* playbackLooper= */ null);
+  }
+
+  /**
+   * @param context A {@link Context}.
+   * @param renderersFactory A factory for creating {@link Renderer}s to be used by the instance.
+   * @param trackSelector The {@link TrackSelector} that will be used by the instance.
+   * @param loadControl The {@link LoadControl} that will be used by the instance.
+   * @param bandwidthMeter The {@link BandwidthMeter} that will be used by the instance.
+   * @param analyticsCollector A factory for creating the {@link AnalyticsCollector} that will
+   *     collect and forward all player events.
+   * @param clock The {@link Clock} that will be used by the instance. Should always be {@link
+   *     Clock#DEFAULT}, unless the player is being used from a test.
+   * @param looper The {@link Looper} which must be used for all calls to the player and which is
+   *     used to call listeners on.
+   * @param playbackLooper The {@link Looper} of a playback thread shared with other players, or
+   *     null if the instance should create and own its playback thread.
+   */
+  @SuppressWarnings("deprecation")
+  protected SimpleExoPlayer(
+      Context context,
+      RenderersFactory renderersFactory,
+      TrackSelector trackSelector,
+      LoadControl loadControl,
+      BandwidthMeter bandwidthMeter,
+      AnalyticsCollector analyticsCollector,
+      Clock clock,
+      Looper looper,
+      @Nullable Looper playbackLooper) {
     this(
         context,
         renderersFactory,
@@ -379,7 +437,8 @@ public class SimpleExoPlayer extends BasePlayer
         bandwidthMeter,
         analyticsCollector,
         clock,
-        looper);
+        looper,
+        playbackLooper);
   }
 
   /**
@@ -411,6 +470,30 @@ public class SimpleExoPlayer extends BasePlayer
       AnalyticsCollector analyticsCollector,
       Clock clock,
       Looper looper) {
+    this(
+        context,
+        renderersFactory,
+        trackSelector,
+        loadControl,
+        drmSessionManager,
+        bandwidthMeter,
+        analyticsCollector,
+        clock,
+        looper,
+        /* playbackLooper= */ null);
+  }
+
+  private SimpleExoPlayer(
+      Context context,
+      RenderersFactory renderersFactory,
+      TrackSelector trackSelector,
+      LoadControl loadControl,
+      @Nullable DrmSessionManager<FrameworkMediaCrypto> drmSessionManager,
+      BandwidthMeter bandwidthMeter,
+      AnalyticsCollector analyticsCollector,
+      Clock clock,
+      Looper looper,
+      @Nullable Looper playbackLooper) {
     this.bandwidthMeter = bandwidthMeter;
     this.analyticsCollector = analyticsCollector;
     componentListener = new ComponentListener();
@@ -439,7 +522,8 @@ public class SimpleExoPlayer extends BasePlayer
 
     // Build the player and associated objects.
     player =
-        new ExoPlayerImpl(renderers, trackSelector, loadControl, bandwidthMeter, clock, looper);
+        new ExoPlayerImpl(
+            renderers, trackSelector, loadControl, bandwidthMeter, clock, looper, playbackLooper);
     analyticsCollector.setPlayer(player);
     addListener(analyticsCollector);
     addListener(componentListener);
@@ -1195,6 +1279,25 @@ public class SimpleExoPlayer extends BasePlayer
     return player.getSeekParameters();
   }
 
+  @Override
+  public void setScrubbingModeEnabled(boolean scrubbingModeEnabled) {
+    verifyApplicationThread();
+    player.setScrubbingModeEnabled(scrubbingModeEnabled);
+  }
+
+  @Override
+  public boolean isScrubbingModeEnabled() {
+    verifyApplicationThread();
+    return player.isScrubbingModeEnabled();
+  }
+
+  @Override
+  public void setLivePlaybackSpeedControl(
+      @Nullable LivePlaybackSpeedControl livePlaybackSpeedControl) {
+    verifyApplicationThread();
+    player.setLivePlaybackSpeedControl(livePlaybackSpeedControl);
+  }
+
   @Override
   public void setForegroundMode(boolean foregroundMode) {
     player.setForegroundMode(foregroundMode);
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.mediacodec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.Predicate;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+
+/**
+ * A pool of idle {@link MediaCodec} instances that can be shared between {@link
+ * MediaCodecRenderer}s, including renderers of different players.
+ *
+ * <p>When a renderer that uses a pool releases its codec, the codec is flushed and kept in the pool
+ * instead of being released. When a renderer needs a new codec, it first tries to acquire an idle
+ * codec with the same decoder name and MIME type that is compatible with the new format. This
+ * avoids paying for the creation and configuration of a codec when switching between playlist
+ * items with compatible formats, which can take tens of milliseconds on some devices.
+ *
+ * <p>Idle codecs don't render to surfaces owned by renderers or applications. A codec that renders
+ * to a surface is switched to a surface owned by the pool before it becomes idle.
+ *
+ * <p>If no compatible idle codec is found, all idle codecs with the same decoder name are released
+ * before the renderer creates a new one. Idle codecs of other decoders may still hold resources
+ * that the new codec requires, such as hardware decoder instances. If creating the new codec fails,
+ * the renderer releases all idle codecs and tries again.
+ *
+ * <p>This class is thread safe.
+ */
+public final class MediaCodecPool {
+
+  /** The default maximum number of idle codecs kept in the pool. */
+  public static final int DEFAULT_MAX_IDLE_CODECS = 2;
+
+  private static final String TAG = "MediaCodecPool";
+
+  private final int maxIdleCodecs;
+  private final ArrayList<PooledCodec> idleCodecs;
+
+  private int hitCount;
+  private int missCount;
+  private int evictionCount;
+
+  /** Creates an instance that keeps up to {@link #DEFAULT_MAX_IDLE_CODECS} idle codecs. */
+  public MediaCodecPool() {
+    this(DEFAULT_MAX_IDLE_CODECS);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxIdleCodecs The maximum number of idle codecs kept in the pool. When the pool is full,
+   *     the least recently added codec is released to make room for a new one.
+   */
+  public MediaCodecPool(int maxIdleCodecs) {
+    Assertions.checkArgument(maxIdleCodecs > 0);
+    this.maxIdleCodecs = maxIdleCodecs;
+    idleCodecs = new ArrayList<>();
+  }
+
+  /** Returns the number of codecs that were handed over to a renderer instead of being created. */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of times no compatible idle codec was found. */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of idle codecs that were released, either to make room in the pool or to
+   * free a decoder instance for a new codec.
+   */
+  public synchronized int getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** Returns the number of idle codecs currently kept in the pool. */
+  public synchronized int getIdleCodecCount() {
+    return idleCodecs.size();
+  }
+
+  /** Releases all idle codecs. The pool can still be used afterwards. */
+  public void release() {
+    ArrayList<PooledCodec> codecsToRelease;
+    synchronized (this) {
+      codecsToRelease = new ArrayList<>(idleCodecs);
+      idleCodecs.clear();
+    }
+    for (int i = 0; i < codecsToRelease.size(); i++) {
+      codecsToRelease.get(i).release();
+    }
+  }
+
+  /**
+   * Releases all idle codecs, for example because creating a new codec failed and they may hold the
+   * resources it requires.
+   *
+   * @return Whether any idle codecs were released.
+   */
+  /* package */ boolean evictAll() {
+    ArrayList<PooledCodec> codecsToRelease;
+    synchronized (this) {
+      codecsToRelease = new ArrayList<>(idleCodecs);
+      idleCodecs.clear();
+      evictionCount += codecsToRelease.size();
+    }
+    for (int i = 0; i < codecsToRelease.size(); i++) {
+      codecsToRelease.get(i).release();
+    }
+    return !codecsToRelease.isEmpty();
+  }
+
+  /**
+   * Acquires an idle codec with the decoder name and MIME type of {@code codecInfo} that satisfies
+   * {@code isCompatible}. If there is none, all idle codecs with the same decoder name are released
+   * so that the caller can create a new codec.
+   *
+   * @param codecInfo The {@link MediaCodecInfo} of the required decoder.
+   * @param isCompatible Whether an idle codec can be used by the caller.
+   * @return The acquired codec, or null if no compatible codec is idle.
+   */
+  @Nullable
+  /* package */ PooledCodec acquire(MediaCodecInfo codecInfo, Predicate<PooledCodec> isCompatible) {
+    PooledCodec acquiredCodec = null;
+    ArrayList<PooledCodec> codecsToRelease = null;
+    synchronized (this) {
+      for (int i = idleCodecs.size() - 1; i >= 0; i--) {
+        PooledCodec pooledCodec = idleCodecs.get(i);
+        if (pooledCodec.codecInfo.name.equals(codecInfo.name)
+            && Util.areEqual(pooledCodec.codecInfo.mimeType, codecInfo.mimeType)
+            && isCompatible.evaluate(pooledCodec)) {
+          acquiredCodec = idleCodecs.remove(i);
+          break;
+        }
+      }
+      if (acquiredCodec != null) {
+        hitCount++;
+        return acquiredCodec;
+      }
+      missCount++;
+      for (int i = idleCodecs.size() - 1; i >= 0; i--) {
+        if (idleCodecs.get(i).codecInfo.name.equals(codecInfo.name)) {
+          if (codecsToRelease == null) {
+            codecsToRelease = new ArrayList<>();
+          }
+          codecsToRelease.add(idleCodecs.remove(i));
+          evictionCount++;
+        }
+      }
+    }
+    if (codecsToRelease != null) {
+      for (int i = 0; i < codecsToRelease.size(); i++) {
+        codecsToRelease.get(i).release();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds a flushed codec to the pool. If the pool is full, the least recently added codec is
+   * released.
+   *
+   * @param pooledCodec The codec to add.
+   */
+  /* package */ void add(PooledCodec pooledCodec) {
+    PooledCodec evictedCodec = null;
+    synchronized (this) {
+      if (idleCodecs.size() == maxIdleCodecs) {
+        evictedCodec = idleCodecs.remove(0);
+        evictionCount++;
+      }
+      idleCodecs.add(pooledCodec);
+    }
+    if (evictedCodec != null) {
+      evictedCodec.release();
+    }
+  }
+
+  /** An idle codec in a {@link MediaCodecPool}. */
+  /* package */ static final class PooledCodec {
+
+    /** The flushed codec. */
+    public final MediaCodec codec;
+    /** The {@link MediaCodecInfo} describing the decoder. */
+    public final MediaCodecInfo codecInfo;
+    /** The format for which the codec is configured. */
+    public final Format codecFormat;
+    /** The operating rate with which the codec is configured. */
+    public final float codecOperatingRate;
+    /** The last output format reported by the codec. */
+    public final MediaFormat outputMediaFormat;
+    /** The surface to which the codec renders while idle, or null. */
+    @Nullable public final Surface idleSurface;
+
+    public PooledCodec(
+        MediaCodec codec,
+        MediaCodecInfo codecInfo,
+        Format codecFormat,
+        float codecOperatingRate,
+        MediaFormat outputMediaFormat,
+        @Nullable Surface idleSurface) {
+      this.codec = codec;
+      this.codecInfo = codecInfo;
+      this.codecFormat = codecFormat;
+      this.codecOperatingRate = codecOperatingRate;
+      this.outputMediaFormat = outputMediaFormat;
+      this.idleSurface = idleSurface;
+    }
+
+    /**
+     * Releases the {@link #idleSurface}. Must only be called once the codec no longer renders to
+     * it.
+     */
+    public void releaseIdleSurface() {
+      if (idleSurface != null) {
+        idleSurface.release();
+      }
+    }
+
+    /** Releases the codec and its {@link #idleSurface}. */
+    public void release() {
+      try {
+        codec.stop();
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to stop idle codec", e);
+      } finally {
+        codec.release();
+        releaseIdleSurface();
+      }
+    }
+  }
+}
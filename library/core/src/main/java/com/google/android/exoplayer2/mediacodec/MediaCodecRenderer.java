@@ -25,6 +25,7 @@ import android.media.MediaFormat;
 import android.os.Bundle;
 import android.os.Looper;
 import android.os.SystemClock;
+import android.view.Surface;
 import androidx.annotation.CheckResult;
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
@@ -39,6 +40,7 @@ import com.google.android.exoplayer2.drm.DrmSession;
 import com.google.android.exoplayer2.drm.DrmSession.DrmSessionException;
 import com.google.android.exoplayer2.drm.DrmSessionManager;
 import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.mediacodec.MediaCodecPool.PooledCodec;
 import com.google.android.exoplayer2.mediacodec.MediaCodecUtil.DecoderQueryException;
 import com.google.android.exoplayer2.source.MediaPeriod;
 import com.google.android.exoplayer2.util.Assertions;
@@ -52,7 +54,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -312,6 +314,8 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   private static final byte[] ADAPTATION_WORKAROUND_BUFFER = Util.getBytesFromHexString(
       "0000016742C00BDA259000000168CE0F13200000016588840DCE7118A0002FBF1C31C3275D78");
   private static final int ADAPTATION_WORKAROUND_SLICE_WIDTH_HEIGHT = 32;
+  /** The initial capacity for the timestamps of decode-only buffers queued to the codec. */
+  private static final int DECODE_ONLY_PRESENTATION_TIMESTAMPS_CAPACITY = 16;
 
   private final MediaCodecSelector mediaCodecSelector;
   @Nullable private final DrmSessionManager<FrameworkMediaCrypto> drmSessionManager;
@@ -322,9 +326,10 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   private final DecoderInputBuffer flagsOnlyBuffer;
   private final FormatHolder formatHolder;
   private final TimedValueQueue<Format> formatQueue;
-  private final ArrayList<Long> decodeOnlyPresentationTimestamps;
   private final MediaCodec.BufferInfo outputBufferInfo;
 
+  private long[] decodeOnlyPresentationTimestamps;
+  private int decodeOnlyPresentationTimestampCount;
   @Nullable private Format inputFormat;
   private Format outputFormat;
   @Nullable private DrmSession<FrameworkMediaCrypto> codecDrmSession;
@@ -332,9 +337,11 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   @Nullable private MediaCrypto mediaCrypto;
   private boolean mediaCryptoRequiresSecureDecoder;
   private long renderTimeLimitMs;
+  @Nullable private MediaCodecPool codecPool;
   private float rendererOperatingRate;
   @Nullable private MediaCodec codec;
   @Nullable private Format codecFormat;
+  @Nullable private MediaFormat codecOutputMediaFormat;
   private float codecOperatingRate;
   @Nullable private ArrayDeque<MediaCodecInfo> availableCodecInfos;
   @Nullable private DecoderInitializationException preferredDecoderInitializationException;
@@ -408,7 +415,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     flagsOnlyBuffer = DecoderInputBuffer.newFlagsOnlyInstance();
     formatHolder = new FormatHolder();
     formatQueue = new TimedValueQueue<>();
-    decodeOnlyPresentationTimestamps = new ArrayList<>();
+    decodeOnlyPresentationTimestamps = new long[DECODE_ONLY_PRESENTATION_TIMESTAMPS_CAPACITY];
     outputBufferInfo = new MediaCodec.BufferInfo();
     codecReconfigurationState = RECONFIGURATION_STATE_NONE;
     codecDrainState = DRAIN_STATE_NONE;
@@ -432,6 +439,20 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     this.renderTimeLimitMs = renderTimeLimitMs;
   }
 
+  /**
+   * Sets a {@link MediaCodecPool} from which codecs are acquired and to which released codecs are
+   * returned, if the renderer supports codec reuse. The same pool may be used by renderers of
+   * different players.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release. It should
+   * only be called before the renderer is used.
+   *
+   * @param codecPool The {@link MediaCodecPool}, or null to always create and release codecs.
+   */
+  public void experimental_setCodecPool(@Nullable MediaCodecPool codecPool) {
+    this.codecPool = codecPool;
+  }
+
   @Override
   public final int supportsMixedMimeTypeAdaptation() {
     return ADAPTIVE_NOT_SEAMLESS;
@@ -620,24 +641,28 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   }
 
   protected void releaseCodec() {
+    boolean codecPooled = maybeAddCodecToPool();
     availableCodecInfos = null;
     codecInfo = null;
     codecFormat = null;
+    codecOutputMediaFormat = null;
     resetInputBuffer();
     resetOutputBuffer();
     resetCodecBuffers();
     waitingForKeys = false;
     codecHotswapDeadlineMs = C.TIME_UNSET;
-    decodeOnlyPresentationTimestamps.clear();
+    decodeOnlyPresentationTimestampCount = 0;
     largestQueuedPresentationTimeUs = C.TIME_UNSET;
     lastBufferInStreamPresentationTimeUs = C.TIME_UNSET;
     try {
       if (codec != null) {
         decoderCounters.decoderReleaseCount++;
-        try {
-          codec.stop();
-        } finally {
-          codec.release();
+        if (!codecPooled) {
+          try {
+            codec.stop();
+          } finally {
+            codec.release();
+          }
         }
       }
     } finally {
@@ -654,6 +679,43 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     }
   }
 
+  /**
+   * Flushes the codec and adds it to the {@link MediaCodecPool}, if there is a pool and the codec
+   * can be reused.
+   *
+   * @return Whether the codec was added to the pool.
+   */
+  private boolean maybeAddCodecToPool() {
+    if (codecPool == null
+        || codec == null
+        || codecInfo == null
+        || codecFormat == null
+        || codecOutputMediaFormat == null
+        || mediaCrypto != null
+        || codecNeedsFlushWorkaround
+        || (codecNeedsEosFlushWorkaround && codecReceivedEos)
+        || !canPoolCodec(codecInfo)) {
+      return false;
+    }
+    Surface idleSurface;
+    try {
+      codec.flush();
+      idleSurface = detachPooledCodec(codec, codecInfo);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to prepare codec for pooling", e);
+      return false;
+    }
+    codecPool.add(
+        new PooledCodec(
+            codec,
+            codecInfo,
+            codecFormat,
+            codecOperatingRate,
+            codecOutputMediaFormat,
+            idleSurface));
+    return true;
+  }
+
   @Override
   protected void onStarted() {
     // Do nothing. Overridden to remove throws clause.
@@ -750,7 +812,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     isLastOutputBuffer = false;
 
     waitingForKeys = false;
-    decodeOnlyPresentationTimestamps.clear();
+    decodeOnlyPresentationTimestampCount = 0;
     largestQueuedPresentationTimeUs = C.TIME_UNSET;
     lastBufferInStreamPresentationTimeUs = C.TIME_UNSET;
     codecDrainState = DRAIN_STATE_NONE;
@@ -873,7 +935,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   private void initCodec(MediaCodecInfo codecInfo, MediaCrypto crypto) throws Exception {
     long codecInitializingTimestamp;
     long codecInitializedTimestamp;
-    MediaCodec codec = null;
+    MediaCodec codec;
     String codecName = codecInfo.name;
 
     float codecOperatingRate =
@@ -883,26 +945,34 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     if (codecOperatingRate <= assumedMinimumCodecOperatingRate) {
       codecOperatingRate = CODEC_OPERATING_RATE_UNSET;
     }
-    try {
-      codecInitializingTimestamp = SystemClock.elapsedRealtime();
-      TraceUtil.beginSection("createCodec:" + codecName);
-      codec = MediaCodec.createByCodecName(codecName);
-      TraceUtil.endSection();
-      TraceUtil.beginSection("configureCodec");
-      configureCodec(codecInfo, codec, inputFormat, crypto, codecOperatingRate);
-      TraceUtil.endSection();
-      TraceUtil.beginSection("startCodec");
-      codec.start();
-      TraceUtil.endSection();
-      codecInitializedTimestamp = SystemClock.elapsedRealtime();
-      getCodecBuffers(codec);
-    } catch (Exception e) {
-      if (codec != null) {
+    PooledCodec pooledCodec = maybeAcquirePooledCodec(codecInfo, crypto, codecOperatingRate);
+    codecInitializingTimestamp = SystemClock.elapsedRealtime();
+    if (pooledCodec != null) {
+      codec = pooledCodec.codec;
+      try {
+        configurePooledCodec(codec, codecInfo, pooledCodec.codecFormat);
+        getCodecBuffers(codec);
+      } catch (Exception e) {
         resetCodecBuffers();
         codec.release();
+        throw e;
+      } finally {
+        // The codec no longer renders to the surface it used while idle.
+        pooledCodec.releaseIdleSurface();
+      }
+    } else {
+      try {
+        codec = createCodec(codecInfo, crypto, codecOperatingRate);
+      } catch (Exception e) {
+        if (codecPool == null || !codecPool.evictAll()) {
+          throw e;
+        }
+        // Idle codecs of other decoders may have held resources that the new codec requires.
+        Log.w(TAG, "Retrying codec creation after releasing idle codecs", e);
+        codec = createCodec(codecInfo, crypto, codecOperatingRate);
       }
-      throw e;
     }
+    codecInitializedTimestamp = SystemClock.elapsedRealtime();
 
     this.codec = codec;
     this.codecInfo = codecInfo;
@@ -937,11 +1007,76 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     isLastOutputBuffer = false;
     waitingForFirstSyncSample = true;
 
+    if (pooledCodec != null) {
+      if (canReusePooledCodec(codec, codecInfo, pooledCodec.codecFormat, codecFormat)
+          == KEEP_CODEC_RESULT_YES_WITH_RECONFIGURATION) {
+        codecReconfigured = true;
+        codecReconfigurationState = RECONFIGURATION_STATE_WRITE_PENDING;
+        codecNeedsAdaptationWorkaroundBuffer =
+            codecAdaptationWorkaroundMode == ADAPTATION_WORKAROUND_MODE_ALWAYS
+                || (codecAdaptationWorkaroundMode == ADAPTATION_WORKAROUND_MODE_SAME_RESOLUTION
+                    && codecFormat.width == pooledCodec.codecFormat.width
+                    && codecFormat.height == pooledCodec.codecFormat.height);
+      }
+      // The codec won't report its output format again, so replay the last one it reported.
+      codecOutputMediaFormat = pooledCodec.outputMediaFormat;
+      onOutputFormatChanged(codec, codecOutputMediaFormat);
+    }
+
     decoderCounters.decoderInitCount++;
     long elapsed = codecInitializedTimestamp - codecInitializingTimestamp;
     onCodecInitialized(codecName, codecInitializedTimestamp, elapsed);
   }
 
+  private MediaCodec createCodec(
+      MediaCodecInfo codecInfo, @Nullable MediaCrypto crypto, float codecOperatingRate)
+      throws Exception {
+    MediaCodec codec = null;
+    try {
+      TraceUtil.beginSection("createCodec:" + codecInfo.name);
+      codec = MediaCodec.createByCodecName(codecInfo.name);
+      TraceUtil.endSection();
+      TraceUtil.beginSection("configureCodec");
+      configureCodec(codecInfo, codec, inputFormat, crypto, codecOperatingRate);
+      TraceUtil.endSection();
+      TraceUtil.beginSection("startCodec");
+      codec.start();
+      TraceUtil.endSection();
+      getCodecBuffers(codec);
+      return codec;
+    } catch (Exception e) {
+      if (codec != null) {
+        resetCodecBuffers();
+        codec.release();
+      }
+      throw e;
+    }
+  }
+
+  @Nullable
+  private PooledCodec maybeAcquirePooledCodec(
+      MediaCodecInfo codecInfo, @Nullable MediaCrypto crypto, float codecOperatingRate) {
+    if (codecPool == null || crypto != null || !canPoolCodec(codecInfo)) {
+      return null;
+    }
+    Format format = inputFormat;
+    return codecPool.acquire(
+        codecInfo,
+        pooledCodec -> {
+          if (pooledCodec.codecOperatingRate != codecOperatingRate) {
+            return false;
+          }
+          @KeepCodecResult
+          int result =
+              canReusePooledCodec(
+                  pooledCodec.codec, pooledCodec.codecInfo, pooledCodec.codecFormat, format);
+          return result == KEEP_CODEC_RESULT_YES_WITH_FLUSH
+              || result == KEEP_CODEC_RESULT_YES_WITHOUT_RECONFIGURATION
+              || (result == KEEP_CODEC_RESULT_YES_WITH_RECONFIGURATION
+                  && !codecNeedsReconfigureWorkaround(codecInfo.name));
+        });
+  }
+
   private boolean shouldContinueFeeding(long drainStartTimeMs) {
     return renderTimeLimitMs == C.TIME_UNSET
         || SystemClock.elapsedRealtime() - drainStartTimeMs < renderTimeLimitMs;
@@ -1134,7 +1269,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     try {
       long presentationTimeUs = buffer.timeUs;
       if (buffer.isDecodeOnly()) {
-        decodeOnlyPresentationTimestamps.add(presentationTimeUs);
+        addDecodeOnlyPresentationTimestamp(presentationTimeUs);
       }
       if (waitingForFirstSampleInFormat) {
         formatQueue.add(presentationTimeUs, inputFormat);
@@ -1356,6 +1491,75 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     return KEEP_CODEC_RESULT_NO;
   }
 
+  /**
+   * Returns whether a codec that is being released can be added to the {@link MediaCodecPool} set
+   * with {@link #experimental_setCodecPool(MediaCodecPool)}, so that it can be reused later.
+   *
+   * <p>The default implementation returns false. Renderers that return true must also override
+   * {@link #canReusePooledCodec(MediaCodec, MediaCodecInfo, Format, Format)} and {@link
+   * #configurePooledCodec(MediaCodec, MediaCodecInfo, Format)}.
+   *
+   * @param codecInfo A {@link MediaCodecInfo} describing the decoder.
+   * @return Whether the codec can be added to the pool.
+   */
+  protected boolean canPoolCodec(MediaCodecInfo codecInfo) {
+    return false;
+  }
+
+  /**
+   * Determines whether an idle codec from the {@link MediaCodecPool}, which may have been
+   * configured by another renderer, can be used for a new format, and if it can whether it requires
+   * reconfiguration.
+   *
+   * <p>The default implementation returns {@link #KEEP_CODEC_RESULT_NO}.
+   *
+   * @param codec The idle {@link MediaCodec} instance.
+   * @param codecInfo A {@link MediaCodecInfo} describing the decoder.
+   * @param codecFormat The format for which the idle codec is configured.
+   * @param newFormat The new format.
+   * @return Whether the codec can be reused, and if it can whether it requires reconfiguration.
+   */
+  protected @KeepCodecResult int canReusePooledCodec(
+      MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat, Format newFormat) {
+    return KEEP_CODEC_RESULT_NO;
+  }
+
+  /**
+   * Prepares a codec acquired from the {@link MediaCodecPool} for use by this renderer. This is
+   * called instead of {@link #configureCodec(MediaCodecInfo, MediaCodec, Format, MediaCrypto,
+   * float)} when a codec is reused.
+   *
+   * <p>The default implementation is a no-op.
+   *
+   * @param codec The flushed {@link MediaCodec} instance.
+   * @param codecInfo A {@link MediaCodecInfo} describing the decoder.
+   * @param codecFormat The format for which the codec is configured.
+   */
+  protected void configurePooledCodec(
+      MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat) {
+    // Do nothing.
+  }
+
+  /**
+   * Detaches a flushed codec from resources owned by the renderer or the application, before the
+   * codec is added to the {@link MediaCodecPool}. The codec may stay idle in the pool after the
+   * renderer is reset, so a codec that renders to a surface must be switched to a surface that
+   * remains valid while the codec is idle.
+   *
+   * <p>The default implementation returns null.
+   *
+   * @param codec The flushed {@link MediaCodec} instance.
+   * @param codecInfo A {@link MediaCodecInfo} describing the decoder.
+   * @return The {@link Surface} to which the idle codec renders, or null. The surface is released
+   *     once the codec leaves the pool.
+   * @throws RuntimeException If the codec can't be detached, in which case it's released instead of
+   *     being added to the pool. Implementations must release any surface they created first.
+   */
+  @Nullable
+  protected Surface detachPooledCodec(MediaCodec codec, MediaCodecInfo codecInfo) {
+    return null;
+  }
+
   @Override
   public boolean isEnded() {
     return outputStreamEnded;
@@ -1604,6 +1808,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     if (codecNeedsMonoChannelCountWorkaround) {
       format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, 1);
     }
+    codecOutputMediaFormat = format;
     onOutputFormatChanged(codec, format);
   }
 
@@ -1735,13 +1940,26 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     codecDrainAction = DRAIN_ACTION_NONE;
   }
 
+  private void addDecodeOnlyPresentationTimestamp(long presentationTimeUs) {
+    // The timestamps are stored in a primitive array rather than a list, because boxing each
+    // timestamp would create a Long object that would need to be garbage collected.
+    if (decodeOnlyPresentationTimestampCount == decodeOnlyPresentationTimestamps.length) {
+      decodeOnlyPresentationTimestamps =
+          Arrays.copyOf(decodeOnlyPresentationTimestamps, decodeOnlyPresentationTimestampCount * 2);
+    }
+    decodeOnlyPresentationTimestamps[decodeOnlyPresentationTimestampCount++] = presentationTimeUs;
+  }
+
   private boolean isDecodeOnlyBuffer(long presentationTimeUs) {
-    // We avoid using decodeOnlyPresentationTimestamps.remove(presentationTimeUs) because it would
-    // box presentationTimeUs, creating a Long object that would need to be garbage collected.
-    int size = decodeOnlyPresentationTimestamps.size();
-    for (int i = 0; i < size; i++) {
-      if (decodeOnlyPresentationTimestamps.get(i) == presentationTimeUs) {
-        decodeOnlyPresentationTimestamps.remove(i);
+    for (int i = 0; i < decodeOnlyPresentationTimestampCount; i++) {
+      if (decodeOnlyPresentationTimestamps[i] == presentationTimeUs) {
+        decodeOnlyPresentationTimestampCount--;
+        System.arraycopy(
+            decodeOnlyPresentationTimestamps,
+            /* srcPos= */ i + 1,
+            decodeOnlyPresentationTimestamps,
+            /* destPos= */ i,
+            /* length= */ decodeOnlyPresentationTimestampCount - i);
         return true;
       }
     }
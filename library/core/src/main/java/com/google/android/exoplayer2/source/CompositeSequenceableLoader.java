@@ -16,16 +16,47 @@
 package com.google.android.exoplayer2.source;
 
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
 
 /**
  * A {@link SequenceableLoader} that encapsulates multiple other {@link SequenceableLoader}s.
+ *
+ * <p>Only the loaders that are furthest behind, or behind the playback position, are allowed to
+ * continue loading. If a maximum parallel load-ahead duration is set, loaders whose next load
+ * position is within that duration of the loader that is furthest behind may continue loading
+ * too, so that separate streams (e.g. demuxed audio and video) can load in parallel. The amount
+ * of data buffered by all loaders together is still limited by the {@link
+ * com.google.android.exoplayer2.LoadControl}, which decides whether this loader is continued.
  */
 public class CompositeSequenceableLoader implements SequenceableLoader {
 
   protected final SequenceableLoader[] loaders;
 
+  private final long maxParallelLoadAheadUs;
+
+  /**
+   * Creates an instance that only allows the loaders that are furthest behind, or behind the
+   * playback position, to continue loading.
+   *
+   * @param loaders The loaders to encapsulate.
+   */
   public CompositeSequenceableLoader(SequenceableLoader[] loaders) {
+    this(loaders, /* maxParallelLoadAheadUs= */ 0);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param loaders The loaders to encapsulate.
+   * @param maxParallelLoadAheadUs The maximum duration by which the next load position of a loader
+   *     may be ahead of the loader that is furthest behind for it to be allowed to continue loading,
+   *     in microseconds. Zero means only the loaders that are furthest behind, or behind the playback
+   *     position, are allowed to continue loading.
+   */
+  public CompositeSequenceableLoader(SequenceableLoader[] loaders, long maxParallelLoadAheadUs) {
+    Assertions.checkArgument(maxParallelLoadAheadUs >= 0);
     this.loaders = loaders;
+    this.maxParallelLoadAheadUs = maxParallelLoadAheadUs;
   }
 
   @Override
@@ -71,10 +102,13 @@ public class CompositeSequenceableLoader implements SequenceableLoader {
       }
       for (SequenceableLoader loader : loaders) {
         long loaderNextLoadPositionUs = loader.getNextLoadPositionUs();
-        boolean isLoaderBehind =
-            loaderNextLoadPositionUs != C.TIME_END_OF_SOURCE
-                && loaderNextLoadPositionUs <= positionUs;
-        if (loaderNextLoadPositionUs == nextLoadPositionUs || isLoaderBehind) {
+        if (loaderNextLoadPositionUs == C.TIME_END_OF_SOURCE) {
+          continue;
+        }
+        boolean isLoaderBehind = loaderNextLoadPositionUs <= positionUs;
+        boolean isWithinParallelLoadAhead =
+            loaderNextLoadPositionUs - nextLoadPositionUs <= maxParallelLoadAheadUs;
+        if (isWithinParallelLoadAhead || isLoaderBehind) {
           madeProgressThisIteration |= loader.continueLoading(positionUs);
         }
       }
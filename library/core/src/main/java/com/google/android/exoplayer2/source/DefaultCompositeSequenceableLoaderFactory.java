@@ -15,15 +15,44 @@
  */
 package com.google.android.exoplayer2.source;
 
+import com.google.android.exoplayer2.C;
+
 /**
  * Default implementation of {@link CompositeSequenceableLoaderFactory}.
  */
 public final class DefaultCompositeSequenceableLoaderFactory
     implements CompositeSequenceableLoaderFactory {
 
+  private final long maxParallelLoadAheadUs;
+
+  /**
+   * Creates a factory for {@link CompositeSequenceableLoader}s that only allow the loaders that are
+   * furthest behind to continue loading.
+   */
+  public DefaultCompositeSequenceableLoaderFactory() {
+    this(/* maxParallelLoadAheadMs= */ 0);
+  }
+
+  /**
+   * Creates a factory for {@link CompositeSequenceableLoader}s that allow loaders to load in
+   * parallel.
+   *
+   * <p>Parallel loading lets separate streams, like the audio and video renditions of a demuxed HLS
+   * stream, load at the same time rather than taking turns, which reduces the time spent waiting
+   * for the first byte of each load on high latency connections. All loads still share the
+   * allocator and buffer limits of the player's {@link com.google.android.exoplayer2.LoadControl}.
+   *
+   * @param maxParallelLoadAheadMs The maximum duration by which a loader may be ahead of the loader
+   *     that is furthest behind and still be allowed to start a load, in milliseconds. Zero
+   *     disables parallel loading.
+   */
+  public DefaultCompositeSequenceableLoaderFactory(int maxParallelLoadAheadMs) {
+    maxParallelLoadAheadUs = C.msToUs(maxParallelLoadAheadMs);
+  }
+
   @Override
   public SequenceableLoader createCompositeSequenceableLoader(SequenceableLoader... loaders) {
-    return new CompositeSequenceableLoader(loaders);
+    return new CompositeSequenceableLoader(loaders, maxParallelLoadAheadUs);
   }
 
 }
@@ -32,6 +32,21 @@ import org.checkerframework.checker.nullness.compatqual.NullableType;
 /**
  * A bandwidth based adaptive {@link TrackSelection}, whose selected track is updated to be the one
  * of highest quality given the current network conditions and the state of the buffer.
+ *
+ * <p>The bandwidth estimate is queried for the host from which the most recently queued chunk was
+ * loaded, so that {@link BandwidthMeter} implementations that estimate bitrates per host can
+ * provide the estimate of the host serving the media.
+ *
+ * <p>Where the {@link MediaChunkIterator}s passed to {@link #updateSelectedTrack(long, long, long,
+ * List, MediaChunkIterator[])} expose the lengths of the upcoming chunks, the average bitrate of
+ * the chunks in the next {@link #CHUNK_BITRATE_WINDOW_US} of media is compared against the
+ * bandwidth estimate instead of the declared bitrate of the track. This avoids selecting tracks
+ * whose upcoming chunks are significantly larger than average, as is common for variable bitrate
+ * encodings of complex scenes.
+ *
+ * <p>The selectable video resolution can be capped during playback using {@link
+ * #setMaxVideoPixels(int)}, for example when the view in which the video is displayed is resized.
+ * Unlike a new track selection, changing the cap does not invalidate media that's already buffered.
  */
 public class AdaptiveTrackSelection extends BaseTrackSelection {
 
@@ -289,6 +304,12 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   public static final float DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE = 0.75f;
   public static final long DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS = 2000;
 
+  /**
+   * The duration of upcoming media over which the bitrate of a track is averaged when the lengths
+   * of its chunks are known, in microseconds.
+   */
+  public static final long CHUNK_BITRATE_WINDOW_US = 10 * C.MICROS_PER_SECOND;
+
   private final BandwidthProvider bandwidthProvider;
   private final long minDurationForQualityIncreaseUs;
   private final long maxDurationForQualityDecreaseUs;
@@ -296,11 +317,14 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   private final float bufferedFractionToLiveEdgeForQualityIncrease;
   private final long minTimeBetweenBufferReevaluationMs;
   private final Clock clock;
+  private final int[] trackBitrates;
 
   private float playbackSpeed;
   private int selectedIndex;
   private int reason;
   private long lastBufferEvaluationMs;
+  @Nullable private String chunkHost;
+  private volatile int maxVideoPixels;
 
   /**
    * @param group The {@link TrackGroup}.
@@ -396,9 +420,14 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         bufferedFractionToLiveEdgeForQualityIncrease;
     this.minTimeBetweenBufferReevaluationMs = minTimeBetweenBufferReevaluationMs;
     this.clock = clock;
+    trackBitrates = new int[length];
+    for (int i = 0; i < length; i++) {
+      trackBitrates[i] = getFormat(i).bitrate;
+    }
     playbackSpeed = 1f;
     reason = C.SELECTION_REASON_UNKNOWN;
     lastBufferEvaluationMs = C.TIME_UNSET;
+    maxVideoPixels = Integer.MAX_VALUE;
   }
 
   /**
@@ -412,6 +441,26 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         .experimental_setBandwidthAllocationCheckpoints(allocationCheckpoints);
   }
 
+  /**
+   * Sets the maximum number of pixels of the video formats that may be selected. Formats with a
+   * higher resolution are only selected if no other format is available. If the currently selected
+   * format exceeds the maximum, a lower resolution is selected when the selection is next updated,
+   * regardless of the buffered duration. Media that's already buffered is retained.
+   *
+   * <p>May be called from any thread.
+   *
+   * @param maxVideoPixels The maximum number of pixels of the video formats that may be selected,
+   *     or {@link Integer#MAX_VALUE} to remove the constraint.
+   */
+  public void setMaxVideoPixels(int maxVideoPixels) {
+    this.maxVideoPixels = maxVideoPixels;
+  }
+
+  /** Returns the maximum number of pixels of the video formats that may be selected. */
+  public int getMaxVideoPixels() {
+    return maxVideoPixels;
+  }
+
   @Override
   public void enable() {
     lastBufferEvaluationMs = C.TIME_UNSET;
@@ -430,6 +479,8 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
       List<? extends MediaChunk> queue,
       MediaChunkIterator[] mediaChunkIterators) {
     long nowMs = clock.elapsedRealtime();
+    updateChunkHost(queue);
+    updateTrackBitrates(mediaChunkIterators);
 
     // Make initial selection
     if (reason == C.SELECTION_REASON_UNKNOWN) {
@@ -455,9 +506,11 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         // up. Defer switching up for now.
         selectedIndex = currentSelectedIndex;
       } else if (selectedFormat.bitrate < currentFormat.bitrate
-          && bufferedDurationUs >= maxDurationForQualityDecreaseUs) {
+          && bufferedDurationUs >= maxDurationForQualityDecreaseUs
+          && !exceedsMaxVideoPixels(currentFormat)) {
         // The selected track is a lower quality, but we have sufficient buffer to defer switching
-        // down for now.
+        // down for now. Switching down is never deferred if the current track exceeds the maximum
+        // video size.
         selectedIndex = currentSelectedIndex;
       }
     }
@@ -486,6 +539,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   @Override
   public int evaluateQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
     long nowMs = clock.elapsedRealtime();
+    updateChunkHost(queue);
     if (!shouldEvaluateQueueSize(nowMs)) {
       return queue.size();
     }
@@ -571,12 +625,13 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
    *     Long#MIN_VALUE} to ignore blacklisting.
    */
   private int determineIdealSelectedIndex(long nowMs) {
-    long effectiveBitrate = bandwidthProvider.getAllocatedBandwidth();
+    long effectiveBitrate = bandwidthProvider.getAllocatedBandwidth(chunkHost);
     int lowestBitrateNonBlacklistedIndex = 0;
     for (int i = 0; i < length; i++) {
       if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
         Format format = getFormat(i);
-        if (canSelectFormat(format, format.bitrate, playbackSpeed, effectiveBitrate)) {
+        if (!exceedsMaxVideoPixels(format)
+            && canSelectFormat(format, trackBitrates[i], playbackSpeed, effectiveBitrate)) {
           return i;
         } else {
           lowestBitrateNonBlacklistedIndex = i;
@@ -586,6 +641,34 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     return lowestBitrateNonBlacklistedIndex;
   }
 
+  /**
+   * Updates the bitrate of each track to the average bitrate of its upcoming chunks if their
+   * lengths are known, or to its declared bitrate otherwise.
+   */
+  private void updateTrackBitrates(MediaChunkIterator[] mediaChunkIterators) {
+    for (int i = 0; i < length; i++) {
+      long chunkBitrate = Format.NO_VALUE;
+      if (i < mediaChunkIterators.length) {
+        chunkBitrate =
+            TrackSelectionUtil.getAverageBitrate(mediaChunkIterators[i], CHUNK_BITRATE_WINDOW_US);
+      }
+      trackBitrates[i] =
+          chunkBitrate != Format.NO_VALUE ? (int) chunkBitrate : getFormat(i).bitrate;
+    }
+  }
+
+  private boolean exceedsMaxVideoPixels(Format format) {
+    // Formats whose size is unknown are never considered to exceed the maximum.
+    return format.getPixelCount() > maxVideoPixels;
+  }
+
+  private void updateChunkHost(List<? extends MediaChunk> queue) {
+    // The next chunk is most likely loaded from the same host as the last queued chunk.
+    if (!queue.isEmpty()) {
+      chunkHost = queue.get(queue.size() - 1).dataSpec.uri.getHost();
+    }
+  }
+
   private long minDurationForQualityIncreaseUs(long availableDurationUs) {
     boolean isAvailableDurationTooShort = availableDurationUs != C.TIME_UNSET
         && availableDurationUs <= minDurationForQualityIncreaseUs;
@@ -597,8 +680,12 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   /** Provides the allocated bandwidth. */
   private interface BandwidthProvider {
 
-    /** Returns the allocated bitrate. */
-    long getAllocatedBandwidth();
+    /**
+     * Returns the allocated bitrate.
+     *
+     * @param host The host from which the next chunk will be loaded, or null if unknown.
+     */
+    long getAllocatedBandwidth(@Nullable String host);
   }
 
   private static final class DefaultBandwidthProvider implements BandwidthProvider {
@@ -617,8 +704,12 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     }
 
     @Override
-    public long getAllocatedBandwidth() {
-      long totalBandwidth = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+    public long getAllocatedBandwidth(@Nullable String host) {
+      long bitrateEstimate =
+          host != null
+              ? bandwidthMeter.getBitrateEstimate(host)
+              : bandwidthMeter.getBitrateEstimate();
+      long totalBandwidth = (long) (bitrateEstimate * bandwidthFraction);
       long allocatableBandwidth = Math.max(0L, totalBandwidth - reservedBandwidth);
       if (allocationCheckpoints == null) {
         return allocatableBandwidth;
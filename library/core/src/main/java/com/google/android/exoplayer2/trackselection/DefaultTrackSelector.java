@@ -38,10 +38,14 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Util;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 
@@ -1392,11 +1396,18 @@ public class DefaultTrackSelector extends MappingTrackSelector {
   private static final float FRACTION_TO_CONSIDER_FULLSCREEN = 0.98f;
   private static final int[] NO_TRACKS = new int[0];
   private static final int WITHIN_RENDERER_CAPABILITIES_BONUS = 1000;
+  /** The maximum number of distinct selections that are cached for reuse. */
+  private static final int MAX_CACHED_SELECTIONS = 4;
 
   private final TrackSelection.Factory trackSelectionFactory;
   private final AtomicReference<Parameters> parametersReference;
+  private final Set<AdaptiveTrackSelection> adaptiveVideoTrackSelections;
+  private final LinkedHashMap<SelectionKey, CachedSelection> selectionCache;
 
   private boolean allowMultipleAdaptiveSelections;
+  private boolean selectionCacheEnabled;
+  private int currentViewportWidth;
+  private int currentViewportHeight;
 
   /** @deprecated Use {@link #DefaultTrackSelector(Context)} instead. */
   @Deprecated
@@ -1441,6 +1452,20 @@ public class DefaultTrackSelector extends MappingTrackSelector {
   public DefaultTrackSelector(Parameters parameters, TrackSelection.Factory trackSelectionFactory) {
     this.trackSelectionFactory = trackSelectionFactory;
     parametersReference = new AtomicReference<>(parameters);
+    adaptiveVideoTrackSelections =
+        Collections.newSetFromMap(new WeakHashMap<AdaptiveTrackSelection, Boolean>());
+    currentViewportWidth = Integer.MAX_VALUE;
+    currentViewportHeight = Integer.MAX_VALUE;
+    selectionCache =
+        new LinkedHashMap<SelectionKey, CachedSelection>(
+            /* initialCapacity= */ MAX_CACHED_SELECTIONS + 1,
+            /* loadFactor= */ 1f,
+            /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<SelectionKey, CachedSelection> eldest) {
+            return size() > MAX_CACHED_SELECTIONS;
+          }
+        };
   }
 
   /**
@@ -1537,6 +1562,46 @@ public class DefaultTrackSelector extends MappingTrackSelector {
     setParameters(buildUponParameters().setTunnelingAudioSessionId(tunnelingAudioSessionId));
   }
 
+  /**
+   * Sets the size of the viewport in which video is currently displayed, without triggering a new
+   * track selection.
+   *
+   * <p>Adaptive video selections made by an {@link AdaptiveTrackSelection.Factory} are capped to
+   * the tracks suitable for the current viewport using {@link
+   * AdaptiveTrackSelection#setMaxVideoPixels(int)}. The cap applies to selections that are already
+   * in use as well as to future ones, and media that's already buffered is retained when it
+   * changes. Since the cap can only exclude tracks from a selection, {@link
+   * Parameters#viewportWidth} and {@link Parameters#viewportHeight} should be set to the largest
+   * viewport in which the video may be displayed, such as the physical display size.
+   *
+   * <p>This is typically called by a view in which video is displayed whenever its size changes.
+   *
+   * @param viewportWidth The current viewport width in pixels, or {@link Integer#MAX_VALUE} if
+   *     unknown.
+   * @param viewportHeight The current viewport height in pixels, or {@link Integer#MAX_VALUE} if
+   *     unknown.
+   */
+  public void setCurrentViewportSize(int viewportWidth, int viewportHeight) {
+    synchronized (adaptiveVideoTrackSelections) {
+      if (currentViewportWidth == viewportWidth && currentViewportHeight == viewportHeight) {
+        return;
+      }
+      currentViewportWidth = viewportWidth;
+      currentViewportHeight = viewportHeight;
+      for (AdaptiveTrackSelection trackSelection : adaptiveVideoTrackSelections) {
+        updateMaxVideoPixels(trackSelection);
+      }
+    }
+  }
+
+  /**
+   * Equivalent to {@link #setCurrentViewportSize setCurrentViewportSize(Integer.MAX_VALUE,
+   * Integer.MAX_VALUE)}.
+   */
+  public void clearCurrentViewportSize() {
+    setCurrentViewportSize(Integer.MAX_VALUE, Integer.MAX_VALUE);
+  }
+
   /**
    * Allows the creation of multiple adaptive track selections.
    *
@@ -1546,6 +1611,22 @@ public class DefaultTrackSelector extends MappingTrackSelector {
     this.allowMultipleAdaptiveSelections = true;
   }
 
+  /**
+   * Enables reuse of selections for equal {@link TrackGroup}s, renderer support and {@link
+   * Parameters}, for example when a period's tracks are selected again, or when a following
+   * period has the same tracks. A reused selection is bound to the track groups passed to the
+   * current selection.
+   *
+   * <p>Cached selections are reused without calling {@link #selectAllTracks(MappedTrackInfo,
+   * int[][][], int[], Parameters)}, so subclasses that override it must only depend on its
+   * arguments.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   */
+  public void experimental_enableSelectionCache() {
+    this.selectionCacheEnabled = true;
+  }
+
   // MappingTrackSelector implementation.
 
   @Override
@@ -1557,37 +1638,58 @@ public class DefaultTrackSelector extends MappingTrackSelector {
           throws ExoPlaybackException {
     Parameters params = parametersReference.get();
     int rendererCount = mappedTrackInfo.getRendererCount();
-    TrackSelection.@NullableType Definition[] definitions =
-        selectAllTracks(
-            mappedTrackInfo,
-            rendererFormatSupports,
-            rendererMixedMimeTypeAdaptationSupports,
-            params);
 
-    // Apply track disabling and overriding.
-    for (int i = 0; i < rendererCount; i++) {
-      if (params.getRendererDisabled(i)) {
-        definitions[i] = null;
-        continue;
-      }
-      TrackGroupArray rendererTrackGroups = mappedTrackInfo.getTrackGroups(i);
-      if (params.hasSelectionOverride(i, rendererTrackGroups)) {
-        SelectionOverride override = params.getSelectionOverride(i, rendererTrackGroups);
-        definitions[i] =
-            override == null
-                ? null
-                : new TrackSelection.Definition(
-                    rendererTrackGroups.get(override.groupIndex),
-                    override.tracks,
-                    override.reason,
-                    override.data);
+    TrackSelection.@NullableType Definition[] definitions;
+    if (selectionCacheEnabled) {
+      SelectionKey selectionKey =
+          new SelectionKey(
+              mappedTrackInfo,
+              rendererFormatSupports,
+              rendererMixedMimeTypeAdaptationSupports,
+              params,
+              allowMultipleAdaptiveSelections,
+              Util.getSystemLanguageCodes());
+      // Remove the entry, so that it's put back with the new key. Otherwise the cache would keep
+      // the key of the first selection, and the track groups of its period.
+      CachedSelection cachedSelection = selectionCache.remove(selectionKey);
+      if (cachedSelection != null) {
+        definitions = cachedSelection.bindDefinitions(mappedTrackInfo);
+      } else {
+        definitions =
+            selectDefinitions(
+                mappedTrackInfo,
+                rendererFormatSupports,
+                rendererMixedMimeTypeAdaptationSupports,
+                params);
       }
+      selectionCache.put(selectionKey, new CachedSelection(mappedTrackInfo, definitions));
+      definitions = definitions.clone();
+    } else {
+      definitions =
+          selectDefinitions(
+              mappedTrackInfo,
+              rendererFormatSupports,
+              rendererMixedMimeTypeAdaptationSupports,
+              params);
     }
 
     @NullableType
     TrackSelection[] rendererTrackSelections =
         trackSelectionFactory.createTrackSelections(definitions, getBandwidthMeter());
 
+    // Register adaptive video selections so they can be capped to the current viewport size.
+    synchronized (adaptiveVideoTrackSelections) {
+      for (int i = 0; i < rendererCount; i++) {
+        TrackSelection trackSelection = rendererTrackSelections[i];
+        if (mappedTrackInfo.getRendererType(i) == C.TRACK_TYPE_VIDEO
+            && trackSelection instanceof AdaptiveTrackSelection) {
+          AdaptiveTrackSelection adaptiveTrackSelection = (AdaptiveTrackSelection) trackSelection;
+          adaptiveVideoTrackSelections.add(adaptiveTrackSelection);
+          updateMaxVideoPixels(adaptiveTrackSelection);
+        }
+      }
+    }
+
     // Initialize the renderer configurations to the default configuration for all renderers with
     // selections, and null otherwise.
     @NullableType RendererConfiguration[] rendererConfigurations =
@@ -1612,6 +1714,52 @@ public class DefaultTrackSelector extends MappingTrackSelector {
     return Pair.create(rendererConfigurations, rendererTrackSelections);
   }
 
+  private TrackSelection.@NullableType Definition[] selectDefinitions(
+      MappedTrackInfo mappedTrackInfo,
+      int[][][] rendererFormatSupports,
+      int[] rendererMixedMimeTypeAdaptationSupports,
+      Parameters params)
+      throws ExoPlaybackException {
+    int rendererCount = mappedTrackInfo.getRendererCount();
+    TrackSelection.@NullableType Definition[] definitions =
+        selectAllTracks(
+            mappedTrackInfo,
+            rendererFormatSupports,
+            rendererMixedMimeTypeAdaptationSupports,
+            params);
+
+    // Apply track disabling and overriding.
+    for (int i = 0; i < rendererCount; i++) {
+      if (params.getRendererDisabled(i)) {
+        definitions[i] = null;
+        continue;
+      }
+      TrackGroupArray rendererTrackGroups = mappedTrackInfo.getTrackGroups(i);
+      if (params.hasSelectionOverride(i, rendererTrackGroups)) {
+        SelectionOverride override = params.getSelectionOverride(i, rendererTrackGroups);
+        definitions[i] =
+            override == null
+                ? null
+                : new TrackSelection.Definition(
+                    rendererTrackGroups.get(override.groupIndex),
+                    override.tracks,
+                    override.reason,
+                    override.data);
+      }
+    }
+    return definitions;
+  }
+
+  private void updateMaxVideoPixels(AdaptiveTrackSelection trackSelection) {
+    // The current viewport size is exact, so its orientation cannot change.
+    trackSelection.setMaxVideoPixels(
+        getMaxVideoPixelsToRetain(
+            trackSelection.getTrackGroup(),
+            currentViewportWidth,
+            currentViewportHeight,
+            /* orientationMayChange= */ false));
+  }
+
   // Track selection prior to overrides and disabled flags being applied.
 
   /**
@@ -2471,6 +2619,35 @@ public class DefaultTrackSelector extends MappingTrackSelector {
       return selectedTrackIndices;
     }
 
+    int maxVideoPixelsToRetain =
+        getMaxVideoPixelsToRetain(group, viewportWidth, viewportHeight, orientationMayChange);
+
+    // Filter out formats that exceed maxVideoPixelsToRetain. These formats have an unnecessarily
+    // high resolution given the size at which the video will be displayed within the viewport. Also
+    // filter out formats with unknown dimensions, since we have some whose dimensions are known.
+    if (maxVideoPixelsToRetain != Integer.MAX_VALUE) {
+      for (int i = selectedTrackIndices.size() - 1; i >= 0; i--) {
+        Format format = group.getFormat(selectedTrackIndices.get(i));
+        int pixelCount = format.getPixelCount();
+        if (pixelCount == Format.NO_VALUE || pixelCount > maxVideoPixelsToRetain) {
+          selectedTrackIndices.remove(i);
+        }
+      }
+    }
+
+    return selectedTrackIndices;
+  }
+
+  /**
+   * Returns the maximum number of pixels of the formats in the group that are suitable for the
+   * viewport, or {@link Integer#MAX_VALUE} if the viewport dimensions are not set or all formats
+   * are suitable.
+   */
+  private static int getMaxVideoPixelsToRetain(
+      TrackGroup group, int viewportWidth, int viewportHeight, boolean orientationMayChange) {
+    if (viewportWidth == Integer.MAX_VALUE || viewportHeight == Integer.MAX_VALUE) {
+      return Integer.MAX_VALUE;
+    }
     int maxVideoPixelsToRetain = Integer.MAX_VALUE;
     for (int i = 0; i < group.length; i++) {
       Format format = group.getFormat(i);
@@ -2488,21 +2665,7 @@ public class DefaultTrackSelector extends MappingTrackSelector {
         }
       }
     }
-
-    // Filter out formats that exceed maxVideoPixelsToRetain. These formats have an unnecessarily
-    // high resolution given the size at which the video will be displayed within the viewport. Also
-    // filter out formats with unknown dimensions, since we have some whose dimensions are known.
-    if (maxVideoPixelsToRetain != Integer.MAX_VALUE) {
-      for (int i = selectedTrackIndices.size() - 1; i >= 0; i--) {
-        Format format = group.getFormat(selectedTrackIndices.get(i));
-        int pixelCount = format.getPixelCount();
-        if (pixelCount == Format.NO_VALUE || pixelCount > maxVideoPixelsToRetain) {
-          selectedTrackIndices.remove(i);
-        }
-      }
-    }
-
-    return selectedTrackIndices;
+    return maxVideoPixelsToRetain;
   }
 
   /**
@@ -2539,6 +2702,137 @@ public class DefaultTrackSelector extends MappingTrackSelector {
     return first > second ? 1 : (second > first ? -1 : 0);
   }
 
+  /**
+   * The inputs of a track selection, used to look up cached selections. Track groups and parameters
+   * are compared by their contents, so that equal tracks of different periods share a selection.
+   */
+  private static final class SelectionKey {
+
+    private final TrackGroup[][] rendererTrackGroups;
+    private final int[] rendererTypes;
+    private final int[][][] rendererFormatSupports;
+    private final int[] rendererMixedMimeTypeAdaptationSupports;
+    private final Parameters parameters;
+    private final boolean allowMultipleAdaptiveSelections;
+    private final String[] systemLanguageCodes;
+    private final int hashCode;
+
+    public SelectionKey(
+        MappedTrackInfo mappedTrackInfo,
+        int[][][] rendererFormatSupports,
+        int[] rendererMixedMimeTypeAdaptationSupports,
+        Parameters parameters,
+        boolean allowMultipleAdaptiveSelections,
+        String[] systemLanguageCodes) {
+      int rendererCount = mappedTrackInfo.getRendererCount();
+      rendererTrackGroups = new TrackGroup[rendererCount][];
+      rendererTypes = new int[rendererCount];
+      int result = 0;
+      for (int i = 0; i < rendererCount; i++) {
+        TrackGroupArray trackGroups = mappedTrackInfo.getTrackGroups(i);
+        rendererTrackGroups[i] = new TrackGroup[trackGroups.length];
+        for (int j = 0; j < trackGroups.length; j++) {
+          rendererTrackGroups[i][j] = trackGroups.get(j);
+          // Track groups cache their hash codes.
+          result = 31 * result + rendererTrackGroups[i][j].hashCode();
+        }
+        rendererTypes[i] = mappedTrackInfo.getRendererType(i);
+      }
+      this.rendererFormatSupports = rendererFormatSupports;
+      this.rendererMixedMimeTypeAdaptationSupports = rendererMixedMimeTypeAdaptationSupports;
+      this.parameters = parameters;
+      this.allowMultipleAdaptiveSelections = allowMultipleAdaptiveSelections;
+      this.systemLanguageCodes = systemLanguageCodes;
+      result = 31 * result + Arrays.hashCode(rendererTypes);
+      result = 31 * result + parameters.hashCode();
+      result = 31 * result + (allowMultipleAdaptiveSelections ? 1 : 0);
+      hashCode = result;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      SelectionKey other = (SelectionKey) obj;
+      if (hashCode != other.hashCode
+          || allowMultipleAdaptiveSelections != other.allowMultipleAdaptiveSelections
+          || rendererTrackGroups.length != other.rendererTrackGroups.length) {
+        return false;
+      }
+      for (int i = 0; i < rendererTrackGroups.length; i++) {
+        if (rendererTrackGroups[i].length != other.rendererTrackGroups[i].length) {
+          return false;
+        }
+        for (int j = 0; j < rendererTrackGroups[i].length; j++) {
+          if (!rendererTrackGroups[i][j].equals(other.rendererTrackGroups[i][j])) {
+            return false;
+          }
+        }
+      }
+      return parameters.equals(other.parameters)
+          && Arrays.equals(rendererTypes, other.rendererTypes)
+          && Arrays.equals(
+              rendererMixedMimeTypeAdaptationSupports,
+              other.rendererMixedMimeTypeAdaptationSupports)
+          && Arrays.equals(systemLanguageCodes, other.systemLanguageCodes)
+          && Arrays.deepEquals(rendererFormatSupports, other.rendererFormatSupports);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * A cached selection, which records the index of each selected track group among the track groups
+   * of its renderer, so that the selection can be bound to equal track groups of another period.
+   */
+  private static final class CachedSelection {
+
+    private final TrackSelection.@NullableType Definition[] definitions;
+    private final int[] trackGroupIndices;
+
+    public CachedSelection(
+        MappedTrackInfo mappedTrackInfo, TrackSelection.@NullableType Definition[] definitions) {
+      this.definitions = definitions;
+      trackGroupIndices = new int[definitions.length];
+      for (int i = 0; i < definitions.length; i++) {
+        TrackSelection.Definition definition = definitions[i];
+        trackGroupIndices[i] =
+            definition == null
+                ? C.INDEX_UNSET
+                : mappedTrackInfo.getTrackGroups(i).indexOf(definition.group);
+      }
+    }
+
+    /**
+     * Returns the cached definitions, bound to the track groups of {@code mappedTrackInfo}. The
+     * track groups must be equal to those of the cached selection.
+     */
+    public TrackSelection.@NullableType Definition[] bindDefinitions(
+        MappedTrackInfo mappedTrackInfo) {
+      TrackSelection.@NullableType Definition[] boundDefinitions =
+          new TrackSelection.Definition[definitions.length];
+      for (int i = 0; i < definitions.length; i++) {
+        TrackSelection.Definition definition = definitions[i];
+        if (definition != null) {
+          boundDefinitions[i] =
+              new TrackSelection.Definition(
+                  mappedTrackInfo.getTrackGroups(i).get(trackGroupIndices[i]),
+                  definition.tracks,
+                  definition.reason,
+                  definition.data);
+        }
+      }
+      return boundDefinitions;
+    }
+  }
+
   /** Represents how well an audio track matches the selection {@link Parameters}. */
   protected static final class AudioTrackScore implements Comparable<AudioTrackScore> {
 
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+import java.util.List;
+import org.checkerframework.checker.nullness.compatqual.NullableType;
+
+/**
+ * An adaptive {@link TrackSelection} that combines a throughput based rule with a buffer based rule
+ * derived from the BOLA algorithm.
+ *
+ * <p>While the buffer is short, for example at start-up and after seeks, the selection uses the
+ * bandwidth estimate like {@link AdaptiveTrackSelection}. Once at least the minimum buffer duration
+ * is buffered and the buffer based rule selects a track of at least the same quality, the
+ * selection switches to the buffer based rule, which maximizes the utility of the selected tracks
+ * (the logarithm of their bitrates) while keeping the buffer close to the buffer target. The
+ * selection switches back to the throughput based rule if the buffer drops below half the minimum
+ * buffer duration and the throughput based rule selects a higher quality track. A hysteresis on
+ * the buffered duration prevents the buffer based rule from switching back and forth between two
+ * tracks while the buffer level is close to the threshold between them.
+ *
+ * <p>The buffer based rule never switches to a higher quality than the bandwidth estimate allows,
+ * unless that quality is already selected. A full buffer alone doesn't show that the network can
+ * sustain a higher bitrate, and loading a track faster than the throughput allows drains the buffer
+ * until the selection has to switch down again.
+ *
+ * <p>The sizes of the next chunks, as reported by the {@link MediaChunkIterator}s passed to {@link
+ * #updateSelectedTrack(long, long, long, List, MediaChunkIterator[])}, are used instead of the
+ * declared bitrates of the tracks when available.
+ */
+public class HybridTrackSelection extends BaseTrackSelection {
+
+  /** Factory for {@link HybridTrackSelection} instances. */
+  public static class Factory implements TrackSelection.Factory {
+
+    private final int minBufferMs;
+    private final int bufferTargetMs;
+    private final int hysteresisBufferMs;
+    private final float bandwidthFraction;
+    private final Clock clock;
+
+    /** Creates a factory with default parameters. */
+    public Factory() {
+      this(
+          DEFAULT_MIN_BUFFER_MS,
+          DEFAULT_BUFFER_TARGET_MS,
+          DEFAULT_HYSTERESIS_BUFFER_MS,
+          DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param minBufferMs The duration of buffered media above which the buffer based rule may be
+     *     used, in milliseconds. Below this duration, the buffer based rule selects the lowest
+     *     quality track.
+     * @param bufferTargetMs The duration of buffered media at which the buffer based rule selects
+     *     the highest quality track, in milliseconds. Should not be larger than the maximum
+     *     duration of media buffered by the {@link com.google.android.exoplayer2.LoadControl}.
+     * @param hysteresisBufferMs The duration by which the buffered duration must exceed the level
+     *     at which the buffer based rule selects another track before it switches, in
+     *     milliseconds.
+     * @param bandwidthFraction The fraction of the available bandwidth that the throughput based
+     *     rule considers available for use.
+     */
+    public Factory(
+        int minBufferMs, int bufferTargetMs, int hysteresisBufferMs, float bandwidthFraction) {
+      this(minBufferMs, bufferTargetMs, hysteresisBufferMs, bandwidthFraction, Clock.DEFAULT);
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param minBufferMs See {@link #Factory(int, int, int, float)}.
+     * @param bufferTargetMs See {@link #Factory(int, int, int, float)}.
+     * @param hysteresisBufferMs See {@link #Factory(int, int, int, float)}.
+     * @param bandwidthFraction See {@link #Factory(int, int, int, float)}.
+     * @param clock A {@link Clock}.
+     */
+    public Factory(
+        int minBufferMs,
+        int bufferTargetMs,
+        int hysteresisBufferMs,
+        float bandwidthFraction,
+        Clock clock) {
+      Assertions.checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+      Assertions.checkArgument(hysteresisBufferMs >= 0);
+      this.minBufferMs = minBufferMs;
+      this.bufferTargetMs = bufferTargetMs;
+      this.hysteresisBufferMs = hysteresisBufferMs;
+      this.bandwidthFraction = bandwidthFraction;
+      this.clock = clock;
+    }
+
+    @Override
+    public @NullableType TrackSelection[] createTrackSelections(
+        @NullableType Definition[] definitions, BandwidthMeter bandwidthMeter) {
+      return TrackSelectionUtil.createTrackSelectionsForDefinitions(
+          definitions,
+          definition ->
+              new HybridTrackSelection(
+                  definition.group,
+                  definition.tracks,
+                  bandwidthMeter,
+                  minBufferMs,
+                  bufferTargetMs,
+                  hysteresisBufferMs,
+                  bandwidthFraction,
+                  clock));
+    }
+  }
+
+  /** The default minimum buffer duration for the buffer based rule, in milliseconds. */
+  public static final int DEFAULT_MIN_BUFFER_MS = 10_000;
+  /** The default buffer target of the buffer based rule, in milliseconds. */
+  public static final int DEFAULT_BUFFER_TARGET_MS = 30_000;
+  /** The default hysteresis of the buffer based rule, in milliseconds. */
+  public static final int DEFAULT_HYSTERESIS_BUFFER_MS = 5_000;
+  /** The default fraction of the available bandwidth used by the throughput based rule. */
+  public static final float DEFAULT_BANDWIDTH_FRACTION =
+      AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final double minBufferSeconds;
+  private final double bufferTargetSeconds;
+  private final double hysteresisBufferSeconds;
+  private final float bandwidthFraction;
+  private final Clock clock;
+  private final long[] trackBitrates;
+
+  private boolean isBufferBased;
+  private float playbackSpeed;
+  private int selectedIndex;
+  private int reason;
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param minBufferMs See {@link Factory#Factory(int, int, int, float)}.
+   * @param bufferTargetMs See {@link Factory#Factory(int, int, int, float)}.
+   * @param hysteresisBufferMs See {@link Factory#Factory(int, int, int, float)}.
+   * @param bandwidthFraction See {@link Factory#Factory(int, int, int, float)}.
+   * @param clock A {@link Clock}.
+   */
+  public HybridTrackSelection(
+      TrackGroup group,
+      int[] tracks,
+      BandwidthMeter bandwidthMeter,
+      int minBufferMs,
+      int bufferTargetMs,
+      int hysteresisBufferMs,
+      float bandwidthFraction,
+      Clock clock) {
+    super(group, tracks);
+    Assertions.checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+    Assertions.checkArgument(hysteresisBufferMs >= 0);
+    this.bandwidthMeter = bandwidthMeter;
+    this.minBufferSeconds = minBufferMs / 1000.0;
+    this.bufferTargetSeconds = bufferTargetMs / 1000.0;
+    this.hysteresisBufferSeconds = hysteresisBufferMs / 1000.0;
+    this.bandwidthFraction = bandwidthFraction;
+    this.clock = clock;
+    trackBitrates = new long[length];
+    playbackSpeed = 1f;
+    reason = C.SELECTION_REASON_UNKNOWN;
+    updateTrackBitrates(/* mediaChunkIterators= */ null);
+    selectedIndex = selectIndexUsingThroughput(/* nowMs= */ Long.MIN_VALUE);
+  }
+
+  @Override
+  public void onPlaybackSpeed(float playbackSpeed) {
+    this.playbackSpeed = playbackSpeed;
+  }
+
+  @Override
+  public void onDiscontinuity() {
+    // The buffer is usually short after a discontinuity, so start with the throughput based rule.
+    isBufferBased = false;
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  @Nullable
+  public Object getSelectionData() {
+    return null;
+  }
+
+  @Override
+  public void updateSelectedTrack(
+      long playbackPositionUs,
+      long bufferedDurationUs,
+      long availableDurationUs,
+      List<? extends MediaChunk> queue,
+      MediaChunkIterator[] mediaChunkIterators) {
+    long nowMs = clock.elapsedRealtime();
+    updateTrackBitrates(mediaChunkIterators);
+    int throughputIndex = selectIndexUsingThroughput(nowMs);
+
+    // Make initial selection
+    if (reason == C.SELECTION_REASON_UNKNOWN) {
+      reason = C.SELECTION_REASON_INITIAL;
+      selectedIndex = throughputIndex;
+      return;
+    }
+
+    double bufferSeconds = bufferedDurationUs / (double) C.MICROS_PER_SECOND;
+    int bufferIndex = selectIndexUsingBuffer(nowMs, bufferSeconds);
+    if (isBufferBased) {
+      if (bufferSeconds < minBufferSeconds / 2 && bufferIndex > throughputIndex) {
+        isBufferBased = false;
+      }
+    } else if (bufferSeconds >= minBufferSeconds && bufferIndex <= throughputIndex) {
+      isBufferBased = true;
+    }
+
+    int currentSelectedIndex = selectedIndex;
+    int newSelectedIndex;
+    if (isBufferBased) {
+      newSelectedIndex = bufferIndex;
+      if (!isBlacklisted(currentSelectedIndex, nowMs)) {
+        // Only switch if the buffer based rule still selects a different track when the buffered
+        // duration is moved towards the current track by the hysteresis.
+        if (newSelectedIndex < currentSelectedIndex) {
+          newSelectedIndex =
+              Math.min(
+                  currentSelectedIndex,
+                  selectIndexUsingBuffer(nowMs, bufferSeconds - hysteresisBufferSeconds));
+        } else if (newSelectedIndex > currentSelectedIndex) {
+          newSelectedIndex =
+              Math.max(
+                  currentSelectedIndex,
+                  selectIndexUsingBuffer(nowMs, bufferSeconds + hysteresisBufferSeconds));
+        }
+      }
+      if (newSelectedIndex < currentSelectedIndex && newSelectedIndex < throughputIndex) {
+        // Don't switch to a higher quality than the bandwidth estimate allows.
+        newSelectedIndex =
+            isBlacklisted(currentSelectedIndex, nowMs)
+                ? throughputIndex
+                : Math.min(throughputIndex, currentSelectedIndex);
+      }
+    } else {
+      newSelectedIndex = throughputIndex;
+    }
+    selectedIndex = newSelectedIndex;
+    if (selectedIndex != currentSelectedIndex) {
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
+  /**
+   * Updates the bitrate of each track, using the size and duration of its next chunk if known, or
+   * its declared bitrate otherwise.
+   */
+  private void updateTrackBitrates(@Nullable MediaChunkIterator[] mediaChunkIterators) {
+    for (int i = 0; i < length; i++) {
+      long chunkBitrate = Format.NO_VALUE;
+      if (mediaChunkIterators != null && i < mediaChunkIterators.length) {
+        chunkBitrate =
+            TrackSelectionUtil.getAverageBitrate(mediaChunkIterators[i], /* maxDurationUs= */ 0);
+      }
+      int formatBitrate = getFormat(i).bitrate;
+      trackBitrates[i] =
+          chunkBitrate != Format.NO_VALUE
+              ? chunkBitrate
+              : (formatBitrate != Format.NO_VALUE ? formatBitrate : 1);
+    }
+  }
+
+  private int selectIndexUsingThroughput(long nowMs) {
+    long effectiveBitrate = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+    int lowestBitrateNonBlacklistedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+        if (Math.round(trackBitrates[i] * playbackSpeed) <= effectiveBitrate) {
+          return i;
+        }
+        lowestBitrateNonBlacklistedIndex = i;
+      }
+    }
+    return lowestBitrateNonBlacklistedIndex;
+  }
+
+  /**
+   * Selects the track that maximizes the BOLA objective {@code (v * (utility + gamma) - buffer) /
+   * size}, where the utility of a track is the logarithm of its bitrate relative to the lowest
+   * bitrate, plus one. The parameters {@code v} and {@code gamma} are chosen such that the lowest
+   * quality track is selected at the minimum buffer duration and the highest quality track at the
+   * buffer target.
+   */
+  private int selectIndexUsingBuffer(long nowMs, double bufferSeconds) {
+    long minBitrate = Long.MAX_VALUE;
+    long maxBitrate = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        minBitrate = Math.min(minBitrate, trackBitrates[i]);
+        maxBitrate = Math.max(maxBitrate, trackBitrates[i]);
+      }
+    }
+    if (maxBitrate == 0) {
+      // All tracks are blacklisted.
+      return length - 1;
+    }
+    double maxUtility = Math.log((double) maxBitrate / minBitrate) + 1;
+    double gamma = (maxUtility - 1) / (bufferTargetSeconds / minBufferSeconds - 1);
+    double v = gamma > 0 ? minBufferSeconds / gamma : 0;
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        double utility = Math.log((double) trackBitrates[i] / minBitrate) + 1;
+        double score = (v * (utility + gamma) - bufferSeconds) / trackBitrates[i];
+        if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+          bestIndex = i;
+          bestScore = score;
+        }
+      }
+    }
+    return bestIndex;
+  }
+}
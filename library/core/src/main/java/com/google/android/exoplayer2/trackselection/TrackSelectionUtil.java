@@ -16,9 +16,13 @@
 package com.google.android.exoplayer2.trackselection;
 
 import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector.SelectionOverride;
 import com.google.android.exoplayer2.trackselection.TrackSelection.Definition;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import org.checkerframework.checker.nullness.compatqual.NullableType;
 
 /** Track selection related utility methods. */
@@ -97,4 +101,38 @@ public final class TrackSelectionUtil {
     }
     return builder.build();
   }
+
+  /**
+   * Returns the average bitrate of the upcoming chunks of a track, calculated from the lengths of
+   * their {@link DataSpec DataSpecs}. The iterator is {@link MediaChunkIterator#reset() reset}
+   * before returning.
+   *
+   * @param iterator The {@link MediaChunkIterator} of the track.
+   * @param maxDurationUs The maximum duration of the chunks to average over, in microseconds. At
+   *     least one chunk is used, even if its duration exceeds this value.
+   * @return The average bitrate of the upcoming chunks, in bits per second, or {@link
+   *     Format#NO_VALUE} if there are no upcoming chunks or the length of one of the chunks is
+   *     unknown.
+   */
+  public static long getAverageBitrate(MediaChunkIterator iterator, long maxDurationUs) {
+    long totalDurationUs = 0;
+    long totalLength = 0;
+    while (iterator.next()) {
+      long chunkLength = iterator.getDataSpec().length;
+      if (chunkLength == C.LENGTH_UNSET) {
+        iterator.reset();
+        return Format.NO_VALUE;
+      }
+      long chunkDurationUs = iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs();
+      if (totalDurationUs > 0 && totalDurationUs + chunkDurationUs > maxDurationUs) {
+        break;
+      }
+      totalDurationUs += chunkDurationUs;
+      totalLength += chunkLength;
+    }
+    iterator.reset();
+    return totalDurationUs > 0
+        ? totalLength * C.BITS_PER_BYTE * C.MICROS_PER_SECOND / totalDurationUs
+        : Format.NO_VALUE;
+  }
 }
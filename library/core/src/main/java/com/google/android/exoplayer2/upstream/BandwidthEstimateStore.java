@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.database.DatabaseIOException;
+import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.database.VersionTable;
+
+/**
+ * Persists bitrate estimates of a {@link DefaultBandwidthMeter}, keyed by network type and by an
+ * opaque network identifier supplied by the application (for example a hash of the Wi-Fi SSID).
+ *
+ * <p>Estimates are stored in a table of the database provided by a {@link DatabaseProvider}. The
+ * same database can be shared with other ExoPlayer components, such as a {@link
+ * com.google.android.exoplayer2.offline.DefaultDownloadIndex}.
+ */
+public final class BandwidthEstimateStore {
+
+  /** A persisted bitrate estimate. */
+  public static final class Estimate {
+
+    /** The bitrate estimate, in bits per second. */
+    public final long bitrateEstimate;
+    /** The wall clock time at which the estimate was stored, in milliseconds since the epoch. */
+    public final long timestampMs;
+
+    /**
+     * @param bitrateEstimate The bitrate estimate, in bits per second.
+     * @param timestampMs The wall clock time at which the estimate was stored, in milliseconds
+     *     since the epoch.
+     */
+    public Estimate(long bitrateEstimate, long timestampMs) {
+      this.bitrateEstimate = bitrateEstimate;
+      this.timestampMs = timestampMs;
+    }
+  }
+
+  private static final String TABLE_NAME = DatabaseProvider.TABLE_PREFIX + "BandwidthEstimates";
+  private static final int TABLE_VERSION = 1;
+  private static final String INSTANCE_UID = "";
+
+  private static final String COLUMN_NETWORK_TYPE = "network_type";
+  private static final String COLUMN_NETWORK_ID = "network_id";
+  private static final String COLUMN_BITRATE_ESTIMATE = "bitrate_estimate";
+  private static final String COLUMN_TIMESTAMP_MS = "timestamp_ms";
+
+  private static final int COLUMN_INDEX_BITRATE_ESTIMATE = 0;
+  private static final int COLUMN_INDEX_TIMESTAMP_MS = 1;
+
+  private static final String WHERE_NETWORK_TYPE_AND_NETWORK_ID_EQUALS =
+      COLUMN_NETWORK_TYPE + " = ? AND " + COLUMN_NETWORK_ID + " = ?";
+
+  private static final String[] COLUMNS =
+      new String[] {COLUMN_BITRATE_ESTIMATE, COLUMN_TIMESTAMP_MS};
+  private static final String TABLE_SCHEMA =
+      "("
+          + COLUMN_NETWORK_TYPE
+          + " INTEGER NOT NULL,"
+          + COLUMN_NETWORK_ID
+          + " TEXT NOT NULL,"
+          + COLUMN_BITRATE_ESTIMATE
+          + " INTEGER NOT NULL,"
+          + COLUMN_TIMESTAMP_MS
+          + " INTEGER NOT NULL,"
+          + "PRIMARY KEY ("
+          + COLUMN_NETWORK_TYPE
+          + ", "
+          + COLUMN_NETWORK_ID
+          + "))";
+
+  private final DatabaseProvider databaseProvider;
+
+  private boolean initialized;
+
+  /** @param databaseProvider Provides the database in which the estimates are stored. */
+  public BandwidthEstimateStore(DatabaseProvider databaseProvider) {
+    this.databaseProvider = databaseProvider;
+  }
+
+  /**
+   * Returns the estimate stored for a network, or null if there is none.
+   *
+   * @param networkType The {@link C.NetworkType} of the network.
+   * @param networkId The application supplied identifier of the network.
+   * @return The stored estimate, or null if there is none.
+   * @throws DatabaseIOException If an error occurs reading the estimate.
+   */
+  @Nullable
+  public synchronized Estimate get(@C.NetworkType int networkType, String networkId)
+      throws DatabaseIOException {
+    ensureInitialized();
+    try (Cursor cursor =
+        databaseProvider
+            .getReadableDatabase()
+            .query(
+                TABLE_NAME,
+                COLUMNS,
+                WHERE_NETWORK_TYPE_AND_NETWORK_ID_EQUALS,
+                new String[] {Integer.toString(networkType), networkId},
+                /* groupBy= */ null,
+                /* having= */ null,
+                /* orderBy= */ null)) {
+      if (!cursor.moveToNext()) {
+        return null;
+      }
+      return new Estimate(
+          cursor.getLong(COLUMN_INDEX_BITRATE_ESTIMATE), cursor.getLong(COLUMN_INDEX_TIMESTAMP_MS));
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Stores the estimate for a network, replacing any estimate previously stored for it.
+   *
+   * @param networkType The {@link C.NetworkType} of the network.
+   * @param networkId The application supplied identifier of the network.
+   * @param estimate The estimate to store.
+   * @throws DatabaseIOException If an error occurs writing the estimate.
+   */
+  public synchronized void put(@C.NetworkType int networkType, String networkId, Estimate estimate)
+      throws DatabaseIOException {
+    ensureInitialized();
+    try {
+      ContentValues values = new ContentValues();
+      values.put(COLUMN_NETWORK_TYPE, networkType);
+      values.put(COLUMN_NETWORK_ID, networkId);
+      values.put(COLUMN_BITRATE_ESTIMATE, estimate.bitrateEstimate);
+      values.put(COLUMN_TIMESTAMP_MS, estimate.timestampMs);
+      databaseProvider
+          .getWritableDatabase()
+          .replaceOrThrow(TABLE_NAME, /* nullColumnHack= */ null, values);
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  /**
+   * Removes all stored estimates.
+   *
+   * @throws DatabaseIOException If an error occurs removing the estimates.
+   */
+  public synchronized void clear() throws DatabaseIOException {
+    ensureInitialized();
+    try {
+      databaseProvider
+          .getWritableDatabase()
+          .delete(TABLE_NAME, /* whereClause= */ null, /* whereArgs= */ null);
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
+  private void ensureInitialized() throws DatabaseIOException {
+    if (initialized) {
+      return;
+    }
+    try {
+      SQLiteDatabase readableDatabase = databaseProvider.getReadableDatabase();
+      int version =
+          VersionTable.getVersion(
+              readableDatabase, VersionTable.FEATURE_BANDWIDTH_ESTIMATES, INSTANCE_UID);
+      if (version != TABLE_VERSION) {
+        SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+        writableDatabase.beginTransaction();
+        try {
+          VersionTable.setVersion(
+              writableDatabase,
+              VersionTable.FEATURE_BANDWIDTH_ESTIMATES,
+              INSTANCE_UID,
+              TABLE_VERSION);
+          writableDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+          writableDatabase.execSQL("CREATE TABLE " + TABLE_NAME + " " + TABLE_SCHEMA);
+          writableDatabase.setTransactionSuccessful();
+        } finally {
+          writableDatabase.endTransaction();
+        }
+      }
+      initialized = true;
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+}
@@ -47,6 +47,17 @@ public interface BandwidthMeter {
   /** Returns the estimated bitrate. */
   long getBitrateEstimate();
 
+  /**
+   * Returns the estimated bitrate of transfers from the specified host. Implementations that don't
+   * estimate bitrates per host return {@link #getBitrateEstimate()}.
+   *
+   * @param host The host, or null if unknown.
+   * @return The estimated bitrate of transfers from {@code host}.
+   */
+  default long getBitrateEstimate(@Nullable String host) {
+    return getBitrateEstimate();
+  }
+
   /**
    * Returns the {@link TransferListener} that this instance uses to gather bandwidth information
    * from data transfers. May be null if the implementation does not listen to data transfers.
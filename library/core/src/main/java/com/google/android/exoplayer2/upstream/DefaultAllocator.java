@@ -91,6 +91,10 @@ public final class DefaultAllocator implements Allocator {
     }
   }
 
+  public synchronized int getTargetBufferSize() {
+    return targetBufferSize;
+  }
+
   @Override
   public synchronized Allocation allocate() {
     allocatedCount++;
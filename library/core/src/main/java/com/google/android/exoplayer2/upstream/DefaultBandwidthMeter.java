@@ -25,16 +25,20 @@ import android.os.Looper;
 import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.database.DatabaseIOException;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Clock;
 import com.google.android.exoplayer2.util.EventDispatcher;
+import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.SlidingPercentile;
 import com.google.android.exoplayer2.util.Util;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -44,6 +48,17 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
  * time a transfer ends. The initial estimate is based on the current operator's network country
  * code or the locale of the user, as well as the network connection type. This can be configured in
  * the {@link Builder}.
+ *
+ * <p>If a {@link BandwidthEstimateStore} is set, the estimates for networks identified by the
+ * application through {@link #setNetworkId(String)} are persisted, and the initial estimate for a
+ * known network is seeded from the estimate stored for it. Stored estimates decay towards the
+ * default initial estimate as they age. The store is only accessed on a background thread, so the
+ * default initial estimate is used until the stored estimate has been loaded.
+ *
+ * <p>The meter can also estimate bitrates separately for each host, so that transfers from hosts
+ * with different throughput (for example a CDN edge and an origin server) don't affect each other's
+ * estimates. Transfers that overlap in time are always combined into a single sample, so that
+ * concurrent loads don't inflate the estimate.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener {
 
@@ -79,6 +94,18 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   /** Default maximum weight for the sliding window. */
   public static final int DEFAULT_SLIDING_WINDOW_MAX_WEIGHT = 2000;
 
+  /**
+   * Default time after which half of the difference between a persisted estimate and the default
+   * initial estimate is discarded, in milliseconds.
+   */
+  public static final long DEFAULT_PERSISTED_ESTIMATE_HALF_LIFE_MS = 24 * 60 * 60 * 1000;
+
+  /**
+   * Suggested maximum number of hosts for which bitrates are estimated separately, for use with
+   * {@link Builder#setMaxHostEstimateCount(int)}. Separate estimates are disabled by default.
+   */
+  public static final int SUGGESTED_MAX_HOST_ESTIMATE_COUNT = 16;
+
   @Nullable private static DefaultBandwidthMeter singletonInstance;
 
   /** Builder for a bandwidth meter. */
@@ -90,6 +117,11 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     private int slidingWindowMaxWeight;
     private Clock clock;
     private boolean resetOnNetworkTypeChange;
+    @Nullable private BandwidthEstimateStore bandwidthEstimateStore;
+    @Nullable private Executor bandwidthEstimateStoreExecutor;
+    @Nullable private String networkId;
+    private long persistedEstimateHalfLifeMs;
+    private int maxHostEstimateCount;
 
     /**
      * Creates a builder with default parameters and without listener.
@@ -103,6 +135,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       slidingWindowMaxWeight = DEFAULT_SLIDING_WINDOW_MAX_WEIGHT;
       clock = Clock.DEFAULT;
       resetOnNetworkTypeChange = true;
+      persistedEstimateHalfLifeMs = DEFAULT_PERSISTED_ESTIMATE_HALF_LIFE_MS;
     }
 
     /**
@@ -181,18 +214,90 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return this;
     }
 
+    /**
+     * Sets the {@link BandwidthEstimateStore} in which estimates are persisted. Estimates are only
+     * persisted and restored while a network identifier is set, either with {@link
+     * #setNetworkId(String)} or with {@link DefaultBandwidthMeter#setNetworkId(String)}.
+     *
+     * @param bandwidthEstimateStore The store in which estimates are persisted.
+     * @param persistedEstimateHalfLifeMs The time after which half of the difference between a
+     *     persisted estimate and the default initial estimate is discarded, in milliseconds.
+     * @return This builder.
+     */
+    public Builder setBandwidthEstimateStore(
+        BandwidthEstimateStore bandwidthEstimateStore, long persistedEstimateHalfLifeMs) {
+      Assertions.checkArgument(persistedEstimateHalfLifeMs > 0);
+      this.bandwidthEstimateStore = bandwidthEstimateStore;
+      this.persistedEstimateHalfLifeMs = persistedEstimateHalfLifeMs;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Executor} on which the {@link BandwidthEstimateStore} is accessed. The
+     * default is a dedicated background thread.
+     *
+     * <p>Applications should not normally call this method. It is intended for testing purposes.
+     *
+     * @param bandwidthEstimateStoreExecutor The executor on which the store is accessed. Must
+     *     execute tasks in the order in which they're submitted.
+     * @return This builder.
+     */
+    public Builder setBandwidthEstimateStoreExecutor(Executor bandwidthEstimateStoreExecutor) {
+      this.bandwidthEstimateStoreExecutor = bandwidthEstimateStoreExecutor;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of hosts for which bitrates are estimated separately, and returned
+     * by {@link DefaultBandwidthMeter#getBitrateEstimate(String)}. The default value is {@code 0},
+     * meaning that only a single estimate for all hosts is maintained.
+     *
+     * <p>When the maximum is reached, the estimate of the least recently used host is discarded.
+     * {@link #SUGGESTED_MAX_HOST_ESTIMATE_COUNT} is a suitable value.
+     *
+     * @param maxHostEstimateCount The maximum number of hosts for which bitrates are estimated.
+     * @return This builder.
+     */
+    public Builder setMaxHostEstimateCount(int maxHostEstimateCount) {
+      Assertions.checkArgument(maxHostEstimateCount >= 0);
+      this.maxHostEstimateCount = maxHostEstimateCount;
+      return this;
+    }
+
+    /**
+     * Sets the identifier of the initial network. See {@link
+     * DefaultBandwidthMeter#setNetworkId(String)}.
+     *
+     * @param networkId The identifier of the initial network, or null if unknown.
+     * @return This builder.
+     */
+    public Builder setNetworkId(@Nullable String networkId) {
+      this.networkId = networkId;
+      return this;
+    }
+
     /**
      * Builds the bandwidth meter.
      *
      * @return A bandwidth meter with the configured properties.
      */
     public DefaultBandwidthMeter build() {
+      Executor bandwidthEstimateStoreExecutor = this.bandwidthEstimateStoreExecutor;
+      if (bandwidthEstimateStore != null && bandwidthEstimateStoreExecutor == null) {
+        bandwidthEstimateStoreExecutor =
+            Util.newSingleThreadExecutor("ExoPlayer:BandwidthEstimateStore");
+      }
       return new DefaultBandwidthMeter(
           context,
           initialBitrateEstimates,
           slidingWindowMaxWeight,
           clock,
-          resetOnNetworkTypeChange);
+          resetOnNetworkTypeChange,
+          bandwidthEstimateStore,
+          bandwidthEstimateStoreExecutor,
+          networkId,
+          persistedEstimateHalfLifeMs,
+          maxHostEstimateCount);
     }
 
     private static SparseArray<Long> getInitialBitrateEstimatesForCountry(String countryCode) {
@@ -231,12 +336,21 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
   private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+  private static final int MIN_PERSIST_INTERVAL_MS = 10_000;
+
+  private static final String TAG = "DefaultBandwidthMeter";
 
   @Nullable private final Context context;
   private final SparseArray<Long> initialBitrateEstimates;
   private final EventDispatcher<EventListener> eventDispatcher;
   private final SlidingPercentile slidingPercentile;
   private final Clock clock;
+  @Nullable private final BandwidthEstimateStore bandwidthEstimateStore;
+  @Nullable private final Executor bandwidthEstimateStoreExecutor;
+  private final long persistedEstimateHalfLifeMs;
+  private final int maxHostEstimateCount;
+  private final int maxWeight;
+  private final LinkedHashMap<String, HostBitrateEstimator> hostEstimators;
 
   private int streamCount;
   private long sampleStartTimeMs;
@@ -251,6 +365,11 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   private boolean networkTypeOverrideSet;
   @C.NetworkType private int networkTypeOverride;
 
+  @Nullable private String networkId;
+  private boolean hasEstimateToPersist;
+  private long lastPersistTimeMs;
+  private int resetCount;
+
   /** @deprecated Use {@link Builder} instead. */
   @Deprecated
   public DefaultBandwidthMeter() {
@@ -259,7 +378,12 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
         /* initialBitrateEstimates= */ new SparseArray<>(),
         DEFAULT_SLIDING_WINDOW_MAX_WEIGHT,
         Clock.DEFAULT,
-        /* resetOnNetworkTypeChange= */ false);
+        /* resetOnNetworkTypeChange= */ false,
+        /* bandwidthEstimateStore= */ null,
+        /* bandwidthEstimateStoreExecutor= */ null,
+        /* networkId= */ null,
+        DEFAULT_PERSISTED_ESTIMATE_HALF_LIFE_MS,
+        /* maxHostEstimateCount= */ 0);
   }
 
   private DefaultBandwidthMeter(
@@ -267,15 +391,36 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       SparseArray<Long> initialBitrateEstimates,
       int maxWeight,
       Clock clock,
-      boolean resetOnNetworkTypeChange) {
+      boolean resetOnNetworkTypeChange,
+      @Nullable BandwidthEstimateStore bandwidthEstimateStore,
+      @Nullable Executor bandwidthEstimateStoreExecutor,
+      @Nullable String networkId,
+      long persistedEstimateHalfLifeMs,
+      int maxHostEstimateCount) {
     this.context = context == null ? null : context.getApplicationContext();
     this.initialBitrateEstimates = initialBitrateEstimates;
     this.eventDispatcher = new EventDispatcher<>();
     this.slidingPercentile = new SlidingPercentile(maxWeight);
     this.clock = clock;
+    this.bandwidthEstimateStore = bandwidthEstimateStore;
+    this.bandwidthEstimateStoreExecutor = bandwidthEstimateStoreExecutor;
+    this.networkId = networkId;
+    this.persistedEstimateHalfLifeMs = persistedEstimateHalfLifeMs;
+    this.maxHostEstimateCount = maxHostEstimateCount;
+    this.maxWeight = maxWeight;
+    hostEstimators =
+        new LinkedHashMap<String, HostBitrateEstimator>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, HostBitrateEstimator> eldest) {
+            return size() > DefaultBandwidthMeter.this.maxHostEstimateCount;
+          }
+        };
+    lastPersistTimeMs = C.TIME_UNSET;
     // Set the initial network type and bitrate estimate
     networkType = context == null ? C.NETWORK_TYPE_UNKNOWN : Util.getNetworkType(context);
     bitrateEstimate = getInitialBitrateEstimateForNetworkType(networkType);
+    maybeLoadPersistedEstimate();
     // Register to receive connectivity actions if possible.
     if (context != null && resetOnNetworkTypeChange) {
       ConnectivityActionReceiver connectivityActionReceiver =
@@ -298,11 +443,45 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     onConnectivityAction();
   }
 
+  /**
+   * Sets the identifier of the current network, for example a hash of the SSID of the current
+   * Wi-Fi network. The identifier is opaque to the meter and only used as a key for the estimates
+   * persisted in the {@link BandwidthEstimateStore}, together with the network type. If the
+   * identifier changes, the meter is reset and seeded with the estimate stored for the new network.
+   *
+   * <p>Has no effect on the estimate if no {@link BandwidthEstimateStore} is set.
+   *
+   * @param networkId The identifier of the current network, or null if unknown.
+   */
+  public synchronized void setNetworkId(@Nullable String networkId) {
+    if (Util.areEqual(this.networkId, networkId)) {
+      return;
+    }
+    this.networkId = networkId;
+    if (bandwidthEstimateStore != null) {
+      reset();
+    }
+  }
+
   @Override
   public synchronized long getBitrateEstimate() {
     return bitrateEstimate;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Returns {@link #getBitrateEstimate()} if the bitrate of the host is not estimated
+   * separately, or if not enough data has been transferred from it yet.
+   */
+  @Override
+  public synchronized long getBitrateEstimate(@Nullable String host) {
+    HostBitrateEstimator hostEstimator = host != null ? hostEstimators.get(host) : null;
+    return hostEstimator != null && hostEstimator.bitrateEstimate != C.LENGTH_UNSET
+        ? hostEstimator.bitrateEstimate
+        : bitrateEstimate;
+  }
+
   @Override
   @Nullable
   public TransferListener getTransferListener() {
@@ -330,10 +509,20 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     if (!isNetwork) {
       return;
     }
+    long nowMs = clock.elapsedRealtime();
     if (streamCount == 0) {
-      sampleStartTimeMs = clock.elapsedRealtime();
+      sampleStartTimeMs = nowMs;
     }
     streamCount++;
+    String host = dataSpec.uri.getHost();
+    if (maxHostEstimateCount > 0 && host != null) {
+      HostBitrateEstimator hostEstimator = hostEstimators.get(host);
+      if (hostEstimator == null) {
+        hostEstimator = new HostBitrateEstimator(maxWeight);
+        hostEstimators.put(host, hostEstimator);
+      }
+      hostEstimator.onTransferStart(nowMs);
+    }
   }
 
   @Override
@@ -343,6 +532,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return;
     }
     sampleBytesTransferred += bytes;
+    HostBitrateEstimator hostEstimator = getHostEstimator(dataSpec);
+    if (hostEstimator != null) {
+      hostEstimator.sampleBytesTransferred += bytes;
+    }
   }
 
   @Override
@@ -352,6 +545,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     }
     Assertions.checkState(streamCount > 0);
     long nowMs = clock.elapsedRealtime();
+    HostBitrateEstimator hostEstimator = getHostEstimator(dataSpec);
+    if (hostEstimator != null) {
+      hostEstimator.onTransferEnd(nowMs);
+    }
     int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
     totalElapsedTimeMs += sampleElapsedTimeMs;
     totalBytesTransferred += sampleBytesTransferred;
@@ -361,7 +558,9 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
           || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
         bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
+        hasEstimateToPersist = true;
       }
+      maybePersistBitrateEstimate(nowMs);
       maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
       sampleStartTimeMs = nowMs;
       sampleBytesTransferred = 0;
@@ -385,7 +584,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       // It's better not to reset the bandwidth meter for these network types.
       return;
     }
+    reset();
+  }
 
+  private void reset() {
     // Reset the bitrate estimate and report it, along with any bytes transferred.
     this.bitrateEstimate = getInitialBitrateEstimateForNetworkType(networkType);
     long nowMs = clock.elapsedRealtime();
@@ -398,6 +600,87 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     totalBytesTransferred = 0;
     totalElapsedTimeMs = 0;
     slidingPercentile.reset();
+    hostEstimators.clear();
+    hasEstimateToPersist = false;
+    lastPersistTimeMs = C.TIME_UNSET;
+    resetCount++;
+    maybeLoadPersistedEstimate();
+  }
+
+  private void maybeLoadPersistedEstimate() {
+    BandwidthEstimateStore bandwidthEstimateStore = this.bandwidthEstimateStore;
+    String networkId = this.networkId;
+    if (bandwidthEstimateStore == null || networkId == null) {
+      return;
+    }
+    @C.NetworkType int networkType = this.networkType;
+    int resetCount = this.resetCount;
+    Assertions.checkNotNull(bandwidthEstimateStoreExecutor)
+        .execute(
+            () -> {
+              BandwidthEstimateStore.Estimate persistedEstimate;
+              try {
+                persistedEstimate = bandwidthEstimateStore.get(networkType, networkId);
+              } catch (DatabaseIOException e) {
+                Log.w(TAG, "Failed to load persisted bitrate estimate", e);
+                return;
+              }
+              if (persistedEstimate != null) {
+                onPersistedEstimateLoaded(resetCount, persistedEstimate);
+              }
+            });
+  }
+
+  private synchronized void onPersistedEstimateLoaded(
+      int resetCount, BandwidthEstimateStore.Estimate persistedEstimate) {
+    if (resetCount != this.resetCount || hasEstimateToPersist) {
+      // The meter was reset since the load started, or has measured an estimate of its own.
+      return;
+    }
+    // Decay the persisted estimate towards the default initial estimate, depending on its age.
+    long initialBitrateEstimate = getInitialBitrateEstimateForNetworkType(networkType);
+    long ageMs = Math.max(0, System.currentTimeMillis() - persistedEstimate.timestampMs);
+    double persistedEstimateWeight = Math.pow(0.5, (double) ageMs / persistedEstimateHalfLifeMs);
+    bitrateEstimate =
+        Math.round(
+            persistedEstimateWeight * persistedEstimate.bitrateEstimate
+                + (1 - persistedEstimateWeight) * initialBitrateEstimate);
+    maybeNotifyBandwidthSample(/* elapsedMs= */ 0, /* bytesTransferred= */ 0, bitrateEstimate);
+  }
+
+  private void maybePersistBitrateEstimate(long nowMs) {
+    if (bandwidthEstimateStore == null
+        || networkId == null
+        || !hasEstimateToPersist
+        || (lastPersistTimeMs != C.TIME_UNSET
+            && nowMs - lastPersistTimeMs < MIN_PERSIST_INTERVAL_MS)) {
+      return;
+    }
+    lastPersistTimeMs = nowMs;
+    BandwidthEstimateStore bandwidthEstimateStore = this.bandwidthEstimateStore;
+    @C.NetworkType int networkType = this.networkType;
+    String networkId = this.networkId;
+    BandwidthEstimateStore.Estimate estimate =
+        new BandwidthEstimateStore.Estimate(bitrateEstimate, System.currentTimeMillis());
+    // The store is written without holding the lock of the meter.
+    Assertions.checkNotNull(bandwidthEstimateStoreExecutor)
+        .execute(
+            () -> {
+              try {
+                bandwidthEstimateStore.put(networkType, networkId, estimate);
+              } catch (DatabaseIOException e) {
+                Log.w(TAG, "Failed to persist bitrate estimate", e);
+              }
+            });
+  }
+
+  @Nullable
+  private HostBitrateEstimator getHostEstimator(DataSpec dataSpec) {
+    if (hostEstimators.isEmpty()) {
+      return null;
+    }
+    String host = dataSpec.uri.getHost();
+    return host != null ? hostEstimators.get(host) : null;
   }
 
   private void maybeNotifyBandwidthSample(
@@ -421,6 +704,56 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     return initialBitrateEstimate;
   }
 
+  /**
+   * Estimates the bitrate of transfers from a single host. Transfers from the host that overlap in
+   * time are combined into a single sample.
+   */
+  private static final class HostBitrateEstimator {
+
+    private final SlidingPercentile slidingPercentile;
+
+    public long bitrateEstimate;
+    public long sampleBytesTransferred;
+
+    private int streamCount;
+    private long sampleStartTimeMs;
+    private long totalElapsedTimeMs;
+    private long totalBytesTransferred;
+
+    public HostBitrateEstimator(int maxWeight) {
+      slidingPercentile = new SlidingPercentile(maxWeight);
+      bitrateEstimate = C.LENGTH_UNSET;
+    }
+
+    public void onTransferStart(long nowMs) {
+      if (streamCount == 0) {
+        sampleStartTimeMs = nowMs;
+      }
+      streamCount++;
+    }
+
+    public void onTransferEnd(long nowMs) {
+      if (streamCount == 0) {
+        // The transfer started before the host estimates were reset.
+        return;
+      }
+      int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
+      totalElapsedTimeMs += sampleElapsedTimeMs;
+      totalBytesTransferred += sampleBytesTransferred;
+      if (sampleElapsedTimeMs > 0) {
+        float bitsPerSecond = (sampleBytesTransferred * 8000f) / sampleElapsedTimeMs;
+        slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+        if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+            || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
+          bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
+        }
+        sampleStartTimeMs = nowMs;
+        sampleBytesTransferred = 0;
+      }
+      streamCount--;
+    }
+  }
+
   /*
    * Note: This class only holds a weak reference to DefaultBandwidthMeter instances. It should not
    * be made non-static, since doing so adds a strong reference (i.e. DefaultBandwidthMeter.this).
@@ -35,6 +35,8 @@ public final class TimestampAdjuster {
    */
   private static final long MAX_PTS_PLUS_ONE = 0x200000000L;
 
+  // Written under the instance lock, so that a thread that observes the adjuster as initialized
+  // through a synchronized method also observes the offset that was determined.
   private long firstSampleTimestampUs;
   private long timestampOffsetUs;
 
@@ -87,12 +89,20 @@ public final class TimestampAdjuster {
    *     {@link C#TIME_UNSET} if the adjuster is not yet initialized and 0 if timestamps should not
    *     be offset.
    */
-  public long getTimestampOffsetUs() {
+  public synchronized long getTimestampOffsetUs() {
     return firstSampleTimestampUs == DO_NOT_OFFSET
         ? 0
         : lastSampleTimestampUs == C.TIME_UNSET ? C.TIME_UNSET : timestampOffsetUs;
   }
 
+  /**
+   * Returns whether the adjuster is initialized, meaning that the offset between the input of
+   * {@link #adjustSampleTimestamp(long)} and its output has been determined.
+   */
+  public synchronized boolean isInitialized() {
+    return lastSampleTimestampUs != C.TIME_UNSET;
+  }
+
   /**
    * Resets the instance to its initial state.
    */
@@ -139,11 +149,11 @@ public final class TimestampAdjuster {
     if (lastSampleTimestampUs != C.TIME_UNSET) {
       lastSampleTimestampUs = timeUs;
     } else {
-      if (firstSampleTimestampUs != DO_NOT_OFFSET) {
-        // Calculate the timestamp offset.
-        timestampOffsetUs = firstSampleTimestampUs - timeUs;
-      }
       synchronized (this) {
+        if (firstSampleTimestampUs != DO_NOT_OFFSET) {
+          // Calculate the timestamp offset.
+          timestampOffsetUs = firstSampleTimestampUs - timeUs;
+        }
         lastSampleTimestampUs = timeUs;
         // Notify threads waiting for this adjuster to be initialized.
         notifyAll();
@@ -645,6 +645,67 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     return KEEP_CODEC_RESULT_NO;
   }
 
+  @Override
+  protected boolean canPoolCodec(MediaCodecInfo codecInfo) {
+    // Handing a codec over requires switching its output surface, which is only possible from API
+    // level 23. Tunneling codecs are bound to the audio session of the renderer.
+    return Util.SDK_INT >= 23 && !tunneling;
+  }
+
+  @Override
+  protected @KeepCodecResult int canReusePooledCodec(
+      MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat, Format newFormat) {
+    if (surface == null && !shouldUseDummySurface(codecInfo)) {
+      return KEEP_CODEC_RESULT_NO;
+    }
+    // The maximum values the idle codec was configured with are unknown, but they are at least the
+    // values for its own format.
+    CodecMaxValues pooledCodecMaxValues = getPooledCodecMaxValues(codecInfo, codecFormat);
+    if (codecInfo.isSeamlessAdaptationSupported(
+            codecFormat, newFormat, /* isNewFormatComplete= */ true)
+        && newFormat.width <= pooledCodecMaxValues.width
+        && newFormat.height <= pooledCodecMaxValues.height
+        && getMaxInputSize(codecInfo, newFormat) <= pooledCodecMaxValues.inputSize) {
+      return codecFormat.initializationDataEquals(newFormat)
+          ? KEEP_CODEC_RESULT_YES_WITHOUT_RECONFIGURATION
+          : KEEP_CODEC_RESULT_YES_WITH_RECONFIGURATION;
+    }
+    return KEEP_CODEC_RESULT_NO;
+  }
+
+  @TargetApi(23)
+  @Override
+  protected void configurePooledCodec(
+      MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat) {
+    codecMaxValues = getPooledCodecMaxValues(codecInfo, codecFormat);
+    if (surface == null) {
+      Assertions.checkState(shouldUseDummySurface(codecInfo));
+      if (dummySurface == null) {
+        dummySurface = DummySurface.newInstanceV17(context, codecInfo.secure);
+      }
+      surface = dummySurface;
+    }
+    setOutputSurfaceV23(codec, surface);
+  }
+
+  @TargetApi(23)
+  @Override
+  protected Surface detachPooledCodec(MediaCodec codec, MediaCodecInfo codecInfo) {
+    // The surface of the renderer may be released while the codec is idle, so the idle codec
+    // renders to its own dummy surface instead.
+    if (codecInfo.secure && !DummySurface.isSecureSupported(context)) {
+      throw new IllegalStateException("Secure dummy surface not supported");
+    }
+    DummySurface idleSurface = DummySurface.newInstanceV17(context, codecInfo.secure);
+    try {
+      setOutputSurfaceV23(codec, idleSurface);
+    } catch (RuntimeException e) {
+      idleSurface.release();
+      throw e;
+    }
+    return idleSurface;
+  }
+
   @CallSuper
   @Override
   protected void releaseCodec() {
@@ -1195,6 +1256,10 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     codec.setParameters(codecParameters);
   }
 
+  private static CodecMaxValues getPooledCodecMaxValues(MediaCodecInfo codecInfo, Format format) {
+    return new CodecMaxValues(format.width, format.height, getMaxInputSize(codecInfo, format));
+  }
+
   @TargetApi(23)
   private static void setOutputSurfaceV23(MediaCodec codec, Surface surface) {
     codec.setOutputSurface(surface);
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link DefaultLivePlaybackSpeedControl}. */
+@RunWith(AndroidJUnit4.class)
+public final class DefaultLivePlaybackSpeedControlTest {
+
+  private FakeClock fakeClock;
+
+  @Before
+  public void setUp() {
+    fakeClock = new FakeClock(/* initialTimeMs= */ 0);
+  }
+
+  @Test
+  public void getTargetLiveOffsetUs_withoutTarget_returnsTimeUnset() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder().setClock(fakeClock).build();
+
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(C.TIME_UNSET);
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 10_000_000))
+        .isEqualTo(1f);
+  }
+
+  @Test
+  public void getTargetLiveOffsetUs_prefersConfiguredTargetOverDefaultTarget() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setTargetLiveOffsetMs(3_000)
+            .setClock(fakeClock)
+            .build();
+
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 20_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(3_000_000);
+  }
+
+  @Test
+  public void getAdjustedPlaybackSpeed_isProportionalToLiveOffsetError() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setProportionalControlFactor(0.1f)
+            .setMinUpdateIntervalMs(0)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 5_200_000))
+        .isWithin(1e-6f)
+        .of(1.02f);
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 4_900_000))
+        .isWithin(1e-6f)
+        .of(0.99f);
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 5_010_000))
+        .isEqualTo(1f);
+  }
+
+  @Test
+  public void getAdjustedPlaybackSpeed_isConstrainedToPlaybackSpeedRange() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setPlaybackSpeedRange(/* minPlaybackSpeed= */ 0.95f, /* maxPlaybackSpeed= */ 1.05f)
+            .setMinUpdateIntervalMs(0)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 60_000_000))
+        .isEqualTo(1.05f);
+    assertThat(speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 0)).isEqualTo(0.95f);
+  }
+
+  @Test
+  public void getAdjustedPlaybackSpeed_withinMinUpdateInterval_returnsPreviousSpeed() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setMinUpdateIntervalMs(1_000)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+
+    float initialSpeed = speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 10_000_000);
+    fakeClock.advanceTime(999);
+    float speedWithinInterval =
+        speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 5_000_000);
+    fakeClock.advanceTime(1);
+    float speedAfterInterval =
+        speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 5_000_000);
+
+    assertThat(initialSpeed).isEqualTo(DefaultLivePlaybackSpeedControl.DEFAULT_MAX_PLAYBACK_SPEED);
+    assertThat(speedWithinInterval).isEqualTo(initialSpeed);
+    assertThat(speedAfterInterval).isEqualTo(1f);
+  }
+
+  @Test
+  public void notifyRebuffer_increasesTargetLiveOffset() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setTargetLiveOffsetIncrementOnRebufferMs(500)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+
+    speedControl.notifyRebuffer();
+    speedControl.notifyRebuffer();
+
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(6_000_000);
+  }
+
+  @Test
+  public void notifyRebuffer_doesNotIncreaseTargetLiveOffsetBeyondMaxLiveOffset() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setTargetLiveOffsetIncrementOnRebufferMs(500)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 6_200_000);
+
+    for (int i = 0; i < 10; i++) {
+      speedControl.notifyRebuffer();
+    }
+
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(6_200_000);
+  }
+
+  @Test
+  public void getAdjustedPlaybackSpeed_afterStablePlayback_decreasesTargetLiveOffset() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setTargetLiveOffsetIncrementOnRebufferMs(500)
+            .setTargetLiveOffsetDecrementIntervalMs(10_000)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+    speedControl.notifyRebuffer();
+    speedControl.notifyRebuffer();
+
+    // Playback resumes after the rebuffer.
+    speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 6_000_000);
+    fakeClock.advanceTime(9_999);
+    speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 6_000_000);
+    long targetLiveOffsetWithinIntervalUs = speedControl.getTargetLiveOffsetUs();
+    fakeClock.advanceTime(1);
+    speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 6_000_000);
+    long targetLiveOffsetAfterIntervalUs = speedControl.getTargetLiveOffsetUs();
+    fakeClock.advanceTime(20_000);
+    speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 6_000_000);
+    speedControl.getAdjustedPlaybackSpeed(/* liveOffsetUs= */ 6_000_000);
+
+    assertThat(targetLiveOffsetWithinIntervalUs).isEqualTo(6_000_000);
+    assertThat(targetLiveOffsetAfterIntervalUs).isEqualTo(5_500_000);
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(5_000_000);
+  }
+
+  @Test
+  public void notifyLiveStreamChanged_discardsTargetLiveOffsetIncrements() {
+    DefaultLivePlaybackSpeedControl speedControl =
+        new DefaultLivePlaybackSpeedControl.Builder()
+            .setTargetLiveOffsetIncrementOnRebufferMs(500)
+            .setClock(fakeClock)
+            .build();
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 5_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+    speedControl.notifyRebuffer();
+
+    speedControl.notifyLiveStreamChanged();
+
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(C.TIME_UNSET);
+    speedControl.setLiveConfiguration(
+        /* defaultTargetLiveOffsetUs= */ 3_000_000, /* maxLiveOffsetUs= */ 60_000_000);
+    assertThat(speedControl.getTargetLiveOffsetUs()).isEqualTo(3_000_000);
+  }
+}
@@ -16,9 +16,14 @@
 package com.google.android.exoplayer2;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.DefaultLoadControl.Builder;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
 import org.junit.Before;
 import org.junit.Test;
@@ -111,6 +116,75 @@ public class DefaultLoadControlTest {
         .isTrue();
   }
 
+  @Test
+  public void testShouldContinueLoading_untilTrackTypeMinBufferReached() {
+    long trackTypeMinBufferUs = MIN_BUFFER_US * 2;
+    builder.setGlobalBufferTargetsForTrackType(
+        C.TRACK_TYPE_TEXT,
+        /* minBufferMs= */ (int) C.usToMs(trackTypeMinBufferUs),
+        /* targetBufferBytes= */ C.LENGTH_UNSET);
+    builder.setAllocator(allocator).setTargetBufferBytes(TARGET_BUFFER_BYTES);
+    loadControl = builder.createDefaultLoadControl();
+    selectTracks(C.TRACK_TYPE_AUDIO, C.TRACK_TYPE_TEXT);
+    makeSureTargetBufferBytesReached();
+
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED)).isTrue();
+    assertThat(loadControl.shouldContinueLoading(trackTypeMinBufferUs - 1, SPEED)).isTrue();
+    assertThat(loadControl.shouldContinueLoading(trackTypeMinBufferUs, SPEED)).isFalse();
+  }
+
+  @Test
+  public void testTrackTypeMinBuffer_onlyAppliesWhileTrackTypeSelected() {
+    builder.setGlobalBufferTargetsForTrackType(
+        C.TRACK_TYPE_TEXT,
+        /* minBufferMs= */ (int) C.usToMs(MIN_BUFFER_US * 2),
+        /* targetBufferBytes= */ C.LENGTH_UNSET);
+    builder.setAllocator(allocator).setTargetBufferBytes(TARGET_BUFFER_BYTES);
+    loadControl = builder.createDefaultLoadControl();
+    selectTracks(C.TRACK_TYPE_AUDIO);
+    makeSureTargetBufferBytesReached();
+
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED)).isFalse();
+  }
+
+  @Test
+  public void testCalculateTargetBufferSize_usesTrackTypeTargetBufferBytes() {
+    int textTargetBufferBytes = 7 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
+    loadControl =
+        builder
+            .setGlobalBufferTargetsForTrackType(
+                C.TRACK_TYPE_TEXT, /* minBufferMs= */ C.LENGTH_UNSET, textTargetBufferBytes)
+            .createDefaultLoadControl();
+    Renderer[] renderers = createRenderers(C.TRACK_TYPE_VIDEO, C.TRACK_TYPE_TEXT);
+
+    assertThat(loadControl.calculateTargetBufferSize(renderers, createSelections(2)))
+        .isEqualTo(DefaultLoadControl.DEFAULT_VIDEO_BUFFER_SIZE + textTargetBufferBytes);
+  }
+
+  private void selectTracks(int... trackTypes) {
+    loadControl.onTracksSelected(
+        createRenderers(trackTypes),
+        TrackGroupArray.EMPTY,
+        createSelections(/* count= */ trackTypes.length));
+  }
+
+  private static Renderer[] createRenderers(int... trackTypes) {
+    Renderer[] renderers = new Renderer[trackTypes.length];
+    for (int i = 0; i < trackTypes.length; i++) {
+      renderers[i] = mock(Renderer.class);
+      when(renderers[i].getTrackType()).thenReturn(trackTypes[i]);
+    }
+    return renderers;
+  }
+
+  private static TrackSelectionArray createSelections(int count) {
+    TrackSelection[] trackSelections = new TrackSelection[count];
+    for (int i = 0; i < count; i++) {
+      trackSelections[i] = mock(TrackSelection.class);
+    }
+    return new TrackSelectionArray(trackSelections);
+  }
+
   private void createDefaultLoadControl() {
     builder.setAllocator(allocator);
     builder.setTargetBufferBytes(TARGET_BUFFER_BYTES);
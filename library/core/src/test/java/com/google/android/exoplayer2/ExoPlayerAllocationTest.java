@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Trace;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.AllocationCounter;
+import com.google.android.exoplayer2.testutil.AutoAdvancingFakeClock;
+import com.google.android.exoplayer2.testutil.ExoPlayerTestRunner;
+import com.google.android.exoplayer2.testutil.ExoPlayerTestRunner.Builder;
+import com.google.android.exoplayer2.testutil.FakeRenderer;
+import com.google.android.exoplayer2.testutil.FakeTimeline;
+import com.google.android.exoplayer2.testutil.FakeTimeline.TimelineWindowDefinition;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.HandlerWrapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/** Tests that steady-state playback does not allocate on the playback thread. */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class ExoPlayerAllocationTest {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final long PLAYBACK_DURATION_US = 60000000;
+  private static final long START_MEASUREMENT_POSITION_US = 5000000;
+  private static final long END_MEASUREMENT_POSITION_US = 55000000;
+
+  @Before
+  public void setUp() {
+    // The Robolectric shadow of Trace records all sections, which would count as allocations.
+    ReflectionHelpers.callStaticMethod(
+        Trace.class, "setAppTracingAllowed", ClassParameter.from(boolean.class, false));
+  }
+
+  @Test
+  public void steadyStatePlayback_doesNotAllocateOnPlaybackThread() throws Exception {
+    AllocationCounter allocationCounter = AllocationCounter.createIfSupported();
+    assumeTrue(allocationCounter != null);
+    Timeline timeline =
+        new FakeTimeline(
+            new TimelineWindowDefinition(
+                /* isSeekable= */ true, /* isDynamic= */ false, PLAYBACK_DURATION_US));
+    PositionTrackingFakeRenderer videoRenderer =
+        new PositionTrackingFakeRenderer(Builder.VIDEO_FORMAT);
+    AllocationMeasuringClock clock =
+        new AllocationMeasuringClock(
+            allocationCounter,
+            () ->
+                videoRenderer.positionUs >= START_MEASUREMENT_POSITION_US
+                    && videoRenderer.positionUs < END_MEASUREMENT_POSITION_US);
+
+    new ExoPlayerTestRunner.Builder()
+        .setTimeline(timeline)
+        .setRenderers(videoRenderer, new FakeRenderer(Builder.AUDIO_FORMAT))
+        .setClock(clock)
+        .build(ApplicationProvider.getApplicationContext())
+        .start()
+        .blockUntilEnded(TIMEOUT_MS);
+
+    assertThat(clock.measuredMessageCount).isGreaterThan(0);
+    assertThat(clock.allocatingMessageCount).isEqualTo(0);
+  }
+
+  /** Tracks the position passed to {@link #render(long, long)}. */
+  private static final class PositionTrackingFakeRenderer extends FakeRenderer {
+
+    public volatile long positionUs;
+
+    public PositionTrackingFakeRenderer(Format... expectedFormats) {
+      super(expectedFormats);
+    }
+
+    @Override
+    public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+      this.positionUs = positionUs;
+      super.render(positionUs, elapsedRealtimeUs);
+    }
+  }
+
+  /** Determines whether allocations should currently be measured. */
+  private interface MeasurementCondition {
+
+    boolean shouldMeasure();
+  }
+
+  /**
+   * An {@link AutoAdvancingFakeClock} wrapper that counts the messages during whose handling the
+   * handlers it creates allocate. Allocations of the fake clock itself, such as queuing a delayed
+   * message, are excluded.
+   */
+  private static final class AllocationMeasuringClock implements Clock {
+
+    private final Clock clock;
+    private final AllocationCounter allocationCounter;
+    private final MeasurementCondition measurementCondition;
+
+    private long clockAllocatedBytes;
+
+    public volatile int measuredMessageCount;
+    public volatile int allocatingMessageCount;
+
+    public AllocationMeasuringClock(
+        AllocationCounter allocationCounter, MeasurementCondition measurementCondition) {
+      this.allocationCounter = allocationCounter;
+      this.measurementCondition = measurementCondition;
+      clock = new AutoAdvancingFakeClock();
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return clock.elapsedRealtime();
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return clock.uptimeMillis();
+    }
+
+    @Override
+    public void sleep(long sleepTimeMs) {
+      clock.sleep(sleepTimeMs);
+    }
+
+    @Override
+    public HandlerWrapper createHandler(Looper looper, @Nullable Handler.Callback callback) {
+      if (callback == null) {
+        return clock.createHandler(looper, /* callback= */ null);
+      }
+      return new ClockAllocationExcludingHandler(
+          clock.createHandler(
+              looper,
+              message -> {
+                if (!measurementCondition.shouldMeasure()) {
+                  return callback.handleMessage(message);
+                }
+                clockAllocatedBytes = 0;
+                long startBytes = allocationCounter.getAllocatedBytes();
+                boolean handled = callback.handleMessage(message);
+                long allocatedBytes =
+                    allocationCounter.getAllocatedBytes() - startBytes - clockAllocatedBytes;
+                if (allocatedBytes > 0) {
+                  allocatingMessageCount++;
+                }
+                measuredMessageCount++;
+                return handled;
+              }));
+    }
+
+    /** Records the allocations of the fake clock when scheduling messages. */
+    private final class ClockAllocationExcludingHandler implements HandlerWrapper {
+
+      private final HandlerWrapper handler;
+
+      public ClockAllocationExcludingHandler(HandlerWrapper handler) {
+        this.handler = handler;
+      }
+
+      @Override
+      public Looper getLooper() {
+        return handler.getLooper();
+      }
+
+      @Override
+      public Message obtainMessage(int what) {
+        return handler.obtainMessage(what);
+      }
+
+      @Override
+      public Message obtainMessage(int what, @Nullable Object obj) {
+        return handler.obtainMessage(what, obj);
+      }
+
+      @Override
+      public Message obtainMessage(int what, int arg1, int arg2) {
+        return handler.obtainMessage(what, arg1, arg2);
+      }
+
+      @Override
+      public Message obtainMessage(int what, int arg1, int arg2, @Nullable Object obj) {
+        return handler.obtainMessage(what, arg1, arg2, obj);
+      }
+
+      @Override
+      public boolean sendEmptyMessage(int what) {
+        return handler.sendEmptyMessage(what);
+      }
+
+      @Override
+      public boolean sendEmptyMessageAtTime(int what, long uptimeMs) {
+        long startBytes = allocationCounter.getAllocatedBytes();
+        boolean result = handler.sendEmptyMessageAtTime(what, uptimeMs);
+        clockAllocatedBytes += allocationCounter.getAllocatedBytes() - startBytes;
+        return result;
+      }
+
+      @Override
+      public void removeMessages(int what) {
+        handler.removeMessages(what);
+      }
+
+      @Override
+      public void removeCallbacksAndMessages(@Nullable Object token) {
+        handler.removeCallbacksAndMessages(token);
+      }
+
+      @Override
+      public boolean post(Runnable runnable) {
+        return handler.post(runnable);
+      }
+
+      @Override
+      public boolean postDelayed(Runnable runnable, long delayMs) {
+        long startBytes = allocationCounter.getAllocatedBytes();
+        boolean result = handler.postDelayed(runnable, delayMs);
+        clockAllocatedBytes += allocationCounter.getAllocatedBytes() - startBytes;
+        return result;
+      }
+    }
+  }
+}
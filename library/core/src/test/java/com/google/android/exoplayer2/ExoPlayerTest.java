@@ -21,6 +21,7 @@ import static org.junit.Assert.fail;
 import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.net.Uri;
+import android.os.ConditionVariable;
 import android.view.Surface;
 import androidx.annotation.Nullable;
 import androidx.test.core.app.ApplicationProvider;
@@ -31,6 +32,7 @@ import com.google.android.exoplayer2.Timeline.Window;
 import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.google.android.exoplayer2.source.ClippingMediaSource;
 import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
+import com.google.android.exoplayer2.source.ForwardingTimeline;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
 import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
@@ -614,6 +616,45 @@ public final class ExoPlayerTest {
         Player.DISCONTINUITY_REASON_SEEK, Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT);
   }
 
+  @Test
+  public void testRapidSeeks_skipSupersededSeeks() throws Exception {
+    Timeline timeline = new FakeTimeline(/* windowCount= */ 1);
+    FakeRenderer renderer = new FakeRenderer(Builder.VIDEO_FORMAT);
+    ConditionVariable playbackThreadBlocker = new ConditionVariable();
+    ActionSchedule actionSchedule =
+        new ActionSchedule.Builder("testRapidSeeks_skipSupersededSeeks")
+            .pause()
+            .waitForPlaybackState(Player.STATE_READY)
+            .executeRunnable(
+                new PlayerRunnable() {
+                  @Override
+                  public void run(SimpleExoPlayer player) {
+                    // Block the playback thread, so that all seeks are pending at the same time.
+                    player
+                        .createMessage((messageType, payload) -> playbackThreadBlocker.block())
+                        .send();
+                    player.seekTo(/* positionMs= */ 1000);
+                    player.seekTo(/* positionMs= */ 2000);
+                    player.seekTo(/* positionMs= */ 3000);
+                    playbackThreadBlocker.open();
+                  }
+                })
+            .waitForSeekProcessed()
+            .play()
+            .build();
+    new ExoPlayerTestRunner.Builder()
+        .setTimeline(timeline)
+        .setRenderers(renderer)
+        .setActionSchedule(actionSchedule)
+        .build(context)
+        .start()
+        .blockUntilActionScheduleFinished(TIMEOUT_MS)
+        .blockUntilEnded(TIMEOUT_MS);
+
+    // One position reset when the renderer is enabled and one for the last seek only.
+    assertThat(renderer.positionResetCount).isEqualTo(2);
+  }
+
   @Test
   public void testInternalDiscontinuityAtNewPosition() throws Exception {
     FakeTimeline timeline = new FakeTimeline(1);
@@ -2766,8 +2807,157 @@ public final class ExoPlayerTest {
         .inOrder();
   }
 
+  @Test
+  public void setLivePlaybackSpeedControl_atDefaultPosition_keepsPlaybackSpeed() throws Exception {
+    // The window ends now, so playback at its default position is at the default target live
+    // offset.
+    Timeline timeline =
+        createLiveTimeline(/* windowStartTimeMs= */ System.currentTimeMillis() - 10_000);
+    ActionSchedule actionSchedule =
+        new ActionSchedule.Builder("setLivePlaybackSpeedControl")
+            .pause()
+            .waitForPlaybackState(Player.STATE_READY)
+            .executeRunnable(
+                new PlayerRunnable() {
+                  @Override
+                  public void run(SimpleExoPlayer player) {
+                    player.setLivePlaybackSpeedControl(
+                        new DefaultLivePlaybackSpeedControl.Builder().build());
+                  }
+                })
+            .play()
+            // The fake live stream runs out of samples and rebuffers after the first one.
+            .waitForPlaybackState(Player.STATE_BUFFERING)
+            .stop()
+            .build();
+    List<PlaybackParameters> reportedPlaybackParameters = new ArrayList<>();
+    EventListener listener =
+        new EventListener() {
+          @Override
+          public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+            reportedPlaybackParameters.add(playbackParameters);
+          }
+        };
+    new ExoPlayerTestRunner.Builder()
+        .setTimeline(timeline)
+        .setActionSchedule(actionSchedule)
+        .setEventListener(listener)
+        .build(context)
+        .start()
+        .blockUntilActionScheduleFinished(TIMEOUT_MS)
+        .blockUntilEnded(TIMEOUT_MS);
+
+    assertThat(reportedPlaybackParameters).isEmpty();
+  }
+
+  @Test
+  public void setLivePlaybackSpeedControl_windowBehindLiveEdge_keepsPlaybackSpeed()
+      throws Exception {
+    // The window ends 50 seconds before now. The default target live offset is still the live
+    // offset of its default position.
+    Timeline timeline =
+        createLiveTimeline(/* windowStartTimeMs= */ System.currentTimeMillis() - 60_000);
+    ActionSchedule actionSchedule =
+        new ActionSchedule.Builder("setLivePlaybackSpeedControl")
+            .pause()
+            .waitForPlaybackState(Player.STATE_READY)
+            .executeRunnable(
+                new PlayerRunnable() {
+                  @Override
+                  public void run(SimpleExoPlayer player) {
+                    player.setLivePlaybackSpeedControl(
+                        new DefaultLivePlaybackSpeedControl.Builder().build());
+                  }
+                })
+            .play()
+            // The fake live stream runs out of samples and rebuffers after the first one.
+            .waitForPlaybackState(Player.STATE_BUFFERING)
+            .stop()
+            .build();
+    List<PlaybackParameters> reportedPlaybackParameters = new ArrayList<>();
+    EventListener listener =
+        new EventListener() {
+          @Override
+          public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+            reportedPlaybackParameters.add(playbackParameters);
+          }
+        };
+    new ExoPlayerTestRunner.Builder()
+        .setTimeline(timeline)
+        .setActionSchedule(actionSchedule)
+        .setEventListener(listener)
+        .build(context)
+        .start()
+        .blockUntilActionScheduleFinished(TIMEOUT_MS)
+        .blockUntilEnded(TIMEOUT_MS);
+
+    assertThat(reportedPlaybackParameters).isEmpty();
+  }
+
+  @Test
+  public void setLivePlaybackSpeedControl_behindTargetLiveOffset_increasesPlaybackSpeed()
+      throws Exception {
+    Timeline timeline =
+        createLiveTimeline(/* windowStartTimeMs= */ System.currentTimeMillis() - 10_000);
+    ActionSchedule actionSchedule =
+        new ActionSchedule.Builder("setLivePlaybackSpeedControl")
+            .pause()
+            .waitForPlaybackState(Player.STATE_READY)
+            .executeRunnable(
+                new PlayerRunnable() {
+                  @Override
+                  public void run(SimpleExoPlayer player) {
+                    player.setLivePlaybackSpeedControl(
+                        new DefaultLivePlaybackSpeedControl.Builder()
+                            .setTargetLiveOffsetMs(2_000)
+                            .build());
+                  }
+                })
+            .play()
+            // The fake live stream runs out of samples and rebuffers after the first one.
+            .waitForPlaybackState(Player.STATE_BUFFERING)
+            .stop()
+            .build();
+    List<PlaybackParameters> reportedPlaybackParameters = new ArrayList<>();
+    EventListener listener =
+        new EventListener() {
+          @Override
+          public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+            reportedPlaybackParameters.add(playbackParameters);
+          }
+        };
+    new ExoPlayerTestRunner.Builder()
+        .setTimeline(timeline)
+        .setActionSchedule(actionSchedule)
+        .setEventListener(listener)
+        .build(context)
+        .start()
+        .blockUntilActionScheduleFinished(TIMEOUT_MS)
+        .blockUntilEnded(TIMEOUT_MS);
+
+    // The live offset at the default position is about 10 seconds, far behind the target live
+    // offset of 2 seconds.
+    assertThat(reportedPlaybackParameters)
+        .containsExactly(
+            new PlaybackParameters(DefaultLivePlaybackSpeedControl.DEFAULT_MAX_PLAYBACK_SPEED));
+  }
+
   // Internal methods.
 
+  private static Timeline createLiveTimeline(long windowStartTimeMs) {
+    return new ForwardingTimeline(
+        new FakeTimeline(
+            new TimelineWindowDefinition(
+                /* isSeekable= */ true, /* isDynamic= */ true, /* durationUs= */ 10_000_000))) {
+      @Override
+      public Window getWindow(int windowIndex, Window window, long defaultPositionProjectionUs) {
+        super.getWindow(windowIndex, window, defaultPositionProjectionUs);
+        window.windowStartTimeMs = windowStartTimeMs;
+        return window;
+      }
+    };
+  }
+
   private static ActionSchedule.Builder addSurfaceSwitch(ActionSchedule.Builder builder) {
     final Surface surface1 = new Surface(new SurfaceTexture(/* texName= */ 0));
     final Surface surface2 = new Surface(new SurfaceTexture(/* texName= */ 1));
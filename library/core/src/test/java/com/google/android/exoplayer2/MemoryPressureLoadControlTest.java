@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ComponentCallbacks2;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MemoryPressureLoadControl}. */
+@RunWith(AndroidJUnit4.class)
+public final class MemoryPressureLoadControlTest {
+
+  private static final float SPEED = 1f;
+  private static final int ALLOCATION_LENGTH = C.DEFAULT_BUFFER_SEGMENT_SIZE;
+  private static final int MIN_BUFFER_MS = 5000;
+  private static final int RECOVERY_INTERVAL_MS = 10_000;
+  private static final long MIN_BUFFER_US = C.msToUs(MIN_BUFFER_MS);
+  private static final long BACK_BUFFER_US = C.msToUs(30_000);
+
+  private DefaultAllocator allocator;
+  private FakeClock fakeClock;
+  private MemoryPressureLoadControl loadControl;
+
+  @Before
+  public void setUp() {
+    allocator = new DefaultAllocator(/* trimOnReset= */ true, ALLOCATION_LENGTH);
+    fakeClock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultLoadControl defaultLoadControl =
+        new DefaultLoadControl.Builder()
+            .setAllocator(allocator)
+            .setBackBuffer(
+                /* backBufferDurationMs= */ (int) C.usToMs(BACK_BUFFER_US),
+                /* retainBackBufferFromKeyframe= */ false)
+            .createDefaultLoadControl();
+    loadControl =
+        new MemoryPressureLoadControl(
+            defaultLoadControl, MIN_BUFFER_MS, RECOVERY_INTERVAL_MS, fakeClock);
+    loadControl.onPrepared();
+  }
+
+  @Test
+  public void withoutMemoryPressure_delegatesToWrappedLoadControl() {
+    allocate(/* count= */ 100);
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(C.LENGTH_UNSET);
+    assertThat(loadControl.getBackBufferDurationUs()).isEqualTo(BACK_BUFFER_US);
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US * 2, SPEED)).isTrue();
+  }
+
+  @Test
+  public void onTrimMemory_capsBufferAndDiscardsBackBuffer() {
+    allocate(/* count= */ 100);
+
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(50 * ALLOCATION_LENGTH);
+    assertThat(loadControl.getBackBufferDurationUs()).isEqualTo(0);
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US * 2, SPEED)).isFalse();
+  }
+
+  @Test
+  public void onTrimMemory_continuesLoadingBelowMinBuffer() {
+    allocate(/* count= */ 100);
+
+    loadControl.onLowMemory();
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(0);
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US - 1, SPEED)).isTrue();
+    assertThat(loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED)).isFalse();
+  }
+
+  @Test
+  public void onTrimMemory_withMoreSeverePressure_lowersCap() {
+    allocate(/* count= */ 100);
+
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(25 * ALLOCATION_LENGTH);
+  }
+
+  @Test
+  public void onTrimMemory_withUiHidden_doesNotCapBuffer() {
+    allocate(/* count= */ 100);
+
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(C.LENGTH_UNSET);
+  }
+
+  @Test
+  public void afterMemoryPressure_growsBackGradually() {
+    allocate(/* count= */ 100);
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+    fakeClock.advanceTime(RECOVERY_INTERVAL_MS - 1);
+    loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED);
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(25 * ALLOCATION_LENGTH);
+
+    fakeClock.advanceTime(1);
+    loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED);
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(50 * ALLOCATION_LENGTH);
+
+    fakeClock.advanceTime(RECOVERY_INTERVAL_MS);
+    loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED);
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(C.LENGTH_UNSET);
+    assertThat(loadControl.getBackBufferDurationUs()).isEqualTo(BACK_BUFFER_US);
+  }
+
+  @Test
+  public void onTrimMemory_reducesAllocatorTargetBufferSize() {
+    allocator.setTargetBufferSize(200 * ALLOCATION_LENGTH);
+    allocate(/* count= */ 100);
+
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+
+    assertThat(allocator.getTargetBufferSize()).isEqualTo(50 * ALLOCATION_LENGTH);
+  }
+
+  @Test
+  public void afterMemoryPressure_restoresAllocatorTargetBufferSize() {
+    allocator.setTargetBufferSize(200 * ALLOCATION_LENGTH);
+    allocate(/* count= */ 100);
+    loadControl.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+
+    fakeClock.advanceTime(RECOVERY_INTERVAL_MS);
+    loadControl.shouldContinueLoading(MIN_BUFFER_US, SPEED);
+
+    assertThat(loadControl.getTargetBufferBytesCap()).isEqualTo(C.LENGTH_UNSET);
+    assertThat(allocator.getTargetBufferSize()).isEqualTo(200 * ALLOCATION_LENGTH);
+  }
+
+  private void allocate(int count) {
+    for (int i = 0; i < count; i++) {
+      allocator.allocate();
+    }
+  }
+}
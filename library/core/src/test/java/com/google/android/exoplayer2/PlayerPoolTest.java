@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.PlayerPool.PooledLoadControl;
+import com.google.android.exoplayer2.testutil.FakeRenderer;
+import com.google.android.exoplayer2.upstream.Allocation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/** Unit tests for {@link PlayerPool}. */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class PlayerPoolTest {
+
+  private static final float SPEED = 1f;
+  private static final int TOTAL_BUFFER_BYTES = 4 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
+  private static final int BACKGROUND_BUFFER_BYTES = 2 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
+  private static final int BACKGROUND_BUFFER_MS = 1000;
+  private static final long BACKGROUND_BUFFER_US = C.msToUs(BACKGROUND_BUFFER_MS);
+
+  private PlayerPool playerPool;
+
+  @Before
+  public void setUp() {
+    playerPool = new PlayerPool(TOTAL_BUFFER_BYTES, BACKGROUND_BUFFER_BYTES, BACKGROUND_BUFFER_MS);
+  }
+
+  @After
+  public void tearDown() {
+    playerPool.release();
+  }
+
+  @Test
+  public void testLoadControlsShareAllocator() {
+    PooledLoadControl loadControl1 = playerPool.createLoadControl();
+    PooledLoadControl loadControl2 = playerPool.createLoadControl();
+
+    assertThat(loadControl1.getAllocator()).isSameInstanceAs(playerPool.getAllocator());
+    assertThat(loadControl2.getAllocator()).isSameInstanceAs(playerPool.getAllocator());
+
+    loadControl1.onReleased();
+    loadControl2.onReleased();
+  }
+
+  @Test
+  public void testShouldContinueLoading_withEqualPriorities_usesWholeBudget() {
+    PooledLoadControl loadControl1 = playerPool.createLoadControl();
+    PooledLoadControl loadControl2 = playerPool.createLoadControl();
+
+    assertThat(loadControl1.shouldContinueLoading(BACKGROUND_BUFFER_US, SPEED)).isTrue();
+    assertThat(loadControl2.shouldContinueLoading(BACKGROUND_BUFFER_US, SPEED)).isTrue();
+
+    loadControl1.onReleased();
+    loadControl2.onReleased();
+  }
+
+  @Test
+  public void testShouldContinueLoading_withLowerPriority_stopsAtBackgroundDuration() {
+    PooledLoadControl foregroundLoadControl = playerPool.createLoadControl();
+    PooledLoadControl backgroundLoadControl = playerPool.createLoadControl();
+    backgroundLoadControl.setPriority(C.PRIORITY_PLAYBACK - 1);
+
+    assertThat(backgroundLoadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED))
+        .isTrue();
+    assertThat(backgroundLoadControl.shouldContinueLoading(BACKGROUND_BUFFER_US, SPEED)).isFalse();
+    assertThat(foregroundLoadControl.shouldContinueLoading(BACKGROUND_BUFFER_US, SPEED)).isTrue();
+
+    foregroundLoadControl.onReleased();
+    backgroundLoadControl.onReleased();
+  }
+
+  @Test
+  public void testShouldContinueLoading_withLowerPriority_stopsAtBackgroundBytes() {
+    PooledLoadControl foregroundLoadControl = playerPool.createLoadControl();
+    PooledLoadControl backgroundLoadControl = playerPool.createLoadControl();
+    backgroundLoadControl.setPriority(C.PRIORITY_PLAYBACK - 1);
+    Allocation[] allocations =
+        new Allocation[BACKGROUND_BUFFER_BYTES / C.DEFAULT_BUFFER_SEGMENT_SIZE];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = playerPool.getAllocator().allocate();
+    }
+
+    assertThat(backgroundLoadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED))
+        .isFalse();
+    assertThat(foregroundLoadControl.shouldContinueLoading(/* bufferedDurationUs= */ 0, SPEED))
+        .isTrue();
+
+    playerPool.getAllocator().release(allocations);
+    foregroundLoadControl.onReleased();
+    backgroundLoadControl.onReleased();
+  }
+
+  @Test
+  public void testShouldContinueLoading_afterHigherPriorityReleased_usesWholeBudget() {
+    PooledLoadControl foregroundLoadControl = playerPool.createLoadControl();
+    PooledLoadControl backgroundLoadControl = playerPool.createLoadControl();
+    backgroundLoadControl.setPriority(C.PRIORITY_PLAYBACK - 1);
+
+    foregroundLoadControl.onReleased();
+
+    assertThat(backgroundLoadControl.shouldContinueLoading(BACKGROUND_BUFFER_US, SPEED)).isTrue();
+
+    backgroundLoadControl.onReleased();
+  }
+
+  @Test
+  public void testPlayersShareThePlaybackLooper() {
+    ExoPlayer player1 = buildPlayer();
+    ExoPlayer player2 = buildPlayer();
+
+    assertThat(player1.getPlaybackLooper()).isSameInstanceAs(playerPool.getPlaybackLooper());
+    assertThat(player2.getPlaybackLooper()).isSameInstanceAs(playerPool.getPlaybackLooper());
+
+    player1.release();
+    player2.release();
+  }
+
+  private ExoPlayer buildPlayer() {
+    return new ExoPlayer.Builder(ApplicationProvider.getApplicationContext(), new FakeRenderer())
+        .setLoadControl(playerPool.createLoadControl())
+        .setPlaybackLooper(playerPool.getPlaybackLooper())
+        .build();
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.mediacodec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.mediacodec.MediaCodecPool.PooledCodec;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MediaCodecPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class MediaCodecPoolTest {
+
+  private static final MediaCodecInfo AVC_CODEC_INFO = createCodecInfo("avc.decoder");
+  private static final MediaCodecInfo OTHER_AVC_CODEC_INFO = createCodecInfo("other.avc.decoder");
+  private static final Format FORMAT_720P = createVideoFormat(/* width= */ 1280, /* height= */ 720);
+  private static final Format FORMAT_1080P =
+      createVideoFormat(/* width= */ 1920, /* height= */ 1080);
+
+  private MediaCodecPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new MediaCodecPool(/* maxIdleCodecs= */ 2);
+  }
+
+  @Test
+  public void acquire_withCompatibleIdleCodec_returnsCodecAndCountsHit() throws IOException {
+    PooledCodec pooledCodec = createPooledCodec(AVC_CODEC_INFO, FORMAT_1080P);
+    pool.add(pooledCodec);
+
+    PooledCodec acquiredCodec =
+        pool.acquire(AVC_CODEC_INFO, codec -> codec.codecFormat.width >= FORMAT_720P.width);
+
+    assertThat(acquiredCodec).isSameInstanceAs(pooledCodec);
+    assertThat(pool.getHitCount()).isEqualTo(1);
+    assertThat(pool.getMissCount()).isEqualTo(0);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void acquire_withIncompatibleIdleCodec_releasesItAndCountsMiss() throws IOException {
+    pool.add(createPooledCodec(AVC_CODEC_INFO, FORMAT_720P));
+
+    PooledCodec acquiredCodec = pool.acquire(AVC_CODEC_INFO, codec -> false);
+
+    assertThat(acquiredCodec).isNull();
+    assertThat(pool.getMissCount()).isEqualTo(1);
+    assertThat(pool.getEvictionCount()).isEqualTo(1);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void acquire_withOtherDecoderName_keepsIdleCodec() throws IOException {
+    pool.add(createPooledCodec(OTHER_AVC_CODEC_INFO, FORMAT_720P));
+
+    PooledCodec acquiredCodec = pool.acquire(AVC_CODEC_INFO, codec -> true);
+
+    assertThat(acquiredCodec).isNull();
+    assertThat(pool.getMissCount()).isEqualTo(1);
+    assertThat(pool.getEvictionCount()).isEqualTo(0);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void add_withFullPool_evictsLeastRecentlyAddedCodec() throws IOException {
+    PooledCodec pooledCodec1 = createPooledCodec(AVC_CODEC_INFO, FORMAT_720P);
+    PooledCodec pooledCodec2 = createPooledCodec(OTHER_AVC_CODEC_INFO, FORMAT_720P);
+    PooledCodec pooledCodec3 = createPooledCodec(OTHER_AVC_CODEC_INFO, FORMAT_1080P);
+    pool.add(pooledCodec1);
+    pool.add(pooledCodec2);
+    pool.add(pooledCodec3);
+
+    assertThat(pool.getEvictionCount()).isEqualTo(1);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(2);
+    assertThat(pool.acquire(AVC_CODEC_INFO, codec -> true)).isNull();
+  }
+
+  @Test
+  public void release_releasesAllIdleCodecs() throws IOException {
+    pool.add(createPooledCodec(AVC_CODEC_INFO, FORMAT_720P));
+    pool.add(createPooledCodec(OTHER_AVC_CODEC_INFO, FORMAT_720P));
+
+    pool.release();
+
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void evictAll_releasesIdleCodecsOfAllDecoders() throws IOException {
+    pool.add(createPooledCodec(AVC_CODEC_INFO, FORMAT_720P));
+    pool.add(createPooledCodec(OTHER_AVC_CODEC_INFO, FORMAT_720P));
+
+    assertThat(pool.evictAll()).isTrue();
+    assertThat(pool.evictAll()).isFalse();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+    assertThat(pool.getEvictionCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void evictedCodec_releasesIdleSurface() throws IOException {
+    Surface idleSurface = mock(Surface.class);
+    pool.add(createPooledCodec(AVC_CODEC_INFO, FORMAT_720P, idleSurface));
+
+    pool.acquire(AVC_CODEC_INFO, codec -> false);
+
+    verify(idleSurface).release();
+  }
+
+  private static PooledCodec createPooledCodec(MediaCodecInfo codecInfo, Format format)
+      throws IOException {
+    return createPooledCodec(codecInfo, format, /* idleSurface= */ null);
+  }
+
+  private static PooledCodec createPooledCodec(
+      MediaCodecInfo codecInfo, Format format, @Nullable Surface idleSurface) throws IOException {
+    MediaCodec codec = MediaCodec.createByCodecName(codecInfo.name);
+    return new PooledCodec(
+        codec,
+        codecInfo,
+        format,
+        MediaCodecRenderer.CODEC_OPERATING_RATE_UNSET,
+        MediaFormat.createVideoFormat(format.sampleMimeType, format.width, format.height),
+        idleSurface);
+  }
+
+  private static MediaCodecInfo createCodecInfo(String name) {
+    return MediaCodecInfo.newInstance(
+        name,
+        MimeTypes.VIDEO_H264,
+        MimeTypes.VIDEO_H264,
+        /* capabilities= */ null,
+        /* hardwareAccelerated= */ true,
+        /* softwareOnly= */ false,
+        /* vendor= */ true,
+        /* forceDisableAdaptive= */ false,
+        /* forceSecure= */ false);
+  }
+
+  private static Format createVideoFormat(int width, int height) {
+    return Format.createVideoSampleFormat(
+        /* id= */ null,
+        MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        Format.NO_VALUE,
+        Format.NO_VALUE,
+        width,
+        height,
+        Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.mediacodec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.RendererConfiguration;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.testutil.FakeSampleStream;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowMediaCodec;
+
+/** Unit tests for codec pooling in {@link MediaCodecRenderer}. */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {MediaCodecRendererTest.ShadowFormatChangingMediaCodec.class})
+public final class MediaCodecRendererTest {
+
+  private static final MediaCodecInfo AVC_CODEC_INFO = createCodecInfo("avc.decoder");
+  private static final MediaCodecInfo OTHER_AVC_CODEC_INFO = createCodecInfo("other.avc.decoder");
+  private static final Format FORMAT =
+      Format.createVideoSampleFormat(
+          /* id= */ null,
+          MimeTypes.VIDEO_H264,
+          /* codecs= */ null,
+          Format.NO_VALUE,
+          Format.NO_VALUE,
+          /* width= */ 1280,
+          /* height= */ 720,
+          Format.NO_VALUE,
+          /* initializationData= */ null,
+          /* drmInitData= */ null);
+
+  private MediaCodecPool pool;
+  private TestRenderer renderer;
+
+  @Before
+  public void setUp() {
+    pool = new MediaCodecPool();
+    renderer = new TestRenderer();
+    renderer.experimental_setCodecPool(pool);
+  }
+
+  @Test
+  public void reenable_reusesPooledCodecAndReleasesIdleSurface() throws Exception {
+    enableAndRender();
+    disableAndReset();
+
+    assertThat(pool.getIdleCodecCount()).isEqualTo(1);
+    assertThat(renderer.idleSurfaces).hasSize(1);
+    verify(renderer.idleSurfaces.get(0), never()).release();
+
+    enableAndRender();
+
+    assertThat(pool.getHitCount()).isEqualTo(1);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+    assertThat(renderer.configuredCodecs).hasSize(1);
+    assertThat(renderer.reusedCodecs).containsExactly(renderer.configuredCodecs.get(0));
+    verify(renderer.idleSurfaces.get(0)).release();
+  }
+
+  @Test
+  public void configurePooledCodecFailure_releasesCodecAndIdleSurface() throws Exception {
+    enableAndRender();
+    disableAndReset();
+    renderer.failConfigurePooledCodec = true;
+
+    try {
+      enableAndRender();
+      fail();
+    } catch (ExoPlaybackException e) {
+      // Expected.
+    }
+
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+    verify(renderer.idleSurfaces.get(0)).release();
+
+    // The renderer creates a new codec once it's enabled again.
+    disableAndReset();
+    renderer.failConfigurePooledCodec = false;
+    enableAndRender();
+
+    assertThat(renderer.configuredCodecs).hasSize(2);
+  }
+
+  @Test
+  public void codecCreationFailure_evictsIdleCodecsOfOtherDecodersAndRetries() throws Exception {
+    enableAndRender();
+    disableAndReset();
+    renderer.decoderInfo = OTHER_AVC_CODEC_INFO;
+    renderer.pendingConfigureCodecFailures = 1;
+
+    enableAndRender();
+
+    assertThat(pool.getHitCount()).isEqualTo(0);
+    assertThat(pool.getEvictionCount()).isEqualTo(1);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+    // The codec of the first decoder, the codec that failed to configure and the retried codec.
+    assertThat(renderer.configuredCodecs).hasSize(3);
+    verify(renderer.idleSurfaces.get(0)).release();
+  }
+
+  @Test
+  public void codecCreationFailure_withoutIdleCodecs_isNotRetried() throws Exception {
+    renderer.pendingConfigureCodecFailures = 1;
+
+    try {
+      enableAndRender();
+      fail();
+    } catch (ExoPlaybackException e) {
+      // Expected.
+    }
+
+    assertThat(renderer.configuredCodecs).hasSize(1);
+  }
+
+  /** Enables the renderer and renders until the codec has reported its output format. */
+  private void enableAndRender() throws ExoPlaybackException {
+    renderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {FORMAT},
+        new FakeSampleStream(FORMAT, /* eventDispatcher= */ null, /* shouldOutputSample= */ false),
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* offsetUs= */ 0);
+    renderer.render(/* positionUs= */ 0, /* elapsedRealtimeUs= */ 0);
+  }
+
+  /** Disables and resets the renderer, which releases its codec to the pool. */
+  private void disableAndReset() {
+    renderer.disable();
+    renderer.reset();
+  }
+
+  private static MediaCodecInfo createCodecInfo(String name) {
+    return MediaCodecInfo.newInstance(
+        name,
+        MimeTypes.VIDEO_H264,
+        MimeTypes.VIDEO_H264,
+        /* capabilities= */ null,
+        /* hardwareAccelerated= */ true,
+        /* softwareOnly= */ false,
+        /* vendor= */ true,
+        /* forceDisableAdaptive= */ false,
+        /* forceSecure= */ false);
+  }
+
+  /** A renderer that pools its codecs and records how they're configured. */
+  private static final class TestRenderer extends MediaCodecRenderer {
+
+    public final List<MediaCodec> configuredCodecs;
+    public final List<MediaCodec> reusedCodecs;
+    public final List<Surface> idleSurfaces;
+
+    public MediaCodecInfo decoderInfo;
+    public boolean failConfigurePooledCodec;
+    public int pendingConfigureCodecFailures;
+
+    public TestRenderer() {
+      super(
+          C.TRACK_TYPE_VIDEO,
+          MediaCodecSelector.DEFAULT,
+          /* drmSessionManager= */ null,
+          /* playClearSamplesWithoutKeys= */ false,
+          /* enableDecoderFallback= */ false,
+          /* assumedMinimumCodecOperatingRate= */ 30);
+      configuredCodecs = new ArrayList<>();
+      reusedCodecs = new ArrayList<>();
+      idleSurfaces = new ArrayList<>();
+      decoderInfo = AVC_CODEC_INFO;
+    }
+
+    @Override
+    protected int supportsFormat(
+        MediaCodecSelector mediaCodecSelector,
+        @Nullable DrmSessionManager<FrameworkMediaCrypto> drmSessionManager,
+        Format format) {
+      return RendererCapabilities.FORMAT_HANDLED;
+    }
+
+    @Override
+    protected List<MediaCodecInfo> getDecoderInfos(
+        MediaCodecSelector mediaCodecSelector, Format format, boolean requiresSecureDecoder) {
+      return Collections.singletonList(decoderInfo);
+    }
+
+    @Override
+    protected void configureCodec(
+        MediaCodecInfo codecInfo,
+        MediaCodec codec,
+        Format format,
+        @Nullable MediaCrypto crypto,
+        float codecOperatingRate) {
+      configuredCodecs.add(codec);
+      if (pendingConfigureCodecFailures > 0) {
+        pendingConfigureCodecFailures--;
+        throw new IllegalStateException();
+      }
+    }
+
+    @Override
+    protected boolean canPoolCodec(MediaCodecInfo codecInfo) {
+      return true;
+    }
+
+    @Override
+    protected @KeepCodecResult int canReusePooledCodec(
+        MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat, Format newFormat) {
+      return KEEP_CODEC_RESULT_YES_WITHOUT_RECONFIGURATION;
+    }
+
+    @Override
+    protected void configurePooledCodec(
+        MediaCodec codec, MediaCodecInfo codecInfo, Format codecFormat) {
+      reusedCodecs.add(codec);
+      if (failConfigurePooledCodec) {
+        throw new IllegalStateException();
+      }
+    }
+
+    @Override
+    protected Surface detachPooledCodec(MediaCodec codec, MediaCodecInfo codecInfo) {
+      Surface idleSurface = mock(Surface.class);
+      idleSurfaces.add(idleSurface);
+      return idleSurface;
+    }
+
+    @Override
+    protected boolean processOutputBuffer(
+        long positionUs,
+        long elapsedRealtimeUs,
+        MediaCodec codec,
+        ByteBuffer buffer,
+        int bufferIndex,
+        int bufferFlags,
+        long bufferPresentationTimeUs,
+        boolean isDecodeOnlyBuffer,
+        boolean isLastBuffer,
+        Format format) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A {@link MediaCodec} shadow that never has input buffers available and reports an output format
+   * change once.
+   */
+  @Implements(MediaCodec.class)
+  public static final class ShadowFormatChangingMediaCodec extends ShadowMediaCodec {
+
+    private boolean reportedOutputFormat;
+
+    @Implementation
+    protected int native_dequeueInputBuffer(long timeoutUs) {
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+
+    @Implementation
+    protected int native_dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+      if (reportedOutputFormat) {
+        return MediaCodec.INFO_TRY_AGAIN_LATER;
+      }
+      reportedOutputFormat = true;
+      return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+    }
+
+    @Implementation
+    protected Map<String, Object> getFormatNative(boolean input) {
+      return new HashMap<>();
+    }
+  }
+}
@@ -19,6 +19,8 @@ import static com.google.common.truth.Truth.assertThat;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.C;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -228,12 +230,62 @@ public final class CompositeSequenceableLoaderTest {
     assertThat(compositeSequenceableLoader.continueLoading(3000)).isTrue();
   }
 
+  /**
+   * Tests that {@link CompositeSequenceableLoader#continueLoading(long)} allows loaders within the
+   * maximum parallel load-ahead duration of the furthest behind loader to continue loading.
+   */
+  @Test
+  public void testContinueLoadingWithParallelLoadAheadAllowsLoadersWithinLoadAheadToLoad() {
+    FakeSequenceableLoader loader1 =
+        new FakeSequenceableLoader(/* bufferedPositionUs */ 1000, /* nextLoadPositionUs */ 2000);
+    FakeSequenceableLoader loader2 =
+        new FakeSequenceableLoader(/* bufferedPositionUs */ 1001, /* nextLoadPositionUs */ 2500);
+    FakeSequenceableLoader loader3 =
+        new FakeSequenceableLoader(/* bufferedPositionUs */ 1002, /* nextLoadPositionUs */ 3001);
+    CompositeSequenceableLoader compositeSequenceableLoader =
+        new CompositeSequenceableLoader(
+            new SequenceableLoader[] {loader1, loader2, loader3},
+            /* maxParallelLoadAheadUs= */ 1000);
+    compositeSequenceableLoader.continueLoading(100);
+
+    assertThat(loader1.numInvocations).isEqualTo(1);
+    assertThat(loader2.numInvocations).isEqualTo(1);
+    assertThat(loader3.numInvocations).isEqualTo(0);
+  }
+
+  /**
+   * Tests that {@link CompositeSequenceableLoader#continueLoading(long)} lets a loader that is
+   * ahead start its next load while the furthest behind loader is still loading, if it is within
+   * the maximum parallel load-ahead duration.
+   */
+  @Test
+  public void testContinueLoadingWithParallelLoadAheadContinuesLoaderAheadOfLoadingLoader() {
+    List<FakeSequenceableLoader> invocationOrder = new ArrayList<>();
+    FakeSequenceableLoader loader1 =
+        new FakeSequenceableLoader(/* bufferedPositionUs */ 1000, /* nextLoadPositionUs */ 1000);
+    FakeSequenceableLoader loader2 =
+        new FakeSequenceableLoader(/* bufferedPositionUs */ 1000, /* nextLoadPositionUs */ 1000);
+    loader1.setInvocationOrder(invocationOrder);
+    loader2.setInvocationOrder(invocationOrder);
+    // loader1 loads a long chunk, after which loader2 is furthest behind with shorter chunks.
+    loader1.setNextChunkDurationUs(4000);
+    loader2.setNextChunkDurationUs(1000);
+    CompositeSequenceableLoader compositeSequenceableLoader =
+        new CompositeSequenceableLoader(
+            new SequenceableLoader[] {loader1, loader2}, /* maxParallelLoadAheadUs= */ 3000);
+
+    assertThat(compositeSequenceableLoader.continueLoading(100)).isTrue();
+    // loader1 is 3000us ahead of loader2 after the first iteration, so both are continued again.
+    assertThat(invocationOrder).containsExactly(loader1, loader2, loader1, loader2).inOrder();
+  }
+
   private static class FakeSequenceableLoader implements SequenceableLoader {
 
     private long bufferedPositionUs;
     private long nextLoadPositionUs;
     private int numInvocations;
     private int nextChunkDurationUs;
+    private List<FakeSequenceableLoader> invocationOrder;
 
     private FakeSequenceableLoader(long bufferedPositionUs, long nextLoadPositionUs) {
       this.bufferedPositionUs = bufferedPositionUs;
@@ -253,6 +305,9 @@ public final class CompositeSequenceableLoaderTest {
     @Override
     public boolean continueLoading(long positionUs) {
       numInvocations++;
+      if (invocationOrder != null) {
+        invocationOrder.add(this);
+      }
       boolean loaded = nextChunkDurationUs != 0;
       // The current chunk has been loaded, advance to next chunk.
       bufferedPositionUs = nextLoadPositionUs;
@@ -270,6 +325,10 @@ public final class CompositeSequenceableLoaderTest {
       this.nextChunkDurationUs = nextChunkDurationUs;
     }
 
+    private void setInvocationOrder(List<FakeSequenceableLoader> invocationOrder) {
+      this.invocationOrder = invocationOrder;
+    }
+
   }
 
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.analytics.PlaybackStats;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.testutil.FakeAdaptiveDataSet;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.NetworkTrace;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.Result;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/**
+ * Regression tests for adaptive playback with {@link
+ * TrackSelectionSimulator#simulatePlayback(TrackSelection.Factory, LoadControl)}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class AdaptivePlaybackSimulationTest {
+
+  private static final TrackGroup TRACK_GROUP =
+      new TrackGroup(
+          videoFormat(/* bitrate= */ 500_000, /* width= */ 320, /* height= */ 240),
+          videoFormat(/* bitrate= */ 1_000_000, /* width= */ 640, /* height= */ 480),
+          videoFormat(/* bitrate= */ 2_000_000, /* width= */ 960, /* height= */ 720),
+          videoFormat(/* bitrate= */ 4_000_000, /* width= */ 1280, /* height= */ 720));
+
+  private static final NetworkTrace FLUCTUATING_NETWORK_TRACE =
+      new NetworkTrace()
+          .addPeriod(/* durationMs= */ 8_000, /* bitrate= */ 5_000_000)
+          .addPeriod(/* durationMs= */ 4_000, /* bitrate= */ 1_200_000)
+          .addPeriod(/* durationMs= */ 6_000, /* bitrate= */ 3_000_000)
+          .addPeriod(/* durationMs= */ 3_000, /* bitrate= */ 800_000);
+
+  @Test
+  public void simulate_isReproducible() throws Exception {
+    PlaybackStats playbackStats1 =
+        createSimulator(FLUCTUATING_NETWORK_TRACE)
+            .simulatePlayback(new AdaptiveTrackSelection.Factory(), new DefaultLoadControl());
+    PlaybackStats playbackStats2 =
+        createSimulator(FLUCTUATING_NETWORK_TRACE)
+            .simulatePlayback(new AdaptiveTrackSelection.Factory(), new DefaultLoadControl());
+
+    assertThat(playbackStats2.getMeanJoinTimeMs()).isEqualTo(playbackStats1.getMeanJoinTimeMs());
+    assertThat(playbackStats2.getTotalPlayTimeMs()).isEqualTo(playbackStats1.getTotalPlayTimeMs());
+    assertThat(playbackStats2.getTotalRebufferTimeMs())
+        .isEqualTo(playbackStats1.getTotalRebufferTimeMs());
+    assertThat(playbackStats2.getMeanVideoFormatBitrate())
+        .isEqualTo(playbackStats1.getMeanVideoFormatBitrate());
+    assertThat(playbackStats2.videoFormatHistory.size())
+        .isEqualTo(playbackStats1.videoFormatHistory.size());
+  }
+
+  @Test
+  public void adaptiveTrackSelection_withConstantNetwork_selectsSustainableFormat()
+      throws Exception {
+    NetworkTrace networkTrace =
+        new NetworkTrace().addPeriod(/* durationMs= */ 10_000, /* bitrate= */ 3_000_000);
+
+    PlaybackStats playbackStats =
+        createSimulator(networkTrace)
+            .simulatePlayback(new AdaptiveTrackSelection.Factory(), new DefaultLoadControl());
+
+    assertThat(playbackStats.totalRebufferCount).isEqualTo(0);
+    assertThat(getLastVideoFormat(playbackStats).bitrate).isEqualTo(2_000_000);
+  }
+
+  @Test
+  public void adaptiveTrackSelection_withFluctuatingNetwork_doesNotRebuffer() throws Exception {
+    PlaybackStats playbackStats =
+        createSimulator(FLUCTUATING_NETWORK_TRACE)
+            .simulatePlayback(new AdaptiveTrackSelection.Factory(), new DefaultLoadControl());
+
+    assertThat(playbackStats.getMeanJoinTimeMs()).isAtMost(1000L);
+    assertThat(playbackStats.totalRebufferCount).isEqualTo(0);
+    assertThat(playbackStats.getMeanVideoFormatBitrate()).isAtLeast(1_000_000);
+    assertThat(Result.fromPlaybackStats(playbackStats).switchCount).isAtMost(10);
+  }
+
+  @Test
+  public void adaptiveTrackSelection_withFluctuatingNetworkAndSmallBuffer_rebuffers()
+      throws Exception {
+    LoadControl loadControl =
+        new DefaultLoadControl.Builder()
+            .setBufferDurationsMs(
+                /* minBufferMs= */ 2500,
+                /* maxBufferMs= */ 5000,
+                /* bufferForPlaybackMs= */ 2500,
+                /* bufferForPlaybackAfterRebufferMs= */ 2500)
+            .createDefaultLoadControl();
+
+    PlaybackStats playbackStats =
+        createSimulator(FLUCTUATING_NETWORK_TRACE)
+            .simulatePlayback(new AdaptiveTrackSelection.Factory(), loadControl);
+
+    assertThat(playbackStats.totalRebufferCount).isGreaterThan(0);
+    assertThat(playbackStats.getRebufferTimeRatio()).isGreaterThan(0f);
+  }
+
+  @Test
+  public void resultFromPlaybackStats_matchesSimulatedModel() throws Exception {
+    NetworkTrace networkTrace =
+        new NetworkTrace().addPeriod(/* durationMs= */ 10_000, /* bitrate= */ 8_000_000);
+    TrackSelectionSimulator simulator = createSimulator(networkTrace);
+
+    Result modelResult = simulator.simulate(new FixedTrackSelection.Factory());
+    Result playbackResult =
+        Result.fromPlaybackStats(
+            simulator.simulatePlayback(
+                new FixedTrackSelection.Factory(), new DefaultLoadControl()));
+
+    assertThat(playbackResult.rebufferCount).isEqualTo(modelResult.rebufferCount);
+    assertThat(playbackResult.switchCount).isEqualTo(modelResult.switchCount);
+    assertThat(playbackResult.averageBitrate).isEqualTo(modelResult.averageBitrate);
+    assertThat(playbackResult.playbackDurationUs).isEqualTo(modelResult.playbackDurationUs);
+  }
+
+  private static TrackSelectionSimulator createSimulator(NetworkTrace networkTrace) {
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(
+                /* chunkDurationUs= */ 2 * C.MICROS_PER_SECOND,
+                /* bitratePercentStdDev= */ 0,
+                new Random(/* seed= */ 0))
+            .createDataSet(TRACK_GROUP, /* mediaDurationUs= */ 60 * C.MICROS_PER_SECOND);
+    return new TrackSelectionSimulator(
+        ApplicationProvider.getApplicationContext(), dataSet, TRACK_GROUP, networkTrace);
+  }
+
+  private static Format getLastVideoFormat(PlaybackStats playbackStats) {
+    return Assertions.checkNotNull(
+        playbackStats.videoFormatHistory.get(playbackStats.videoFormatHistory.size() - 1).second);
+  }
+
+  private static Format videoFormat(int bitrate, int width, int height) {
+    return Format.createVideoSampleFormat(
+        /* id= */ null,
+        /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ bitrate,
+        /* maxInputSize= */ Format.NO_VALUE,
+        /* width= */ width,
+        /* height= */ height,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.android.exoplayer2.RendererCapabilities.FORMAT_UNSUPPOR
 import static com.google.android.exoplayer2.RendererConfiguration.DEFAULT;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -46,11 +47,13 @@ import com.google.android.exoplayer2.testutil.FakeTimeline;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector.Parameters;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector.ParametersBuilder;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector.SelectionOverride;
+import com.google.android.exoplayer2.trackselection.MappingTrackSelector.MappedTrackInfo;
 import com.google.android.exoplayer2.trackselection.TrackSelector.InvalidationListener;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.util.MimeTypes;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -1570,6 +1573,143 @@ public final class DefaultTrackSelectorTest {
     assertAdaptiveSelection(result.selections.get(0), trackGroups.get(0), 1, 2);
   }
 
+  @Test
+  public void testSelectTracksWithSelectionCacheReusesSelectionForEqualTrackGroups()
+      throws Exception {
+    AtomicInteger selectAllTracksCount = new AtomicInteger();
+    DefaultTrackSelector trackSelector = createCountingTrackSelector(selectAllTracksCount);
+    trackSelector.experimental_enableSelectionCache();
+    trackSelector.init(invalidationListener, bandwidthMeter);
+    TrackGroupArray trackGroups =
+        new TrackGroupArray(
+            new TrackGroup(buildVideoFormat("0"), buildVideoFormat("1")),
+            new TrackGroup(buildAudioFormatWithLanguage("audio", "eng")));
+    // The track groups of a following period with the same tracks.
+    TrackGroupArray equalTrackGroups =
+        new TrackGroupArray(
+            new TrackGroup(buildVideoFormat("0"), buildVideoFormat("1")),
+            new TrackGroup(buildAudioFormatWithLanguage("audio", "eng")));
+
+    TrackSelectorResult result1 =
+        trackSelector.selectTracks(RENDERER_CAPABILITIES, trackGroups, periodId, TIMELINE);
+    TrackSelectorResult result2 =
+        trackSelector.selectTracks(RENDERER_CAPABILITIES, equalTrackGroups, periodId, TIMELINE);
+
+    assertThat(selectAllTracksCount.get()).isEqualTo(1);
+    assertAdaptiveSelection(result1.selections.get(0), trackGroups.get(0), 0, 1);
+    // The reused selection is bound to the new track groups.
+    assertAdaptiveSelection(result2.selections.get(0), equalTrackGroups.get(0), 0, 1);
+    assertThat(result2.selections.get(1).getTrackGroup())
+        .isSameInstanceAs(equalTrackGroups.get(1));
+    // Track selections are stateful, so they must not be shared between selections.
+    assertThat(result2.selections.get(0)).isNotSameInstanceAs(result1.selections.get(0));
+
+    // Equal parameters reuse the selection too.
+    trackSelector.setParameters(trackSelector.buildUponParameters());
+    trackSelector.selectTracks(RENDERER_CAPABILITIES, trackGroups, periodId, TIMELINE);
+
+    assertThat(selectAllTracksCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSelectTracksWithSelectionCacheMakesNewSelectionForChangedInputs()
+      throws Exception {
+    AtomicInteger selectAllTracksCount = new AtomicInteger();
+    DefaultTrackSelector trackSelector = createCountingTrackSelector(selectAllTracksCount);
+    trackSelector.experimental_enableSelectionCache();
+    trackSelector.init(invalidationListener, bandwidthMeter);
+    trackSelector.selectTracks(
+        RENDERER_CAPABILITIES,
+        singleTrackGroup(buildVideoFormat("0"), buildVideoFormat("1")),
+        periodId,
+        TIMELINE);
+
+    // A changed format results in a new selection.
+    TrackGroupArray changedTrackGroups =
+        singleTrackGroup(buildVideoFormat("0"), buildVideoFormat("2"));
+    TrackSelectorResult result =
+        trackSelector.selectTracks(RENDERER_CAPABILITIES, changedTrackGroups, periodId, TIMELINE);
+
+    assertThat(selectAllTracksCount.get()).isEqualTo(2);
+    assertAdaptiveSelection(result.selections.get(0), changedTrackGroups.get(0), 0, 1);
+
+    // A parameter change results in a new selection.
+    trackSelector.setParameters(
+        trackSelector.buildUponParameters().setPreferredAudioLanguage("spa"));
+    trackSelector.selectTracks(RENDERER_CAPABILITIES, changedTrackGroups, periodId, TIMELINE);
+
+    assertThat(selectAllTracksCount.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testSelectTracksWithoutSelectionCacheDoesNotReuseSelection() throws Exception {
+    AtomicInteger selectAllTracksCount = new AtomicInteger();
+    DefaultTrackSelector trackSelector = createCountingTrackSelector(selectAllTracksCount);
+    trackSelector.init(invalidationListener, bandwidthMeter);
+    TrackGroupArray trackGroups = singleTrackGroup(buildVideoFormat("0"), buildVideoFormat("1"));
+
+    trackSelector.selectTracks(RENDERER_CAPABILITIES, trackGroups, periodId, TIMELINE);
+    trackSelector.selectTracks(RENDERER_CAPABILITIES, trackGroups, periodId, TIMELINE);
+
+    assertThat(selectAllTracksCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSetCurrentViewportSizeCapsAdaptiveVideoSelectionWithoutInvalidating()
+      throws Exception {
+    TrackGroupArray trackGroups =
+        singleTrackGroup(
+            buildVideoFormatWithSize("0", /* width= */ 1920, /* height= */ 1080),
+            buildVideoFormatWithSize("1", /* width= */ 1280, /* height= */ 720),
+            buildVideoFormatWithSize("2", /* width= */ 640, /* height= */ 360));
+    trackSelector.setParameters(defaultParameters.buildUpon().clearViewportSizeConstraints());
+    reset(invalidationListener);
+    TrackSelectorResult result =
+        trackSelector.selectTracks(
+            new RendererCapabilities[] {VIDEO_CAPABILITIES}, trackGroups, periodId, TIMELINE);
+    AdaptiveTrackSelection selection = (AdaptiveTrackSelection) result.selections.get(0);
+    assertThat(selection.length()).isEqualTo(3);
+    assertThat(selection.getMaxVideoPixels()).isEqualTo(Integer.MAX_VALUE);
+
+    trackSelector.setCurrentViewportSize(/* viewportWidth= */ 1200, /* viewportHeight= */ 700);
+
+    assertThat(selection.getMaxVideoPixels()).isEqualTo(1280 * 720);
+    verify(invalidationListener, never()).onTrackSelectionsInvalidated();
+
+    // Subsequent selections are capped too.
+    result =
+        trackSelector.selectTracks(
+            new RendererCapabilities[] {VIDEO_CAPABILITIES}, trackGroups, periodId, TIMELINE);
+    assertThat(((AdaptiveTrackSelection) result.selections.get(0)).getMaxVideoPixels())
+        .isEqualTo(1280 * 720);
+
+    trackSelector.clearCurrentViewportSize();
+
+    assertThat(selection.getMaxVideoPixels()).isEqualTo(Integer.MAX_VALUE);
+    verify(invalidationListener, never()).onTrackSelectionsInvalidated();
+  }
+
+  private static DefaultTrackSelector createCountingTrackSelector(
+      AtomicInteger selectAllTracksCount) {
+    Context context = ApplicationProvider.getApplicationContext();
+    return new DefaultTrackSelector(context) {
+      @Override
+      protected TrackSelection.Definition[] selectAllTracks(
+          MappedTrackInfo mappedTrackInfo,
+          int[][][] rendererFormatSupports,
+          int[] rendererMixedMimeTypeAdaptationSupports,
+          Parameters params)
+          throws ExoPlaybackException {
+        selectAllTracksCount.incrementAndGet();
+        return super.selectAllTracks(
+            mappedTrackInfo,
+            rendererFormatSupports,
+            rendererMixedMimeTypeAdaptationSupports,
+            params);
+      }
+    };
+  }
+
   private static void assertSelections(TrackSelectorResult result, TrackSelection[] expected) {
     assertThat(result.length).isEqualTo(expected.length);
     for (int i = 0; i < expected.length; i++) {
@@ -1648,6 +1788,20 @@ public final class DefaultTrackSelectorTest {
     return buildVideoFormatWithMimeType(id, MimeTypes.VIDEO_H264);
   }
 
+  private static Format buildVideoFormatWithSize(String id, int width, int height) {
+    return Format.createVideoSampleFormat(
+        id,
+        MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ width * height,
+        /* maxInputSize= */ Format.NO_VALUE,
+        width,
+        height,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+
   private static Format buildAudioFormatWithLanguage(String id, String language) {
     return buildAudioFormatWithLanguageAndFlags(id, language, /* selectionFlags= */ 0);
   }
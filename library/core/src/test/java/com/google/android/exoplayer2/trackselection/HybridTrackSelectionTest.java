@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeAdaptiveDataSet;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.testutil.FakeMediaChunkIterator;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.NetworkTrace;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.Result;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+/** Unit test for {@link HybridTrackSelection}. */
+@RunWith(AndroidJUnit4.class)
+public final class HybridTrackSelectionTest {
+
+  private static final Format FORMAT_1 =
+      videoFormat(/* bitrate= */ 500_000, /* width= */ 320, /* height= */ 240);
+  private static final Format FORMAT_2 =
+      videoFormat(/* bitrate= */ 1_000_000, /* width= */ 640, /* height= */ 480);
+  private static final Format FORMAT_3 =
+      videoFormat(/* bitrate= */ 2_000_000, /* width= */ 960, /* height= */ 720);
+  private static final Format FORMAT_4 =
+      videoFormat(/* bitrate= */ 4_000_000, /* width= */ 1280, /* height= */ 720);
+  private static final MediaChunkIterator[] FOUR_EMPTY_MEDIA_CHUNK_ITERATORS =
+      new MediaChunkIterator[] {
+        MediaChunkIterator.EMPTY,
+        MediaChunkIterator.EMPTY,
+        MediaChunkIterator.EMPTY,
+        MediaChunkIterator.EMPTY
+      };
+
+  @Mock private BandwidthMeter mockBandwidthMeter;
+  private FakeClock fakeClock;
+  private TrackGroup trackGroup;
+
+  @Before
+  public void setUp() {
+    initMocks(this);
+    fakeClock = new FakeClock(/* initialTimeMs= */ 0);
+    trackGroup = new TrackGroup(FORMAT_1, FORMAT_2, FORMAT_3, FORMAT_4);
+  }
+
+  @Test
+  public void initialSelection_usesBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2_000_000L);
+    HybridTrackSelection trackSelection = createTrackSelection();
+
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 0,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        FOUR_EMPTY_MEDIA_CHUNK_ITERATORS);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_2);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_INITIAL);
+  }
+
+  @Test
+  public void updateSelectedTrack_withLongBuffer_usesBufferBasedRule() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(10_000_000L);
+    HybridTrackSelection trackSelection = createTrackSelection();
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 0);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_4);
+
+    // The buffer based rule selects the lowest quality at the minimum buffer duration, but doesn't
+    // take over while it selects a lower quality than the throughput based rule.
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 10_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_4);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1_000_000L);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 10_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1);
+
+    // Once the buffer based rule is used, the selection follows the buffer level.
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 20_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1);
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(10_000_000L);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 20_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_3);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 30_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_4);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void updateSelectedTrack_withBufferBasedRule_doesNotExceedBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1_000_000L);
+    HybridTrackSelection trackSelection = createTrackSelection();
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 0);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 10_000);
+
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 30_000);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1);
+  }
+
+  @Test
+  public void updateSelectedTrack_withBufferBasedRule_appliesHysteresis() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1_000_000L);
+    HybridTrackSelection trackSelection =
+        createTrackSelection(/* hysteresisBufferMs= */ 5_000);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 0);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 10_000);
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(10_000_000L);
+
+    // Without hysteresis, the buffer based rule would select FORMAT_3.
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 20_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_2);
+    // Without hysteresis, the buffer based rule would select FORMAT_1.
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 12_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_2);
+  }
+
+  @Test
+  public void updateSelectedTrack_withShortBuffer_fallsBackToThroughputBasedRule() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1_000_000L);
+    HybridTrackSelection trackSelection = createTrackSelection();
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 0);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 10_000);
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(10_000_000L);
+
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 6_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1);
+    updateSelectedTrack(trackSelection, /* bufferedDurationMs= */ 4_000);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_4);
+  }
+
+  @Test
+  public void updateSelectedTrack_usesChunkSizesOfMediaChunkIterators() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2_000_000L);
+    HybridTrackSelection trackSelection = createTrackSelection();
+    // The iterators are ordered by decreasing bitrate. The next chunk of the 1 Mbps track is twice
+    // as large as its declared bitrate suggests, so it doesn't fit into the bandwidth estimate.
+    MediaChunkIterator[] mediaChunkIterators =
+        new MediaChunkIterator[] {
+          createIterator(/* chunkLength= */ 500_000),
+          createIterator(/* chunkLength= */ 250_000),
+          createIterator(/* chunkLength= */ 250_000),
+          createIterator(/* chunkLength= */ 62_500)
+        };
+
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 0,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        mediaChunkIterators);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1);
+  }
+
+  @Test
+  public void simulation_withFluctuatingThroughput_achievesHigherBitrateThanAdaptiveSelection() {
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(
+                /* chunkDurationUs= */ 2 * C.MICROS_PER_SECOND,
+                /* bitratePercentStdDev= */ 10,
+                new Random(/* seed= */ 0))
+            .createDataSet(trackGroup, /* mediaDurationUs= */ 300 * C.MICROS_PER_SECOND);
+    NetworkTrace networkTrace =
+        new NetworkTrace()
+            .addPeriod(/* durationMs= */ 8_000, /* bitrate= */ 5_000_000)
+            .addPeriod(/* durationMs= */ 4_000, /* bitrate= */ 1_200_000)
+            .addPeriod(/* durationMs= */ 6_000, /* bitrate= */ 3_000_000)
+            .addPeriod(/* durationMs= */ 3_000, /* bitrate= */ 800_000);
+    TrackSelectionSimulator simulator =
+        new TrackSelectionSimulator(
+            ApplicationProvider.getApplicationContext(), dataSet, trackGroup, networkTrace);
+
+    Result adaptiveResult = simulator.simulate(new AdaptiveTrackSelection.Factory());
+    Result hybridResult = simulator.simulate(new HybridTrackSelection.Factory());
+
+    // The buffer absorbs the throughput fluctuations, so a higher bitrate can be sustained.
+    assertThat(hybridResult.getRebufferRatio()).isAtMost(adaptiveResult.getRebufferRatio());
+    assertThat(hybridResult.averageBitrate).isGreaterThan(adaptiveResult.averageBitrate);
+  }
+
+  private HybridTrackSelection createTrackSelection() {
+    return createTrackSelection(/* hysteresisBufferMs= */ 0);
+  }
+
+  private HybridTrackSelection createTrackSelection(int hysteresisBufferMs) {
+    return new HybridTrackSelection(
+        trackGroup,
+        /* tracks= */ new int[] {0, 1, 2, 3},
+        mockBandwidthMeter,
+        HybridTrackSelection.DEFAULT_MIN_BUFFER_MS,
+        HybridTrackSelection.DEFAULT_BUFFER_TARGET_MS,
+        hysteresisBufferMs,
+        HybridTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        fakeClock);
+  }
+
+  private static void updateSelectedTrack(
+      HybridTrackSelection trackSelection, long bufferedDurationMs) {
+    trackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        C.msToUs(bufferedDurationMs),
+        /* availableDurationUs= */ C.TIME_UNSET,
+        /* queue= */ Collections.emptyList(),
+        FOUR_EMPTY_MEDIA_CHUNK_ITERATORS);
+  }
+
+  private static MediaChunkIterator createIterator(long chunkLength) {
+    return new FakeMediaChunkIterator(
+        /* chunkTimeBoundariesSec= */ new long[] {0, 1},
+        /* chunkLengths= */ new long[] {chunkLength});
+  }
+
+  private static Format videoFormat(int bitrate, int width, int height) {
+    return Format.createVideoSampleFormat(
+        /* id= */ null,
+        /* sampleMimeType= */ MimeTypes.VIDEO_H264,
+        /* codecs= */ null,
+        /* bitrate= */ bitrate,
+        /* maxInputSize= */ Format.NO_VALUE,
+        /* width= */ width,
+        /* height= */ height,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* drmInitData= */ null);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeMediaChunkIterator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link TrackSelectionUtil}. */
+@RunWith(AndroidJUnit4.class)
+public final class TrackSelectionUtilTest {
+
+  @Test
+  public void getAverageBitrate_emptyIterator_returnsNoValue() {
+    assertThat(
+            TrackSelectionUtil.getAverageBitrate(
+                MediaChunkIterator.EMPTY, /* maxDurationUs= */ C.MICROS_PER_SECOND))
+        .isEqualTo(Format.NO_VALUE);
+  }
+
+  @Test
+  public void getAverageBitrate_unknownChunkLength_returnsNoValue() {
+    FakeMediaChunkIterator iterator =
+        new FakeMediaChunkIterator(
+            /* chunkTimeBoundariesSec= */ new long[] {0, 1, 2},
+            /* chunkLengths= */ new long[] {10, C.LENGTH_UNSET});
+
+    assertThat(
+            TrackSelectionUtil.getAverageBitrate(
+                iterator, /* maxDurationUs= */ 10 * C.MICROS_PER_SECOND))
+        .isEqualTo(Format.NO_VALUE);
+  }
+
+  @Test
+  public void getAverageBitrate_averagesChunksWithinMaxDuration() {
+    FakeMediaChunkIterator iterator =
+        new FakeMediaChunkIterator(
+            /* chunkTimeBoundariesSec= */ new long[] {0, 1, 3, 4},
+            /* chunkLengths= */ new long[] {10, 40, 1000});
+
+    // The first two chunks are 50 bytes in 3 seconds.
+    assertThat(
+            TrackSelectionUtil.getAverageBitrate(
+                iterator, /* maxDurationUs= */ 3 * C.MICROS_PER_SECOND))
+        .isEqualTo(133);
+    // The first chunk is used even though it's longer than the maximum duration.
+    assertThat(TrackSelectionUtil.getAverageBitrate(iterator, /* maxDurationUs= */ 0))
+        .isEqualTo(80);
+  }
+}
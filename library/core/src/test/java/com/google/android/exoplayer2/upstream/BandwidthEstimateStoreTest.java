@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.database.DatabaseIOException;
+import com.google.android.exoplayer2.database.DatabaseProvider;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.BandwidthEstimateStore.Estimate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BandwidthEstimateStore}. */
+@RunWith(AndroidJUnit4.class)
+public final class BandwidthEstimateStoreTest {
+
+  private static final String NETWORK_ID = "network";
+
+  private DatabaseProvider databaseProvider;
+  private BandwidthEstimateStore store;
+
+  @Before
+  public void setUp() {
+    databaseProvider = TestUtil.getTestDatabaseProvider();
+    store = new BandwidthEstimateStore(databaseProvider);
+  }
+
+  @Test
+  public void get_withoutStoredEstimate_returnsNull() throws DatabaseIOException {
+    assertThat(store.get(C.NETWORK_TYPE_WIFI, NETWORK_ID)).isNull();
+  }
+
+  @Test
+  public void put_isPersistedAndKeyedByNetworkTypeAndId() throws DatabaseIOException {
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new Estimate(/* bitrateEstimate= */ 5_000_000, /* timestampMs= */ 1000));
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new Estimate(/* bitrateEstimate= */ 6_000_000, /* timestampMs= */ 2000));
+
+    Estimate estimate =
+        new BandwidthEstimateStore(databaseProvider).get(C.NETWORK_TYPE_WIFI, NETWORK_ID);
+
+    assertThat(estimate.bitrateEstimate).isEqualTo(6_000_000);
+    assertThat(estimate.timestampMs).isEqualTo(2000);
+    assertThat(store.get(C.NETWORK_TYPE_4G, NETWORK_ID)).isNull();
+    assertThat(store.get(C.NETWORK_TYPE_WIFI, "other")).isNull();
+  }
+
+  @Test
+  public void clear_removesAllEstimates() throws DatabaseIOException {
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new Estimate(/* bitrateEstimate= */ 5_000_000, /* timestampMs= */ 1000));
+
+    store.clear();
+
+    assertThat(store.get(C.NETWORK_TYPE_WIFI, NETWORK_ID)).isNull();
+  }
+}
@@ -28,6 +28,8 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.testutil.FakeClock;
 import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.util.ArrayList;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
@@ -42,6 +44,8 @@ public final class DefaultBandwidthMeterTest {
   private static final int SIMULATED_TRANSFER_COUNT = 100;
   private static final String FAST_COUNTRY_ISO = "EE";
   private static final String SLOW_COUNTRY_ISO = "PG";
+  private static final String NETWORK_ID = "network";
+  private static final long PERSISTED_ESTIMATE_HALF_LIFE_MS = 60 * 60 * 1000;
 
   private TelephonyManager telephonyManager;
   private ConnectivityManager connectivityManager;
@@ -541,6 +545,211 @@ public final class DefaultBandwidthMeterTest {
     assertThat(bitrateEstimatesAfterReset).isEqualTo(bitrateEstimatesWithNewInstance);
   }
 
+  @Test
+  public void persistedEstimate_isUsedAsInitialEstimateForSameNetwork() throws Exception {
+    setActiveNetworkInfo(networkInfoWifi);
+    BandwidthEstimateStore store = new BandwidthEstimateStore(TestUtil.getTestDatabaseProvider());
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(Runnable::run)
+            .setNetworkId(NETWORK_ID)
+            .build();
+    long[] bitrateEstimates = simulateTransfers(bandwidthMeter, clock);
+
+    DefaultBandwidthMeter sameNetworkBandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(Runnable::run)
+            .setNetworkId(NETWORK_ID)
+            .build();
+    DefaultBandwidthMeter otherNetworkBandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(Runnable::run)
+            .setNetworkId("other")
+            .build();
+
+    assertThat(store.get(C.NETWORK_TYPE_WIFI, NETWORK_ID)).isNotNull();
+    long persistedEstimate = store.get(C.NETWORK_TYPE_WIFI, NETWORK_ID).bitrateEstimate;
+    assertThat(bitrateEstimates).asList().contains(persistedEstimate);
+    // The persisted estimate may have decayed slightly in the meantime.
+    assertThat((double) sameNetworkBandwidthMeter.getBitrateEstimate())
+        .isWithin(0.01 * persistedEstimate)
+        .of(persistedEstimate);
+    assertThat(otherNetworkBandwidthMeter.getBitrateEstimate())
+        .isEqualTo(
+            new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+                .build()
+                .getBitrateEstimate());
+  }
+
+  @Test
+  public void persistedEstimate_decaysTowardsDefaultInitialEstimate() throws Exception {
+    setActiveNetworkInfo(networkInfoWifi);
+    BandwidthEstimateStore store = new BandwidthEstimateStore(TestUtil.getTestDatabaseProvider());
+    long defaultInitialEstimate =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .build()
+            .getBitrateEstimate();
+    long persistedEstimate = defaultInitialEstimate + 10_000_000;
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new BandwidthEstimateStore.Estimate(
+            persistedEstimate, System.currentTimeMillis() - PERSISTED_ESTIMATE_HALF_LIFE_MS));
+
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(Runnable::run)
+            .setNetworkId(NETWORK_ID)
+            .build();
+
+    assertThat((double) bandwidthMeter.getBitrateEstimate())
+        .isWithin(100_000)
+        .of(defaultInitialEstimate + 5_000_000);
+  }
+
+  @Test
+  public void setNetworkId_seedsEstimateFromStore() throws Exception {
+    setActiveNetworkInfo(networkInfoWifi);
+    BandwidthEstimateStore store = new BandwidthEstimateStore(TestUtil.getTestDatabaseProvider());
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new BandwidthEstimateStore.Estimate(
+            /* bitrateEstimate= */ 42_000_000, System.currentTimeMillis()));
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(Runnable::run)
+            .build();
+    long initialEstimate = bandwidthMeter.getBitrateEstimate();
+
+    bandwidthMeter.setNetworkId(NETWORK_ID);
+
+    assertThat(initialEstimate).isNotEqualTo(42_000_000);
+    assertThat((double) bandwidthMeter.getBitrateEstimate()).isWithin(420_000).of(42_000_000);
+  }
+
+  @Test
+  public void persistedEstimate_isLoadedOnStoreExecutor() throws Exception {
+    setActiveNetworkInfo(networkInfoWifi);
+    BandwidthEstimateStore store = new BandwidthEstimateStore(TestUtil.getTestDatabaseProvider());
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new BandwidthEstimateStore.Estimate(
+            /* bitrateEstimate= */ 42_000_000, System.currentTimeMillis()));
+    ArrayList<Runnable> storeTasks = new ArrayList<>();
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(storeTasks::add)
+            .setNetworkId(NETWORK_ID)
+            .build();
+    long initialEstimate = bandwidthMeter.getBitrateEstimate();
+
+    runAll(storeTasks);
+
+    assertThat(initialEstimate).isNotEqualTo(42_000_000);
+    assertThat((double) bandwidthMeter.getBitrateEstimate()).isWithin(420_000).of(42_000_000);
+  }
+
+  @Test
+  public void persistedEstimate_loadedAfterMeasuredEstimate_isIgnored() throws Exception {
+    setActiveNetworkInfo(networkInfoWifi);
+    BandwidthEstimateStore store = new BandwidthEstimateStore(TestUtil.getTestDatabaseProvider());
+    store.put(
+        C.NETWORK_TYPE_WIFI,
+        NETWORK_ID,
+        new BandwidthEstimateStore.Estimate(
+            /* bitrateEstimate= */ 42_000_000, System.currentTimeMillis()));
+    ArrayList<Runnable> storeTasks = new ArrayList<>();
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .setBandwidthEstimateStore(store, PERSISTED_ESTIMATE_HALF_LIFE_MS)
+            .setBandwidthEstimateStoreExecutor(storeTasks::add)
+            .setNetworkId(NETWORK_ID)
+            .build();
+    DataSpec dataSpec = new DataSpec(Uri.parse("https://host.test/chunk"));
+    // 1 MB in 4 seconds.
+    simulateTransfer(bandwidthMeter, clock, dataSpec, /* bytes= */ 1_000_000, 4000);
+
+    runAll(storeTasks);
+
+    assertThat(bandwidthMeter.getBitrateEstimate()).isEqualTo(2_000_000);
+    assertThat(store.get(C.NETWORK_TYPE_WIFI, NETWORK_ID).bitrateEstimate).isEqualTo(2_000_000);
+  }
+
+  @Test
+  public void hostEstimates_areIndependentOfTransfersFromOtherHosts() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .setMaxHostEstimateCount(DefaultBandwidthMeter.SUGGESTED_MAX_HOST_ESTIMATE_COUNT)
+            .build();
+    DataSpec fastDataSpec = new DataSpec(Uri.parse("https://fast.test/chunk"));
+    DataSpec slowDataSpec = new DataSpec(Uri.parse("https://slow.test/chunk"));
+
+    for (int i = 0; i < 10; i++) {
+      // 1 MB in 1 second and in 4 seconds.
+      simulateTransfer(bandwidthMeter, clock, fastDataSpec, /* bytes= */ 1_000_000, 1000);
+      simulateTransfer(bandwidthMeter, clock, slowDataSpec, /* bytes= */ 1_000_000, 4000);
+    }
+
+    assertThat(bandwidthMeter.getBitrateEstimate("fast.test")).isEqualTo(8_000_000);
+    assertThat(bandwidthMeter.getBitrateEstimate("slow.test")).isEqualTo(2_000_000);
+    assertThat(bandwidthMeter.getBitrateEstimate("other.test"))
+        .isEqualTo(bandwidthMeter.getBitrateEstimate());
+  }
+
+  @Test
+  public void hostEstimates_combineConcurrentTransfersIntoOneSample() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .setMaxHostEstimateCount(DefaultBandwidthMeter.SUGGESTED_MAX_HOST_ESTIMATE_COUNT)
+            .build();
+    DataSource dataSource = new FakeDataSource();
+    DataSpec dataSpec1 = new DataSpec(Uri.parse("https://host.test/chunk1"));
+    DataSpec dataSpec2 = new DataSpec(Uri.parse("https://host.test/chunk2"));
+
+    // Two concurrent transfers of 1 MB each, taking 2 seconds in total.
+    bandwidthMeter.onTransferStart(dataSource, dataSpec1, /* isNetwork= */ true);
+    bandwidthMeter.onTransferStart(dataSource, dataSpec2, /* isNetwork= */ true);
+    clock.advanceTime(1000);
+    bandwidthMeter.onBytesTransferred(dataSource, dataSpec1, /* isNetwork= */ true, 1_000_000);
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec1, /* isNetwork= */ true);
+    clock.advanceTime(1000);
+    bandwidthMeter.onBytesTransferred(dataSource, dataSpec2, /* isNetwork= */ true, 1_000_000);
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec2, /* isNetwork= */ true);
+
+    assertThat(bandwidthMeter.getBitrateEstimate("host.test")).isEqualTo(8_000_000);
+  }
+
+  @Test
+  public void hostEstimates_withoutMaxHostEstimateCount_returnGlobalEstimate() {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(ApplicationProvider.getApplicationContext())
+            .setClock(clock)
+            .build();
+    DataSpec dataSpec = new DataSpec(Uri.parse("https://host.test/chunk"));
+
+    simulateTransfer(bandwidthMeter, clock, dataSpec, /* bytes= */ 1_000_000, 4000);
+
+    assertThat(bandwidthMeter.getBitrateEstimate("host.test"))
+        .isEqualTo(bandwidthMeter.getBitrateEstimate());
+  }
+
   @Test
   @SuppressWarnings("deprecation")
   public void defaultInitialBitrateEstimate_withoutContext_isReasonable() {
@@ -557,6 +766,13 @@ public final class DefaultBandwidthMeterTest {
     assertThat(initialEstimateWithoutBuilder).isLessThan(50_000_000L);
   }
 
+  private static void runAll(ArrayList<Runnable> tasks) {
+    for (Runnable task : tasks) {
+      task.run();
+    }
+    tasks.clear();
+  }
+
   private void setActiveNetworkInfo(NetworkInfo networkInfo) {
     Shadows.shadowOf(connectivityManager).setActiveNetworkInfo(networkInfo);
   }
@@ -565,6 +781,19 @@ public final class DefaultBandwidthMeterTest {
     Shadows.shadowOf(telephonyManager).setNetworkCountryIso(countryIso);
   }
 
+  private static void simulateTransfer(
+      DefaultBandwidthMeter bandwidthMeter,
+      FakeClock clock,
+      DataSpec dataSpec,
+      int bytes,
+      long durationMs) {
+    DataSource dataSource = new FakeDataSource();
+    bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+    clock.advanceTime(durationMs);
+    bandwidthMeter.onBytesTransferred(dataSource, dataSpec, /* isNetwork= */ true, bytes);
+    bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+  }
+
   private static long[] simulateTransfers(DefaultBandwidthMeter bandwidthMeter, FakeClock clock) {
     long[] bitrateEstimates = new long[SIMULATED_TRANSFER_COUNT];
     Random random = new Random(/* seed= */ 0);
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.video;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.RendererConfiguration;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.analytics.AnalyticsCollector;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.source.SampleStream;
+import com.google.android.exoplayer2.testutil.AllocationCounter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowMediaCodec;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/**
+ * Tests that rendering in {@link MediaCodecVideoRenderer}, including the dispatch of its events to
+ * an {@link AnalyticsCollector}, does not allocate.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {MediaCodecVideoRendererAllocationTest.ShadowNonAllocatingMediaCodec.class})
+public final class MediaCodecVideoRendererAllocationTest {
+
+  private static final long FRAME_DURATION_US = 33_333;
+  private static final long KEY_FRAME_INTERVAL_US = 1_000_000;
+  private static final long SEEK_INCREMENT_US = 5_000_000;
+  private static final int WARM_UP_ITERATION_COUNT = 300;
+  /** The number of measured render loop iterations, which is 60 seconds of video. */
+  private static final int MEASURED_ITERATION_COUNT = 1800;
+
+  private static final MediaCodecInfo CODEC_INFO =
+      MediaCodecInfo.newInstance(
+          "avc.decoder",
+          MimeTypes.VIDEO_H264,
+          MimeTypes.VIDEO_H264,
+          /* capabilities= */ null,
+          /* hardwareAccelerated= */ true,
+          /* softwareOnly= */ false,
+          /* vendor= */ true,
+          /* forceDisableAdaptive= */ false,
+          /* forceSecure= */ false);
+  private static final Format FORMAT =
+      Format.createVideoSampleFormat(
+          /* id= */ null,
+          MimeTypes.VIDEO_H264,
+          /* codecs= */ null,
+          Format.NO_VALUE,
+          Format.NO_VALUE,
+          /* width= */ 1280,
+          /* height= */ 720,
+          /* frameRate= */ 30,
+          /* initializationData= */ null,
+          /* drmInitData= */ null);
+
+  @Before
+  public void setUp() {
+    // The Robolectric shadow of Trace records all sections, which would count as allocations.
+    ReflectionHelpers.callStaticMethod(
+        Trace.class, "setAppTracingAllowed", ClassParameter.from(boolean.class, false));
+  }
+
+  @Test
+  public void steadyStateRendering_doesNotAllocate() throws Exception {
+    AllocationCounter allocationCounter = AllocationCounter.createIfSupported();
+    assumeTrue(allocationCounter != null);
+    TestVideoRenderer renderer = createRenderer(createAnalyticsCollector());
+
+    long allocatedBytes =
+        measureRenderLoopAllocations(allocationCounter, renderer, /* seekIntervalIterations= */ 0);
+
+    DecoderCounters decoderCounters = renderer.getDecoderCounters();
+    assertThat(decoderCounters.renderedOutputBufferCount).isAtLeast(MEASURED_ITERATION_COUNT);
+    assertThat(allocatedBytes).isEqualTo(0);
+  }
+
+  @Test
+  public void renderingDecodeOnlyBuffersAfterSeeks_doesNotAllocate() throws Exception {
+    AllocationCounter allocationCounter = AllocationCounter.createIfSupported();
+    assumeTrue(allocationCounter != null);
+    // The renderer reports the first frame after each seek, so it has no listener to only measure
+    // the allocations of rendering.
+    TestVideoRenderer renderer = createRenderer(/* analyticsCollector= */ null);
+
+    long allocatedBytes =
+        measureRenderLoopAllocations(allocationCounter, renderer, /* seekIntervalIterations= */ 60);
+
+    DecoderCounters decoderCounters = renderer.getDecoderCounters();
+    assertThat(decoderCounters.skippedOutputBufferCount).isGreaterThan(0);
+    assertThat(allocatedBytes).isEqualTo(0);
+  }
+
+  private static AnalyticsCollector createAnalyticsCollector() {
+    Player player = mock(Player.class);
+    when(player.getCurrentTimeline()).thenReturn(Timeline.EMPTY);
+    AnalyticsCollector analyticsCollector = new AnalyticsCollector(Clock.DEFAULT);
+    analyticsCollector.setPlayer(player);
+    analyticsCollector.addListener(new AnalyticsListener() {});
+    return analyticsCollector;
+  }
+
+  private static TestVideoRenderer createRenderer(@Nullable AnalyticsCollector analyticsCollector) {
+    return new TestVideoRenderer(
+        analyticsCollector == null ? null : new Handler(Looper.getMainLooper()),
+        analyticsCollector);
+  }
+
+  /**
+   * Renders video and returns the number of bytes allocated by the measured calls to {@link
+   * MediaCodecVideoRenderer#render(long, long)}.
+   *
+   * @param allocationCounter The {@link AllocationCounter}.
+   * @param renderer The renderer.
+   * @param seekIntervalIterations The number of render loop iterations after which the renderer
+   *     seeks forward to a position that requires decoding from an earlier key frame, or 0 to not
+   *     seek. Seeks themselves aren't measured.
+   */
+  private static long measureRenderLoopAllocations(
+      AllocationCounter allocationCounter, TestVideoRenderer renderer, int seekIntervalIterations)
+      throws Exception {
+    InfiniteSampleStream sampleStream = new InfiniteSampleStream(FORMAT);
+    renderer.handleMessage(C.MSG_SET_SURFACE, new Surface(new SurfaceTexture(/* texName= */ 0)));
+    renderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {FORMAT},
+        sampleStream,
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* offsetUs= */ 0);
+    renderer.start();
+
+    long positionUs = 0;
+    long elapsedRealtimeUs = SystemClock.elapsedRealtime() * 1000;
+    long allocatedBytes = 0;
+    for (int i = 1; i <= WARM_UP_ITERATION_COUNT + MEASURED_ITERATION_COUNT; i++) {
+      if (seekIntervalIterations > 0 && i % seekIntervalIterations == 0) {
+        positionUs += SEEK_INCREMENT_US;
+        sampleStream.seekToKeyFrame(positionUs - KEY_FRAME_INTERVAL_US, positionUs);
+        renderer.resetPosition(positionUs);
+      }
+      long startBytes = allocationCounter.getAllocatedBytes();
+      renderer.render(positionUs, elapsedRealtimeUs);
+      if (i > WARM_UP_ITERATION_COUNT) {
+        allocatedBytes += allocationCounter.getAllocatedBytes() - startBytes;
+      }
+      positionUs += FRAME_DURATION_US;
+    }
+    return allocatedBytes;
+  }
+
+  /** A {@link MediaCodecVideoRenderer} that exposes its {@link DecoderCounters}. */
+  private static final class TestVideoRenderer extends MediaCodecVideoRenderer {
+
+    public TestVideoRenderer(
+        @Nullable Handler eventHandler, @Nullable VideoRendererEventListener eventListener) {
+      super(
+          ApplicationProvider.getApplicationContext(),
+          new SingleDecoderMediaCodecSelector(),
+          /* allowedJoiningTimeMs= */ 0,
+          eventHandler,
+          eventListener,
+          /* maxDroppedFramesToNotify= */ 1);
+    }
+
+    public DecoderCounters getDecoderCounters() {
+      decoderCounters.ensureUpdated();
+      return decoderCounters;
+    }
+  }
+
+  /** Selects a single H.264 decoder. */
+  private static final class SingleDecoderMediaCodecSelector implements MediaCodecSelector {
+
+    @Override
+    public List<MediaCodecInfo> getDecoderInfos(
+        String mimeType, boolean requiresSecureDecoder, boolean requiresTunnelingDecoder) {
+      return MimeTypes.VIDEO_H264.equals(mimeType)
+          ? Collections.singletonList(CODEC_INFO)
+          : Collections.emptyList();
+    }
+
+    @Override
+    @Nullable
+    public MediaCodecInfo getPassthroughDecoderInfo() {
+      return null;
+    }
+  }
+
+  /** A {@link SampleStream} that outputs a format followed by an infinite sequence of frames. */
+  private static final class InfiniteSampleStream implements SampleStream {
+
+    private final Format format;
+
+    private boolean readFormat;
+    private long nextSampleTimeUs;
+    private long decodeOnlyUntilUs;
+
+    public InfiniteSampleStream(Format format) {
+      this.format = format;
+    }
+
+    /**
+     * Continues with the frame at {@code keyFrameTimeUs}, marking frames before {@code
+     * decodeOnlyUntilUs} as decode-only.
+     */
+    public void seekToKeyFrame(long keyFrameTimeUs, long decodeOnlyUntilUs) {
+      nextSampleTimeUs = keyFrameTimeUs;
+      this.decodeOnlyUntilUs = decodeOnlyUntilUs;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void maybeThrowError() {
+      // Do nothing.
+    }
+
+    @Override
+    public int readData(
+        FormatHolder formatHolder, DecoderInputBuffer buffer, boolean formatRequired) {
+      if (formatRequired || !readFormat) {
+        formatHolder.format = format;
+        readFormat = true;
+        return C.RESULT_FORMAT_READ;
+      }
+      if (buffer.isFlagsOnly()) {
+        return C.RESULT_NOTHING_READ;
+      }
+      buffer.timeUs = nextSampleTimeUs;
+      buffer.setFlags(C.BUFFER_FLAG_KEY_FRAME);
+      if (nextSampleTimeUs < decodeOnlyUntilUs) {
+        buffer.addFlag(C.BUFFER_FLAG_DECODE_ONLY);
+      }
+      buffer.ensureSpaceForWrite(1);
+      buffer.data.put((byte) 0);
+      nextSampleTimeUs += FRAME_DURATION_US;
+      return C.RESULT_BUFFER_READ;
+    }
+
+    @Override
+    public int skipData(long positionUs) {
+      return 0;
+    }
+  }
+
+  /**
+   * A {@link MediaCodec} shadow that outputs each queued input buffer as an output buffer with the
+   * same index, without allocating. It reports an output format change before the first buffer.
+   */
+  @Implements(MediaCodec.class)
+  public static final class ShadowNonAllocatingMediaCodec extends ShadowMediaCodec {
+
+    private static final int BUFFER_COUNT = 4;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final ByteBuffer[] buffers;
+    private final boolean[] availableInputBuffers;
+    private final long[] presentationTimesUs;
+    private final int[] sizes;
+    private final int[] flags;
+    private final int[] queuedOutputBuffers;
+
+    @Nullable private MediaFormat outputFormat;
+    private boolean reportedOutputFormat;
+    private int queuedOutputBufferStart;
+    private int queuedOutputBufferCount;
+
+    public ShadowNonAllocatingMediaCodec() {
+      buffers = new ByteBuffer[BUFFER_COUNT];
+      for (int i = 0; i < BUFFER_COUNT; i++) {
+        buffers[i] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      }
+      availableInputBuffers = new boolean[BUFFER_COUNT];
+      presentationTimesUs = new long[BUFFER_COUNT];
+      sizes = new int[BUFFER_COUNT];
+      flags = new int[BUFFER_COUNT];
+      queuedOutputBuffers = new int[BUFFER_COUNT];
+      resetBuffers();
+    }
+
+    @Implementation
+    protected int dequeueInputBuffer(long timeoutUs) {
+      for (int i = 0; i < BUFFER_COUNT; i++) {
+        if (availableInputBuffers[i]) {
+          availableInputBuffers[i] = false;
+          buffers[i].clear();
+          return i;
+        }
+      }
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+
+    @Implementation
+    protected ByteBuffer getInputBuffer(int index) {
+      return buffers[index];
+    }
+
+    @Implementation
+    protected void queueInputBuffer(
+        int index, int offset, int size, long presentationTimeUs, int flags) {
+      presentationTimesUs[index] = presentationTimeUs;
+      sizes[index] = size;
+      this.flags[index] = flags;
+      queuedOutputBuffers[(queuedOutputBufferStart + queuedOutputBufferCount) % BUFFER_COUNT] =
+          index;
+      queuedOutputBufferCount++;
+    }
+
+    @Implementation
+    protected int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+      if (!reportedOutputFormat) {
+        reportedOutputFormat = true;
+        return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+      }
+      if (queuedOutputBufferCount == 0) {
+        return MediaCodec.INFO_TRY_AGAIN_LATER;
+      }
+      int index = queuedOutputBuffers[queuedOutputBufferStart];
+      queuedOutputBufferStart = (queuedOutputBufferStart + 1) % BUFFER_COUNT;
+      queuedOutputBufferCount--;
+      info.set(/* newOffset= */ 0, sizes[index], presentationTimesUs[index], flags[index]);
+      return index;
+    }
+
+    @Implementation
+    protected ByteBuffer getOutputBuffer(int index) {
+      return buffers[index];
+    }
+
+    @Implementation
+    protected void releaseOutputBuffer(int index, boolean render) {
+      availableInputBuffers[index] = true;
+    }
+
+    @Implementation
+    protected void releaseOutputBuffer(int index, long renderTimestampNs) {
+      availableInputBuffers[index] = true;
+    }
+
+    @Implementation
+    protected MediaFormat getOutputFormat() {
+      if (outputFormat == null) {
+        outputFormat = MediaFormat.createVideoFormat(MimeTypes.VIDEO_H264, 1280, 720);
+      }
+      return outputFormat;
+    }
+
+    @Implementation
+    protected void flush() {
+      resetBuffers();
+    }
+
+    private void resetBuffers() {
+      for (int i = 0; i < BUFFER_COUNT; i++) {
+        availableInputBuffers[i] = true;
+      }
+      queuedOutputBufferStart = 0;
+      queuedOutputBufferCount = 0;
+    }
+  }
+}
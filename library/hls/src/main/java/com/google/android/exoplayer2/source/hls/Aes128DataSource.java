@@ -19,10 +19,10 @@ import android.net.Uri;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DataSourceInputStream;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -31,9 +31,11 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.List;
 import java.util.Map;
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -41,17 +43,31 @@ import javax.crypto.spec.SecretKeySpec;
  * A {@link DataSource} that decrypts data read from an upstream source, encrypted with AES-128 with
  * a 128-bit key and PKCS7 padding.
  *
+ * <p>Data is read from upstream and decrypted in batches as large as the caller's reads allow,
+ * directly into the caller's buffer where possible, reusing the same intermediate buffers for the
+ * whole load.
+ *
  * <p>Note that this {@link DataSource} does not support being opened from arbitrary offsets. It is
  * designed specifically for reading whole files as defined in an HLS media playlist. For this
  * reason the implementation is private to the HLS package.
  */
 /* package */ class Aes128DataSource implements DataSource {
 
+  private static final int AES_BLOCK_SIZE = 16;
+  /** The maximum number of bytes read from upstream and decrypted at once. */
+  private static final int MAX_BATCH_SIZE = 64 * 1024;
+
   private final DataSource upstream;
   private final byte[] encryptionKey;
   private final byte[] encryptionIv;
 
-  @Nullable private CipherInputStream cipherInputStream;
+  @Nullable private Cipher cipher;
+  private byte[] encryptedData;
+  // Decrypted data that didn't fit into the buffer passed to the read it was decrypted by.
+  private byte[] decryptedData;
+  private int decryptedDataOffset;
+  private int decryptedDataLength;
+  private boolean upstreamEnded;
 
   /**
    * @param upstream The upstream {@link DataSource}.
@@ -62,6 +78,8 @@ import javax.crypto.spec.SecretKeySpec;
     this.upstream = upstream;
     this.encryptionKey = encryptionKey;
     this.encryptionIv = encryptionIv;
+    encryptedData = Util.EMPTY_BYTE_ARRAY;
+    decryptedData = Util.EMPTY_BYTE_ARRAY;
   }
 
   @Override
@@ -87,21 +105,67 @@ import javax.crypto.spec.SecretKeySpec;
       throw new RuntimeException(e);
     }
 
-    DataSourceInputStream inputStream = new DataSourceInputStream(upstream, dataSpec);
-    cipherInputStream = new CipherInputStream(inputStream, cipher);
-    inputStream.open();
+    this.cipher = cipher;
+    decryptedDataLength = 0;
+    upstreamEnded = false;
+    upstream.open(dataSpec);
 
     return C.LENGTH_UNSET;
   }
 
   @Override
   public final int read(byte[] buffer, int offset, int readLength) throws IOException {
-    Assertions.checkNotNull(cipherInputStream);
-    int bytesRead = cipherInputStream.read(buffer, offset, readLength);
-    if (bytesRead < 0) {
-      return C.RESULT_END_OF_INPUT;
+    Cipher cipher = Assertions.checkNotNull(this.cipher);
+    if (readLength == 0) {
+      return 0;
+    }
+    try {
+      while (true) {
+        if (decryptedDataLength > 0) {
+          int bytesToCopy = Math.min(decryptedDataLength, readLength);
+          System.arraycopy(decryptedData, decryptedDataOffset, buffer, offset, bytesToCopy);
+          decryptedDataOffset += bytesToCopy;
+          decryptedDataLength -= bytesToCopy;
+          return bytesToCopy;
+        } else if (upstreamEnded) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        // The cipher holds back the last block it's given until it knows whether it's padding, so
+        // it may output up to a block more than it's given.
+        int batchSize = Math.min(MAX_BATCH_SIZE, readLength - AES_BLOCK_SIZE);
+        batchSize = Math.max(AES_BLOCK_SIZE, batchSize);
+        if (encryptedData.length < batchSize) {
+          encryptedData = new byte[batchSize];
+        }
+        int bytesRead = upstream.read(encryptedData, 0, batchSize);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          upstreamEnded = true;
+          byte[] decryptedDataHolder =
+              getDecryptedDataHolder(cipher.getOutputSize(/* inputLen= */ 0));
+          decryptedDataOffset = 0;
+          decryptedDataLength = cipher.doFinal(decryptedDataHolder, /* outputOffset= */ 0);
+          continue;
+        }
+        int outputSize = cipher.getOutputSize(bytesRead);
+        if (outputSize <= readLength) {
+          int bytesDecrypted = cipher.update(encryptedData, 0, bytesRead, buffer, offset);
+          if (bytesDecrypted > 0) {
+            return bytesDecrypted;
+          }
+        } else {
+          decryptedDataOffset = 0;
+          decryptedDataLength =
+              cipher.update(
+                  encryptedData,
+                  /* inputOffset= */ 0,
+                  bytesRead,
+                  getDecryptedDataHolder(outputSize),
+                  /* outputOffset= */ 0);
+        }
+      }
+    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new IOException(e);
     }
-    return bytesRead;
   }
 
   @Override
@@ -117,8 +181,9 @@ import javax.crypto.spec.SecretKeySpec;
 
   @Override
   public void close() throws IOException {
-    if (cipherInputStream != null) {
-      cipherInputStream = null;
+    if (cipher != null) {
+      cipher = null;
+      decryptedDataLength = 0;
       upstream.close();
     }
   }
@@ -126,4 +191,11 @@ import javax.crypto.spec.SecretKeySpec;
   protected Cipher getCipherInstance() throws NoSuchPaddingException, NoSuchAlgorithmException {
     return Cipher.getInstance("AES/CBC/PKCS7Padding");
   }
+
+  private byte[] getDecryptedDataHolder(int minLength) {
+    if (decryptedData.length < minLength) {
+      decryptedData = new byte[minLength];
+    }
+    return decryptedData;
+  }
 }
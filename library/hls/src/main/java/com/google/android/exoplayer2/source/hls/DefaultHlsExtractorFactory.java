@@ -36,9 +36,15 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default {@link HlsExtractorFactory} implementation.
+ *
+ * <p>The factory keeps counts of the extractors it creates with and without sniffing, and of the
+ * bytes peeked for sniffing, which can be used to monitor the cost of determining the container
+ * format of chunks.
  */
 public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
 
@@ -56,6 +62,9 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
 
   @DefaultTsPayloadReaderFactory.Flags private final int payloadReaderFactoryFlags;
   private final boolean exposeCea608WhenMissingDeclarations;
+  private final AtomicLong sniffingPeekedBytes;
+  private final AtomicInteger sniffedExtractorCount;
+  private final AtomicInteger unsniffedExtractorCount;
 
   /**
    * Equivalent to {@link #DefaultHlsExtractorFactory(int, boolean) new
@@ -80,6 +89,30 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
       int payloadReaderFactoryFlags, boolean exposeCea608WhenMissingDeclarations) {
     this.payloadReaderFactoryFlags = payloadReaderFactoryFlags;
     this.exposeCea608WhenMissingDeclarations = exposeCea608WhenMissingDeclarations;
+    sniffingPeekedBytes = new AtomicLong();
+    sniffedExtractorCount = new AtomicInteger();
+    unsniffedExtractorCount = new AtomicInteger();
+  }
+
+  /**
+   * Returns the total number of bytes peeked from chunks to sniff their container format. Bytes
+   * peeked by several candidate extractors for the same chunk are counted once per extractor.
+   */
+  public long getSniffingPeekedBytes() {
+    return sniffingPeekedBytes.get();
+  }
+
+  /** Returns the number of extractors created by sniffing the container format of a chunk. */
+  public int getSniffedExtractorCount() {
+    return sniffedExtractorCount.get();
+  }
+
+  /**
+   * Returns the number of extractors created without sniffing, because the container format of the
+   * chunk was already known. Extractors that are reused are not counted.
+   */
+  public int getUnsniffedExtractorCount() {
+    return unsniffedExtractorCount.get();
   }
 
   @Override
@@ -100,20 +133,25 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
         return buildResult(previousExtractor);
       } else {
         Result result =
-            buildResultForSameExtractorType(previousExtractor, format, timestampAdjuster);
+            createExtractorOfSameType(
+                previousExtractor, format, muxedCaptionFormats, drmInitData, timestampAdjuster);
         if (result == null) {
           throw new IllegalArgumentException(
               "Unexpected previousExtractor type: " + previousExtractor.getClass().getSimpleName());
         }
+        return result;
       }
     }
 
+    sniffedExtractorCount.incrementAndGet();
+    PeekCountingExtractorInput sniffingInput = new PeekCountingExtractorInput(extractorInput);
+
     // Try selecting the extractor by the file extension.
     Extractor extractorByFileExtension =
         createExtractorByFileExtension(
             uri, format, muxedCaptionFormats, drmInitData, timestampAdjuster);
-    extractorInput.resetPeekPosition();
-    if (sniffQuietly(extractorByFileExtension, extractorInput)) {
+    sniffingInput.resetPeekPosition();
+    if (sniffQuietly(extractorByFileExtension, sniffingInput)) {
       return buildResult(extractorByFileExtension);
     }
 
@@ -122,28 +160,28 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
 
     if (!(extractorByFileExtension instanceof WebvttExtractor)) {
       WebvttExtractor webvttExtractor = new WebvttExtractor(format.language, timestampAdjuster);
-      if (sniffQuietly(webvttExtractor, extractorInput)) {
+      if (sniffQuietly(webvttExtractor, sniffingInput)) {
         return buildResult(webvttExtractor);
       }
     }
 
     if (!(extractorByFileExtension instanceof AdtsExtractor)) {
       AdtsExtractor adtsExtractor = new AdtsExtractor();
-      if (sniffQuietly(adtsExtractor, extractorInput)) {
+      if (sniffQuietly(adtsExtractor, sniffingInput)) {
         return buildResult(adtsExtractor);
       }
     }
 
     if (!(extractorByFileExtension instanceof Ac3Extractor)) {
       Ac3Extractor ac3Extractor = new Ac3Extractor();
-      if (sniffQuietly(ac3Extractor, extractorInput)) {
+      if (sniffQuietly(ac3Extractor, sniffingInput)) {
         return buildResult(ac3Extractor);
       }
     }
 
     if (!(extractorByFileExtension instanceof Ac4Extractor)) {
       Ac4Extractor ac4Extractor = new Ac4Extractor();
-      if (sniffQuietly(ac4Extractor, extractorInput)) {
+      if (sniffQuietly(ac4Extractor, sniffingInput)) {
         return buildResult(ac4Extractor);
       }
     }
@@ -151,7 +189,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     if (!(extractorByFileExtension instanceof Mp3Extractor)) {
       Mp3Extractor mp3Extractor =
           new Mp3Extractor(/* flags= */ 0, /* forcedFirstSampleTimestampUs= */ 0);
-      if (sniffQuietly(mp3Extractor, extractorInput)) {
+      if (sniffQuietly(mp3Extractor, sniffingInput)) {
         return buildResult(mp3Extractor);
       }
     }
@@ -159,7 +197,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     if (!(extractorByFileExtension instanceof FragmentedMp4Extractor)) {
       FragmentedMp4Extractor fragmentedMp4Extractor =
           createFragmentedMp4Extractor(timestampAdjuster, drmInitData, muxedCaptionFormats);
-      if (sniffQuietly(fragmentedMp4Extractor, extractorInput)) {
+      if (sniffQuietly(fragmentedMp4Extractor, sniffingInput)) {
         return buildResult(fragmentedMp4Extractor);
       }
     }
@@ -172,7 +210,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
               format,
               muxedCaptionFormats,
               timestampAdjuster);
-      if (sniffQuietly(tsExtractor, extractorInput)) {
+      if (sniffQuietly(tsExtractor, sniffingInput)) {
         return buildResult(tsExtractor);
       }
     }
@@ -181,6 +219,23 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     return buildResult(extractorByFileExtension);
   }
 
+  @Override
+  @Nullable
+  public Result createExtractorOfSameType(
+      Extractor previousExtractor,
+      Format format,
+      @Nullable List<Format> muxedCaptionFormats,
+      @Nullable DrmInitData drmInitData,
+      TimestampAdjuster timestampAdjuster) {
+    Result result =
+        buildResultForSameExtractorType(
+            previousExtractor, format, muxedCaptionFormats, drmInitData, timestampAdjuster);
+    if (result != null) {
+      unsniffedExtractorCount.incrementAndGet();
+    }
+    return result;
+  }
+
   private Extractor createExtractorByFileExtension(
       Uri uri,
       Format format,
@@ -277,9 +332,25 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
         muxedCaptionFormats != null ? muxedCaptionFormats : Collections.emptyList());
   }
 
-  private static Result buildResultForSameExtractorType(
-      Extractor previousExtractor, Format format, TimestampAdjuster timestampAdjuster) {
-    if (previousExtractor instanceof WebvttExtractor) {
+  @Nullable
+  private Result buildResultForSameExtractorType(
+      Extractor previousExtractor,
+      Format format,
+      @Nullable List<Format> muxedCaptionFormats,
+      @Nullable DrmInitData drmInitData,
+      TimestampAdjuster timestampAdjuster) {
+    if (previousExtractor instanceof TsExtractor) {
+      return buildResult(
+          createTsExtractor(
+              payloadReaderFactoryFlags,
+              exposeCea608WhenMissingDeclarations,
+              format,
+              muxedCaptionFormats,
+              timestampAdjuster));
+    } else if (previousExtractor instanceof FragmentedMp4Extractor) {
+      return buildResult(
+          createFragmentedMp4Extractor(timestampAdjuster, drmInitData, muxedCaptionFormats));
+    } else if (previousExtractor instanceof WebvttExtractor) {
       return buildResult(new WebvttExtractor(format.language, timestampAdjuster));
     } else if (previousExtractor instanceof AdtsExtractor) {
       return buildResult(new AdtsExtractor());
@@ -288,7 +359,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     } else if (previousExtractor instanceof Ac4Extractor) {
       return buildResult(new Ac4Extractor());
     } else if (previousExtractor instanceof Mp3Extractor) {
-      return buildResult(new Mp3Extractor());
+      return buildResult(new Mp3Extractor(/* flags= */ 0, /* forcedFirstSampleTimestampUs= */ 0));
     } else {
       return null;
     }
@@ -304,7 +375,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
         isReusable(extractor));
   }
 
-  private static boolean sniffQuietly(Extractor extractor, ExtractorInput input)
+  private boolean sniffQuietly(Extractor extractor, PeekCountingExtractorInput input)
       throws InterruptedException, IOException {
     boolean result = false;
     try {
@@ -312,6 +383,7 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     } catch (EOFException e) {
       // Do nothing.
     } finally {
+      sniffingPeekedBytes.addAndGet(input.getAndResetPeekedBytes());
       input.resetPeekPosition();
     }
     return result;
@@ -321,4 +393,129 @@ public final class DefaultHlsExtractorFactory implements HlsExtractorFactory {
     return previousExtractor instanceof TsExtractor
         || previousExtractor instanceof FragmentedMp4Extractor;
   }
+
+  /** An {@link ExtractorInput} wrapper that counts the bytes peeked from the wrapped input. */
+  private static final class PeekCountingExtractorInput implements ExtractorInput {
+
+    private final ExtractorInput input;
+
+    private long startPosition;
+    private long maxPeekPosition;
+
+    public PeekCountingExtractorInput(ExtractorInput input) {
+      this.input = input;
+      startPosition = input.getPosition();
+      maxPeekPosition = startPosition;
+    }
+
+    /** Returns the number of bytes peeked since the previous call, or since creation. */
+    public long getAndResetPeekedBytes() {
+      long peekedBytes = maxPeekPosition - startPosition;
+      startPosition = input.getPosition();
+      maxPeekPosition = startPosition;
+      return peekedBytes;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length)
+        throws IOException, InterruptedException {
+      return input.read(target, offset, length);
+    }
+
+    @Override
+    public boolean readFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+        throws IOException, InterruptedException {
+      return input.readFully(target, offset, length, allowEndOfInput);
+    }
+
+    @Override
+    public void readFully(byte[] target, int offset, int length)
+        throws IOException, InterruptedException {
+      input.readFully(target, offset, length);
+    }
+
+    @Override
+    public int skip(int length) throws IOException, InterruptedException {
+      return input.skip(length);
+    }
+
+    @Override
+    public boolean skipFully(int length, boolean allowEndOfInput)
+        throws IOException, InterruptedException {
+      return input.skipFully(length, allowEndOfInput);
+    }
+
+    @Override
+    public void skipFully(int length) throws IOException, InterruptedException {
+      input.skipFully(length);
+    }
+
+    @Override
+    public boolean peekFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+        throws IOException, InterruptedException {
+      try {
+        return input.peekFully(target, offset, length, allowEndOfInput);
+      } finally {
+        updateMaxPeekPosition();
+      }
+    }
+
+    @Override
+    public void peekFully(byte[] target, int offset, int length)
+        throws IOException, InterruptedException {
+      try {
+        input.peekFully(target, offset, length);
+      } finally {
+        updateMaxPeekPosition();
+      }
+    }
+
+    @Override
+    public boolean advancePeekPosition(int length, boolean allowEndOfInput)
+        throws IOException, InterruptedException {
+      try {
+        return input.advancePeekPosition(length, allowEndOfInput);
+      } finally {
+        updateMaxPeekPosition();
+      }
+    }
+
+    @Override
+    public void advancePeekPosition(int length) throws IOException, InterruptedException {
+      try {
+        input.advancePeekPosition(length);
+      } finally {
+        updateMaxPeekPosition();
+      }
+    }
+
+    @Override
+    public void resetPeekPosition() {
+      input.resetPeekPosition();
+    }
+
+    @Override
+    public long getPeekPosition() {
+      return input.getPeekPosition();
+    }
+
+    @Override
+    public long getPosition() {
+      return input.getPosition();
+    }
+
+    @Override
+    public long getLength() {
+      return input.getLength();
+    }
+
+    @Override
+    public <E extends Throwable> void setRetryPosition(long position, E e) throws E {
+      input.setRetryPosition(position, e);
+    }
+
+    private void updateMaxPeekPosition() {
+      maxPeekPosition = Math.max(maxPeekPosition, input.getPeekPosition());
+    }
+  }
 }
@@ -17,9 +17,11 @@ package com.google.android.exoplayer2.source.hls;
 
 import android.net.Uri;
 import android.os.SystemClock;
+import android.util.Pair;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.ChunkIndex;
 import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
@@ -28,7 +30,9 @@ import com.google.android.exoplayer2.source.chunk.DataChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Part;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.SegmentBase;
 import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistTracker;
 import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
@@ -36,6 +40,7 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.ParsableByteArray;
 import com.google.android.exoplayer2.util.TimestampAdjuster;
 import com.google.android.exoplayer2.util.UriUtil;
 import com.google.android.exoplayer2.util.Util;
@@ -44,6 +49,7 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import org.checkerframework.checker.nullness.compatqual.NullableType;
 
 /**
  * Source of Hls (possibly adaptive) chunks.
@@ -82,10 +88,36 @@ import java.util.Map;
   }
 
   /**
-   * The maximum number of keys that the key cache can hold. This value must be 2 or greater in
-   * order to hold initialization segment and media segment keys simultaneously.
+   * The maximum number of keys that the key cache can hold. This value must be 6 or greater in
+   * order to hold initialization segment and media segment keys of the selected variant and the two
+   * adjacent variants simultaneously.
    */
-  private static final int KEY_CACHE_SIZE = 4;
+  private static final int KEY_CACHE_SIZE = 8;
+  /** The maximum number of prefetched initialization segments that the cache can hold. */
+  private static final int INIT_SEGMENT_CACHE_SIZE = 4;
+  /**
+   * The minimum buffered duration for prewarming adjacent variants, so that prewarming doesn't
+   * delay loading media that's needed to avoid a rebuffer.
+   */
+  private static final long MIN_BUFFERED_DURATION_TO_PREWARM_US = 5000000;
+  /** The duration for which prewarming is suspended after a prewarming load fails. */
+  private static final long PREWARM_SUSPENSION_AFTER_ERROR_MS = 30000;
+  /** The maximum number of segment indices that the cache can hold. */
+  private static final int SEGMENT_INDEX_CACHE_SIZE = 4;
+  /**
+   * The number of bytes loaded from the start of a segment to obtain its segment index. A segment
+   * index with one reference per second of a ten second segment takes less than 200 bytes.
+   */
+  private static final int SEGMENT_INDEX_LOAD_LENGTH = 4096;
+  /**
+   * The highest stream access point type of a segment index reference from which loading can
+   * start. Types 1 to 3 start with a sample from which all following samples can be decoded.
+   */
+  private static final int MAX_STARTING_SAP_TYPE = 3;
+  private static final int BOX_HEADER_LENGTH = 8;
+  private static final int TYPE_sidx = Util.getIntegerCodeForString("sidx");
+  private static final int TYPE_moof = Util.getIntegerCodeForString("moof");
+  private static final int TYPE_mdat = Util.getIntegerCodeForString("mdat");
 
   private final HlsExtractorFactory extractorFactory;
   private final DataSource mediaDataSource;
@@ -97,6 +129,12 @@ import java.util.Map;
   private final TrackGroup trackGroup;
   private final List<Format> muxedCaptionFormats;
   private final FullSegmentEncryptionKeyCache keyCache;
+  private final InitSegmentCache initSegmentCache;
+  private final SegmentIndexCache segmentIndexCache;
+  private final boolean prewarmAdjacentVariants;
+  // The last media chunk loaded from each playlist. Its extractor determines the container format
+  // of following chunks of the same playlist, until the next discontinuity.
+  private final @NullableType HlsMediaChunk[] lastLoadedMediaChunks;
 
   private boolean isTimestampMaster;
   private byte[] scratchSpace;
@@ -110,6 +148,7 @@ import java.util.Map;
   private TrackSelection trackSelection;
   private long liveEdgeInPeriodTimeUs;
   private boolean seenExpectedPlaylistError;
+  private long prewarmSuspendedUntilMs;
 
   /**
    * @param extractorFactory An {@link HlsExtractorFactory} from which to obtain the extractors for
@@ -127,6 +166,9 @@ import java.util.Map;
    *     provider.
    * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
    *     information is available in the master playlist.
+   * @param prewarmAdjacentVariants Whether to keep the playlists of the variants adjacent to the
+   *     selected one fresh, and to prefetch their keys and initialization segments, so that
+   *     switching to them doesn't require loading these first.
    */
   public HlsChunkSource(
       HlsExtractorFactory extractorFactory,
@@ -136,14 +178,19 @@ import java.util.Map;
       HlsDataSourceFactory dataSourceFactory,
       @Nullable TransferListener mediaTransferListener,
       TimestampAdjusterProvider timestampAdjusterProvider,
-      @Nullable List<Format> muxedCaptionFormats) {
+      @Nullable List<Format> muxedCaptionFormats,
+      boolean prewarmAdjacentVariants) {
     this.extractorFactory = extractorFactory;
     this.playlistTracker = playlistTracker;
     this.playlistUrls = playlistUrls;
     this.playlistFormats = playlistFormats;
     this.timestampAdjusterProvider = timestampAdjusterProvider;
     this.muxedCaptionFormats = muxedCaptionFormats;
+    this.prewarmAdjacentVariants = prewarmAdjacentVariants;
     keyCache = new FullSegmentEncryptionKeyCache();
+    initSegmentCache = new InitSegmentCache();
+    segmentIndexCache = new SegmentIndexCache();
+    lastLoadedMediaChunks = new HlsMediaChunk[playlistUrls.length];
     liveEdgeInPeriodTimeUs = C.TIME_UNSET;
     mediaDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
     if (mediaTransferListener != null) {
@@ -278,9 +325,11 @@ import java.util.Map;
     // Select the chunk.
     long startOfPlaylistInPeriodUs =
         mediaPlaylist.startTimeUs - playlistTracker.getInitialStartTimeUs();
-    long chunkMediaSequence =
-        getChunkMediaSequence(
+    Pair<Long, Integer> nextMediaSequenceAndPartIndex =
+        getNextMediaSequenceAndPartIndex(
             previous, switchingTrack, mediaPlaylist, startOfPlaylistInPeriodUs, loadPositionUs);
+    long chunkMediaSequence = nextMediaSequenceAndPartIndex.first;
+    int partIndex = nextMediaSequenceAndPartIndex.second;
     if (chunkMediaSequence < mediaPlaylist.mediaSequence && previous != null && switchingTrack) {
         // We try getting the next chunk without adapting in case that's the reason for falling
         // behind the live window.
@@ -290,7 +339,15 @@ import java.util.Map;
             playlistTracker.getPlaylistSnapshot(selectedPlaylistUrl, /* isForPlayback= */ true);
         startOfPlaylistInPeriodUs =
             mediaPlaylist.startTimeUs - playlistTracker.getInitialStartTimeUs();
-        chunkMediaSequence = previous.getNextChunkIndex();
+        nextMediaSequenceAndPartIndex =
+            getNextMediaSequenceAndPartIndex(
+                previous,
+                /* switchingTrack= */ false,
+                mediaPlaylist,
+                startOfPlaylistInPeriodUs,
+                loadPositionUs);
+        chunkMediaSequence = nextMediaSequenceAndPartIndex.first;
+        partIndex = nextMediaSequenceAndPartIndex.second;
     }
 
     if (chunkMediaSequence < mediaPlaylist.mediaSequence) {
@@ -298,15 +355,20 @@ import java.util.Map;
       return;
     }
 
-    int segmentIndexInPlaylist = (int) (chunkMediaSequence - mediaPlaylist.mediaSequence);
-    int availableSegmentCount = mediaPlaylist.segments.size();
-    if (segmentIndexInPlaylist >= availableSegmentCount) {
+    SegmentBaseHolder segmentBaseHolder =
+        getSegmentBaseHolder(mediaPlaylist, chunkMediaSequence, partIndex);
+    if (segmentBaseHolder == null) {
+      int availableSegmentCount = mediaPlaylist.segments.size();
       if (mediaPlaylist.hasEndTag) {
         if (allowEndOfStream || availableSegmentCount == 0) {
           out.endOfStream = true;
           return;
         }
-        segmentIndexInPlaylist = availableSegmentCount - 1;
+        segmentBaseHolder =
+            new SegmentBaseHolder(
+                mediaPlaylist.segments.get(availableSegmentCount - 1),
+                mediaPlaylist.mediaSequence + availableSegmentCount - 1,
+                /* partIndex= */ C.INDEX_UNSET);
       } else /* Live */ {
         out.playlistUrl = selectedPlaylistUrl;
         seenExpectedPlaylistError &= selectedPlaylistUrl.equals(expectedPlaylistUrl);
@@ -319,20 +381,64 @@ import java.util.Map;
     expectedPlaylistUrl = null;
 
     // Handle encryption.
-    HlsMediaPlaylist.Segment segment = mediaPlaylist.segments.get(segmentIndexInPlaylist);
-
-    // Check if the segment or its initialization segment are fully encrypted.
-    Uri initSegmentKeyUri = getFullEncryptionKeyUri(mediaPlaylist, segment.initializationSegment);
-    out.chunk = maybeCreateEncryptionChunkFor(initSegmentKeyUri, selectedTrackIndex);
+    SegmentBase segmentBase = segmentBaseHolder.segmentBase;
+
+    // Check if the segment or its initialization segment are fully encrypted. A prefetched
+    // initialization segment is already decrypted.
+    byte[] initSegmentData = getPrefetchedInitSegment(mediaPlaylist, segmentBase);
+    Uri initSegmentKeyUri =
+        initSegmentData == null
+            ? getFullEncryptionKeyUri(mediaPlaylist, segmentBase.initializationSegment)
+            : null;
+    out.chunk =
+        maybeCreateEncryptionChunkFor(
+            initSegmentKeyUri, selectedTrackIndex, /* isForPrewarming= */ false);
     if (out.chunk != null) {
       return;
     }
-    Uri mediaSegmentKeyUri = getFullEncryptionKeyUri(mediaPlaylist, segment);
-    out.chunk = maybeCreateEncryptionChunkFor(mediaSegmentKeyUri, selectedTrackIndex);
+    Uri mediaSegmentKeyUri = getFullEncryptionKeyUri(mediaPlaylist, segmentBase);
+    out.chunk =
+        maybeCreateEncryptionChunkFor(
+            mediaSegmentKeyUri, selectedTrackIndex, /* isForPrewarming= */ false);
     if (out.chunk != null) {
       return;
     }
 
+    if (previous == null && canStartInSegment(segmentBase)) {
+      // Loading is starting or resuming after a seek. Start at the last segment index reference
+      // that begins at or before the load position, rather than at the start of the segment.
+      long positionInSegmentUs =
+          loadPositionUs - startOfPlaylistInPeriodUs - segmentBase.relativeStartTimeUs;
+      if (positionInSegmentUs > 0) {
+        DataSpec segmentIndexDataSpec = getSegmentIndexDataSpec(mediaPlaylist, segmentBase);
+        if (!segmentIndexCache.contains(segmentIndexDataSpec)) {
+          out.chunk =
+              new SegmentIndexChunk(
+                  mediaDataSource,
+                  segmentIndexDataSpec,
+                  playlistFormats[selectedTrackIndex],
+                  trackSelection.getSelectionReason(),
+                  trackSelection.getSelectionData(),
+                  scratchSpace);
+          return;
+        }
+        ChunkIndex segmentIndex = segmentIndexCache.get(segmentIndexDataSpec);
+        if (segmentIndex != null) {
+          segmentBaseHolder =
+              getSegmentBaseHolderInSegment(segmentBaseHolder, segmentIndex, positionInSegmentUs);
+        }
+      }
+    }
+
+    if (prewarmAdjacentVariants
+        && selectedTrackIndex == oldTrackIndex
+        && bufferedDurationUs >= MIN_BUFFERED_DURATION_TO_PREWARM_US) {
+      out.chunk = maybeCreatePrewarmingChunk(previous, loadPositionUs);
+      if (out.chunk != null) {
+        return;
+      }
+    }
+
     out.chunk =
         HlsMediaChunk.createInstance(
             extractorFactory,
@@ -340,7 +446,7 @@ import java.util.Map;
             playlistFormats[selectedTrackIndex],
             startOfPlaylistInPeriodUs,
             mediaPlaylist,
-            segmentIndexInPlaylist,
+            segmentBaseHolder,
             selectedPlaylistUrl,
             muxedCaptionFormats,
             trackSelection.getSelectionReason(),
@@ -348,8 +454,10 @@ import java.util.Map;
             isTimestampMaster,
             timestampAdjusterProvider,
             previous,
+            lastLoadedMediaChunks[selectedTrackIndex],
             /* mediaSegmentKey= */ keyCache.get(mediaSegmentKeyUri),
-            /* initSegmentKey= */ keyCache.get(initSegmentKeyUri));
+            /* initSegmentKey= */ keyCache.get(initSegmentKeyUri),
+            initSegmentData);
   }
 
   /**
@@ -363,9 +471,47 @@ import java.util.Map;
       EncryptionKeyChunk encryptionKeyChunk = (EncryptionKeyChunk) chunk;
       scratchSpace = encryptionKeyChunk.getDataHolder();
       keyCache.put(encryptionKeyChunk.dataSpec.uri, encryptionKeyChunk.getResult());
+    } else if (chunk instanceof InitSegmentChunk) {
+      InitSegmentChunk initSegmentChunk = (InitSegmentChunk) chunk;
+      scratchSpace = initSegmentChunk.getDataHolder();
+      initSegmentCache.put(initSegmentChunk.dataSpec, initSegmentChunk.getResult());
+    } else if (chunk instanceof SegmentIndexChunk) {
+      SegmentIndexChunk segmentIndexChunk = (SegmentIndexChunk) chunk;
+      scratchSpace = segmentIndexChunk.getDataHolder();
+      ChunkIndex segmentIndex = segmentIndexChunk.getResult();
+      // Without a segment index that references more than one start position, the segment is
+      // loaded from its start.
+      segmentIndexCache.put(
+          segmentIndexChunk.dataSpec,
+          segmentIndex != null && segmentIndex.length > 1 ? segmentIndex : null);
+    } else if (chunk instanceof HlsMediaChunk) {
+      lastLoadedMediaChunks[trackGroup.indexOf(chunk.trackFormat)] = (HlsMediaChunk) chunk;
     }
   }
 
+  /**
+   * Called when the {@link HlsSampleStreamWrapper} fails to load a chunk obtained from this source.
+   *
+   * @param chunk The chunk whose load failed.
+   * @return Whether the chunk was only loaded to prewarm an adjacent variant or to obtain a segment
+   *     index, in which case the load shouldn't be retried and the error shouldn't affect playback.
+   */
+  public boolean onChunkLoadError(Chunk chunk) {
+    if (chunk instanceof SegmentIndexChunk) {
+      // Fall back to loading the segment from its start.
+      segmentIndexCache.put(chunk.dataSpec, /* segmentIndex= */ null);
+      return true;
+    }
+    boolean isForPrewarming =
+        chunk instanceof InitSegmentChunk
+            || (chunk instanceof EncryptionKeyChunk
+                && ((EncryptionKeyChunk) chunk).isForPrewarming);
+    if (isForPrewarming) {
+      prewarmSuspendedUntilMs = SystemClock.elapsedRealtime() + PREWARM_SUSPENSION_AFTER_ERROR_MS;
+    }
+    return isForPrewarming;
+  }
+
   /**
    * Attempts to blacklist the track associated with the given chunk. Blacklisting will fail if the
    * track is the only non-blacklisted track in the selection.
@@ -432,8 +578,9 @@ import java.util.Map;
           playlist.startTimeUs - playlistTracker.getInitialStartTimeUs();
       boolean switchingTrack = trackIndex != oldTrackIndex;
       long chunkMediaSequence =
-          getChunkMediaSequence(
-              previous, switchingTrack, playlist, startOfPlaylistInPeriodUs, loadPositionUs);
+          getNextMediaSequenceAndPartIndex(
+                  previous, switchingTrack, playlist, startOfPlaylistInPeriodUs, loadPositionUs)
+              .first;
       if (chunkMediaSequence < playlist.mediaSequence) {
         chunkIterators[i] = MediaChunkIterator.EMPTY;
         continue;
@@ -448,18 +595,19 @@ import java.util.Map;
   // Private methods.
 
   /**
-   * Returns the media sequence number of the segment to load next in {@code mediaPlaylist}.
+   * Returns the media sequence number of the segment to load next in {@code mediaPlaylist}, and the
+   * index of the part to load in the segment, or {@link C#INDEX_UNSET} to load the full segment.
    *
-   * @param previous The last (at least partially) loaded segment.
+   * @param previous The last (at least partially) loaded segment or part.
    * @param switchingTrack Whether the segment to load is not preceded by a segment in the same
    *     track.
    * @param mediaPlaylist The media playlist to which the segment to load belongs.
    * @param startOfPlaylistInPeriodUs The start of {@code mediaPlaylist} relative to the period
    *     start in microseconds.
    * @param loadPositionUs The current load position relative to the period start in microseconds.
-   * @return The media sequence of the segment to load.
+   * @return The media sequence of the segment to load, and the index of the part to load.
    */
-  private long getChunkMediaSequence(
+  private Pair<Long, Integer> getNextMediaSequenceAndPartIndex(
       @Nullable HlsMediaChunk previous,
       boolean switchingTrack,
       HlsMediaPlaylist mediaPlaylist,
@@ -469,21 +617,93 @@ import java.util.Map;
       long endOfPlaylistInPeriodUs = startOfPlaylistInPeriodUs + mediaPlaylist.durationUs;
       long targetPositionInPeriodUs =
           (previous == null || independentSegments) ? loadPositionUs : previous.startTimeUs;
+      long targetPositionInPlaylistUs = targetPositionInPeriodUs - startOfPlaylistInPeriodUs;
       if (!mediaPlaylist.hasEndTag && targetPositionInPeriodUs >= endOfPlaylistInPeriodUs) {
-        // If the playlist is too old to contain the chunk, we need to refresh it.
-        return mediaPlaylist.mediaSequence + mediaPlaylist.segments.size();
+        // The chunk is in the incomplete segment at the live edge. Start with one of its parts if
+        // possible. Otherwise, the playlist is too old to contain the chunk and we need to
+        // refresh it.
+        return new Pair<>(
+            mediaPlaylist.mediaSequence + mediaPlaylist.segments.size(),
+            getIndependentPartIndex(mediaPlaylist.trailingParts, targetPositionInPlaylistUs));
       }
-      long targetPositionInPlaylistUs = targetPositionInPeriodUs - startOfPlaylistInPeriodUs;
-      return Util.binarySearchFloor(
-              mediaPlaylist.segments,
-              /* value= */ targetPositionInPlaylistUs,
-              /* inclusive= */ true,
-              /* stayInBounds= */ !playlistTracker.isLive() || previous == null)
-          + mediaPlaylist.mediaSequence;
+      long mediaSequence =
+          Util.binarySearchFloor(
+                  mediaPlaylist.segments,
+                  /* value= */ targetPositionInPlaylistUs,
+                  /* inclusive= */ true,
+                  /* stayInBounds= */ !playlistTracker.isLive() || previous == null)
+              + mediaPlaylist.mediaSequence;
+      return new Pair<>(mediaSequence, C.INDEX_UNSET);
     }
     // We ignore the case of previous not having loaded completely, in which case we load the next
-    // segment.
-    return previous.getNextChunkIndex();
+    // segment or part.
+    if (previous.partIndex != C.INDEX_UNSET) {
+      return new Pair<>(previous.chunkIndex, previous.partIndex + 1);
+    }
+    long nextMediaSequence = previous.getNextChunkIndex();
+    // The segment following the last complete segment can only be loaded in parts.
+    boolean isNextSegmentIncomplete =
+        nextMediaSequence == mediaPlaylist.mediaSequence + mediaPlaylist.segments.size();
+    return new Pair<>(nextMediaSequence, isNextSegmentIncomplete ? 0 : C.INDEX_UNSET);
+  }
+
+  /**
+   * Returns the segment or part to load for the given media sequence number and part index, or
+   * null if it's not available in {@code mediaPlaylist}.
+   *
+   * <p>If all parts of the segment have been loaded, the next segment is returned, or its first
+   * part if it's incomplete. A part of an incomplete segment is only returned if it's been
+   * published or hinted.
+   */
+  @Nullable
+  private static SegmentBaseHolder getSegmentBaseHolder(
+      HlsMediaPlaylist mediaPlaylist, long mediaSequence, int partIndex) {
+    int segmentIndexInPlaylist = (int) (mediaSequence - mediaPlaylist.mediaSequence);
+    if (segmentIndexInPlaylist == mediaPlaylist.segments.size()) {
+      List<Part> trailingParts = mediaPlaylist.trailingParts;
+      return partIndex != C.INDEX_UNSET
+              && partIndex < trailingParts.size()
+              && canLoadPart(trailingParts.get(partIndex))
+          ? new SegmentBaseHolder(trailingParts.get(partIndex), mediaSequence, partIndex)
+          : null;
+    } else if (segmentIndexInPlaylist > mediaPlaylist.segments.size()) {
+      return null;
+    }
+    Segment segment = mediaPlaylist.segments.get(segmentIndexInPlaylist);
+    if (partIndex == C.INDEX_UNSET) {
+      return new SegmentBaseHolder(segment, mediaSequence, C.INDEX_UNSET);
+    } else if (partIndex < segment.parts.size()) {
+      return new SegmentBaseHolder(segment.parts.get(partIndex), mediaSequence, partIndex);
+    }
+    boolean isNextSegmentComplete = segmentIndexInPlaylist + 1 < mediaPlaylist.segments.size();
+    return getSegmentBaseHolder(
+        mediaPlaylist, mediaSequence + 1, isNextSegmentComplete ? C.INDEX_UNSET : 0);
+  }
+
+  /**
+   * Returns the index of the last independent part in {@code parts} that starts at or before the
+   * given position, or {@link C#INDEX_UNSET} if there's none.
+   */
+  private static int getIndependentPartIndex(List<Part> parts, long positionInPlaylistUs) {
+    int independentPartIndex = C.INDEX_UNSET;
+    for (int i = 0; i < parts.size(); i++) {
+      Part part = parts.get(i);
+      if (part.relativeStartTimeUs > positionInPlaylistUs) {
+        break;
+      }
+      if (part.isIndependent && canLoadPart(part)) {
+        independentPartIndex = i;
+      }
+    }
+    return independentPartIndex;
+  }
+
+  /**
+   * Returns whether the part can be loaded on its own. Parts of fully encrypted segments can't,
+   * because their decryption depends on the previous parts of the segment.
+   */
+  private static boolean canLoadPart(Part part) {
+    return part.fullSegmentEncryptionKeyUri == null;
   }
 
   private long resolveTimeToLiveEdgeUs(long playbackPositionUs) {
@@ -500,8 +720,163 @@ import java.util.Map;
             : (mediaPlaylist.getEndTimeUs() - playlistTracker.getInitialStartTimeUs());
   }
 
+  /**
+   * Returns a chunk that loads a key or initialization segment needed to switch to one of the
+   * variants adjacent to the selected one, or null if there's nothing to load. The higher bitrate
+   * variant is prewarmed first. Refreshes of the adjacent variants' playlists are requested if
+   * they're too old to switch to.
+   */
+  @Nullable
+  private Chunk maybeCreatePrewarmingChunk(HlsMediaChunk previous, long loadPositionUs) {
+    if (SystemClock.elapsedRealtime() < prewarmSuspendedUntilMs) {
+      return null;
+    }
+    // Tracks in the selection are ordered by decreasing bitrate.
+    int selectedIndex = trackSelection.getSelectedIndex();
+    Chunk chunk = maybeCreatePrewarmingChunk(selectedIndex - 1, previous, loadPositionUs);
+    if (chunk == null) {
+      chunk = maybeCreatePrewarmingChunk(selectedIndex + 1, previous, loadPositionUs);
+    }
+    return chunk;
+  }
+
+  @Nullable
+  private Chunk maybeCreatePrewarmingChunk(
+      int selectionIndex, HlsMediaChunk previous, long loadPositionUs) {
+    if (selectionIndex < 0 || selectionIndex >= trackSelection.length()) {
+      return null;
+    }
+    int trackIndex = trackSelection.getIndexInTrackGroup(selectionIndex);
+    Uri playlistUrl = playlistUrls[trackIndex];
+    if (!playlistTracker.isSnapshotValid(playlistUrl)) {
+      playlistTracker.refreshPlaylist(playlistUrl);
+      return null;
+    }
+    HlsMediaPlaylist mediaPlaylist =
+        playlistTracker.getPlaylistSnapshot(playlistUrl, /* isForPlayback= */ false);
+    long startOfPlaylistInPeriodUs =
+        mediaPlaylist.startTimeUs - playlistTracker.getInitialStartTimeUs();
+    Pair<Long, Integer> nextMediaSequenceAndPartIndex =
+        getNextMediaSequenceAndPartIndex(
+            previous,
+            /* switchingTrack= */ true,
+            mediaPlaylist,
+            startOfPlaylistInPeriodUs,
+            loadPositionUs);
+    if (nextMediaSequenceAndPartIndex.first < mediaPlaylist.mediaSequence) {
+      return null;
+    }
+    SegmentBaseHolder segmentBaseHolder =
+        getSegmentBaseHolder(
+            mediaPlaylist,
+            /* mediaSequence= */ nextMediaSequenceAndPartIndex.first,
+            /* partIndex= */ nextMediaSequenceAndPartIndex.second);
+    if (segmentBaseHolder == null) {
+      if (!mediaPlaylist.hasEndTag) {
+        // The playlist is too old to contain the segment that a switch would start with.
+        playlistTracker.refreshPlaylist(playlistUrl);
+      }
+      return null;
+    }
+    SegmentBase segmentBase = segmentBaseHolder.segmentBase;
+    Segment initSegment = segmentBase.initializationSegment;
+    if (initSegment != null && getPrefetchedInitSegment(mediaPlaylist, segmentBase) == null) {
+      Uri initSegmentKeyUri = getFullEncryptionKeyUri(mediaPlaylist, initSegment);
+      Chunk chunk =
+          maybeCreateEncryptionChunkFor(initSegmentKeyUri, trackIndex, /* isForPrewarming= */ true);
+      if (chunk != null) {
+        return chunk;
+      }
+      byte[] initSegmentKey = keyCache.get(initSegmentKeyUri);
+      DataSource dataSource =
+          initSegmentKey != null
+              ? new Aes128DataSource(
+                  mediaDataSource,
+                  initSegmentKey,
+                  HlsMediaChunk.getEncryptionIvArray(initSegment.encryptionIV))
+              : mediaDataSource;
+      return new InitSegmentChunk(
+          dataSource,
+          getInitSegmentDataSpec(mediaPlaylist, initSegment),
+          playlistFormats[trackIndex],
+          trackSelection.getSelectionReason(),
+          trackSelection.getSelectionData(),
+          scratchSpace);
+    }
+    Uri mediaSegmentKeyUri = getFullEncryptionKeyUri(mediaPlaylist, segmentBase);
+    return maybeCreateEncryptionChunkFor(
+        mediaSegmentKeyUri, trackIndex, /* isForPrewarming= */ true);
+  }
+
+  /**
+   * Returns whether loading {@code segmentBase} can start at a reference of its segment index.
+   * Only full fragmented MP4 segments that aren't fully encrypted have a segment index, and can be
+   * loaded from the middle.
+   */
+  private static boolean canStartInSegment(SegmentBase segmentBase) {
+    return segmentBase instanceof Segment
+        && segmentBase.initializationSegment != null
+        && segmentBase.fullSegmentEncryptionKeyUri == null
+        && !segmentBase.hasGapTag;
+  }
+
+  /**
+   * Returns a holder for the segment of {@code segmentBaseHolder} that starts loading at the last
+   * reference of {@code segmentIndex} that begins at or before the given position. All references
+   * of the segment index start with a stream access point.
+   */
+  private static SegmentBaseHolder getSegmentBaseHolderInSegment(
+      SegmentBaseHolder segmentBaseHolder, ChunkIndex segmentIndex, long positionInSegmentUs) {
+    SegmentBase segmentBase = segmentBaseHolder.segmentBase;
+    int referenceIndex = segmentIndex.getChunkIndex(segmentIndex.timesUs[0] + positionInSegmentUs);
+    long byteOffsetInSegment = segmentIndex.offsets[referenceIndex] - segmentBase.byterangeOffset;
+    if (referenceIndex == 0
+        || byteOffsetInSegment <= 0
+        || (segmentBase.byterangeLength != C.LENGTH_UNSET
+            && byteOffsetInSegment >= segmentBase.byterangeLength)) {
+      return segmentBaseHolder;
+    }
+    return new SegmentBaseHolder(
+        segmentBase,
+        segmentBaseHolder.mediaSequence,
+        segmentBaseHolder.partIndex,
+        byteOffsetInSegment,
+        /* timeOffsetInSegmentUs= */ segmentIndex.timesUs[referenceIndex]
+            - segmentIndex.timesUs[0]);
+  }
+
+  private static DataSpec getSegmentIndexDataSpec(
+      HlsMediaPlaylist playlist, SegmentBase segmentBase) {
+    long length =
+        segmentBase.byterangeLength != C.LENGTH_UNSET
+            ? Math.min(segmentBase.byterangeLength, SEGMENT_INDEX_LOAD_LENGTH)
+            : SEGMENT_INDEX_LOAD_LENGTH;
+    return new DataSpec(
+        UriUtil.resolveToUri(playlist.baseUri, segmentBase.url),
+        segmentBase.byterangeOffset,
+        length,
+        /* key= */ null);
+  }
+
+  @Nullable
+  private byte[] getPrefetchedInitSegment(HlsMediaPlaylist playlist, SegmentBase segmentBase) {
+    Segment initSegment = segmentBase.initializationSegment;
+    return initSegment != null
+        ? initSegmentCache.get(getInitSegmentDataSpec(playlist, initSegment))
+        : null;
+  }
+
+  private static DataSpec getInitSegmentDataSpec(HlsMediaPlaylist playlist, Segment initSegment) {
+    return new DataSpec(
+        UriUtil.resolveToUri(playlist.baseUri, initSegment.url),
+        initSegment.byterangeOffset,
+        initSegment.byterangeLength,
+        /* key= */ null);
+  }
+
   @Nullable
-  private Chunk maybeCreateEncryptionChunkFor(@Nullable Uri keyUri, int selectedTrackIndex) {
+  private Chunk maybeCreateEncryptionChunkFor(
+      @Nullable Uri keyUri, int selectedTrackIndex, boolean isForPrewarming) {
     if (keyUri == null) {
       return null;
     }
@@ -519,15 +894,59 @@ import java.util.Map;
         playlistFormats[selectedTrackIndex],
         trackSelection.getSelectionReason(),
         trackSelection.getSelectionData(),
-        scratchSpace);
+        scratchSpace,
+        isForPrewarming);
   }
 
   @Nullable
-  private static Uri getFullEncryptionKeyUri(HlsMediaPlaylist playlist, @Nullable Segment segment) {
-    if (segment == null || segment.fullSegmentEncryptionKeyUri == null) {
+  private static Uri getFullEncryptionKeyUri(
+      HlsMediaPlaylist playlist, @Nullable SegmentBase segmentBase) {
+    if (segmentBase == null || segmentBase.fullSegmentEncryptionKeyUri == null) {
       return null;
     }
-    return UriUtil.resolveToUri(playlist.baseUri, segment.fullSegmentEncryptionKeyUri);
+    return UriUtil.resolveToUri(playlist.baseUri, segmentBase.fullSegmentEncryptionKeyUri);
+  }
+
+  // Package classes.
+
+  /**
+   * A segment or part, its position in the playlist, and the position in the segment or part from
+   * which to load it.
+   */
+  /* package */ static final class SegmentBaseHolder {
+
+    /** The segment or part. */
+    public final SegmentBase segmentBase;
+    /** The media sequence number of the segment, or of the segment the part belongs to. */
+    public final long mediaSequence;
+    /** The index of the part in its segment, or {@link C#INDEX_UNSET} for a full segment. */
+    public final int partIndex;
+    /** The offset in bytes from which to load the segment or part. */
+    public final long byteOffsetInSegment;
+    /** The start time of the media at {@link #byteOffsetInSegment}, relative to the segment. */
+    public final long timeOffsetInSegmentUs;
+
+    public SegmentBaseHolder(SegmentBase segmentBase, long mediaSequence, int partIndex) {
+      this(
+          segmentBase,
+          mediaSequence,
+          partIndex,
+          /* byteOffsetInSegment= */ 0,
+          /* timeOffsetInSegmentUs= */ 0);
+    }
+
+    public SegmentBaseHolder(
+        SegmentBase segmentBase,
+        long mediaSequence,
+        int partIndex,
+        long byteOffsetInSegment,
+        long timeOffsetInSegmentUs) {
+      this.segmentBase = segmentBase;
+      this.mediaSequence = mediaSequence;
+      this.partIndex = partIndex;
+      this.byteOffsetInSegment = byteOffsetInSegment;
+      this.timeOffsetInSegmentUs = timeOffsetInSegmentUs;
+    }
   }
 
   // Private classes.
@@ -585,6 +1004,8 @@ import java.util.Map;
 
   private static final class EncryptionKeyChunk extends DataChunk {
 
+    public final boolean isForPrewarming;
+
     private byte[] result;
 
     public EncryptionKeyChunk(
@@ -593,9 +1014,11 @@ import java.util.Map;
         Format trackFormat,
         int trackSelectionReason,
         Object trackSelectionData,
-        byte[] scratchSpace) {
+        byte[] scratchSpace,
+        boolean isForPrewarming) {
       super(dataSource, dataSpec, C.DATA_TYPE_DRM, trackFormat, trackSelectionReason,
           trackSelectionData, scratchSpace);
+      this.isForPrewarming = isForPrewarming;
     }
 
     @Override
@@ -609,6 +1032,161 @@ import java.util.Map;
 
   }
 
+  /** Prefetches the initialization segment of a variant adjacent to the selected one. */
+  private static final class InitSegmentChunk extends DataChunk {
+
+    private byte[] result;
+
+    public InitSegmentChunk(
+        DataSource dataSource,
+        DataSpec dataSpec,
+        Format trackFormat,
+        int trackSelectionReason,
+        Object trackSelectionData,
+        byte[] scratchSpace) {
+      super(
+          dataSource,
+          dataSpec,
+          C.DATA_TYPE_MEDIA_INITIALIZATION,
+          trackFormat,
+          trackSelectionReason,
+          trackSelectionData,
+          scratchSpace);
+    }
+
+    @Override
+    protected void consume(byte[] data, int limit) {
+      result = Arrays.copyOf(data, limit);
+    }
+
+    public byte[] getResult() {
+      return result;
+    }
+  }
+
+  /**
+   * Loads the start of a fragmented MP4 segment to obtain its segment index, which allows loading
+   * the segment from the middle.
+   */
+  private static final class SegmentIndexChunk extends DataChunk {
+
+    @Nullable private ChunkIndex result;
+
+    public SegmentIndexChunk(
+        DataSource dataSource,
+        DataSpec dataSpec,
+        Format trackFormat,
+        int trackSelectionReason,
+        Object trackSelectionData,
+        byte[] scratchSpace) {
+      super(
+          dataSource,
+          dataSpec,
+          C.DATA_TYPE_MEDIA_INITIALIZATION,
+          trackFormat,
+          trackSelectionReason,
+          trackSelectionData,
+          scratchSpace);
+    }
+
+    @Override
+    protected void consume(byte[] data, int limit) {
+      ParsableByteArray segmentData = new ParsableByteArray(data, limit);
+      // The segment index precedes the first fragment, and may follow boxes such as styp.
+      while (segmentData.bytesLeft() >= BOX_HEADER_LENGTH) {
+        int boxPosition = segmentData.getPosition();
+        long boxSize = segmentData.readUnsignedInt();
+        int boxType = segmentData.readInt();
+        if (boxSize < BOX_HEADER_LENGTH || boxSize > limit - boxPosition) {
+          // The box extends beyond the loaded data, or its size is given in an extended field.
+          return;
+        } else if (boxType == TYPE_sidx) {
+          // Offsets in the segment index are relative to the first byte after it in the resource.
+          long firstByteAfterSegmentIndex =
+              dataSpec.absoluteStreamPosition + boxPosition + boxSize;
+          result = parseSegmentIndex(segmentData, firstByteAfterSegmentIndex);
+          return;
+        } else if (boxType == TYPE_moof || boxType == TYPE_mdat) {
+          return;
+        }
+        segmentData.setPosition(boxPosition + (int) boxSize);
+      }
+    }
+
+    /**
+     * Returns the parsed segment index, or null if the loaded data doesn't start with a complete
+     * segment index that can be used.
+     */
+    @Nullable
+    public ChunkIndex getResult() {
+      return result;
+    }
+
+    /**
+     * Parses the body of a sidx box, and returns a {@link ChunkIndex} of the references that start
+     * with a stream access point from which decoding can start. References that don't are merged
+     * into the preceding reference. Returns null if the segment index references other segment
+     * indices.
+     *
+     * @param sidx The sidx box, positioned after the box header.
+     * @param firstByteAfterSegmentIndex The position of the first byte after the sidx box in the
+     *     resource.
+     */
+    @Nullable
+    private static ChunkIndex parseSegmentIndex(
+        ParsableByteArray sidx, long firstByteAfterSegmentIndex) {
+      int version = sidx.readUnsignedByte();
+      sidx.skipBytes(3 + 4); // flags (3), reference_ID (4)
+      long timescale = sidx.readUnsignedInt();
+      long earliestPresentationTime;
+      long firstOffset;
+      if (version == 0) {
+        earliestPresentationTime = sidx.readUnsignedInt();
+        firstOffset = sidx.readUnsignedInt();
+      } else {
+        earliestPresentationTime = sidx.readUnsignedLongToLong();
+        firstOffset = sidx.readUnsignedLongToLong();
+      }
+      sidx.skipBytes(2); // reserved
+      int referenceCount = sidx.readUnsignedShort();
+
+      int[] sizes = new int[referenceCount];
+      long[] offsets = new long[referenceCount];
+      long[] durationsUs = new long[referenceCount];
+      long[] timesUs = new long[referenceCount];
+      int startCount = 0;
+      long offset = firstByteAfterSegmentIndex + firstOffset;
+      long time = earliestPresentationTime;
+      for (int i = 0; i < referenceCount; i++) {
+        int referenceTypeAndSize = sidx.readInt();
+        if ((referenceTypeAndSize & 0x80000000) != 0) {
+          return null;
+        }
+        int referencedSize = referenceTypeAndSize & 0x7FFFFFFF;
+        long subsegmentDuration = sidx.readUnsignedInt();
+        int sapFields = sidx.readInt();
+        boolean startsWithSap = (sapFields & 0x80000000) != 0;
+        int sapType = (sapFields >> 28) & 0x7;
+        long timeUs = Util.scaleLargeTimestamp(time, C.MICROS_PER_SECOND, timescale);
+        if (startCount == 0 || (startsWithSap && sapType <= MAX_STARTING_SAP_TYPE)) {
+          offsets[startCount] = offset;
+          timesUs[startCount] = timeUs;
+          startCount++;
+        }
+        sizes[startCount - 1] += referencedSize;
+        offset += referencedSize;
+        time += subsegmentDuration;
+        long endTimeUs = Util.scaleLargeTimestamp(time, C.MICROS_PER_SECOND, timescale);
+        durationsUs[startCount - 1] = endTimeUs - timesUs[startCount - 1];
+      }
+      return new ChunkIndex(
+          Arrays.copyOf(sizes, startCount),
+          Arrays.copyOf(offsets, startCount),
+          Arrays.copyOf(durationsUs, startCount),
+          Arrays.copyOf(timesUs, startCount));
+    }
+  }
+
   /** {@link MediaChunkIterator} wrapping a {@link HlsMediaPlaylist}. */
   private static final class HlsMediaPlaylistSegmentIterator extends BaseMediaChunkIterator {
 
@@ -685,4 +1263,87 @@ import java.util.Map;
       return size() > KEY_CACHE_SIZE;
     }
   }
+
+  /**
+   * LRU cache that holds up to {@link #INIT_SEGMENT_CACHE_SIZE} prefetched initialization segments,
+   * already decrypted if they're fully encrypted.
+   */
+  private static final class InitSegmentCache {
+
+    private final LinkedHashMap<Uri, Pair<DataSpec, byte[]>> initSegments;
+
+    public InitSegmentCache() {
+      initSegments =
+          new LinkedHashMap<Uri, Pair<DataSpec, byte[]>>(
+              /* initialCapacity= */ INIT_SEGMENT_CACHE_SIZE * 2,
+              /* loadFactor= */ 1,
+              /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Uri, Pair<DataSpec, byte[]>> entry) {
+              return size() > INIT_SEGMENT_CACHE_SIZE;
+            }
+          };
+    }
+
+    /** Returns the data of the initialization segment loaded by {@code dataSpec}, if cached. */
+    @Nullable
+    public byte[] get(DataSpec dataSpec) {
+      Pair<DataSpec, byte[]> initSegment = initSegments.get(dataSpec.uri);
+      return initSegment != null
+              && initSegment.first.absoluteStreamPosition == dataSpec.absoluteStreamPosition
+              && initSegment.first.length == dataSpec.length
+          ? initSegment.second
+          : null;
+    }
+
+    public void put(DataSpec dataSpec, byte[] data) {
+      // An empty initialization segment can't be fed to an extractor from memory.
+      if (data.length > 0) {
+        initSegments.put(dataSpec.uri, Pair.create(dataSpec, data));
+      }
+    }
+  }
+
+  /**
+   * LRU cache that holds up to {@link #SEGMENT_INDEX_CACHE_SIZE} segment indices, keyed by the
+   * segment's {@link Uri} and byte range offset to tell apart segments that share a resource. A
+   * null segment index records that the segment has no usable segment index.
+   */
+  private static final class SegmentIndexCache {
+
+    private final LinkedHashMap<Pair<Uri, Long>, @NullableType ChunkIndex> segmentIndices;
+
+    public SegmentIndexCache() {
+      segmentIndices =
+          new LinkedHashMap<Pair<Uri, Long>, @NullableType ChunkIndex>(
+              /* initialCapacity= */ SEGMENT_INDEX_CACHE_SIZE * 2,
+              /* loadFactor= */ 1,
+              /* accessOrder= */ true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Pair<Uri, Long>, @NullableType ChunkIndex> entry) {
+              return size() > SEGMENT_INDEX_CACHE_SIZE;
+            }
+          };
+    }
+
+    /**
+     * Returns whether the cache holds the segment index of the segment whose start is loaded by
+     * {@code dataSpec}, or holds that the segment has no usable segment index.
+     */
+    public boolean contains(DataSpec dataSpec) {
+      return segmentIndices.containsKey(
+          Pair.create(dataSpec.uri, dataSpec.absoluteStreamPosition));
+    }
+
+    /** Returns the segment index of the segment whose start is loaded by {@code dataSpec}. */
+    @Nullable
+    public ChunkIndex get(DataSpec dataSpec) {
+      return segmentIndices.get(Pair.create(dataSpec.uri, dataSpec.absoluteStreamPosition));
+    }
+
+    public void put(DataSpec dataSpec, @Nullable ChunkIndex segmentIndex) {
+      segmentIndices.put(Pair.create(dataSpec.uri, dataSpec.absoluteStreamPosition), segmentIndex);
+    }
+  }
 }
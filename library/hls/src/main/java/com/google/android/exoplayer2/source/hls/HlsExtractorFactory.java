@@ -92,4 +92,31 @@ public interface HlsExtractorFactory {
       Map<String, List<String>> responseHeaders,
       ExtractorInput sniffingExtractorInput)
       throws InterruptedException, IOException;
+
+  /**
+   * Creates an {@link Extractor} of the same type as an extractor previously created by this
+   * factory, without sniffing. Called for chunks of a variant whose container format has already
+   * been determined, as long as no discontinuity occurred since.
+   *
+   * <p>The default implementation returns null, in which case the extractor is created using
+   * {@link #createExtractor}.
+   *
+   * @param previousExtractor An extractor previously created by this factory for the same variant.
+   *     Must not be reused.
+   * @param format A {@link Format} associated with the chunk to extract.
+   * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
+   *     information is available in the master playlist.
+   * @param drmInitData {@link DrmInitData} associated with the chunk.
+   * @param timestampAdjuster Adjuster corresponding to the provided discontinuity sequence number.
+   * @return A {@link Result}, or null if the extractor can't be created without sniffing.
+   */
+  @Nullable
+  default Result createExtractorOfSameType(
+      Extractor previousExtractor,
+      Format format,
+      @Nullable List<Format> muxedCaptionFormats,
+      @Nullable DrmInitData drmInitData,
+      TimestampAdjuster timestampAdjuster) {
+    return null;
+  }
 }
@@ -28,6 +28,7 @@ import com.google.android.exoplayer2.metadata.id3.Id3Decoder;
 import com.google.android.exoplayer2.metadata.id3.PrivFrame;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.util.ParsableByteArray;
@@ -54,6 +55,8 @@ import java.util.concurrent.atomic.AtomicInteger;
    * @param format The chunk format.
    * @param startOfPlaylistInPeriodUs The position of the playlist in the period in microseconds.
    * @param mediaPlaylist The media playlist from which this chunk was obtained.
+   * @param segmentBaseHolder The segment or part to load, its position in {@code mediaPlaylist},
+   *     and the position in the segment or part from which to load it.
    * @param playlistUrl The url of the playlist from which this chunk was obtained.
    * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
    *     information is available in the master playlist.
@@ -63,9 +66,13 @@ import java.util.concurrent.atomic.AtomicInteger;
    * @param timestampAdjusterProvider The provider from which to obtain the {@link
    *     TimestampAdjuster}.
    * @param previousChunk The {@link HlsMediaChunk} that preceded this one. May be null.
+   * @param lastLoadedPlaylistChunk The last {@link HlsMediaChunk} loaded from {@code playlistUrl}.
+   *     May be null.
    * @param mediaSegmentKey The media segment decryption key, if fully encrypted. Null otherwise.
    * @param initSegmentKey The initialization segment decryption key, if fully encrypted. Null
    *     otherwise.
+   * @param initSegmentData The prefetched and decrypted data of the initialization segment, or null
+   *     if it needs to be loaded.
    */
   public static HlsMediaChunk createInstance(
       HlsExtractorFactory extractorFactory,
@@ -73,7 +80,7 @@ import java.util.concurrent.atomic.AtomicInteger;
       Format format,
       long startOfPlaylistInPeriodUs,
       HlsMediaPlaylist mediaPlaylist,
-      int segmentIndexInPlaylist,
+      HlsChunkSource.SegmentBaseHolder segmentBaseHolder,
       Uri playlistUrl,
       @Nullable List<Format> muxedCaptionFormats,
       int trackSelectionReason,
@@ -81,15 +88,20 @@ import java.util.concurrent.atomic.AtomicInteger;
       boolean isMasterTimestampSource,
       TimestampAdjusterProvider timestampAdjusterProvider,
       @Nullable HlsMediaChunk previousChunk,
+      @Nullable HlsMediaChunk lastLoadedPlaylistChunk,
       @Nullable byte[] mediaSegmentKey,
-      @Nullable byte[] initSegmentKey) {
-    // Media segment.
-    HlsMediaPlaylist.Segment mediaSegment = mediaPlaylist.segments.get(segmentIndexInPlaylist);
+      @Nullable byte[] initSegmentKey,
+      @Nullable byte[] initSegmentData) {
+    // Media segment or part, possibly loaded from the middle.
+    HlsMediaPlaylist.SegmentBase mediaSegment = segmentBaseHolder.segmentBase;
+    long byteOffsetInSegment = segmentBaseHolder.byteOffsetInSegment;
     DataSpec dataSpec =
         new DataSpec(
             UriUtil.resolveToUri(mediaPlaylist.baseUri, mediaSegment.url),
-            mediaSegment.byterangeOffset,
-            mediaSegment.byterangeLength,
+            mediaSegment.byterangeOffset + byteOffsetInSegment,
+            mediaSegment.byterangeLength != C.LENGTH_UNSET
+                ? mediaSegment.byterangeLength - byteOffsetInSegment
+                : C.LENGTH_UNSET,
             /* key= */ null);
     boolean mediaSegmentEncrypted = mediaSegmentKey != null;
     byte[] mediaSegmentIv =
@@ -101,7 +113,11 @@ import java.util.concurrent.atomic.AtomicInteger;
     DataSpec initDataSpec = null;
     boolean initSegmentEncrypted = false;
     DataSource initDataSource = null;
-    if (initSegment != null) {
+    if (initSegment != null && initSegmentData != null) {
+      // The initialization segment was prefetched, and is fed to the extractor from memory.
+      initDataSpec = new DataSpec(UriUtil.resolveToUri(mediaPlaylist.baseUri, initSegment.url));
+      initDataSource = new ByteArrayDataSource(initSegmentData);
+    } else if (initSegment != null) {
       initSegmentEncrypted = initSegmentKey != null;
       byte[] initSegmentIv =
           initSegmentEncrypted ? getEncryptionIvArray(initSegment.encryptionIV) : null;
@@ -117,6 +133,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
     long segmentStartTimeInPeriodUs = startOfPlaylistInPeriodUs + mediaSegment.relativeStartTimeUs;
     long segmentEndTimeInPeriodUs = segmentStartTimeInPeriodUs + mediaSegment.durationUs;
+    long chunkStartTimeInPeriodUs =
+        segmentStartTimeInPeriodUs + segmentBaseHolder.timeOffsetInSegmentUs;
     int discontinuitySequenceNumber =
         mediaPlaylist.discontinuitySequence + mediaSegment.relativeDiscontinuitySequence;
 
@@ -140,6 +158,13 @@ import java.util.concurrent.atomic.AtomicInteger;
       scratchId3Data = new ParsableByteArray(Id3Decoder.ID3_HEADER_LENGTH);
       shouldSpliceIn = false;
     }
+    // The container format of the playlist's segments can only change at a discontinuity.
+    Extractor previousPlaylistExtractor =
+        lastLoadedPlaylistChunk != null
+                && lastLoadedPlaylistChunk.discontinuitySequenceNumber
+                    == discontinuitySequenceNumber
+            ? lastLoadedPlaylistChunk.extractor
+            : null;
 
     return new HlsMediaChunk(
         extractorFactory,
@@ -154,15 +179,17 @@ import java.util.concurrent.atomic.AtomicInteger;
         muxedCaptionFormats,
         trackSelectionReason,
         trackSelectionData,
-        segmentStartTimeInPeriodUs,
+        chunkStartTimeInPeriodUs,
         segmentEndTimeInPeriodUs,
-        /* chunkMediaSequence= */ mediaPlaylist.mediaSequence + segmentIndexInPlaylist,
+        /* chunkMediaSequence= */ segmentBaseHolder.mediaSequence,
+        segmentBaseHolder.partIndex,
         discontinuitySequenceNumber,
         mediaSegment.hasGapTag,
         isMasterTimestampSource,
         /* timestampAdjuster= */ timestampAdjusterProvider.getAdjuster(discontinuitySequenceNumber),
         mediaSegment.drmInitData,
         previousExtractor,
+        previousPlaylistExtractor,
         id3Decoder,
         scratchId3Data,
         shouldSpliceIn);
@@ -186,6 +213,12 @@ import java.util.concurrent.atomic.AtomicInteger;
   /** The url of the playlist from which this chunk was obtained. */
   public final Uri playlistUrl;
 
+  /**
+   * The index of the part of the segment loaded by the chunk, or {@link C#INDEX_UNSET} if the chunk
+   * loads the full segment. The media sequence number of the segment is {@link #chunkIndex}.
+   */
+  public final int partIndex;
+
   @Nullable private final DataSource initDataSource;
   @Nullable private final DataSpec initDataSpec;
   private final boolean isMasterTimestampSource;
@@ -196,6 +229,7 @@ import java.util.concurrent.atomic.AtomicInteger;
   @Nullable private final List<Format> muxedCaptionFormats;
   @Nullable private final DrmInitData drmInitData;
   @Nullable private final Extractor previousExtractor;
+  @Nullable private final Extractor previousPlaylistExtractor;
   private final Id3Decoder id3Decoder;
   private final ParsableByteArray scratchId3Data;
   private final boolean mediaSegmentEncrypted;
@@ -203,6 +237,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   private Extractor extractor;
   private boolean isExtractorReusable;
+  // A provisional adjuster for the timestamps of the chunk, if the chunk isn't the master timestamp
+  // source and its discontinuity sequence's adjuster wasn't initialized when loading started.
+  @Nullable private TimestampAdjuster provisionalTimestampAdjuster;
   private HlsSampleStreamWrapper output;
   // nextLoadPosition refers to the init segment if initDataLoadRequired is true.
   // Otherwise, nextLoadPosition refers to the media segment.
@@ -227,12 +264,14 @@ import java.util.concurrent.atomic.AtomicInteger;
       long startTimeUs,
       long endTimeUs,
       long chunkMediaSequence,
+      int partIndex,
       int discontinuitySequenceNumber,
       boolean hasGapTag,
       boolean isMasterTimestampSource,
       TimestampAdjuster timestampAdjuster,
       @Nullable DrmInitData drmInitData,
       @Nullable Extractor previousExtractor,
+      @Nullable Extractor previousPlaylistExtractor,
       Id3Decoder id3Decoder,
       ParsableByteArray scratchId3Data,
       boolean shouldSpliceIn) {
@@ -246,6 +285,7 @@ import java.util.concurrent.atomic.AtomicInteger;
         endTimeUs,
         chunkMediaSequence);
     this.mediaSegmentEncrypted = mediaSegmentEncrypted;
+    this.partIndex = partIndex;
     this.discontinuitySequenceNumber = discontinuitySequenceNumber;
     this.initDataSource = initDataSource;
     this.initDataSpec = initDataSpec;
@@ -258,6 +298,7 @@ import java.util.concurrent.atomic.AtomicInteger;
     this.muxedCaptionFormats = muxedCaptionFormats;
     this.drmInitData = drmInitData;
     this.previousExtractor = previousExtractor;
+    this.previousPlaylistExtractor = previousPlaylistExtractor;
     this.id3Decoder = id3Decoder;
     this.scratchId3Data = scratchId3Data;
     this.shouldSpliceIn = shouldSpliceIn;
@@ -295,6 +336,13 @@ import java.util.concurrent.atomic.AtomicInteger;
       initDataLoadRequired = false;
       output.init(uid, shouldSpliceIn, /* reusingExtractor= */ true);
     }
+    if (extractor == null && !isMasterTimestampSource && !timestampAdjuster.isInitialized()) {
+      // Rather than waiting for the master to initialize the adjuster, extract the chunk with a
+      // provisional adjuster. The output holds back the samples until their timestamps can be
+      // rebased.
+      provisionalTimestampAdjuster = new TimestampAdjuster(startTimeUs);
+    }
+    output.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
     maybeLoadInitData();
     if (!loadCanceled) {
       if (!hasGapTag) {
@@ -316,9 +364,8 @@ import java.util.concurrent.atomic.AtomicInteger;
   }
 
   private void loadMedia() throws IOException, InterruptedException {
-    if (!isMasterTimestampSource) {
-      timestampAdjuster.waitUntilInitialized();
-    } else if (timestampAdjuster.getFirstSampleTimestampUs() == TimestampAdjuster.DO_NOT_OFFSET) {
+    if (isMasterTimestampSource
+        && timestampAdjuster.getFirstSampleTimestampUs() == TimestampAdjuster.DO_NOT_OFFSET) {
       // We're the master and we haven't set the desired first sample timestamp yet.
       timestampAdjuster.setFirstSampleTimestampUs(startTimeUs);
     }
@@ -372,25 +419,41 @@ import java.util.concurrent.atomic.AtomicInteger;
         new DefaultExtractorInput(dataSource, dataSpec.absoluteStreamPosition, bytesToRead);
 
     if (extractor == null) {
+      TimestampAdjuster extractorTimestampAdjuster =
+          provisionalTimestampAdjuster != null ? provisionalTimestampAdjuster : timestampAdjuster;
       long id3Timestamp = peekId3PrivTimestamp(extractorInput);
       extractorInput.resetPeekPosition();
 
+      // Skip sniffing if the container format of the playlist's segments is already known.
       HlsExtractorFactory.Result result =
-          extractorFactory.createExtractor(
-              previousExtractor,
-              dataSpec.uri,
-              trackFormat,
-              muxedCaptionFormats,
-              drmInitData,
-              timestampAdjuster,
-              dataSource.getResponseHeaders(),
-              extractorInput);
+          previousPlaylistExtractor != null
+              ? extractorFactory.createExtractorOfSameType(
+                  previousPlaylistExtractor,
+                  trackFormat,
+                  muxedCaptionFormats,
+                  drmInitData,
+                  extractorTimestampAdjuster)
+              : null;
+      if (result == null) {
+        result =
+            extractorFactory.createExtractor(
+                previousExtractor,
+                dataSpec.uri,
+                trackFormat,
+                muxedCaptionFormats,
+                drmInitData,
+                extractorTimestampAdjuster,
+                dataSource.getResponseHeaders(),
+                extractorInput);
+      }
       extractor = result.extractor;
-      isExtractorReusable = result.isReusable;
+      // An extractor with a provisional adjuster can't be reused, because following chunks can
+      // use the adjuster of their discontinuity sequence directly once it's initialized.
+      isExtractorReusable = result.isReusable && provisionalTimestampAdjuster == null;
       if (result.isPackedAudioExtractor) {
         output.setSampleOffsetUs(
             id3Timestamp != C.TIME_UNSET
-                ? timestampAdjuster.adjustTsTimestamp(id3Timestamp)
+                ? extractorTimestampAdjuster.adjustTsTimestamp(id3Timestamp)
                 : startTimeUs);
       }
       output.init(uid, shouldSpliceIn, /* reusingExtractor= */ false);
@@ -456,7 +519,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   // Internal methods.
 
-  private static byte[] getEncryptionIvArray(String ivString) {
+  /* package */ static byte[] getEncryptionIvArray(String ivString) {
     String trimmedIv;
     if (Util.toLowerInvariant(ivString).startsWith("0x")) {
       trimmedIv = ivString.substring(2);
@@ -76,6 +76,7 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
   private final CompositeSequenceableLoaderFactory compositeSequenceableLoaderFactory;
   private final boolean allowChunklessPreparation;
   private final boolean useSessionKeys;
+  private final boolean prewarmAdjacentVariants;
 
   @Nullable private Callback callback;
   private int pendingPrepareCount;
@@ -105,6 +106,8 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
    *     SequenceableLoader}s for when this media source loads data from multiple streams.
    * @param allowChunklessPreparation Whether chunkless preparation is allowed.
    * @param useSessionKeys Whether to use #EXT-X-SESSION-KEY tags.
+   * @param prewarmAdjacentVariants Whether to prepare switches to the variants adjacent to the
+   *     selected one by loading their playlists, keys and initialization segments in advance.
    */
   public HlsMediaPeriod(
       HlsExtractorFactory extractorFactory,
@@ -117,7 +120,8 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
       Allocator allocator,
       CompositeSequenceableLoaderFactory compositeSequenceableLoaderFactory,
       boolean allowChunklessPreparation,
-      boolean useSessionKeys) {
+      boolean useSessionKeys,
+      boolean prewarmAdjacentVariants) {
     this.extractorFactory = extractorFactory;
     this.playlistTracker = playlistTracker;
     this.dataSourceFactory = dataSourceFactory;
@@ -129,6 +133,7 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
     this.compositeSequenceableLoaderFactory = compositeSequenceableLoaderFactory;
     this.allowChunklessPreparation = allowChunklessPreparation;
     this.useSessionKeys = useSessionKeys;
+    this.prewarmAdjacentVariants = prewarmAdjacentVariants;
     compositeSequenceableLoader =
         compositeSequenceableLoaderFactory.createCompositeSequenceableLoader();
     streamWrapperIndices = new IdentityHashMap<>();
@@ -739,7 +744,8 @@ public final class HlsMediaPeriod implements MediaPeriod, HlsSampleStreamWrapper
             dataSourceFactory,
             mediaTransferListener,
             timestampAdjusterProvider,
-            muxedCaptionFormats);
+            muxedCaptionFormats,
+            prewarmAdjacentVariants);
     return new HlsSampleStreamWrapper(
         trackType,
         /* callback= */ this,
@@ -46,6 +46,7 @@ import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
 import java.util.List;
 
@@ -71,6 +72,7 @@ public final class HlsMediaSource extends BaseMediaSource
     private LoadErrorHandlingPolicy loadErrorHandlingPolicy;
     private boolean allowChunklessPreparation;
     private boolean useSessionKeys;
+    private boolean prewarmAdjacentVariants;
     private boolean isCreateCalled;
     @Nullable private Object tag;
 
@@ -212,7 +214,10 @@ public final class HlsMediaSource extends BaseMediaSource
     /**
      * Sets the factory to create composite {@link SequenceableLoader}s for when this media source
      * loads data from multiple streams (video, audio etc...). The default is an instance of {@link
-     * DefaultCompositeSequenceableLoaderFactory}.
+     * DefaultCompositeSequenceableLoaderFactory} that only continues loading the streams that are
+     * furthest behind. Use {@link
+     * DefaultCompositeSequenceableLoaderFactory#DefaultCompositeSequenceableLoaderFactory(int)} to
+     * load separate audio and video renditions in parallel.
      *
      * @param compositeSequenceableLoaderFactory A factory to create composite {@link
      *     SequenceableLoader}s for when this media source loads data from multiple streams (video,
@@ -256,6 +261,22 @@ public final class HlsMediaSource extends BaseMediaSource
       return this;
     }
 
+    /**
+     * Sets whether to prepare switches to the variants adjacent to the selected one. If enabled,
+     * the playlists of the adjacent variants are kept up to date, and the keys and initialization
+     * segments needed to switch to them are prefetched while enough media is buffered. A switch
+     * then only needs to load media. The default value is {@code false}.
+     *
+     * @param prewarmAdjacentVariants Whether to prepare switches to adjacent variants.
+     * @return This factory, for convenience.
+     * @throws IllegalStateException If one of the {@code create} methods has already been called.
+     */
+    public Factory setPrewarmAdjacentVariants(boolean prewarmAdjacentVariants) {
+      Assertions.checkState(!isCreateCalled);
+      this.prewarmAdjacentVariants = prewarmAdjacentVariants;
+      return this;
+    }
+
     /**
      * @deprecated Use {@link #createMediaSource(Uri)} and {@link #addEventListener(Handler,
      *     MediaSourceEventListener)} instead.
@@ -295,6 +316,7 @@ public final class HlsMediaSource extends BaseMediaSource
               hlsDataSourceFactory, loadErrorHandlingPolicy, playlistParserFactory),
           allowChunklessPreparation,
           useSessionKeys,
+          prewarmAdjacentVariants,
           tag);
     }
 
@@ -320,6 +342,7 @@ public final class HlsMediaSource extends BaseMediaSource
   private final LoadErrorHandlingPolicy loadErrorHandlingPolicy;
   private final boolean allowChunklessPreparation;
   private final boolean useSessionKeys;
+  private final boolean prewarmAdjacentVariants;
   private final HlsPlaylistTracker playlistTracker;
   @Nullable private final Object tag;
 
@@ -335,6 +358,7 @@ public final class HlsMediaSource extends BaseMediaSource
       HlsPlaylistTracker playlistTracker,
       boolean allowChunklessPreparation,
       boolean useSessionKeys,
+      boolean prewarmAdjacentVariants,
       @Nullable Object tag) {
     this.manifestUri = manifestUri;
     this.dataSourceFactory = dataSourceFactory;
@@ -345,6 +369,7 @@ public final class HlsMediaSource extends BaseMediaSource
     this.playlistTracker = playlistTracker;
     this.allowChunklessPreparation = allowChunklessPreparation;
     this.useSessionKeys = useSessionKeys;
+    this.prewarmAdjacentVariants = prewarmAdjacentVariants;
     this.tag = tag;
   }
 
@@ -380,7 +405,8 @@ public final class HlsMediaSource extends BaseMediaSource
         allocator,
         compositeSequenceableLoaderFactory,
         allowChunklessPreparation,
-        useSessionKeys);
+        useSessionKeys,
+        prewarmAdjacentVariants);
   }
 
   @Override
@@ -413,6 +439,9 @@ public final class HlsMediaSource extends BaseMediaSource
       long periodDurationUs =
           playlist.hasEndTag ? offsetFromInitialStartTimeUs + playlist.durationUs : C.TIME_UNSET;
       List<HlsMediaPlaylist.Segment> segments = playlist.segments;
+      if (windowDefaultStartPositionUs == C.TIME_UNSET) {
+        windowDefaultStartPositionUs = getLowLatencyDefaultStartPositionUs(playlist);
+      }
       if (windowDefaultStartPositionUs == C.TIME_UNSET) {
         windowDefaultStartPositionUs = segments.isEmpty() ? 0
             : segments.get(Math.max(0, segments.size() - 3)).relativeStartTimeUs;
@@ -449,4 +478,23 @@ public final class HlsMediaSource extends BaseMediaSource
     refreshSourceInfo(timeline);
   }
 
+  /**
+   * Returns the default start position of a low-latency live playlist, which is the part hold back
+   * from the end of its last part, or {@link C#TIME_UNSET} if the playlist isn't low-latency.
+   */
+  private static long getLowLatencyDefaultStartPositionUs(HlsMediaPlaylist playlist) {
+    long partHoldBackUs = playlist.serverControl.partHoldBackUs;
+    if (playlist.partTargetDurationUs == C.TIME_UNSET || partHoldBackUs == C.TIME_UNSET) {
+      return C.TIME_UNSET;
+    }
+    long endOfPartsUs = playlist.durationUs;
+    List<HlsMediaPlaylist.Part> trailingParts = playlist.trailingParts;
+    if (!trailingParts.isEmpty()) {
+      HlsMediaPlaylist.Part lastPart = trailingParts.get(trailingParts.size() - 1);
+      endOfPartsUs = lastPart.relativeStartTimeUs + lastPart.durationUs;
+    }
+    // The window doesn't include the incomplete segment, so the position can't be past its end.
+    return Util.constrainValue(endOfPartsUs - partHoldBackUs, 0, playlist.durationUs);
+  }
+
 }
@@ -50,6 +50,7 @@ import com.google.android.exoplayer2.upstream.Loader.LoadErrorAction;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.TimestampAdjuster;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -111,7 +112,7 @@ import java.util.Set;
   private final ArrayList<HlsSampleStream> hlsSampleStreams;
   private final Map<String, DrmInitData> overridingDrmInitData;
 
-  private SampleQueue[] sampleQueues;
+  private ProvisionalSampleQueue[] sampleQueues;
   private DecryptableSampleQueueReader[] sampleQueueReaders;
   private int[] sampleQueueTrackIds;
   private boolean audioSampleQueueMappingDone;
@@ -147,6 +148,8 @@ import java.util.Set;
   // Accessed only by the loading thread.
   private boolean tracksEnded;
   private long sampleOffsetUs;
+  @Nullable private TimestampAdjuster provisionalTimestampAdjuster;
+  @Nullable private TimestampAdjuster timestampAdjuster;
   private int chunkUid;
 
   /**
@@ -190,7 +193,7 @@ import java.util.Set;
     sampleQueueTrackIds = new int[0];
     audioSampleQueueIndex = C.INDEX_UNSET;
     videoSampleQueueIndex = C.INDEX_UNSET;
-    sampleQueues = new SampleQueue[0];
+    sampleQueues = new ProvisionalSampleQueue[0];
     sampleQueueReaders = new DecryptableSampleQueueReader[0];
     sampleQueueIsAudioVideoFlags = new boolean[0];
     sampleQueuesEnabledStates = new boolean[0];
@@ -493,6 +496,8 @@ import java.util.Set;
   }
 
   public void maybeThrowError() throws IOException {
+    // Renderers waiting for samples held back after the last load completed poll for errors.
+    maybeCommitPendingSamples();
     loader.maybeThrowError();
     chunkSource.maybeThrowError();
   }
@@ -595,6 +600,7 @@ import java.util.Set;
 
   @Override
   public boolean continueLoading(long positionUs) {
+    maybeCommitPendingSamples();
     if (loadingFinished || loader.isLoading()) {
       return false;
     }
@@ -624,6 +630,10 @@ import java.util.Set;
     nextChunkHolder.clear();
 
     if (endOfStream) {
+      if (hasPendingSamples()) {
+        // Readers would otherwise reach the end of the stream before the held back samples.
+        return false;
+      }
       pendingResetPositionUs = C.TIME_UNSET;
       loadingFinished = true;
       return true;
@@ -724,17 +734,24 @@ import java.util.Set;
       int errorCount) {
     long bytesLoaded = loadable.bytesLoaded();
     boolean isMediaChunk = isMediaChunk(loadable);
+    // Errors loading chunks that only prepare a switch to another variant or that load an optional
+    // segment index are ignored.
+    boolean errorIgnored = chunkSource.onChunkLoadError(loadable);
     boolean blacklistSucceeded = false;
     LoadErrorAction loadErrorAction;
 
     long blacklistDurationMs =
-        loadErrorHandlingPolicy.getBlacklistDurationMsFor(
-            loadable.type, loadDurationMs, error, errorCount);
+        errorIgnored
+            ? C.TIME_UNSET
+            : loadErrorHandlingPolicy.getBlacklistDurationMsFor(
+                loadable.type, loadDurationMs, error, errorCount);
     if (blacklistDurationMs != C.TIME_UNSET) {
       blacklistSucceeded = chunkSource.maybeBlacklistTrack(loadable, blacklistDurationMs);
     }
 
-    if (blacklistSucceeded) {
+    if (errorIgnored) {
+      loadErrorAction = Loader.DONT_RETRY;
+    } else if (blacklistSucceeded) {
       if (isMediaChunk && bytesLoaded == 0) {
         HlsMediaChunk removed = mediaChunks.remove(mediaChunks.size() - 1);
         Assertions.checkState(removed == loadable);
@@ -770,7 +787,7 @@ import java.util.Set;
         error,
         /* wasCanceled= */ !loadErrorAction.isRetry());
 
-    if (blacklistSucceeded) {
+    if (errorIgnored || blacklistSucceeded) {
       if (!prepared) {
         continueLoading(lastSeekPositionUs);
       } else {
@@ -850,8 +867,10 @@ import java.util.Set;
         return createDummyTrackOutput(id, type);
       }
     }
-    SampleQueue trackOutput = new FormatAdjustingSampleQueue(allocator, overridingDrmInitData);
+    ProvisionalSampleQueue trackOutput =
+        new FormatAdjustingSampleQueue(allocator, overridingDrmInitData);
     trackOutput.setSampleOffsetUs(sampleOffsetUs);
+    trackOutput.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
     trackOutput.sourceId(chunkUid);
     trackOutput.setUpstreamFormatChangeListener(this);
     sampleQueueTrackIds = Arrays.copyOf(sampleQueueTrackIds, trackCount + 1);
@@ -907,6 +926,25 @@ import java.util.Set;
     }
   }
 
+  /**
+   * Sets the timestamp adjusters of subsequently loaded samples.
+   *
+   * @param provisionalTimestampAdjuster The provisional adjuster with which the timestamps of
+   *     subsequent samples are adjusted, or null if they're adjusted by {@code timestampAdjuster}.
+   *     Samples with provisional timestamps are held back until {@code timestampAdjuster} is
+   *     initialized.
+   * @param timestampAdjuster The adjuster of the discontinuity sequence of subsequent samples.
+   */
+  public void setTimestampAdjusters(
+      @Nullable TimestampAdjuster provisionalTimestampAdjuster,
+      TimestampAdjuster timestampAdjuster) {
+    this.provisionalTimestampAdjuster = provisionalTimestampAdjuster;
+    this.timestampAdjuster = timestampAdjuster;
+    for (ProvisionalSampleQueue sampleQueue : sampleQueues) {
+      sampleQueue.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
+    }
+  }
+
   // Internal methods.
 
   private void updateSampleStreams(SampleStream[] streams) {
@@ -929,6 +967,28 @@ import java.util.Set;
     return true;
   }
 
+  /**
+   * Commits samples that were held back until their timestamps could be rebased, if there is no
+   * loading thread that may be queuing samples.
+   */
+  private void maybeCommitPendingSamples() {
+    if (loader.isLoading()) {
+      return;
+    }
+    for (ProvisionalSampleQueue sampleQueue : sampleQueues) {
+      sampleQueue.commitPendingSamples();
+    }
+  }
+
+  private boolean hasPendingSamples() {
+    for (ProvisionalSampleQueue sampleQueue : sampleQueues) {
+      if (sampleQueue.hasPendingSamples()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private void resetSampleQueues() {
     for (SampleQueue sampleQueue : sampleQueues) {
       sampleQueue.reset(pendingResetUpstreamFormats);
@@ -1213,7 +1273,7 @@ import java.util.Set;
     return new DummyTrackOutput();
   }
 
-  private static final class FormatAdjustingSampleQueue extends SampleQueue {
+  private static final class FormatAdjustingSampleQueue extends ProvisionalSampleQueue {
 
     private final Map<String, DrmInitData> overridingDrmInitData;
 
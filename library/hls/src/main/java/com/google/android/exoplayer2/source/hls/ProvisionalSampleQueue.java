@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.source.SampleQueue;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.TimestampAdjuster;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * A {@link SampleQueue} that holds back samples whose timestamps are provisional.
+ *
+ * <p>Chunks that aren't the master timestamp source may be extracted before the {@link
+ * TimestampAdjuster} of their discontinuity sequence has been initialized by the master, in which
+ * case their timestamps are adjusted by a provisional adjuster of their own. The data of such
+ * samples is queued as usual, but the samples are only committed, and so become readable, once
+ * their timestamps can be rebased onto the initialized adjuster.
+ *
+ * <p>Calls that affect how subsequent samples are committed are held back with the samples, so that
+ * they take effect in the order in which they were made.
+ */
+/* package */ class ProvisionalSampleQueue extends SampleQueue {
+
+  private final ArrayDeque<PendingOperation> pendingOperations;
+
+  @Nullable private TimestampAdjuster provisionalTimestampAdjuster;
+  @Nullable private TimestampAdjuster timestampAdjuster;
+  private long bytesWritten;
+
+  /**
+   * @param allocator An {@link Allocator} from which allocations for sample data can be obtained.
+   */
+  public ProvisionalSampleQueue(Allocator allocator) {
+    super(allocator);
+    pendingOperations = new ArrayDeque<>();
+  }
+
+  /**
+   * Sets the timestamp adjusters of subsequently queued samples.
+   *
+   * @param provisionalTimestampAdjuster The provisional adjuster with which the timestamps of
+   *     subsequent samples are adjusted, or null if they're adjusted by {@code timestampAdjuster}.
+   * @param timestampAdjuster The adjuster onto which provisional timestamps are rebased once it's
+   *     initialized. May be null if {@code provisionalTimestampAdjuster} is null.
+   */
+  public void setTimestampAdjusters(
+      @Nullable TimestampAdjuster provisionalTimestampAdjuster,
+      @Nullable TimestampAdjuster timestampAdjuster) {
+    this.provisionalTimestampAdjuster = provisionalTimestampAdjuster;
+    this.timestampAdjuster = timestampAdjuster;
+    commitPendingSamples();
+  }
+
+  /** Returns whether any samples are held back because their timestamps are provisional. */
+  public boolean hasPendingSamples() {
+    return !pendingOperations.isEmpty();
+  }
+
+  /**
+   * Commits the samples held back until the first one whose timestamp can't be rebased yet. Must
+   * be called by the loading thread, or by the consuming thread when there is no loading thread.
+   */
+  public void commitPendingSamples() {
+    while (!pendingOperations.isEmpty() && pendingOperations.peek().maybeRun()) {
+      pendingOperations.remove();
+    }
+  }
+
+  // Called by the consuming thread, but only when there is no loading thread.
+
+  @Override
+  public void reset(boolean resetUpstreamFormat) {
+    super.reset(resetUpstreamFormat);
+    pendingOperations.clear();
+    bytesWritten = 0;
+  }
+
+  // Called by the loading thread.
+
+  @Override
+  public void sourceId(int sourceId) {
+    runOrHoldBack(
+        /* dependsOnTimestamps= */ false, timestampCorrectionUs -> super.sourceId(sourceId));
+  }
+
+  @Override
+  public void splice() {
+    runOrHoldBack(/* dependsOnTimestamps= */ false, timestampCorrectionUs -> super.splice());
+  }
+
+  @Override
+  public void setSampleOffsetUs(long sampleOffsetUs) {
+    runOrHoldBack(
+        /* dependsOnTimestamps= */ false,
+        timestampCorrectionUs -> super.setSampleOffsetUs(sampleOffsetUs));
+  }
+
+  @Override
+  public void format(Format format) {
+    boolean hasSubsampleOffset = format.subsampleOffsetUs != Format.OFFSET_SAMPLE_RELATIVE;
+    runOrHoldBack(
+        /* dependsOnTimestamps= */ hasSubsampleOffset,
+        timestampCorrectionUs ->
+            super.format(
+                hasSubsampleOffset && timestampCorrectionUs != 0
+                    ? format.copyWithSubsampleOffsetUs(
+                        format.subsampleOffsetUs + timestampCorrectionUs)
+                    : format));
+  }
+
+  @Override
+  public int sampleData(ExtractorInput input, int length, boolean allowEndOfInput)
+      throws IOException, InterruptedException {
+    int bytesAppended = super.sampleData(input, length, allowEndOfInput);
+    if (bytesAppended != C.RESULT_END_OF_INPUT) {
+      bytesWritten += bytesAppended;
+    }
+    return bytesAppended;
+  }
+
+  @Override
+  public void sampleData(ParsableByteArray buffer, int length) {
+    super.sampleData(buffer, length);
+    bytesWritten += length;
+  }
+
+  @Override
+  public void sampleMetadata(
+      long timeUs,
+      @C.BufferFlags int flags,
+      int size,
+      int offset,
+      @Nullable CryptoData cryptoData) {
+    // The offset is relative to the end of the queued data, which may grow before the sample is
+    // committed.
+    long sampleEndPosition = bytesWritten - offset;
+    runOrHoldBack(
+        /* dependsOnTimestamps= */ true,
+        timestampCorrectionUs ->
+            super.sampleMetadata(
+                timeUs + timestampCorrectionUs,
+                flags,
+                size,
+                /* offset= */ (int) (bytesWritten - sampleEndPosition),
+                cryptoData));
+  }
+
+  // Internal methods.
+
+  private void runOrHoldBack(boolean dependsOnTimestamps, Operation operation) {
+    commitPendingSamples();
+    PendingOperation pendingOperation =
+        new PendingOperation(
+            dependsOnTimestamps ? provisionalTimestampAdjuster : null,
+            timestampAdjuster,
+            operation);
+    if (!pendingOperations.isEmpty() || !pendingOperation.maybeRun()) {
+      pendingOperations.add(pendingOperation);
+    }
+  }
+
+  private interface Operation {
+
+    void run(long timestampCorrectionUs);
+  }
+
+  /**
+   * An {@link Operation} and the timestamp adjusters that were set when it was held back.
+   */
+  private static final class PendingOperation {
+
+    @Nullable private final TimestampAdjuster provisionalTimestampAdjuster;
+    @Nullable private final TimestampAdjuster timestampAdjuster;
+    private final Operation operation;
+
+    public PendingOperation(
+        @Nullable TimestampAdjuster provisionalTimestampAdjuster,
+        @Nullable TimestampAdjuster timestampAdjuster,
+        Operation operation) {
+      this.provisionalTimestampAdjuster = provisionalTimestampAdjuster;
+      this.timestampAdjuster = timestampAdjuster;
+      this.operation = operation;
+    }
+
+    /**
+     * Runs the operation if the timestamps it depends on can be rebased.
+     *
+     * @return Whether the operation was run.
+     */
+    public boolean maybeRun() {
+      if (provisionalTimestampAdjuster == null) {
+        operation.run(/* timestampCorrectionUs= */ 0);
+        return true;
+      }
+      long timestampOffsetUs;
+      // The adjuster is initialized by the loading thread of the master, so its state is read
+      // under its lock to observe the initialization and the resulting offset together.
+      synchronized (timestampAdjuster) {
+        if (!timestampAdjuster.isInitialized()) {
+          return false;
+        }
+        timestampOffsetUs = timestampAdjuster.getTimestampOffsetUs();
+      }
+      // If the provisional adjuster hasn't adjusted any timestamps, there's nothing to rebase.
+      long timestampCorrectionUs =
+          provisionalTimestampAdjuster.isInitialized()
+              ? timestampOffsetUs - provisionalTimestampAdjuster.getTimestampOffsetUs()
+              : 0;
+      operation.run(timestampCorrectionUs);
+      return true;
+    }
+  }
+}
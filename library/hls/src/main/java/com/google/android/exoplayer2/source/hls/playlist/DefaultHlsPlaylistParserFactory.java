@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2.source.hls.playlist;
 
+import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
 
 /** Default implementation for {@link HlsPlaylistParserFactory}. */
@@ -30,4 +31,15 @@ public final class DefaultHlsPlaylistParserFactory implements HlsPlaylistParserF
       HlsMasterPlaylist masterPlaylist) {
     return new HlsPlaylistParser(masterPlaylist);
   }
+
+  @Override
+  public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
+      HlsMasterPlaylist masterPlaylist, @Nullable HlsMediaPlaylist previousMediaPlaylist) {
+    return new HlsPlaylistParser(masterPlaylist, previousMediaPlaylist);
+  }
+
+  @Override
+  public boolean supportsDeltaUpdates() {
+    return true;
+  }
 }
@@ -25,6 +25,7 @@ import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispat
 import com.google.android.exoplayer2.source.hls.HlsDataSourceFactory;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.Variant;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.ServerControl;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.LoadErrorHandlingPolicy;
 import com.google.android.exoplayer2.upstream.Loader;
@@ -49,6 +50,10 @@ public final class DefaultHlsPlaylistTracker
    */
   public static final double DEFAULT_PLAYLIST_STUCK_TARGET_DURATION_COEFFICIENT = 3.5;
 
+  private static final String BLOCK_MSN_PARAM = "_HLS_msn";
+  private static final String BLOCK_PART_PARAM = "_HLS_part";
+  private static final String SKIP_PARAM = "_HLS_skip";
+
   private final HlsDataSourceFactory dataSourceFactory;
   private final HlsPlaylistParserFactory playlistParserFactory;
   private final LoadErrorHandlingPolicy loadErrorHandlingPolicy;
@@ -56,7 +61,6 @@ public final class DefaultHlsPlaylistTracker
   private final List<PlaylistEventListener> listeners;
   private final double playlistStuckTargetDurationCoefficient;
 
-  @Nullable private ParsingLoadable.Parser<HlsPlaylist> mediaPlaylistParser;
   @Nullable private EventDispatcher eventDispatcher;
   @Nullable private Loader initialPlaylistLoader;
   @Nullable private Handler playlistRefreshHandler;
@@ -230,7 +234,6 @@ public final class DefaultHlsPlaylistTracker
       masterPlaylist = (HlsMasterPlaylist) result;
     }
     this.masterPlaylist = masterPlaylist;
-    mediaPlaylistParser = playlistParserFactory.createPlaylistParser(masterPlaylist);
     primaryMediaPlaylistUrl = masterPlaylist.variants.get(0).url;
     createBundles(masterPlaylist.mediaPlaylistUrls);
     MediaPlaylistBundle primaryBundle = playlistBundles.get(primaryMediaPlaylistUrl);
@@ -447,7 +450,7 @@ public final class DefaultHlsPlaylistTracker
 
     private final Uri playlistUrl;
     private final Loader mediaPlaylistLoader;
-    private final ParsingLoadable<HlsPlaylist> mediaPlaylistLoadable;
+    private final DataSource mediaPlaylistDataSource;
 
     @Nullable private HlsMediaPlaylist playlistSnapshot;
     private long lastSnapshotLoadMs;
@@ -455,17 +458,14 @@ public final class DefaultHlsPlaylistTracker
     private long earliestNextLoadTimeMs;
     private long blacklistUntilMs;
     private boolean loadPending;
+    private boolean deltaUpdateFailed;
+    private boolean deltaUpdatesDisabled;
     private IOException playlistError;
 
     public MediaPlaylistBundle(Uri playlistUrl) {
       this.playlistUrl = playlistUrl;
       mediaPlaylistLoader = new Loader("DefaultHlsPlaylistTracker:MediaPlaylist");
-      mediaPlaylistLoadable =
-          new ParsingLoadable<>(
-              dataSourceFactory.createDataSource(C.DATA_TYPE_MANIFEST),
-              playlistUrl,
-              C.DATA_TYPE_MANIFEST,
-              mediaPlaylistParser);
+      mediaPlaylistDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MANIFEST);
     }
 
     @Nullable
@@ -557,6 +557,29 @@ public final class DefaultHlsPlaylistTracker
         int errorCount) {
       LoadErrorAction loadErrorAction;
 
+      if (error instanceof HlsPlaylistParser.DeltaUpdateException) {
+        // The delta update couldn't be merged with the current snapshot. The error isn't fatal,
+        // because the full playlist is loaded instead.
+        eventDispatcher.loadError(
+            loadable.dataSpec,
+            loadable.getUri(),
+            loadable.getResponseHeaders(),
+            C.DATA_TYPE_MANIFEST,
+            elapsedRealtimeMs,
+            loadDurationMs,
+            loadable.bytesLoaded(),
+            error,
+            /* wasCanceled= */ false);
+        deltaUpdateFailed = true;
+        if (((HlsPlaylistParser.DeltaUpdateException) error).isPreviousMediaPlaylistMissing) {
+          // The parser can't merge delta updates, so there's no point in requesting them again.
+          deltaUpdatesDisabled = true;
+        }
+        earliestNextLoadTimeMs = 0;
+        loadPlaylist();
+        return Loader.DONT_RETRY;
+      }
+
       long blacklistDurationMs =
           loadErrorHandlingPolicy.getBlacklistDurationMsFor(
               loadable.type, loadDurationMs, error, errorCount);
@@ -605,6 +628,15 @@ public final class DefaultHlsPlaylistTracker
     // Internal methods.
 
     private void loadPlaylistImmediately() {
+      // Let the parser reuse the unchanged segments of the current snapshot.
+      ParsingLoadable.Parser<HlsPlaylist> mediaPlaylistParser =
+          playlistParserFactory.createPlaylistParser(masterPlaylist, playlistSnapshot);
+      ParsingLoadable<HlsPlaylist> mediaPlaylistLoadable =
+          new ParsingLoadable<>(
+              mediaPlaylistDataSource,
+              getMediaPlaylistUriForReload(SystemClock.elapsedRealtime()),
+              C.DATA_TYPE_MANIFEST,
+              mediaPlaylistParser);
       long elapsedRealtime =
           mediaPlaylistLoader.startLoading(
               mediaPlaylistLoadable,
@@ -648,13 +680,22 @@ public final class DefaultHlsPlaylistTracker
         }
       }
       // Do not allow the playlist to load again within the target duration if we obtained a new
-      // snapshot, or half the target duration otherwise.
-      earliestNextLoadTimeMs =
-          currentTimeMs
-              + C.usToMs(
-                  playlistSnapshot != oldPlaylist
-                      ? playlistSnapshot.targetDurationUs
-                      : (playlistSnapshot.targetDurationUs / 2));
+      // snapshot, or half the target duration otherwise. The part target duration is used instead
+      // for playlists with parts. If the server supports blocking reload, the next snapshot is
+      // requested immediately and the server holds the request until it's available.
+      long targetDurationUs =
+          playlistSnapshot.partTargetDurationUs != C.TIME_UNSET
+              ? playlistSnapshot.partTargetDurationUs
+              : playlistSnapshot.targetDurationUs;
+      long durationUntilNextLoadUs;
+      if (playlistSnapshot == oldPlaylist) {
+        durationUntilNextLoadUs = targetDurationUs / 2;
+      } else if (playlistSnapshot.serverControl.canBlockReload) {
+        durationUntilNextLoadUs = 0;
+      } else {
+        durationUntilNextLoadUs = targetDurationUs;
+      }
+      earliestNextLoadTimeMs = currentTimeMs + C.usToMs(durationUntilNextLoadUs);
       // Schedule a load if this is the primary playlist and it doesn't have an end tag. Else the
       // next load will be scheduled when refreshPlaylist is called, or when this playlist becomes
       // the primary.
@@ -663,6 +704,49 @@ public final class DefaultHlsPlaylistTracker
       }
     }
 
+    /**
+     * Returns the {@link Uri} from which to reload the playlist.
+     *
+     * <p>If the server supports blocking reload, the {@code _HLS_msn} and {@code _HLS_part} query
+     * parameters request the snapshot that contains the segment or part following the current
+     * snapshot. If the server and the {@link HlsPlaylistParserFactory} support delta updates and
+     * the current snapshot was loaded within half the skip boundary, the {@code _HLS_skip} query
+     * parameter requests a delta update that omits the segments the current snapshot already
+     * contains (see RFC 8216bis, section 6.3.7).
+     *
+     * @param nowMs The current time, in milliseconds.
+     */
+    private Uri getMediaPlaylistUriForReload(long nowMs) {
+      boolean requestDeltaUpdate =
+          playlistParserFactory.supportsDeltaUpdates()
+              && !deltaUpdatesDisabled
+              && !deltaUpdateFailed;
+      deltaUpdateFailed = false;
+      if (playlistSnapshot == null || playlistSnapshot.hasEndTag) {
+        return playlistUrl;
+      }
+      ServerControl serverControl = playlistSnapshot.serverControl;
+      requestDeltaUpdate &=
+          serverControl.skipUntilUs != C.TIME_UNSET
+              && nowMs - lastSnapshotLoadMs < C.usToMs(serverControl.skipUntilUs) / 2;
+      if (!serverControl.canBlockReload && !requestDeltaUpdate) {
+        return playlistUrl;
+      }
+      Uri.Builder uriBuilder = playlistUrl.buildUpon();
+      if (serverControl.canBlockReload) {
+        long nextMediaSequence = playlistSnapshot.mediaSequence + playlistSnapshot.segments.size();
+        uriBuilder.appendQueryParameter(BLOCK_MSN_PARAM, String.valueOf(nextMediaSequence));
+        if (playlistSnapshot.partTargetDurationUs != C.TIME_UNSET) {
+          uriBuilder.appendQueryParameter(
+              BLOCK_PART_PARAM, String.valueOf(playlistSnapshot.getPublishedTrailingPartCount()));
+        }
+      }
+      if (requestDeltaUpdate) {
+        uriBuilder.appendQueryParameter(SKIP_PARAM, "YES");
+      }
+      return uriBuilder.build();
+    }
+
     /**
      * Blacklists the playlist.
      *
@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2.source.hls.playlist;
 
+import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.offline.FilteringManifestParser;
 import com.google.android.exoplayer2.offline.StreamKey;
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
@@ -52,4 +53,17 @@ public final class FilteringHlsPlaylistParserFactory implements HlsPlaylistParse
     return new FilteringManifestParser<>(
         hlsPlaylistParserFactory.createPlaylistParser(masterPlaylist), streamKeys);
   }
+
+  @Override
+  public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
+      HlsMasterPlaylist masterPlaylist, @Nullable HlsMediaPlaylist previousMediaPlaylist) {
+    return new FilteringManifestParser<>(
+        hlsPlaylistParserFactory.createPlaylistParser(masterPlaylist, previousMediaPlaylist),
+        streamKeys);
+  }
+
+  @Override
+  public boolean supportsDeltaUpdates() {
+    return hlsPlaylistParserFactory.supportsDeltaUpdates();
+  }
 }
@@ -23,6 +23,7 @@ import com.google.android.exoplayer2.offline.StreamKey;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,58 +31,20 @@ import java.util.List;
 public final class HlsMediaPlaylist extends HlsPlaylist {
 
   /** Media segment reference. */
-  @SuppressWarnings("ComparableType")
-  public static final class Segment implements Comparable<Long> {
+  public static final class Segment extends SegmentBase {
 
-    /**
-     * The url of the segment.
-     */
-    public final String url;
-    /**
-     * The media initialization section for this segment, as defined by #EXT-X-MAP. May be null if
-     * the media playlist does not define a media section for this segment. The same instance is
-     * used for all segments that share an EXT-X-MAP tag.
-     */
-    @Nullable public final Segment initializationSegment;
-    /** The duration of the segment in microseconds, as defined by #EXTINF. */
-    public final long durationUs;
     /** The human readable title of the segment. */
     public final String title;
     /**
-     * The number of #EXT-X-DISCONTINUITY tags in the playlist before the segment.
-     */
-    public final int relativeDiscontinuitySequence;
-    /**
-     * The start time of the segment in microseconds, relative to the start of the playlist.
-     */
-    public final long relativeStartTimeUs;
-    /**
-     * DRM initialization data for sample decryption, or null if the segment does not use CDM-DRM
-     * protection.
-     */
-    @Nullable public final DrmInitData drmInitData;
-    /**
-     * The encryption identity key uri as defined by #EXT-X-KEY, or null if the segment does not use
-     * full segment encryption with identity key.
-     */
-    @Nullable public final String fullSegmentEncryptionKeyUri;
-    /**
-     * The encryption initialization vector as defined by #EXT-X-KEY, or null if the segment is not
-     * encrypted.
-     */
-    @Nullable public final String encryptionIV;
-    /**
-     * The segment's byte range offset, as defined by #EXT-X-BYTERANGE.
+     * Whether {@link #encryptionIV} is defined by the IV attribute of #EXT-X-KEY. If false, a
+     * non-null {@link #encryptionIV} is derived from the media sequence number of the segment.
      */
-    public final long byterangeOffset;
+    public final boolean hasExplicitEncryptionIV;
     /**
-     * The segment's byte range length, as defined by #EXT-X-BYTERANGE, or {@link C#LENGTH_UNSET} if
-     * no byte range is specified.
+     * The parts of the segment, as defined by #EXT-X-PART. Empty if the segment is not split into
+     * parts.
      */
-    public final long byterangeLength;
-
-    /** Whether the segment is tagged with #EXT-X-GAP. */
-    public final boolean hasGapTag;
+    public final List<Part> parts;
 
     /**
      * @param uri See {@link #url}.
@@ -111,6 +74,52 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
           /* hasGapTag= */ false);
     }
 
+    /**
+     * Creates a segment that is not split into parts.
+     *
+     * @param url See {@link #url}.
+     * @param initializationSegment See {@link #initializationSegment}.
+     * @param title See {@link #title}.
+     * @param durationUs See {@link #durationUs}.
+     * @param relativeDiscontinuitySequence See {@link #relativeDiscontinuitySequence}.
+     * @param relativeStartTimeUs See {@link #relativeStartTimeUs}.
+     * @param drmInitData See {@link #drmInitData}.
+     * @param fullSegmentEncryptionKeyUri See {@link #fullSegmentEncryptionKeyUri}.
+     * @param encryptionIV See {@link #encryptionIV}.
+     * @param byterangeOffset See {@link #byterangeOffset}.
+     * @param byterangeLength See {@link #byterangeLength}.
+     * @param hasGapTag See {@link #hasGapTag}.
+     */
+    public Segment(
+        String url,
+        @Nullable Segment initializationSegment,
+        String title,
+        long durationUs,
+        int relativeDiscontinuitySequence,
+        long relativeStartTimeUs,
+        @Nullable DrmInitData drmInitData,
+        @Nullable String fullSegmentEncryptionKeyUri,
+        @Nullable String encryptionIV,
+        long byterangeOffset,
+        long byterangeLength,
+        boolean hasGapTag) {
+      this(
+          url,
+          initializationSegment,
+          title,
+          durationUs,
+          relativeDiscontinuitySequence,
+          relativeStartTimeUs,
+          drmInitData,
+          fullSegmentEncryptionKeyUri,
+          encryptionIV,
+          /* hasExplicitEncryptionIV= */ encryptionIV != null,
+          byterangeOffset,
+          byterangeLength,
+          hasGapTag,
+          /* parts= */ Collections.emptyList());
+    }
+
     /**
      * @param url See {@link #url}.
      * @param initializationSegment See {@link #initializationSegment}.
@@ -121,9 +130,11 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
      * @param drmInitData See {@link #drmInitData}.
      * @param fullSegmentEncryptionKeyUri See {@link #fullSegmentEncryptionKeyUri}.
      * @param encryptionIV See {@link #encryptionIV}.
+     * @param hasExplicitEncryptionIV See {@link #hasExplicitEncryptionIV}.
      * @param byterangeOffset See {@link #byterangeOffset}.
      * @param byterangeLength See {@link #byterangeLength}.
      * @param hasGapTag See {@link #hasGapTag}.
+     * @param parts See {@link #parts}.
      */
     public Segment(
         String url,
@@ -135,12 +146,217 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
         @Nullable DrmInitData drmInitData,
         @Nullable String fullSegmentEncryptionKeyUri,
         @Nullable String encryptionIV,
+        boolean hasExplicitEncryptionIV,
+        long byterangeOffset,
+        long byterangeLength,
+        boolean hasGapTag,
+        List<Part> parts) {
+      super(
+          url,
+          initializationSegment,
+          durationUs,
+          relativeDiscontinuitySequence,
+          relativeStartTimeUs,
+          drmInitData,
+          fullSegmentEncryptionKeyUri,
+          encryptionIV,
+          byterangeOffset,
+          byterangeLength,
+          hasGapTag);
+      this.title = title;
+      this.hasExplicitEncryptionIV = hasExplicitEncryptionIV;
+      this.parts = Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Returns a segment identical to this one except for its position in the playlist.
+     *
+     * @param relativeStartTimeUs See {@link #relativeStartTimeUs}.
+     * @param relativeDiscontinuitySequence See {@link #relativeDiscontinuitySequence}.
+     * @return A segment with the given position, or this segment if its position is unchanged.
+     */
+    public Segment copyWith(long relativeStartTimeUs, int relativeDiscontinuitySequence) {
+      if (relativeStartTimeUs == this.relativeStartTimeUs
+          && relativeDiscontinuitySequence == this.relativeDiscontinuitySequence) {
+        return this;
+      }
+      List<Part> updatedParts = new ArrayList<>(parts.size());
+      for (int i = 0; i < parts.size(); i++) {
+        Part part = parts.get(i);
+        updatedParts.add(
+            part.copyWith(
+                relativeStartTimeUs + part.relativeStartTimeUs - this.relativeStartTimeUs,
+                relativeDiscontinuitySequence));
+      }
+      return new Segment(
+          url,
+          initializationSegment,
+          title,
+          durationUs,
+          relativeDiscontinuitySequence,
+          relativeStartTimeUs,
+          drmInitData,
+          fullSegmentEncryptionKeyUri,
+          encryptionIV,
+          hasExplicitEncryptionIV,
+          byterangeOffset,
+          byterangeLength,
+          hasGapTag,
+          updatedParts);
+    }
+  }
+
+  /** A partial segment, as defined by #EXT-X-PART or by a #EXT-X-PRELOAD-HINT of type PART. */
+  public static final class Part extends SegmentBase {
+
+    /** Whether the part contains an independent frame, as defined by #EXT-X-PART. */
+    public final boolean isIndependent;
+    /**
+     * Whether the part is a preload hint, as defined by #EXT-X-PRELOAD-HINT. A preload hint is not
+     * yet available and its duration is unknown. Requesting it blocks until it's available.
+     */
+    public final boolean isPreload;
+
+    /**
+     * @param url See {@link #url}.
+     * @param initializationSegment See {@link #initializationSegment}.
+     * @param durationUs See {@link #durationUs}.
+     * @param relativeDiscontinuitySequence See {@link #relativeDiscontinuitySequence}.
+     * @param relativeStartTimeUs See {@link #relativeStartTimeUs}.
+     * @param drmInitData See {@link #drmInitData}.
+     * @param fullSegmentEncryptionKeyUri See {@link #fullSegmentEncryptionKeyUri}.
+     * @param encryptionIV See {@link #encryptionIV}.
+     * @param byterangeOffset See {@link #byterangeOffset}.
+     * @param byterangeLength See {@link #byterangeLength}.
+     * @param hasGapTag See {@link #hasGapTag}.
+     * @param isIndependent See {@link #isIndependent}.
+     * @param isPreload See {@link #isPreload}.
+     */
+    public Part(
+        String url,
+        @Nullable Segment initializationSegment,
+        long durationUs,
+        int relativeDiscontinuitySequence,
+        long relativeStartTimeUs,
+        @Nullable DrmInitData drmInitData,
+        @Nullable String fullSegmentEncryptionKeyUri,
+        @Nullable String encryptionIV,
+        long byterangeOffset,
+        long byterangeLength,
+        boolean hasGapTag,
+        boolean isIndependent,
+        boolean isPreload) {
+      super(
+          url,
+          initializationSegment,
+          durationUs,
+          relativeDiscontinuitySequence,
+          relativeStartTimeUs,
+          drmInitData,
+          fullSegmentEncryptionKeyUri,
+          encryptionIV,
+          byterangeOffset,
+          byterangeLength,
+          hasGapTag);
+      this.isIndependent = isIndependent;
+      this.isPreload = isPreload;
+    }
+
+    /**
+     * Returns a part identical to this one except for its position in the playlist.
+     *
+     * @param relativeStartTimeUs See {@link #relativeStartTimeUs}.
+     * @param relativeDiscontinuitySequence See {@link #relativeDiscontinuitySequence}.
+     * @return A part with the given position, or this part if its position is unchanged.
+     */
+    public Part copyWith(long relativeStartTimeUs, int relativeDiscontinuitySequence) {
+      if (relativeStartTimeUs == this.relativeStartTimeUs
+          && relativeDiscontinuitySequence == this.relativeDiscontinuitySequence) {
+        return this;
+      }
+      return new Part(
+          url,
+          initializationSegment,
+          durationUs,
+          relativeDiscontinuitySequence,
+          relativeStartTimeUs,
+          drmInitData,
+          fullSegmentEncryptionKeyUri,
+          encryptionIV,
+          byterangeOffset,
+          byterangeLength,
+          hasGapTag,
+          isIndependent,
+          isPreload);
+    }
+  }
+
+  /** The properties shared by a {@link Segment} and a {@link Part}. */
+  @SuppressWarnings("ComparableType")
+  public static class SegmentBase implements Comparable<Long> {
+
+    /**
+     * The url of the segment.
+     */
+    public final String url;
+    /**
+     * The media initialization section for this segment, as defined by #EXT-X-MAP. May be null if
+     * the media playlist does not define a media section for this segment. The same instance is
+     * used for all segments that share an EXT-X-MAP tag.
+     */
+    @Nullable public final Segment initializationSegment;
+    /** The duration of the segment in microseconds, as defined by #EXTINF or #EXT-X-PART. */
+    public final long durationUs;
+    /**
+     * The number of #EXT-X-DISCONTINUITY tags in the playlist before the segment.
+     */
+    public final int relativeDiscontinuitySequence;
+    /**
+     * The start time of the segment in microseconds, relative to the start of the playlist.
+     */
+    public final long relativeStartTimeUs;
+    /**
+     * DRM initialization data for sample decryption, or null if the segment does not use CDM-DRM
+     * protection.
+     */
+    @Nullable public final DrmInitData drmInitData;
+    /**
+     * The encryption identity key uri as defined by #EXT-X-KEY, or null if the segment does not use
+     * full segment encryption with identity key.
+     */
+    @Nullable public final String fullSegmentEncryptionKeyUri;
+    /**
+     * The encryption initialization vector as defined by #EXT-X-KEY, or null if the segment is not
+     * encrypted.
+     */
+    @Nullable public final String encryptionIV;
+    /**
+     * The segment's byte range offset, as defined by #EXT-X-BYTERANGE.
+     */
+    public final long byterangeOffset;
+    /**
+     * The segment's byte range length, as defined by #EXT-X-BYTERANGE, or {@link C#LENGTH_UNSET} if
+     * no byte range is specified.
+     */
+    public final long byterangeLength;
+
+    /** Whether the segment is tagged with #EXT-X-GAP. */
+    public final boolean hasGapTag;
+
+    private SegmentBase(
+        String url,
+        @Nullable Segment initializationSegment,
+        long durationUs,
+        int relativeDiscontinuitySequence,
+        long relativeStartTimeUs,
+        @Nullable DrmInitData drmInitData,
+        @Nullable String fullSegmentEncryptionKeyUri,
+        @Nullable String encryptionIV,
         long byterangeOffset,
         long byterangeLength,
         boolean hasGapTag) {
       this.url = url;
       this.initializationSegment = initializationSegment;
-      this.title = title;
       this.durationUs = durationUs;
       this.relativeDiscontinuitySequence = relativeDiscontinuitySequence;
       this.relativeStartTimeUs = relativeStartTimeUs;
@@ -160,6 +376,55 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
 
   }
 
+  /** Server control attributes, as defined by #EXT-X-SERVER-CONTROL. */
+  public static final class ServerControl {
+
+    /** The attributes of a playlist without a #EXT-X-SERVER-CONTROL tag. */
+    public static final ServerControl DEFAULT =
+        new ServerControl(
+            /* skipUntilUs= */ C.TIME_UNSET,
+            /* holdBackUs= */ C.TIME_UNSET,
+            /* partHoldBackUs= */ C.TIME_UNSET,
+            /* canBlockReload= */ false);
+
+    /**
+     * The skip boundary for delta updates in microseconds, or {@link C#TIME_UNSET} if delta updates
+     * are not supported. Segments that start earlier than this distance from the end of the
+     * playlist may be skipped by a delta update requested with the {@code _HLS_skip} query
+     * parameter.
+     */
+    public final long skipUntilUs;
+    /**
+     * The minimum distance from the end of the playlist at which playback should start, in
+     * microseconds, or {@link C#TIME_UNSET} if not specified.
+     */
+    public final long holdBackUs;
+    /**
+     * The minimum distance from the end of the playlist at which playback should start when playing
+     * in low-latency mode, in microseconds, or {@link C#TIME_UNSET} if not specified.
+     */
+    public final long partHoldBackUs;
+    /**
+     * Whether the server supports blocking playlist reload using the {@code _HLS_msn} and {@code
+     * _HLS_part} query parameters.
+     */
+    public final boolean canBlockReload;
+
+    /**
+     * @param skipUntilUs See {@link #skipUntilUs}.
+     * @param holdBackUs See {@link #holdBackUs}.
+     * @param partHoldBackUs See {@link #partHoldBackUs}.
+     * @param canBlockReload See {@link #canBlockReload}.
+     */
+    public ServerControl(
+        long skipUntilUs, long holdBackUs, long partHoldBackUs, boolean canBlockReload) {
+      this.skipUntilUs = skipUntilUs;
+      this.holdBackUs = holdBackUs;
+      this.partHoldBackUs = partHoldBackUs;
+      this.canBlockReload = canBlockReload;
+    }
+  }
+
   /**
    * Type of the playlist, as defined by #EXT-X-PLAYLIST-TYPE. One of {@link
    * #PLAYLIST_TYPE_UNKNOWN}, {@link #PLAYLIST_TYPE_VOD} or {@link #PLAYLIST_TYPE_EVENT}.
@@ -226,6 +491,18 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
    * The list of segments in the playlist.
    */
   public final List<Segment> segments;
+  /**
+   * The parts at the end of the playlist that don't belong to a complete segment yet, as defined by
+   * #EXT-X-PART. The last part may be a {@link Part#isPreload preload hint}.
+   */
+  public final List<Part> trailingParts;
+  /**
+   * The part target duration in microseconds, as defined by #EXT-X-PART-INF, or {@link
+   * C#TIME_UNSET} if the playlist doesn't contain parts.
+   */
+  public final long partTargetDurationUs;
+  /** The server control attributes, as defined by #EXT-X-SERVER-CONTROL. */
+  public final ServerControl serverControl;
   /**
    * The total duration of the playlist in microseconds.
    */
@@ -264,6 +541,66 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
       boolean hasProgramDateTime,
       @Nullable DrmInitData protectionSchemes,
       List<Segment> segments) {
+    this(
+        playlistType,
+        baseUri,
+        tags,
+        startOffsetUs,
+        startTimeUs,
+        hasDiscontinuitySequence,
+        discontinuitySequence,
+        mediaSequence,
+        version,
+        targetDurationUs,
+        /* partTargetDurationUs= */ C.TIME_UNSET,
+        hasIndependentSegments,
+        hasEndTag,
+        hasProgramDateTime,
+        protectionSchemes,
+        segments,
+        /* trailingParts= */ Collections.emptyList(),
+        ServerControl.DEFAULT);
+  }
+
+  /**
+   * @param playlistType See {@link #playlistType}.
+   * @param baseUri See {@link #baseUri}.
+   * @param tags See {@link #tags}.
+   * @param startOffsetUs See {@link #startOffsetUs}.
+   * @param startTimeUs See {@link #startTimeUs}.
+   * @param hasDiscontinuitySequence See {@link #hasDiscontinuitySequence}.
+   * @param discontinuitySequence See {@link #discontinuitySequence}.
+   * @param mediaSequence See {@link #mediaSequence}.
+   * @param version See {@link #version}.
+   * @param targetDurationUs See {@link #targetDurationUs}.
+   * @param partTargetDurationUs See {@link #partTargetDurationUs}.
+   * @param hasIndependentSegments See {@link #hasIndependentSegments}.
+   * @param hasEndTag See {@link #hasEndTag}.
+   * @param protectionSchemes See {@link #protectionSchemes}.
+   * @param hasProgramDateTime See {@link #hasProgramDateTime}.
+   * @param segments See {@link #segments}.
+   * @param trailingParts See {@link #trailingParts}.
+   * @param serverControl See {@link #serverControl}.
+   */
+  public HlsMediaPlaylist(
+      @PlaylistType int playlistType,
+      String baseUri,
+      List<String> tags,
+      long startOffsetUs,
+      long startTimeUs,
+      boolean hasDiscontinuitySequence,
+      int discontinuitySequence,
+      long mediaSequence,
+      int version,
+      long targetDurationUs,
+      long partTargetDurationUs,
+      boolean hasIndependentSegments,
+      boolean hasEndTag,
+      boolean hasProgramDateTime,
+      @Nullable DrmInitData protectionSchemes,
+      List<Segment> segments,
+      List<Part> trailingParts,
+      ServerControl serverControl) {
     super(baseUri, tags, hasIndependentSegments);
     this.playlistType = playlistType;
     this.startTimeUs = startTimeUs;
@@ -276,6 +613,9 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
     this.hasProgramDateTime = hasProgramDateTime;
     this.protectionSchemes = protectionSchemes;
     this.segments = Collections.unmodifiableList(segments);
+    this.trailingParts = Collections.unmodifiableList(trailingParts);
+    this.partTargetDurationUs = partTargetDurationUs;
+    this.serverControl = serverControl;
     if (!segments.isEmpty()) {
       Segment last = segments.get(segments.size() - 1);
       durationUs = last.relativeStartTimeUs + last.durationUs;
@@ -307,8 +647,22 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
     // The media sequences are equal.
     int segmentCount = segments.size();
     int otherSegmentCount = other.segments.size();
-    return segmentCount > otherSegmentCount
-        || (segmentCount == otherSegmentCount && hasEndTag && !other.hasEndTag);
+    if (segmentCount != otherSegmentCount) {
+      return segmentCount > otherSegmentCount;
+    }
+    int partCount = getPublishedTrailingPartCount();
+    int otherPartCount = other.getPublishedTrailingPartCount();
+    return partCount > otherPartCount
+        || (partCount == otherPartCount && hasEndTag && !other.hasEndTag);
+  }
+
+  /**
+   * Returns the number of {@link #trailingParts} that are published, which excludes a trailing
+   * {@link Part#isPreload preload hint}.
+   */
+  public int getPublishedTrailingPartCount() {
+    int partCount = trailingParts.size();
+    return partCount > 0 && trailingParts.get(partCount - 1).isPreload ? partCount - 1 : partCount;
   }
 
   /**
@@ -339,11 +693,14 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
         mediaSequence,
         version,
         targetDurationUs,
+        partTargetDurationUs,
         hasIndependentSegments,
         hasEndTag,
         hasProgramDateTime,
         protectionSchemes,
-        segments);
+        segments,
+        trailingParts,
+        serverControl);
   }
 
   /**
@@ -365,11 +722,14 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
         mediaSequence,
         version,
         targetDurationUs,
+        partTargetDurationUs,
         hasIndependentSegments,
         /* hasEndTag= */ true,
         hasProgramDateTime,
         protectionSchemes,
-        segments);
+        segments,
+        trailingParts,
+        serverControl);
   }
 
 }
@@ -31,7 +31,9 @@ import com.google.android.exoplayer2.source.hls.HlsTrackMetadataEntry;
 import com.google.android.exoplayer2.source.hls.HlsTrackMetadataEntry.VariantInfo;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.Rendition;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.Variant;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Part;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.ServerControl;
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.MimeTypes;
@@ -43,6 +45,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -50,8 +53,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.checkerframework.checker.nullness.qual.PolyNull;
 
 /**
@@ -59,6 +60,35 @@ import org.checkerframework.checker.nullness.qual.PolyNull;
  */
 public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlaylist> {
 
+  /**
+   * Thrown when a delta update (a playlist with a #EXT-X-SKIP tag) skips segments that are not
+   * available in the previous snapshot of the media playlist. The playlist needs to be loaded again
+   * without requesting a delta update.
+   */
+  public static final class DeltaUpdateException extends ParserException {
+
+    /**
+     * Whether the delta update was parsed without a previous snapshot of the media playlist, which
+     * means that the parser can't merge delta updates.
+     */
+    public final boolean isPreviousMediaPlaylistMissing;
+
+    /** @param message The detail message for the exception. */
+    public DeltaUpdateException(String message) {
+      this(message, /* isPreviousMediaPlaylistMissing= */ false);
+    }
+
+    /**
+     * @param message The detail message for the exception.
+     * @param isPreviousMediaPlaylistMissing Whether the delta update was parsed without a previous
+     *     snapshot of the media playlist.
+     */
+    public DeltaUpdateException(String message, boolean isPreviousMediaPlaylistMissing) {
+      super(message);
+      this.isPreviousMediaPlaylistMissing = isPreviousMediaPlaylistMissing;
+    }
+  }
+
   private static final String PLAYLIST_HEADER = "#EXTM3U";
 
   private static final String TAG_PREFIX = "#EXT";
@@ -82,11 +112,17 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static final String TAG_SESSION_KEY = "#EXT-X-SESSION-KEY";
   private static final String TAG_BYTERANGE = "#EXT-X-BYTERANGE";
   private static final String TAG_GAP = "#EXT-X-GAP";
+  private static final String TAG_SERVER_CONTROL = "#EXT-X-SERVER-CONTROL";
+  private static final String TAG_PART_INF = "#EXT-X-PART-INF";
+  private static final String TAG_PART = "#EXT-X-PART";
+  private static final String TAG_PRELOAD_HINT = "#EXT-X-PRELOAD-HINT";
+  private static final String TAG_SKIP = "#EXT-X-SKIP";
 
   private static final String TYPE_AUDIO = "AUDIO";
   private static final String TYPE_VIDEO = "VIDEO";
   private static final String TYPE_SUBTITLES = "SUBTITLES";
   private static final String TYPE_CLOSED_CAPTIONS = "CLOSED-CAPTIONS";
+  private static final String TYPE_PART = "PART";
 
   private static final String METHOD_NONE = "NONE";
   private static final String METHOD_AES_128 = "AES-128";
@@ -101,73 +137,54 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static final String KEYFORMAT_WIDEVINE_PSSH_JSON = "com.widevine";
 
   private static final String BOOLEAN_TRUE = "YES";
-  private static final String BOOLEAN_FALSE = "NO";
-
-  private static final String ATTR_CLOSED_CAPTIONS_NONE = "CLOSED-CAPTIONS=NONE";
-
-  private static final Pattern REGEX_AVERAGE_BANDWIDTH =
-      Pattern.compile("AVERAGE-BANDWIDTH=(\\d+)\\b");
-  private static final Pattern REGEX_VIDEO = Pattern.compile("VIDEO=\"(.+?)\"");
-  private static final Pattern REGEX_AUDIO = Pattern.compile("AUDIO=\"(.+?)\"");
-  private static final Pattern REGEX_SUBTITLES = Pattern.compile("SUBTITLES=\"(.+?)\"");
-  private static final Pattern REGEX_CLOSED_CAPTIONS = Pattern.compile("CLOSED-CAPTIONS=\"(.+?)\"");
-  private static final Pattern REGEX_BANDWIDTH = Pattern.compile("[^-]BANDWIDTH=(\\d+)\\b");
-  private static final Pattern REGEX_CHANNELS = Pattern.compile("CHANNELS=\"(.+?)\"");
-  private static final Pattern REGEX_CODECS = Pattern.compile("CODECS=\"(.+?)\"");
-  private static final Pattern REGEX_RESOLUTION = Pattern.compile("RESOLUTION=(\\d+x\\d+)");
-  private static final Pattern REGEX_FRAME_RATE = Pattern.compile("FRAME-RATE=([\\d\\.]+)\\b");
-  private static final Pattern REGEX_TARGET_DURATION = Pattern.compile(TAG_TARGET_DURATION
-      + ":(\\d+)\\b");
-  private static final Pattern REGEX_VERSION = Pattern.compile(TAG_VERSION + ":(\\d+)\\b");
-  private static final Pattern REGEX_PLAYLIST_TYPE = Pattern.compile(TAG_PLAYLIST_TYPE
-      + ":(.+)\\b");
-  private static final Pattern REGEX_MEDIA_SEQUENCE = Pattern.compile(TAG_MEDIA_SEQUENCE
-      + ":(\\d+)\\b");
-  private static final Pattern REGEX_MEDIA_DURATION = Pattern.compile(TAG_MEDIA_DURATION
-      + ":([\\d\\.]+)\\b");
-  private static final Pattern REGEX_MEDIA_TITLE =
-      Pattern.compile(TAG_MEDIA_DURATION + ":[\\d\\.]+\\b,(.+)");
-  private static final Pattern REGEX_TIME_OFFSET = Pattern.compile("TIME-OFFSET=(-?[\\d\\.]+)\\b");
-  private static final Pattern REGEX_BYTERANGE = Pattern.compile(TAG_BYTERANGE
-      + ":(\\d+(?:@\\d+)?)\\b");
-  private static final Pattern REGEX_ATTR_BYTERANGE =
-      Pattern.compile("BYTERANGE=\"(\\d+(?:@\\d+)?)\\b\"");
-  private static final Pattern REGEX_METHOD =
-      Pattern.compile(
-          "METHOD=("
-              + METHOD_NONE
-              + "|"
-              + METHOD_AES_128
-              + "|"
-              + METHOD_SAMPLE_AES
-              + "|"
-              + METHOD_SAMPLE_AES_CENC
-              + "|"
-              + METHOD_SAMPLE_AES_CTR
-              + ")"
-              + "\\s*(?:,|$)");
-  private static final Pattern REGEX_KEYFORMAT = Pattern.compile("KEYFORMAT=\"(.+?)\"");
-  private static final Pattern REGEX_KEYFORMATVERSIONS =
-      Pattern.compile("KEYFORMATVERSIONS=\"(.+?)\"");
-  private static final Pattern REGEX_URI = Pattern.compile("URI=\"(.+?)\"");
-  private static final Pattern REGEX_IV = Pattern.compile("IV=([^,.*]+)");
-  private static final Pattern REGEX_TYPE = Pattern.compile("TYPE=(" + TYPE_AUDIO + "|" + TYPE_VIDEO
-      + "|" + TYPE_SUBTITLES + "|" + TYPE_CLOSED_CAPTIONS + ")");
-  private static final Pattern REGEX_LANGUAGE = Pattern.compile("LANGUAGE=\"(.+?)\"");
-  private static final Pattern REGEX_NAME = Pattern.compile("NAME=\"(.+?)\"");
-  private static final Pattern REGEX_GROUP_ID = Pattern.compile("GROUP-ID=\"(.+?)\"");
-  private static final Pattern REGEX_CHARACTERISTICS = Pattern.compile("CHARACTERISTICS=\"(.+?)\"");
-  private static final Pattern REGEX_INSTREAM_ID =
-      Pattern.compile("INSTREAM-ID=\"((?:CC|SERVICE)\\d+)\"");
-  private static final Pattern REGEX_AUTOSELECT = compileBooleanAttrPattern("AUTOSELECT");
-  private static final Pattern REGEX_DEFAULT = compileBooleanAttrPattern("DEFAULT");
-  private static final Pattern REGEX_FORCED = compileBooleanAttrPattern("FORCED");
-  private static final Pattern REGEX_VALUE = Pattern.compile("VALUE=\"(.+?)\"");
-  private static final Pattern REGEX_IMPORT = Pattern.compile("IMPORT=\"(.+?)\"");
-  private static final Pattern REGEX_VARIABLE_REFERENCE =
-      Pattern.compile("\\{\\$([a-zA-Z0-9\\-_]+)\\}");
+
+  private static final String ATTR_AVERAGE_BANDWIDTH = "AVERAGE-BANDWIDTH";
+  private static final String ATTR_VIDEO = "VIDEO";
+  private static final String ATTR_AUDIO = "AUDIO";
+  private static final String ATTR_SUBTITLES = "SUBTITLES";
+  private static final String ATTR_CLOSED_CAPTIONS = "CLOSED-CAPTIONS";
+  private static final String ATTR_BANDWIDTH = "BANDWIDTH";
+  private static final String ATTR_CHANNELS = "CHANNELS";
+  private static final String ATTR_CODECS = "CODECS";
+  private static final String ATTR_RESOLUTION = "RESOLUTION";
+  private static final String ATTR_FRAME_RATE = "FRAME-RATE";
+  private static final String ATTR_TIME_OFFSET = "TIME-OFFSET";
+  private static final String ATTR_BYTERANGE = "BYTERANGE";
+  private static final String ATTR_METHOD = "METHOD";
+  private static final String ATTR_KEYFORMAT = "KEYFORMAT";
+  private static final String ATTR_KEYFORMATVERSIONS = "KEYFORMATVERSIONS";
+  private static final String ATTR_URI = "URI";
+  private static final String ATTR_IV = "IV";
+  private static final String ATTR_TYPE = "TYPE";
+  private static final String ATTR_LANGUAGE = "LANGUAGE";
+  private static final String ATTR_NAME = "NAME";
+  private static final String ATTR_GROUP_ID = "GROUP-ID";
+  private static final String ATTR_CHARACTERISTICS = "CHARACTERISTICS";
+  private static final String ATTR_INSTREAM_ID = "INSTREAM-ID";
+  private static final String ATTR_AUTOSELECT = "AUTOSELECT";
+  private static final String ATTR_DEFAULT = "DEFAULT";
+  private static final String ATTR_FORCED = "FORCED";
+  private static final String ATTR_VALUE = "VALUE";
+  private static final String ATTR_IMPORT = "IMPORT";
+  private static final String ATTR_CAN_BLOCK_RELOAD = "CAN-BLOCK-RELOAD";
+  private static final String ATTR_CAN_SKIP_UNTIL = "CAN-SKIP-UNTIL";
+  private static final String ATTR_SKIPPED_SEGMENTS = "SKIPPED-SEGMENTS";
+  private static final String ATTR_HOLD_BACK = "HOLD-BACK";
+  private static final String ATTR_PART_HOLD_BACK = "PART-HOLD-BACK";
+  private static final String ATTR_PART_TARGET = "PART-TARGET";
+  private static final String ATTR_DURATION = "DURATION";
+  private static final String ATTR_INDEPENDENT = "INDEPENDENT";
+  private static final String ATTR_GAP = "GAP";
+  private static final String ATTR_BYTERANGE_START = "BYTERANGE-START";
+  private static final String ATTR_BYTERANGE_LENGTH = "BYTERANGE-LENGTH";
+
+  private static final String CLOSED_CAPTIONS_NONE = "NONE";
+
+  private static final String VARIABLE_REFERENCE_PREFIX = "{$";
+  private static final char VARIABLE_REFERENCE_SUFFIX = '}';
 
   private final HlsMasterPlaylist masterPlaylist;
+  @Nullable private final HlsMediaPlaylist previousMediaPlaylist;
 
   /**
    * Creates an instance where media playlists are parsed without inheriting attributes from a
@@ -184,7 +201,30 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
    * @param masterPlaylist The master playlist from which media playlists will inherit attributes.
    */
   public HlsPlaylistParser(HlsMasterPlaylist masterPlaylist) {
+    this(masterPlaylist, /* previousMediaPlaylist= */ null);
+  }
+
+  /**
+   * Creates an instance where parsed media playlists inherit attributes from the given master
+   * playlist, and reuse the segments of a previously loaded snapshot of the same media playlist.
+   *
+   * <p>Segments whose media sequence number is covered by {@code previousMediaPlaylist} and whose
+   * URI and tags are unchanged share the previous {@link Segment} instances, or copies of them if
+   * their position in the playlist changed, instead of allocating new ones. Every line of the
+   * playlist is still read and parsed, so parsing time remains linear in the playlist length.
+   *
+   * <p>The segments skipped by a delta update, as defined by #EXT-X-SKIP, are taken from {@code
+   * previousMediaPlaylist}. Parsing fails with a {@link DeltaUpdateException} if they are not
+   * available. The tags of skipped segments are not included in the parsed playlist's {@link
+   * HlsPlaylist#tags}.
+   *
+   * @param masterPlaylist The master playlist from which media playlists will inherit attributes.
+   * @param previousMediaPlaylist The previous snapshot of the media playlist being parsed, or null.
+   */
+  public HlsPlaylistParser(
+      HlsMasterPlaylist masterPlaylist, @Nullable HlsMediaPlaylist previousMediaPlaylist) {
     this.masterPlaylist = masterPlaylist;
+    this.previousMediaPlaylist = previousMediaPlaylist;
   }
 
   @Override
@@ -214,7 +254,10 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             || line.equals(TAG_ENDLIST)) {
           extraLines.add(line);
           return parseMediaPlaylist(
-              masterPlaylist, new LineIterator(extraLines, reader), uri.toString());
+              masterPlaylist,
+              previousMediaPlaylist,
+              new LineIterator(extraLines, reader),
+              uri.toString());
         } else {
           extraLines.add(line);
         }
@@ -270,6 +313,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     List<Format> muxedCaptionFormats = null;
     boolean noClosedCaptions = false;
     boolean hasIndependentSegmentsTag = false;
+    AttributeListTokenizer attributes = new AttributeListTokenizer();
 
     String line;
     while (iterator.hasNext()) {
@@ -281,9 +325,10 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       }
 
       if (line.startsWith(TAG_DEFINE)) {
+        attributes.reset(line);
         variableDefinitions.put(
-            /* key= */ parseStringAttr(line, REGEX_NAME, variableDefinitions),
-            /* value= */ parseStringAttr(line, REGEX_VALUE, variableDefinitions));
+            /* key= */ parseStringAttr(attributes, ATTR_NAME, variableDefinitions),
+            /* value= */ parseStringAttr(attributes, ATTR_VALUE, variableDefinitions));
       } else if (line.equals(TAG_INDEPENDENT_SEGMENTS)) {
         hasIndependentSegmentsTag = true;
       } else if (line.startsWith(TAG_MEDIA)) {
@@ -291,32 +336,36 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         // tags.
         mediaTags.add(line);
       } else if (line.startsWith(TAG_SESSION_KEY)) {
+        attributes.reset(line);
         String keyFormat =
-            parseOptionalStringAttr(line, REGEX_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
-        SchemeData schemeData = parseDrmSchemeData(line, keyFormat, variableDefinitions);
+            parseOptionalStringAttr(
+                attributes, ATTR_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
+        SchemeData schemeData =
+            parseDrmSchemeData(line, attributes, keyFormat, variableDefinitions);
         if (schemeData != null) {
-          String method = parseStringAttr(line, REGEX_METHOD, variableDefinitions);
+          String method = parseMethodAttr(attributes, variableDefinitions);
           String scheme = parseEncryptionScheme(method);
           sessionKeyDrmInitData.add(new DrmInitData(scheme, schemeData));
         }
       } else if (line.startsWith(TAG_STREAM_INF)) {
-        noClosedCaptions |= line.contains(ATTR_CLOSED_CAPTIONS_NONE);
-        int bitrate = parseIntAttr(line, REGEX_BANDWIDTH);
+        attributes.reset(line);
+        int bitrate = parseIntAttr(attributes, ATTR_BANDWIDTH);
         String averageBandwidthString =
-            parseOptionalStringAttr(line, REGEX_AVERAGE_BANDWIDTH, variableDefinitions);
+            parseOptionalStringAttr(attributes, ATTR_AVERAGE_BANDWIDTH, variableDefinitions);
         if (averageBandwidthString != null) {
           // If available, the average bandwidth attribute is used as the variant's bitrate.
-          bitrate = Integer.parseInt(averageBandwidthString);
+          bitrate = parseInt(parseLeadingNumber(averageBandwidthString), line);
         }
-        String codecs = parseOptionalStringAttr(line, REGEX_CODECS, variableDefinitions);
+        String codecs = parseOptionalStringAttr(attributes, ATTR_CODECS, variableDefinitions);
         String resolutionString =
-            parseOptionalStringAttr(line, REGEX_RESOLUTION, variableDefinitions);
+            parseOptionalStringAttr(attributes, ATTR_RESOLUTION, variableDefinitions);
+        int resolutionSeparatorIndex =
+            resolutionString != null ? resolutionString.indexOf('x') : C.INDEX_UNSET;
         int width;
         int height;
-        if (resolutionString != null) {
-          String[] widthAndHeight = resolutionString.split("x");
-          width = Integer.parseInt(widthAndHeight[0]);
-          height = Integer.parseInt(widthAndHeight[1]);
+        if (resolutionSeparatorIndex != C.INDEX_UNSET) {
+          width = parseInt(resolutionString.substring(0, resolutionSeparatorIndex), line);
+          height = parseInt(resolutionString.substring(resolutionSeparatorIndex + 1), line);
           if (width <= 0 || height <= 0) {
             // Resolution string is invalid.
             width = Format.NO_VALUE;
@@ -328,16 +377,22 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         }
         float frameRate = Format.NO_VALUE;
         String frameRateString =
-            parseOptionalStringAttr(line, REGEX_FRAME_RATE, variableDefinitions);
+            parseOptionalStringAttr(attributes, ATTR_FRAME_RATE, variableDefinitions);
         if (frameRateString != null) {
-          frameRate = Float.parseFloat(frameRateString);
+          frameRate = Float.parseFloat(parseLeadingNumber(frameRateString));
         }
-        String videoGroupId = parseOptionalStringAttr(line, REGEX_VIDEO, variableDefinitions);
-        String audioGroupId = parseOptionalStringAttr(line, REGEX_AUDIO, variableDefinitions);
+        String videoGroupId = parseOptionalStringAttr(attributes, ATTR_VIDEO, variableDefinitions);
+        String audioGroupId = parseOptionalStringAttr(attributes, ATTR_AUDIO, variableDefinitions);
         String subtitlesGroupId =
-            parseOptionalStringAttr(line, REGEX_SUBTITLES, variableDefinitions);
-        String closedCaptionsGroupId =
-            parseOptionalStringAttr(line, REGEX_CLOSED_CAPTIONS, variableDefinitions);
+            parseOptionalStringAttr(attributes, ATTR_SUBTITLES, variableDefinitions);
+        String closedCaptionsGroupId = null;
+        if (attributes.isQuoted(ATTR_CLOSED_CAPTIONS)) {
+          closedCaptionsGroupId =
+              parseOptionalStringAttr(attributes, ATTR_CLOSED_CAPTIONS, variableDefinitions);
+        } else {
+          noClosedCaptions |=
+              CLOSED_CAPTIONS_NONE.equals(attributes.getValue(ATTR_CLOSED_CAPTIONS));
+        }
         line =
             replaceVariableReferences(
                 iterator.next(), variableDefinitions); // #EXT-X-STREAM-INF's URI.
@@ -389,19 +444,19 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     }
 
     for (int i = 0; i < mediaTags.size(); i++) {
-      line = mediaTags.get(i);
-      String groupId = parseStringAttr(line, REGEX_GROUP_ID, variableDefinitions);
-      String name = parseStringAttr(line, REGEX_NAME, variableDefinitions);
-      String referenceUri = parseOptionalStringAttr(line, REGEX_URI, variableDefinitions);
+      attributes.reset(mediaTags.get(i));
+      String groupId = parseStringAttr(attributes, ATTR_GROUP_ID, variableDefinitions);
+      String name = parseStringAttr(attributes, ATTR_NAME, variableDefinitions);
+      String referenceUri = parseOptionalStringAttr(attributes, ATTR_URI, variableDefinitions);
       Uri uri = referenceUri == null ? null : UriUtil.resolveToUri(baseUri, referenceUri);
-      String language = parseOptionalStringAttr(line, REGEX_LANGUAGE, variableDefinitions);
-      @C.SelectionFlags int selectionFlags = parseSelectionFlags(line);
-      @C.RoleFlags int roleFlags = parseRoleFlags(line, variableDefinitions);
+      String language = parseOptionalStringAttr(attributes, ATTR_LANGUAGE, variableDefinitions);
+      @C.SelectionFlags int selectionFlags = parseSelectionFlags(attributes);
+      @C.RoleFlags int roleFlags = parseRoleFlags(attributes, variableDefinitions);
       String formatId = groupId + ":" + name;
       Format format;
       Metadata metadata =
           new Metadata(new HlsTrackMetadataEntry(groupId, name, Collections.emptyList()));
-      switch (parseStringAttr(line, REGEX_TYPE, variableDefinitions)) {
+      switch (parseStringAttr(attributes, ATTR_TYPE, variableDefinitions)) {
         case TYPE_VIDEO:
           Variant variant = getVariantWithVideoGroup(variants, groupId);
           String codecs = null;
@@ -445,7 +500,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
                   ? Util.getCodecsOfType(variant.format.codecs, C.TRACK_TYPE_AUDIO)
                   : null;
           sampleMimeType = codecs != null ? MimeTypes.getMediaMimeType(codecs) : null;
-          int channelCount = parseChannelsAttribute(line, variableDefinitions);
+          int channelCount = parseChannelsAttribute(attributes, variableDefinitions);
           format =
               Format.createAudioContainerFormat(
                   /* id= */ formatId,
@@ -484,15 +539,18 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           subtitles.add(new Rendition(uri, format, groupId, name));
           break;
         case TYPE_CLOSED_CAPTIONS:
-          String instreamId = parseStringAttr(line, REGEX_INSTREAM_ID, variableDefinitions);
+          String instreamId = parseStringAttr(attributes, ATTR_INSTREAM_ID, variableDefinitions);
           String mimeType;
           int accessibilityChannel;
           if (instreamId.startsWith("CC")) {
             mimeType = MimeTypes.APPLICATION_CEA608;
-            accessibilityChannel = Integer.parseInt(instreamId.substring(2));
-          } else /* starts with SERVICE */ {
+            accessibilityChannel = parseInt(instreamId.substring(2), attributes.getLine());
+          } else if (instreamId.startsWith("SERVICE")) {
             mimeType = MimeTypes.APPLICATION_CEA708;
-            accessibilityChannel = Integer.parseInt(instreamId.substring(7));
+            accessibilityChannel = parseInt(instreamId.substring(7), attributes.getLine());
+          } else {
+            throw new ParserException(
+                "Invalid " + ATTR_INSTREAM_ID + " " + instreamId + " in " + attributes.getLine());
           }
           if (muxedCaptionFormats == null) {
             muxedCaptionFormats = new ArrayList<>();
@@ -557,21 +615,28 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   }
 
   private static HlsMediaPlaylist parseMediaPlaylist(
-      HlsMasterPlaylist masterPlaylist, LineIterator iterator, String baseUri) throws IOException {
+      HlsMasterPlaylist masterPlaylist,
+      @Nullable HlsMediaPlaylist previousMediaPlaylist,
+      LineIterator iterator,
+      String baseUri)
+      throws IOException {
     @HlsMediaPlaylist.PlaylistType int playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_UNKNOWN;
     long startOffsetUs = C.TIME_UNSET;
     long mediaSequence = 0;
     int version = 1; // Default version == 1.
     long targetDurationUs = C.TIME_UNSET;
+    long partTargetDurationUs = C.TIME_UNSET;
+    ServerControl serverControl = ServerControl.DEFAULT;
     boolean hasIndependentSegmentsTag = masterPlaylist.hasIndependentSegments;
     boolean hasEndTag = false;
     Segment initializationSegment = null;
     HashMap<String, String> variableDefinitions = new HashMap<>();
     List<Segment> segments = new ArrayList<>();
+    List<Part> parts = new ArrayList<>();
+    @Nullable Part preloadPart = null;
     List<String> tags = new ArrayList<>();
 
-    long segmentDurationUs = 0;
-    String segmentTitle = "";
+    @Nullable String segmentMediaDurationLine = null;
     boolean hasDiscontinuitySequence = false;
     int playlistDiscontinuitySequence = 0;
     int relativeDiscontinuitySequence = 0;
@@ -581,6 +646,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     long segmentByteRangeLength = C.LENGTH_UNSET;
     long segmentMediaSequence = 0;
     boolean hasGapTag = false;
+    long partStartTimeUs = 0;
+    long partByteRangeOffset = 0;
 
     DrmInitData playlistProtectionSchemes = null;
     String fullSegmentEncryptionKeyUri = null;
@@ -588,6 +655,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     TreeMap<String, SchemeData> currentSchemeDatas = new TreeMap<>();
     String encryptionScheme = null;
     DrmInitData cachedDrmInitData = null;
+    AttributeListTokenizer attributes = new AttributeListTokenizer();
 
     String line;
     while (iterator.hasNext()) {
@@ -599,22 +667,27 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       }
 
       if (line.startsWith(TAG_PLAYLIST_TYPE)) {
-        String playlistTypeString = parseStringAttr(line, REGEX_PLAYLIST_TYPE, variableDefinitions);
+        String playlistTypeString = parseTagValue(line);
         if ("VOD".equals(playlistTypeString)) {
           playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_VOD;
         } else if ("EVENT".equals(playlistTypeString)) {
           playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_EVENT;
         }
       } else if (line.startsWith(TAG_START)) {
-        startOffsetUs = (long) (parseDoubleAttr(line, REGEX_TIME_OFFSET) * C.MICROS_PER_SECOND);
+        attributes.reset(line);
+        startOffsetUs =
+            (long) (parseDoubleAttr(attributes, ATTR_TIME_OFFSET) * C.MICROS_PER_SECOND);
       } else if (line.startsWith(TAG_INIT_SEGMENT)) {
-        String uri = parseStringAttr(line, REGEX_URI, variableDefinitions);
-        String byteRange = parseOptionalStringAttr(line, REGEX_ATTR_BYTERANGE, variableDefinitions);
+        attributes.reset(line);
+        String uri = parseStringAttr(attributes, ATTR_URI, variableDefinitions);
+        String byteRange = parseOptionalStringAttr(attributes, ATTR_BYTERANGE, variableDefinitions);
         if (byteRange != null) {
-          String[] splitByteRange = byteRange.split("@");
-          segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
-          if (splitByteRange.length > 1) {
-            segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+          int offsetSeparatorIndex = byteRange.indexOf('@');
+          if (offsetSeparatorIndex == C.INDEX_UNSET) {
+            segmentByteRangeLength = parseLong(byteRange, line);
+          } else {
+            segmentByteRangeLength = parseLong(byteRange.substring(0, offsetSeparatorIndex), line);
+            segmentByteRangeOffset = parseLong(byteRange.substring(offsetSeparatorIndex + 1), line);
           }
         }
         if (fullSegmentEncryptionKeyUri != null && fullSegmentEncryptionIV == null) {
@@ -633,14 +706,159 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         segmentByteRangeOffset = 0;
         segmentByteRangeLength = C.LENGTH_UNSET;
       } else if (line.startsWith(TAG_TARGET_DURATION)) {
-        targetDurationUs = parseIntAttr(line, REGEX_TARGET_DURATION) * C.MICROS_PER_SECOND;
+        targetDurationUs = parseLongTagValue(line) * C.MICROS_PER_SECOND;
+      } else if (line.startsWith(TAG_SERVER_CONTROL)) {
+        attributes.reset(line);
+        serverControl =
+            new ServerControl(
+                parseOptionalTimeAttrUs(attributes, ATTR_CAN_SKIP_UNTIL),
+                parseOptionalTimeAttrUs(attributes, ATTR_HOLD_BACK),
+                parseOptionalTimeAttrUs(attributes, ATTR_PART_HOLD_BACK),
+                parseOptionalBooleanAttribute(attributes, ATTR_CAN_BLOCK_RELOAD, false));
+      } else if (line.startsWith(TAG_PART_INF)) {
+        attributes.reset(line);
+        partTargetDurationUs =
+            (long) (parseDoubleAttr(attributes, ATTR_PART_TARGET) * C.MICROS_PER_SECOND);
+      } else if (line.startsWith(TAG_PART) || line.startsWith(TAG_PRELOAD_HINT)) {
+        attributes.reset(line);
+        boolean isPreload = line.startsWith(TAG_PRELOAD_HINT);
+        if (isPreload
+            && (preloadPart != null || !TYPE_PART.equals(attributes.getValue(ATTR_TYPE)))) {
+          // Only the first hint of a part is used. Hints of other resources are ignored.
+          continue;
+        }
+        String url = parseStringAttr(attributes, ATTR_URI, variableDefinitions);
+        long durationUs = 0;
+        long byteRangeLength = C.LENGTH_UNSET;
+        long byteRangeOffset = 0;
+        if (isPreload) {
+          String byteRangeStart = attributes.getValue(ATTR_BYTERANGE_START);
+          String byteRangeLengthValue = attributes.getValue(ATTR_BYTERANGE_LENGTH);
+          if (byteRangeStart != null) {
+            byteRangeOffset = parseLong(byteRangeStart, line);
+          }
+          if (byteRangeLengthValue != null) {
+            byteRangeLength = parseLong(byteRangeLengthValue, line);
+          }
+        } else {
+          durationUs = (long) (parseDoubleAttr(attributes, ATTR_DURATION) * C.MICROS_PER_SECOND);
+          String byteRange =
+              parseOptionalStringAttr(attributes, ATTR_BYTERANGE, variableDefinitions);
+          if (byteRange != null) {
+            // Without an offset, the byte range continues the byte range of the previous part.
+            int offsetSeparatorIndex = byteRange.indexOf('@');
+            if (offsetSeparatorIndex == C.INDEX_UNSET) {
+              byteRangeLength = parseLong(byteRange, line);
+              byteRangeOffset = partByteRangeOffset;
+            } else {
+              byteRangeLength = parseLong(byteRange.substring(0, offsetSeparatorIndex), line);
+              byteRangeOffset = parseLong(byteRange.substring(offsetSeparatorIndex + 1), line);
+            }
+            partByteRangeOffset = byteRangeOffset + byteRangeLength;
+          }
+        }
+        if (cachedDrmInitData == null && !currentSchemeDatas.isEmpty()) {
+          SchemeData[] schemeDatas = currentSchemeDatas.values().toArray(new SchemeData[0]);
+          cachedDrmInitData = new DrmInitData(encryptionScheme, schemeDatas);
+          if (playlistProtectionSchemes == null) {
+            playlistProtectionSchemes = getPlaylistProtectionSchemes(encryptionScheme, schemeDatas);
+          }
+        }
+        Part part =
+            new Part(
+                url,
+                initializationSegment,
+                durationUs,
+                relativeDiscontinuitySequence,
+                partStartTimeUs,
+                cachedDrmInitData,
+                fullSegmentEncryptionKeyUri,
+                getSegmentEncryptionIV(
+                    fullSegmentEncryptionKeyUri, fullSegmentEncryptionIV, segmentMediaSequence),
+                byteRangeOffset,
+                byteRangeLength,
+                /* hasGapTag= */ !isPreload
+                    && parseOptionalBooleanAttribute(attributes, ATTR_GAP, false),
+                /* isIndependent= */ !isPreload
+                    && parseOptionalBooleanAttribute(attributes, ATTR_INDEPENDENT, false),
+                isPreload);
+        if (isPreload) {
+          preloadPart = part;
+        } else {
+          parts.add(part);
+          partStartTimeUs += durationUs;
+        }
+      } else if (line.startsWith(TAG_SKIP)) {
+        attributes.reset(line);
+        int skippedSegmentCount = parseIntAttr(attributes, ATTR_SKIPPED_SEGMENTS);
+        if (previousMediaPlaylist == null) {
+          throw new DeltaUpdateException(
+              "Delta update without a previous playlist snapshot.",
+              /* isPreviousMediaPlaylistMissing= */ true);
+        }
+        int startIndex = (int) (mediaSequence - previousMediaPlaylist.mediaSequence);
+        int endIndex = startIndex + skippedSegmentCount;
+        if (!segments.isEmpty()
+            || startIndex < 0
+            || endIndex > previousMediaPlaylist.segments.size()) {
+          throw new DeltaUpdateException("Skipped segments are not in the previous snapshot.");
+        }
+        if (previousMediaPlaylist.hasProgramDateTime && startIndex < endIndex) {
+          // The program date time tags of the skipped segments are not repeated.
+          playlistStartTimeUs =
+              previousMediaPlaylist.startTimeUs
+                  + previousMediaPlaylist.segments.get(startIndex).relativeStartTimeUs;
+        }
+        for (int i = startIndex; i < endIndex; i++) {
+          Segment segment = previousMediaPlaylist.segments.get(i);
+          if (mediaSequence != previousMediaPlaylist.mediaSequence
+              || playlistDiscontinuitySequence != previousMediaPlaylist.discontinuitySequence) {
+            int segmentRelativeDiscontinuitySequence =
+                previousMediaPlaylist.discontinuitySequence
+                    + segment.relativeDiscontinuitySequence
+                    - playlistDiscontinuitySequence;
+            segment = segment.copyWith(segmentStartTimeUs, segmentRelativeDiscontinuitySequence);
+          }
+          segments.add(segment);
+          segmentStartTimeUs += segment.durationUs;
+          segmentMediaSequence++;
+          // Continue with the state that applied to the last skipped segment.
+          relativeDiscontinuitySequence = segment.relativeDiscontinuitySequence;
+          initializationSegment = segment.initializationSegment;
+          cachedDrmInitData = segment.drmInitData;
+          fullSegmentEncryptionKeyUri = segment.fullSegmentEncryptionKeyUri;
+          fullSegmentEncryptionIV = segment.hasExplicitEncryptionIV ? segment.encryptionIV : null;
+          if (segment.byterangeLength != C.LENGTH_UNSET) {
+            segmentByteRangeOffset = segment.byterangeOffset + segment.byterangeLength;
+          }
+        }
+        if (startIndex < endIndex) {
+          // Continue with the keys that applied to the last skipped segment, so that keys defined
+          // after the skip are merged with them.
+          currentSchemeDatas.clear();
+          DrmInitData drmInitData = previousMediaPlaylist.segments.get(endIndex - 1).drmInitData;
+          if (drmInitData != null) {
+            if (encryptionScheme == null) {
+              encryptionScheme = drmInitData.schemeType;
+            }
+            for (int i = 0; i < drmInitData.schemeDataCount; i++) {
+              SchemeData schemeData = drmInitData.get(i);
+              currentSchemeDatas.put(getKeyFormat(schemeData), schemeData);
+            }
+          }
+        }
+        partStartTimeUs = segmentStartTimeUs;
+        if (playlistProtectionSchemes == null) {
+          playlistProtectionSchemes = previousMediaPlaylist.protectionSchemes;
+        }
       } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
-        mediaSequence = parseLongAttr(line, REGEX_MEDIA_SEQUENCE);
+        mediaSequence = parseLongTagValue(line);
         segmentMediaSequence = mediaSequence;
       } else if (line.startsWith(TAG_VERSION)) {
-        version = parseIntAttr(line, REGEX_VERSION);
+        version = (int) parseLongTagValue(line);
       } else if (line.startsWith(TAG_DEFINE)) {
-        String importName = parseOptionalStringAttr(line, REGEX_IMPORT, variableDefinitions);
+        attributes.reset(line);
+        String importName = parseOptionalStringAttr(attributes, ATTR_IMPORT, variableDefinitions);
         if (importName != null) {
           String value = masterPlaylist.variableDefinitions.get(importName);
           if (value != null) {
@@ -650,28 +868,31 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         } else {
           variableDefinitions.put(
-              parseStringAttr(line, REGEX_NAME, variableDefinitions),
-              parseStringAttr(line, REGEX_VALUE, variableDefinitions));
+              parseStringAttr(attributes, ATTR_NAME, variableDefinitions),
+              parseStringAttr(attributes, ATTR_VALUE, variableDefinitions));
         }
       } else if (line.startsWith(TAG_MEDIA_DURATION)) {
-        segmentDurationUs =
-            (long) (parseDoubleAttr(line, REGEX_MEDIA_DURATION) * C.MICROS_PER_SECOND);
-        segmentTitle = parseOptionalStringAttr(line, REGEX_MEDIA_TITLE, "", variableDefinitions);
+        // Parsed once the segment URI is reached.
+        segmentMediaDurationLine = line;
       } else if (line.startsWith(TAG_KEY)) {
-        String method = parseStringAttr(line, REGEX_METHOD, variableDefinitions);
+        attributes.reset(line);
+        String method = parseMethodAttr(attributes, variableDefinitions);
         String keyFormat =
-            parseOptionalStringAttr(line, REGEX_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
+            parseOptionalStringAttr(
+                attributes, ATTR_KEYFORMAT, KEYFORMAT_IDENTITY, variableDefinitions);
         fullSegmentEncryptionKeyUri = null;
         fullSegmentEncryptionIV = null;
         if (METHOD_NONE.equals(method)) {
           currentSchemeDatas.clear();
           cachedDrmInitData = null;
         } else /* !METHOD_NONE.equals(method) */ {
-          fullSegmentEncryptionIV = parseOptionalStringAttr(line, REGEX_IV, variableDefinitions);
+          fullSegmentEncryptionIV =
+              parseOptionalStringAttr(attributes, ATTR_IV, variableDefinitions);
           if (KEYFORMAT_IDENTITY.equals(keyFormat)) {
             if (METHOD_AES_128.equals(method)) {
               // The segment is fully encrypted using an identity key.
-              fullSegmentEncryptionKeyUri = parseStringAttr(line, REGEX_URI, variableDefinitions);
+              fullSegmentEncryptionKeyUri =
+                  parseStringAttr(attributes, ATTR_URI, variableDefinitions);
             } else {
               // Do nothing. Samples are encrypted using an identity key, but this is not supported.
               // Hopefully, a traditional DRM alternative is also provided.
@@ -680,7 +901,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             if (encryptionScheme == null) {
               encryptionScheme = parseEncryptionScheme(method);
             }
-            SchemeData schemeData = parseDrmSchemeData(line, keyFormat, variableDefinitions);
+            SchemeData schemeData =
+                parseDrmSchemeData(line, attributes, keyFormat, variableDefinitions);
             if (schemeData != null) {
               cachedDrmInitData = null;
               currentSchemeDatas.put(keyFormat, schemeData);
@@ -688,15 +910,17 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           }
         }
       } else if (line.startsWith(TAG_BYTERANGE)) {
-        String byteRange = parseStringAttr(line, REGEX_BYTERANGE, variableDefinitions);
-        String[] splitByteRange = byteRange.split("@");
-        segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
-        if (splitByteRange.length > 1) {
-          segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+        String byteRange = parseTagValue(line);
+        int offsetSeparatorIndex = byteRange.indexOf('@');
+        if (offsetSeparatorIndex == C.INDEX_UNSET) {
+          segmentByteRangeLength = parseLong(byteRange, line);
+        } else {
+          segmentByteRangeLength = parseLong(byteRange.substring(0, offsetSeparatorIndex), line);
+          segmentByteRangeOffset = parseLong(byteRange.substring(offsetSeparatorIndex + 1), line);
         }
       } else if (line.startsWith(TAG_DISCONTINUITY_SEQUENCE)) {
         hasDiscontinuitySequence = true;
-        playlistDiscontinuitySequence = Integer.parseInt(line.substring(line.indexOf(':') + 1));
+        playlistDiscontinuitySequence = parseInt(parseTagValue(line), line);
       } else if (line.equals(TAG_DISCONTINUITY)) {
         relativeDiscontinuitySequence++;
       } else if (line.startsWith(TAG_PROGRAM_DATE_TIME)) {
@@ -712,15 +936,13 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       } else if (line.equals(TAG_ENDLIST)) {
         hasEndTag = true;
       } else if (!line.startsWith("#")) {
-        String segmentEncryptionIV;
-        if (fullSegmentEncryptionKeyUri == null) {
-          segmentEncryptionIV = null;
-        } else if (fullSegmentEncryptionIV != null) {
-          segmentEncryptionIV = fullSegmentEncryptionIV;
-        } else {
-          segmentEncryptionIV = Long.toHexString(segmentMediaSequence);
-        }
+        String segmentEncryptionIV =
+            getSegmentEncryptionIV(
+                fullSegmentEncryptionKeyUri, fullSegmentEncryptionIV, segmentMediaSequence);
+        boolean hasExplicitEncryptionIV =
+            segmentEncryptionIV != null && fullSegmentEncryptionIV != null;
 
+        Segment previousSegment = getSegment(previousMediaPlaylist, segmentMediaSequence);
         segmentMediaSequence++;
         if (segmentByteRangeLength == C.LENGTH_UNSET) {
           segmentByteRangeOffset = 0;
@@ -730,31 +952,63 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
           SchemeData[] schemeDatas = currentSchemeDatas.values().toArray(new SchemeData[0]);
           cachedDrmInitData = new DrmInitData(encryptionScheme, schemeDatas);
           if (playlistProtectionSchemes == null) {
-            SchemeData[] playlistSchemeDatas = new SchemeData[schemeDatas.length];
-            for (int i = 0; i < schemeDatas.length; i++) {
-              playlistSchemeDatas[i] = schemeDatas[i].copyWithData(null);
-            }
-            playlistProtectionSchemes = new DrmInitData(encryptionScheme, playlistSchemeDatas);
+            playlistProtectionSchemes = getPlaylistProtectionSchemes(encryptionScheme, schemeDatas);
           }
         }
 
-        segments.add(
-            new Segment(
-                replaceVariableReferences(line, variableDefinitions),
-                initializationSegment,
-                segmentTitle,
-                segmentDurationUs,
-                relativeDiscontinuitySequence,
-                segmentStartTimeUs,
-                cachedDrmInitData,
-                fullSegmentEncryptionKeyUri,
-                segmentEncryptionIV,
-                segmentByteRangeOffset,
-                segmentByteRangeLength,
-                hasGapTag));
-        segmentStartTimeUs += segmentDurationUs;
-        segmentDurationUs = 0;
-        segmentTitle = "";
+        String segmentUrl = replaceVariableReferences(line, variableDefinitions);
+        long segmentDurationUs = 0;
+        String segmentTitle = "";
+        if (segmentMediaDurationLine != null) {
+          segmentDurationUs = parseMediaDurationUs(segmentMediaDurationLine);
+          segmentTitle = parseMediaTitle(segmentMediaDurationLine, variableDefinitions);
+        }
+        Segment segment;
+        if (previousSegment != null
+            && parts.isEmpty()
+            && previousSegment.parts.isEmpty()
+            && previousSegment.url.equals(segmentUrl)
+            && previousSegment.durationUs == segmentDurationUs
+            && previousSegment.title.equals(segmentTitle)
+            && previousSegment.byterangeOffset == segmentByteRangeOffset
+            && previousSegment.byterangeLength == segmentByteRangeLength
+            && previousSegment.hasGapTag == hasGapTag
+            && Util.areEqual(
+                previousSegment.fullSegmentEncryptionKeyUri, fullSegmentEncryptionKeyUri)
+            && Util.areEqual(previousSegment.encryptionIV, segmentEncryptionIV)
+            && previousSegment.hasExplicitEncryptionIV == hasExplicitEncryptionIV
+            && Util.areEqual(previousSegment.drmInitData, cachedDrmInitData)
+            && isSameInitializationSegment(
+                previousSegment.initializationSegment, initializationSegment)) {
+          // The segment is unchanged. Share it, and the instances it references, with the previous
+          // playlist.
+          initializationSegment = previousSegment.initializationSegment;
+          cachedDrmInitData = previousSegment.drmInitData;
+          segment = previousSegment.copyWith(segmentStartTimeUs, relativeDiscontinuitySequence);
+        } else {
+          segment =
+              new Segment(
+                  segmentUrl,
+                  initializationSegment,
+                  segmentTitle,
+                  segmentDurationUs,
+                  relativeDiscontinuitySequence,
+                  segmentStartTimeUs,
+                  cachedDrmInitData,
+                  fullSegmentEncryptionKeyUri,
+                  segmentEncryptionIV,
+                  hasExplicitEncryptionIV,
+                  segmentByteRangeOffset,
+                  segmentByteRangeLength,
+                  hasGapTag,
+                  parts);
+          parts = new ArrayList<>();
+        }
+        segments.add(segment);
+        segmentStartTimeUs += segment.durationUs;
+        partStartTimeUs = segmentStartTimeUs;
+        partByteRangeOffset = 0;
+        segmentMediaDurationLine = null;
         if (segmentByteRangeLength != C.LENGTH_UNSET) {
           segmentByteRangeOffset += segmentByteRangeLength;
         }
@@ -762,6 +1016,9 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         hasGapTag = false;
       }
     }
+    if (preloadPart != null && !hasEndTag) {
+      parts.add(preloadPart);
+    }
     return new HlsMediaPlaylist(
         playlistType,
         baseUri,
@@ -773,32 +1030,110 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         mediaSequence,
         version,
         targetDurationUs,
+        partTargetDurationUs,
         hasIndependentSegmentsTag,
         hasEndTag,
         /* hasProgramDateTime= */ playlistStartTimeUs != 0,
         playlistProtectionSchemes,
-        segments);
+        segments,
+        /* trailingParts= */ parts,
+        serverControl);
+  }
+
+  @Nullable
+  private static String getSegmentEncryptionIV(
+      @Nullable String fullSegmentEncryptionKeyUri,
+      @Nullable String fullSegmentEncryptionIV,
+      long segmentMediaSequence) {
+    if (fullSegmentEncryptionKeyUri == null) {
+      return null;
+    } else if (fullSegmentEncryptionIV != null) {
+      return fullSegmentEncryptionIV;
+    } else {
+      return Long.toHexString(segmentMediaSequence);
+    }
+  }
+
+  private static DrmInitData getPlaylistProtectionSchemes(
+      @Nullable String encryptionScheme, SchemeData[] schemeDatas) {
+    SchemeData[] playlistSchemeDatas = new SchemeData[schemeDatas.length];
+    for (int i = 0; i < schemeDatas.length; i++) {
+      playlistSchemeDatas[i] = schemeDatas[i].copyWithData(null);
+    }
+    return new DrmInitData(encryptionScheme, playlistSchemeDatas);
+  }
+
+  @Nullable
+  private static Segment getSegment(@Nullable HlsMediaPlaylist playlist, long mediaSequence) {
+    if (playlist == null
+        || mediaSequence < playlist.mediaSequence
+        || mediaSequence - playlist.mediaSequence >= playlist.segments.size()) {
+      return null;
+    }
+    return playlist.segments.get((int) (mediaSequence - playlist.mediaSequence));
+  }
+
+  private static boolean isSameInitializationSegment(
+      @Nullable Segment segment, @Nullable Segment other) {
+    if (segment == other) {
+      return true;
+    } else if (segment == null || other == null) {
+      return false;
+    }
+    return segment.url.equals(other.url)
+        && segment.byterangeOffset == other.byterangeOffset
+        && segment.byterangeLength == other.byterangeLength
+        && Util.areEqual(segment.fullSegmentEncryptionKeyUri, other.fullSegmentEncryptionKeyUri)
+        && Util.areEqual(segment.encryptionIV, other.encryptionIV);
+  }
+
+  /** Parses the duration of a segment from an #EXTINF:{@code <duration>,[<title>]} tag. */
+  private static long parseMediaDurationUs(String line) throws ParserException {
+    int durationStart = TAG_MEDIA_DURATION.length() + 1;
+    int durationEnd = getMediaDurationEnd(line);
+    if (durationEnd == durationStart) {
+      throw new ParserException("Couldn't find the segment duration in " + line);
+    }
+    return (long)
+        (Double.parseDouble(line.substring(durationStart, durationEnd)) * C.MICROS_PER_SECOND);
+  }
+
+  /** Parses the title of a segment from an #EXTINF:{@code <duration>,[<title>]} tag. */
+  private static String parseMediaTitle(String line, Map<String, String> variableDefinitions) {
+    int durationEnd = getMediaDurationEnd(line);
+    return durationEnd < line.length() - 1 && line.charAt(durationEnd) == ','
+        ? replaceVariableReferences(line.substring(durationEnd + 1), variableDefinitions)
+        : "";
+  }
+
+  private static int getMediaDurationEnd(String line) {
+    int durationEnd = TAG_MEDIA_DURATION.length() + 1;
+    while (durationEnd < line.length() && isDecimalChar(line.charAt(durationEnd))) {
+      durationEnd++;
+    }
+    return durationEnd;
   }
 
   @C.SelectionFlags
-  private static int parseSelectionFlags(String line) {
+  private static int parseSelectionFlags(AttributeListTokenizer attributes) {
     int flags = 0;
-    if (parseOptionalBooleanAttribute(line, REGEX_DEFAULT, false)) {
+    if (parseOptionalBooleanAttribute(attributes, ATTR_DEFAULT, false)) {
       flags |= C.SELECTION_FLAG_DEFAULT;
     }
-    if (parseOptionalBooleanAttribute(line, REGEX_FORCED, false)) {
+    if (parseOptionalBooleanAttribute(attributes, ATTR_FORCED, false)) {
       flags |= C.SELECTION_FLAG_FORCED;
     }
-    if (parseOptionalBooleanAttribute(line, REGEX_AUTOSELECT, false)) {
+    if (parseOptionalBooleanAttribute(attributes, ATTR_AUTOSELECT, false)) {
       flags |= C.SELECTION_FLAG_AUTOSELECT;
     }
     return flags;
   }
 
   @C.RoleFlags
-  private static int parseRoleFlags(String line, Map<String, String> variableDefinitions) {
+  private static int parseRoleFlags(
+      AttributeListTokenizer attributes, Map<String, String> variableDefinitions) {
     String concatenatedCharacteristics =
-        parseOptionalStringAttr(line, REGEX_CHARACTERISTICS, variableDefinitions);
+        parseOptionalStringAttr(attributes, ATTR_CHARACTERISTICS, variableDefinitions);
     if (TextUtils.isEmpty(concatenatedCharacteristics)) {
       return 0;
     }
@@ -819,8 +1154,9 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     return roleFlags;
   }
 
-  private static int parseChannelsAttribute(String line, Map<String, String> variableDefinitions) {
-    String channelsString = parseOptionalStringAttr(line, REGEX_CHANNELS, variableDefinitions);
+  private static int parseChannelsAttribute(
+      AttributeListTokenizer attributes, Map<String, String> variableDefinitions) {
+    String channelsString = parseOptionalStringAttr(attributes, ATTR_CHANNELS, variableDefinitions);
     return channelsString != null
         ? Integer.parseInt(Util.splitAtFirst(channelsString, "/")[0])
         : Format.NO_VALUE;
@@ -828,12 +1164,15 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   @Nullable
   private static SchemeData parseDrmSchemeData(
-      String line, String keyFormat, Map<String, String> variableDefinitions)
+      String line,
+      AttributeListTokenizer attributes,
+      String keyFormat,
+      Map<String, String> variableDefinitions)
       throws ParserException {
     String keyFormatVersions =
-        parseOptionalStringAttr(line, REGEX_KEYFORMATVERSIONS, "1", variableDefinitions);
+        parseOptionalStringAttr(attributes, ATTR_KEYFORMATVERSIONS, "1", variableDefinitions);
     if (KEYFORMAT_WIDEVINE_PSSH_BINARY.equals(keyFormat)) {
-      String uriString = parseStringAttr(line, REGEX_URI, variableDefinitions);
+      String uriString = parseStringAttr(attributes, ATTR_URI, variableDefinitions);
       return new SchemeData(
           C.WIDEVINE_UUID,
           MimeTypes.VIDEO_MP4,
@@ -841,7 +1180,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     } else if (KEYFORMAT_WIDEVINE_PSSH_JSON.equals(keyFormat)) {
       return new SchemeData(C.WIDEVINE_UUID, "hls", Util.getUtf8Bytes(line));
     } else if (KEYFORMAT_PLAYREADY.equals(keyFormat) && "1".equals(keyFormatVersions)) {
-      String uriString = parseStringAttr(line, REGEX_URI, variableDefinitions);
+      String uriString = parseStringAttr(attributes, ATTR_URI, variableDefinitions);
       byte[] data = Base64.decode(uriString.substring(uriString.indexOf(',')), Base64.DEFAULT);
       byte[] psshData = PsshAtomUtil.buildPsshAtom(C.PLAYREADY_UUID, data);
       return new SchemeData(C.PLAYREADY_UUID, MimeTypes.VIDEO_MP4, psshData);
@@ -849,47 +1188,147 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     return null;
   }
 
+  /** Returns the key format of a {@link SchemeData} created by {@link #parseDrmSchemeData}. */
+  private static String getKeyFormat(SchemeData schemeData) {
+    if (schemeData.matches(C.PLAYREADY_UUID)) {
+      return KEYFORMAT_PLAYREADY;
+    }
+    return MimeTypes.VIDEO_MP4.equals(schemeData.mimeType)
+        ? KEYFORMAT_WIDEVINE_PSSH_BINARY
+        : KEYFORMAT_WIDEVINE_PSSH_JSON;
+  }
+
   private static String parseEncryptionScheme(String method) {
     return METHOD_SAMPLE_AES_CENC.equals(method) || METHOD_SAMPLE_AES_CTR.equals(method)
         ? C.CENC_TYPE_cenc
         : C.CENC_TYPE_cbcs;
   }
 
-  private static int parseIntAttr(String line, Pattern pattern) throws ParserException {
-    return Integer.parseInt(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static String parseMethodAttr(
+      AttributeListTokenizer attributes, Map<String, String> variableDefinitions)
+      throws ParserException {
+    String method = parseStringAttr(attributes, ATTR_METHOD, variableDefinitions);
+    switch (method) {
+      case METHOD_NONE:
+      case METHOD_AES_128:
+      case METHOD_SAMPLE_AES:
+      case METHOD_SAMPLE_AES_CENC:
+      case METHOD_SAMPLE_AES_CTR:
+        return method;
+      default:
+        throw new ParserException("Unsupported " + ATTR_METHOD + " " + method);
+    }
+  }
+
+  private static String parseTagValue(String line) throws ParserException {
+    int valueStart = line.indexOf(':') + 1;
+    if (valueStart == 0 || valueStart == line.length()) {
+      throw new ParserException("Couldn't find a value in " + line);
+    }
+    return line.substring(valueStart);
+  }
+
+  /**
+   * Parses the leading decimal digits of the value of a tag, ignoring leading whitespace, without
+   * allocating.
+   */
+  private static long parseLongTagValue(String line) throws ParserException {
+    int position = line.indexOf(':') + 1;
+    while (position > 0 && position < line.length() && line.charAt(position) == ' ') {
+      position++;
+    }
+    if (position == 0 || position == line.length() || !isDigit(line.charAt(position))) {
+      throw new ParserException("Couldn't find a decimal integer in " + line);
+    }
+    long value = 0;
+    while (position < line.length() && isDigit(line.charAt(position))) {
+      value = value * 10 + (line.charAt(position++) - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Parses a decimal integer, ignoring surrounding whitespace.
+   *
+   * @param value The value to parse.
+   * @param line The line containing the value, for the message of a thrown exception.
+   * @return The parsed value.
+   * @throws ParserException If {@code value} is not a decimal integer.
+   */
+  private static long parseLong(String value, String line) throws ParserException {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ParserException("Couldn't parse a decimal integer in " + line, e);
+    }
+  }
+
+  /** Equivalent to {@link #parseLong(String, String)}, for values that must fit in an int. */
+  private static int parseInt(String value, String line) throws ParserException {
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ParserException("Couldn't parse a decimal integer in " + line, e);
+    }
   }
 
-  private static long parseLongAttr(String line, Pattern pattern) throws ParserException {
-    return Long.parseLong(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static int parseIntAttr(AttributeListTokenizer attributes, String name)
+      throws ParserException {
+    return parseInt(
+        parseLeadingNumber(parseStringAttr(attributes, name, Collections.emptyMap())),
+        attributes.getLine());
   }
 
-  private static double parseDoubleAttr(String line, Pattern pattern) throws ParserException {
-    return Double.parseDouble(parseStringAttr(line, pattern, Collections.emptyMap()));
+  private static double parseDoubleAttr(AttributeListTokenizer attributes, String name)
+      throws ParserException {
+    return Double.parseDouble(
+        parseLeadingNumber(parseStringAttr(attributes, name, Collections.emptyMap())));
+  }
+
+  private static long parseOptionalTimeAttrUs(AttributeListTokenizer attributes, String name)
+      throws ParserException {
+    return attributes.getValue(name) == null
+        ? C.TIME_UNSET
+        : (long) (parseDoubleAttr(attributes, name) * C.MICROS_PER_SECOND);
+  }
+
+  /** Returns the decimal number at the start of {@code value}, ignoring trailing characters. */
+  private static String parseLeadingNumber(String value) throws ParserException {
+    int end = value.startsWith("-") ? 1 : 0;
+    while (end < value.length() && isDecimalChar(value.charAt(end))) {
+      end++;
+    }
+    if (end == 0 || (end == 1 && value.startsWith("-"))) {
+      throw new ParserException("Couldn't find a decimal number in " + value);
+    }
+    return end == value.length() ? value : value.substring(0, end);
   }
 
   private static String parseStringAttr(
-      String line, Pattern pattern, Map<String, String> variableDefinitions)
+      AttributeListTokenizer attributes, String name, Map<String, String> variableDefinitions)
       throws ParserException {
-    String value = parseOptionalStringAttr(line, pattern, variableDefinitions);
+    String value = parseOptionalStringAttr(attributes, name, variableDefinitions);
     if (value != null) {
       return value;
     } else {
-      throw new ParserException("Couldn't match " + pattern.pattern() + " in " + line);
+      throw new ParserException("Couldn't find " + name + " in " + attributes.getLine());
     }
   }
 
   private static @Nullable String parseOptionalStringAttr(
-      String line, Pattern pattern, Map<String, String> variableDefinitions) {
-    return parseOptionalStringAttr(line, pattern, null, variableDefinitions);
+      AttributeListTokenizer attributes, String name, Map<String, String> variableDefinitions) {
+    return parseOptionalStringAttr(attributes, name, null, variableDefinitions);
   }
 
   private static @PolyNull String parseOptionalStringAttr(
-      String line,
-      Pattern pattern,
+      AttributeListTokenizer attributes,
+      String name,
       @PolyNull String defaultValue,
       Map<String, String> variableDefinitions) {
-    Matcher matcher = pattern.matcher(line);
-    String value = matcher.find() ? matcher.group(1) : defaultValue;
+    String value = attributes.getValue(name);
+    if (value == null) {
+      value = defaultValue;
+    }
     return variableDefinitions.isEmpty() || value == null
         ? value
         : replaceVariableReferences(value, variableDefinitions);
@@ -897,33 +1336,60 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static String replaceVariableReferences(
       String string, Map<String, String> variableDefinitions) {
-    Matcher matcher = REGEX_VARIABLE_REFERENCE.matcher(string);
-    // TODO: Replace StringBuffer with StringBuilder once Java 9 is available.
-    StringBuffer stringWithReplacements = new StringBuffer();
-    while (matcher.find()) {
-      String groupName = matcher.group(1);
-      if (variableDefinitions.containsKey(groupName)) {
-        matcher.appendReplacement(
-            stringWithReplacements, Matcher.quoteReplacement(variableDefinitions.get(groupName)));
+    int referenceStart = string.indexOf(VARIABLE_REFERENCE_PREFIX);
+    if (referenceStart == C.INDEX_UNSET) {
+      // Fast path for the common case of a string without variable references.
+      return string;
+    }
+    StringBuilder stringWithReplacements = null;
+    int copiedLength = 0;
+    while (referenceStart != C.INDEX_UNSET) {
+      int nameStart = referenceStart + VARIABLE_REFERENCE_PREFIX.length();
+      int nameEnd = nameStart;
+      while (nameEnd < string.length() && isVariableNameChar(string.charAt(nameEnd))) {
+        nameEnd++;
+      }
+      if (nameEnd == nameStart
+          || nameEnd == string.length()
+          || string.charAt(nameEnd) != VARIABLE_REFERENCE_SUFFIX) {
+        // Not a variable reference.
+        referenceStart = string.indexOf(VARIABLE_REFERENCE_PREFIX, referenceStart + 1);
+        continue;
+      }
+      String value = variableDefinitions.get(string.substring(nameStart, nameEnd));
+      if (value != null) {
+        if (stringWithReplacements == null) {
+          stringWithReplacements = new StringBuilder(string.length() + value.length());
+        }
+        stringWithReplacements.append(string, copiedLength, referenceStart).append(value);
+        copiedLength = nameEnd + 1;
       } else {
         // The variable is not defined. The value is ignored.
       }
+      referenceStart = string.indexOf(VARIABLE_REFERENCE_PREFIX, nameEnd + 1);
+    }
+    if (stringWithReplacements == null) {
+      return string;
     }
-    matcher.appendTail(stringWithReplacements);
-    return stringWithReplacements.toString();
+    return stringWithReplacements.append(string, copiedLength, string.length()).toString();
   }
 
   private static boolean parseOptionalBooleanAttribute(
-      String line, Pattern pattern, boolean defaultValue) {
-    Matcher matcher = pattern.matcher(line);
-    if (matcher.find()) {
-      return matcher.group(1).equals(BOOLEAN_TRUE);
-    }
-    return defaultValue;
+      AttributeListTokenizer attributes, String name, boolean defaultValue) {
+    String value = attributes.getValue(name);
+    return value != null ? BOOLEAN_TRUE.equals(value) : defaultValue;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isDecimalChar(char c) {
+    return isDigit(c) || c == '.';
   }
 
-  private static Pattern compileBooleanAttrPattern(String attribute) {
-    return Pattern.compile(attribute + "=(" + BOOLEAN_FALSE + "|" + BOOLEAN_TRUE + ")");
+  private static boolean isVariableNameChar(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '_';
   }
 
   private static class LineIterator {
@@ -966,4 +1432,156 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   }
 
+  /**
+   * Tokenizes the attribute list of a tag in a single pass, so that attribute values can be looked
+   * up by name without matching a regular expression against the whole line for each attribute.
+   *
+   * <p>Tokenizing only records the offsets of the attributes in the line, in arrays that are reused
+   * across lines. Values returned by {@link #getValue(String)} are substrings of the line, which
+   * are allocated on each call.
+   *
+   * <p>Attributes are parsed as defined in RFC 8216, Section 4.2: A comma-separated list of {@code
+   * NAME=VALUE} pairs, where values may be quoted strings that contain commas.
+   */
+  private static final class AttributeListTokenizer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String line;
+    private int attributeCount;
+    private int[] nameStarts;
+    private int[] nameEnds;
+    private int[] valueStarts;
+    private int[] valueEnds;
+    private boolean[] quoted;
+
+    public AttributeListTokenizer() {
+      line = "";
+      nameStarts = new int[INITIAL_CAPACITY];
+      nameEnds = new int[INITIAL_CAPACITY];
+      valueStarts = new int[INITIAL_CAPACITY];
+      valueEnds = new int[INITIAL_CAPACITY];
+      quoted = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Tokenizes the attribute list of a tag, which follows the first colon of the line.
+     *
+     * @param line The line containing the tag.
+     */
+    public void reset(String line) {
+      this.line = line;
+      attributeCount = 0;
+      int length = line.length();
+      int position = line.indexOf(':') + 1;
+      if (position == 0) {
+        // The tag has no attribute list.
+        return;
+      }
+      while (position < length) {
+        position = skipWhitespace(position);
+        int nameStart = position;
+        while (position < length && line.charAt(position) != '=' && line.charAt(position) != ',') {
+          position++;
+        }
+        if (position == length || line.charAt(position) == ',') {
+          // Malformed attribute without a value. Skip it.
+          position++;
+          continue;
+        }
+        int nameEnd = trimTrailingWhitespace(nameStart, position);
+        position = skipWhitespace(position + 1);
+        int valueStart;
+        int valueEnd;
+        boolean isQuoted = position < length && line.charAt(position) == '"';
+        if (isQuoted) {
+          valueStart = position + 1;
+          valueEnd = line.indexOf('"', valueStart);
+          if (valueEnd == C.INDEX_UNSET) {
+            // Unterminated quoted string. Ignore the rest of the line.
+            return;
+          }
+          position = line.indexOf(',', valueEnd + 1);
+        } else {
+          valueStart = position;
+          position = line.indexOf(',', valueStart);
+          valueEnd =
+              trimTrailingWhitespace(valueStart, position == C.INDEX_UNSET ? length : position);
+        }
+        addAttribute(nameStart, nameEnd, valueStart, valueEnd, isQuoted);
+        if (position == C.INDEX_UNSET) {
+          return;
+        }
+        position++;
+      }
+    }
+
+    /** Returns the line passed to the last call to {@link #reset(String)}. */
+    public String getLine() {
+      return line;
+    }
+
+    /**
+     * Returns the value of the attribute with the given name, without surrounding quotes, or null
+     * if the attribute is not present or its value is empty. The value is a new substring of the
+     * line.
+     */
+    @Nullable
+    public String getValue(String name) {
+      int index = indexOf(name);
+      return index == C.INDEX_UNSET || valueStarts[index] == valueEnds[index]
+          ? null
+          : line.substring(valueStarts[index], valueEnds[index]);
+    }
+
+    /** Returns whether the attribute with the given name is present and has a quoted value. */
+    public boolean isQuoted(String name) {
+      int index = indexOf(name);
+      return index != C.INDEX_UNSET && quoted[index];
+    }
+
+    private int indexOf(String name) {
+      int nameLength = name.length();
+      for (int i = 0; i < attributeCount; i++) {
+        if (nameEnds[i] - nameStarts[i] == nameLength
+            && line.regionMatches(nameStarts[i], name, /* ooffset= */ 0, nameLength)) {
+          return i;
+        }
+      }
+      return C.INDEX_UNSET;
+    }
+
+    private void addAttribute(
+        int nameStart, int nameEnd, int valueStart, int valueEnd, boolean isQuoted) {
+      if (attributeCount == nameStarts.length) {
+        int newCapacity = attributeCount * 2;
+        nameStarts = Arrays.copyOf(nameStarts, newCapacity);
+        nameEnds = Arrays.copyOf(nameEnds, newCapacity);
+        valueStarts = Arrays.copyOf(valueStarts, newCapacity);
+        valueEnds = Arrays.copyOf(valueEnds, newCapacity);
+        quoted = Arrays.copyOf(quoted, newCapacity);
+      }
+      nameStarts[attributeCount] = nameStart;
+      nameEnds[attributeCount] = nameEnd;
+      valueStarts[attributeCount] = valueStart;
+      valueEnds[attributeCount] = valueEnd;
+      quoted[attributeCount] = isQuoted;
+      attributeCount++;
+    }
+
+    private int skipWhitespace(int position) {
+      while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+        position++;
+      }
+      return position;
+    }
+
+    private int trimTrailingWhitespace(int start, int end) {
+      while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+        end--;
+      }
+      return end;
+    }
+  }
+
 }
@@ -15,6 +15,7 @@
  */
 package com.google.android.exoplayer2.source.hls.playlist;
 
+import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
 
 /** Factory for {@link HlsPlaylist} parsers. */
@@ -35,4 +36,36 @@ public interface HlsPlaylistParserFactory {
    * @return A parser for HLS playlists.
    */
   ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(HlsMasterPlaylist masterPlaylist);
+
+  /**
+   * Returns a playlist parser for playlists that were referenced by the given {@link
+   * HlsMasterPlaylist}, and that may reuse the segments of a previous snapshot of the parsed media
+   * playlist. Returned {@link HlsMediaPlaylist} instances may inherit attributes from {@code
+   * masterPlaylist} and share {@link HlsMediaPlaylist.Segment} instances with {@code
+   * previousMediaPlaylist}.
+   *
+   * <p>The default implementation ignores {@code previousMediaPlaylist}. Implementations whose
+   * parsers merge delta updates with {@code previousMediaPlaylist} should also override {@link
+   * #supportsDeltaUpdates()}.
+   *
+   * @param masterPlaylist The master playlist that referenced any parsed media playlists.
+   * @param previousMediaPlaylist The previous snapshot of the media playlist that will be parsed,
+   *     or null if there's no previous snapshot.
+   * @return A parser for HLS playlists.
+   */
+  default ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
+      HlsMasterPlaylist masterPlaylist, @Nullable HlsMediaPlaylist previousMediaPlaylist) {
+    return createPlaylistParser(masterPlaylist);
+  }
+
+  /**
+   * Returns whether the parsers returned by {@link #createPlaylistParser(HlsMasterPlaylist,
+   * HlsMediaPlaylist)} merge delta updates (playlists with an #EXT-X-SKIP tag) with the previous
+   * snapshot of the media playlist. Delta updates are only requested if this method returns true.
+   *
+   * <p>The default implementation returns false.
+   */
+  default boolean supportsDeltaUpdates() {
+    return false;
+  }
 }
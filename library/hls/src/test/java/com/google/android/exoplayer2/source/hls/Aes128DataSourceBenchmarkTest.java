@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assume.assumeTrue;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2.testutil.AllocationCounter;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmarks {@link Aes128DataSource} on a segment sized like a few seconds of HD video.
+ *
+ * <p>The segment is read in chunks of the size requested by {@link TsExtractor}. The throughput
+ * and memory allocated are compared against decrypting through a {@link CipherInputStream}, which
+ * decrypts in blocks of at most 512 bytes and allocates a new output array for each of them. The
+ * measured values are included in the failure messages.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class Aes128DataSourceBenchmarkTest {
+
+  private static final Uri SEGMENT_URI = Uri.parse("https://example.com/segment.ts");
+  private static final int SEGMENT_LENGTH = 4 * 1024 * 1024;
+  private static final int READ_LENGTH = TsExtractor.TS_PACKET_SIZE * 50;
+  private static final byte[] KEY = TestUtil.buildTestData(/* length= */ 16);
+  private static final byte[] IV = TestUtil.buildTestData(/* length= */ 16, /* seed= */ 1);
+  // PKCS5 padding is identical to PKCS7 padding for 16 byte blocks, and is available on all host
+  // machines.
+  private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+  private static final int WARM_UP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 10;
+  // Decrypting through a CipherInputStream allocated more than the segment length, whereas batched
+  // decryption allocates only the reusable arrays and the per segment cipher state.
+  private static final int MIN_ALLOCATION_REDUCTION_RATIO = 10;
+
+  @Test
+  public void decryptLargeSegment() throws Exception {
+    byte[] data = TestUtil.buildTestData(SEGMENT_LENGTH);
+    byte[] encryptedData = encrypt(data);
+    // The extra byte allows detecting the end of input once the segment has been read.
+    byte[] buffer = new byte[SEGMENT_LENGTH + 1];
+
+    Measurement batched = measure(() -> decryptBatched(encryptedData, buffer));
+    Measurement streamed = measure(() -> decryptStreamed(encryptedData, buffer));
+
+    assertThat(decryptBatched(encryptedData, buffer)).isEqualTo(SEGMENT_LENGTH);
+    assertThat(Arrays.equals(Arrays.copyOf(buffer, SEGMENT_LENGTH), data)).isTrue();
+    assumeTrue(batched.allocatedBytes != Measurement.UNSUPPORTED);
+    assertWithMessage(describe(batched, streamed))
+        .that(batched.allocatedBytes)
+        .isAtMost(streamed.allocatedBytes / MIN_ALLOCATION_REDUCTION_RATIO);
+  }
+
+  private static String describe(Measurement batched, Measurement streamed) {
+    return String.format(
+        Locale.US,
+        "Batched: %.1f MB/s, %d bytes. CipherInputStream: %.1f MB/s, %d bytes.",
+        getMegabytesPerSecond(batched),
+        batched.allocatedBytes,
+        getMegabytesPerSecond(streamed),
+        streamed.allocatedBytes);
+  }
+
+  private static double getMegabytesPerSecond(Measurement measurement) {
+    return (double) SEGMENT_LENGTH * 1000 / Math.max(1, measurement.nanos);
+  }
+
+  private static int decryptBatched(byte[] encryptedData, byte[] buffer) throws IOException {
+    Aes128DataSource dataSource = new TestAes128DataSource(new ByteArrayDataSource(encryptedData));
+    dataSource.open(new DataSpec(SEGMENT_URI));
+    try {
+      int position = 0;
+      int bytesRead;
+      while ((bytesRead = dataSource.read(buffer, position, getReadLength(buffer, position)))
+          != C.RESULT_END_OF_INPUT) {
+        position += bytesRead;
+      }
+      return position;
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static int decryptStreamed(byte[] encryptedData, byte[] buffer) throws IOException {
+    Cipher cipher;
+    try {
+      cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(IV));
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+    DataSource upstream = new ByteArrayDataSource(encryptedData);
+    InputStream inputStream =
+        new CipherInputStream(
+            new DataSourceInputStream(upstream, new DataSpec(SEGMENT_URI)), cipher);
+    try {
+      int position = 0;
+      int bytesRead;
+      while ((bytesRead = inputStream.read(buffer, position, getReadLength(buffer, position)))
+          != C.RESULT_END_OF_INPUT) {
+        position += bytesRead;
+      }
+      return position;
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static int getReadLength(byte[] buffer, int position) {
+    return Math.min(READ_LENGTH, buffer.length - position);
+  }
+
+  private static byte[] encrypt(byte[] data) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(IV));
+    return cipher.doFinal(data);
+  }
+
+  private static Measurement measure(Benchmark benchmark) throws IOException {
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      benchmark.run();
+    }
+    AllocationCounter allocationCounter = AllocationCounter.createIfSupported();
+    long startAllocatedBytes =
+        allocationCounter != null ? allocationCounter.getAllocatedBytes() : 0;
+    long startTimeNs = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      benchmark.run();
+    }
+    long nanos = (System.nanoTime() - startTimeNs) / MEASURED_ITERATIONS;
+    long allocatedBytes =
+        allocationCounter != null
+            ? (allocationCounter.getAllocatedBytes() - startAllocatedBytes) / MEASURED_ITERATIONS
+            : Measurement.UNSUPPORTED;
+    return new Measurement(nanos, allocatedBytes);
+  }
+
+  private interface Benchmark {
+
+    void run() throws IOException;
+  }
+
+  /** The average time and memory allocated by a single run of a {@link Benchmark}. */
+  private static final class Measurement {
+
+    public static final long UNSUPPORTED = -1;
+
+    public final long nanos;
+    public final long allocatedBytes;
+
+    public Measurement(long nanos, long allocatedBytes) {
+      this.nanos = nanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  /** An {@link Aes128DataSource} using a cipher transformation available on host machines. */
+  private static final class TestAes128DataSource extends Aes128DataSource {
+
+    public TestAes128DataSource(DataSource upstream) {
+      super(upstream, KEY, IV);
+    }
+
+    @Override
+    protected Cipher getCipherInstance() throws NoSuchPaddingException, NoSuchAlgorithmException {
+      return Cipher.getInstance(CIPHER_TRANSFORMATION);
+    }
+  }
+}
@@ -16,17 +16,24 @@
 package com.google.android.exoplayer2.source.hls;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import android.net.Uri;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -34,6 +41,10 @@ import org.junit.runner.RunWith;
 @RunWith(AndroidJUnit4.class)
 public class Aes128DataSourceTest {
 
+  private static final Uri TEST_URI = Uri.parse("https://example.com/segment.ts");
+  private static final byte[] KEY = TestUtil.buildTestData(/* length= */ 16);
+  private static final byte[] IV = TestUtil.buildTestData(/* length= */ 16, /* seed= */ 1);
+
   @Test
   public void test_OpenCallsUpstreamOpen_CloseCallsUpstreamClose() throws IOException {
     UpstreamDataSource upstream = new UpstreamDataSource();
@@ -75,6 +86,67 @@ public class Aes128DataSourceTest {
     assertThat(upstream.closedCalled).isTrue();
   }
 
+  @Test
+  public void read_withVariousReadLengths_decryptsData() throws Exception {
+    byte[] data = TestUtil.buildTestData(/* length= */ 10000);
+    byte[] encryptedData = encrypt(data);
+
+    for (int readLength : new int[] {1, 15, 16, 17, 1000, 100000}) {
+      Aes128DataSource testInstance =
+          new TestAes123DataSource(new ByteArrayDataSource(encryptedData), KEY, IV);
+      testInstance.open(new DataSpec(TEST_URI));
+
+      assertThat(readToEnd(testInstance, readLength)).isEqualTo(data);
+      testInstance.close();
+    }
+  }
+
+  @Test
+  public void read_withBlockAlignedData_decryptsData() throws Exception {
+    // The padding of block aligned data is a whole block, which is held back by the cipher.
+    byte[] data = TestUtil.buildTestData(/* length= */ 4096);
+    Aes128DataSource testInstance =
+        new TestAes123DataSource(new ByteArrayDataSource(encrypt(data)), KEY, IV);
+    testInstance.open(new DataSpec(TEST_URI));
+
+    assertThat(readToEnd(testInstance, /* readLength= */ 4096)).isEqualTo(data);
+  }
+
+  @Test
+  public void read_withIncompleteLastBlock_throwsIOException() throws Exception {
+    byte[] encryptedData = encrypt(TestUtil.buildTestData(/* length= */ 1000));
+    byte[] truncatedData = Arrays.copyOf(encryptedData, encryptedData.length - 1);
+    Aes128DataSource testInstance =
+        new TestAes123DataSource(new ByteArrayDataSource(truncatedData), KEY, IV);
+    testInstance.open(new DataSpec(TEST_URI));
+
+    try {
+      readToEnd(testInstance, /* readLength= */ 1000);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static byte[] readToEnd(DataSource dataSource, int readLength) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[readLength];
+    int bytesRead;
+    while ((bytesRead = dataSource.read(buffer, /* offset= */ 0, readLength))
+        != C.RESULT_END_OF_INPUT) {
+      outputStream.write(buffer, /* off= */ 0, bytesRead);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static byte[] encrypt(byte[] data) throws Exception {
+    // PKCS5 padding is identical to PKCS7 padding for 16 byte blocks, and is available on all
+    // host machines.
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(IV));
+    return cipher.doFinal(data);
+  }
+
   private static class TestAes123DataSource extends Aes128DataSource {
 
     public TestAes123DataSource(DataSource upstream, byte[] encryptionKey, byte[] encryptionIv) {
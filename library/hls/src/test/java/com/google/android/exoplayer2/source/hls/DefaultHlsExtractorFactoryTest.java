@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+import com.google.android.exoplayer2.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.TimestampAdjuster;
+import java.io.IOException;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link DefaultHlsExtractorFactory}. */
+@RunWith(AndroidJUnit4.class)
+public final class DefaultHlsExtractorFactoryTest {
+
+  // The URI has no file extension, so the container format can only be determined by sniffing.
+  private static final Uri SEGMENT_URI = Uri.parse("https://example.com/segment");
+  private static final int TS_SNIFFING_LENGTH = 5 * TsExtractor.TS_PACKET_SIZE;
+
+  private DefaultHlsExtractorFactory extractorFactory;
+  private Format format;
+  private TimestampAdjuster timestampAdjuster;
+
+  @Before
+  public void setUp() {
+    extractorFactory = new DefaultHlsExtractorFactory();
+    format =
+        Format.createVideoContainerFormat(
+            /* id= */ null,
+            /* label= */ null,
+            /* containerMimeType= */ MimeTypes.APPLICATION_M3U8,
+            /* sampleMimeType= */ null,
+            /* codecs= */ "avc1.100.41",
+            /* metadata= */ null,
+            /* bitrate= */ 1000000,
+            /* width= */ Format.NO_VALUE,
+            /* height= */ Format.NO_VALUE,
+            /* frameRate= */ Format.NO_VALUE,
+            /* initializationData= */ null,
+            /* selectionFlags= */ 0,
+            /* roleFlags= */ 0);
+    timestampAdjuster = new TimestampAdjuster(/* firstSampleTimestampUs= */ 0);
+  }
+
+  @Test
+  public void createExtractor_sniffsContainerFormat() throws Exception {
+    HlsExtractorFactory.Result result = createExtractor(buildTsData());
+
+    assertThat(result.extractor).isInstanceOf(TsExtractor.class);
+    assertThat(extractorFactory.getSniffedExtractorCount()).isEqualTo(1);
+    assertThat(extractorFactory.getSniffingPeekedBytes()).isEqualTo(TS_SNIFFING_LENGTH);
+    assertThat(extractorFactory.getUnsniffedExtractorCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void createExtractorOfSameType_createsNewExtractorWithoutSniffing() throws Exception {
+    TsExtractor previousExtractor = (TsExtractor) createExtractor(buildTsData()).extractor;
+
+    HlsExtractorFactory.Result result =
+        extractorFactory.createExtractorOfSameType(
+            previousExtractor,
+            format,
+            /* muxedCaptionFormats= */ null,
+            /* drmInitData= */ null,
+            timestampAdjuster);
+
+    assertThat(result.extractor).isInstanceOf(TsExtractor.class);
+    assertThat(result.extractor).isNotSameInstanceAs(previousExtractor);
+    assertThat(result.isReusable).isTrue();
+    assertThat(extractorFactory.getSniffedExtractorCount()).isEqualTo(1);
+    assertThat(extractorFactory.getSniffingPeekedBytes()).isEqualTo(TS_SNIFFING_LENGTH);
+    assertThat(extractorFactory.getUnsniffedExtractorCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createExtractorOfSameType_withPackedAudio_returnsPackedAudioExtractor() {
+    HlsExtractorFactory.Result result =
+        extractorFactory.createExtractorOfSameType(
+            new AdtsExtractor(),
+            format,
+            /* muxedCaptionFormats= */ null,
+            /* drmInitData= */ null,
+            timestampAdjuster);
+
+    assertThat(result.extractor).isInstanceOf(AdtsExtractor.class);
+    assertThat(result.isPackedAudioExtractor).isTrue();
+    assertThat(result.isReusable).isFalse();
+  }
+
+  @Test
+  public void createExtractor_withNonReusablePreviousExtractor_returnsExtractorOfSameType()
+      throws Exception {
+    HlsExtractorFactory.Result result =
+        extractorFactory.createExtractor(
+            new Mp3Extractor(),
+            SEGMENT_URI,
+            format,
+            /* muxedCaptionFormats= */ null,
+            /* drmInitData= */ null,
+            timestampAdjuster,
+            /* responseHeaders= */ Collections.emptyMap(),
+            createExtractorInput(buildTsData()));
+
+    assertThat(result.extractor).isInstanceOf(Mp3Extractor.class);
+    assertThat(extractorFactory.getSniffedExtractorCount()).isEqualTo(0);
+    assertThat(extractorFactory.getSniffingPeekedBytes()).isEqualTo(0);
+  }
+
+  private HlsExtractorFactory.Result createExtractor(byte[] data) throws Exception {
+    return extractorFactory.createExtractor(
+        /* previousExtractor= */ null,
+        SEGMENT_URI,
+        format,
+        /* muxedCaptionFormats= */ null,
+        /* drmInitData= */ null,
+        timestampAdjuster,
+        /* responseHeaders= */ Collections.emptyMap(),
+        createExtractorInput(data));
+  }
+
+  private static ExtractorInput createExtractorInput(byte[] data) throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(data);
+    long length = dataSource.open(new DataSpec(SEGMENT_URI));
+    return new DefaultExtractorInput(dataSource, /* position= */ 0, length);
+  }
+
+  private static byte[] buildTsData() {
+    byte[] data = new byte[TS_SNIFFING_LENGTH];
+    for (int i = 0; i < data.length; i += TsExtractor.TS_PACKET_SIZE) {
+      data[i] = 0x47;
+    }
+    return data;
+  }
+}
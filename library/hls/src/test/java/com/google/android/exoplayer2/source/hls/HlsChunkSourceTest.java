@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.chunk.Chunk;
+import com.google.android.exoplayer2.source.hls.HlsChunkSource.HlsChunkHolder;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistTracker;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link HlsChunkSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class HlsChunkSourceTest {
+
+  private static final Uri PLAYLIST_URI = Uri.parse("https://example.com/media.m3u8");
+  private static final String LOW_LATENCY_PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3\n"
+          + "#EXT-X-PART-INF:PART-TARGET=1\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXTINF:4,\n"
+          + "10.ts\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.0.ts\",INDEPENDENT=YES\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.1.ts\"\n"
+          + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"11.2.ts\"\n";
+  private static final String LOW_LATENCY_PLAYLIST_WITH_COMPLETE_SEGMENT =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3\n"
+          + "#EXT-X-PART-INF:PART-TARGET=1\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXTINF:4,\n"
+          + "10.ts\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.0.ts\",INDEPENDENT=YES\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.1.ts\"\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.2.ts\"\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.3.ts\"\n"
+          + "#EXTINF:4,\n"
+          + "11.ts\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"12.0.ts\",INDEPENDENT=YES\n";
+
+  // A version 0 sidx box with three references, and the size of each referenced fragment.
+  private static final int SEGMENT_INDEX_LENGTH = 32 + 3 * 12;
+  private static final int SEGMENT_INDEX_REFERENCE_SIZE = 2000;
+
+  private static final Uri VARIANT_0_PLAYLIST_URI = Uri.parse("https://example.com/0.m3u8");
+  private static final Uri VARIANT_1_PLAYLIST_URI = Uri.parse("https://example.com/1.m3u8");
+  private static final String VARIANT_0_PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:6\n"
+          + "#EXT-X-INDEPENDENT-SEGMENTS\n"
+          + "#EXT-X-MAP:URI=\"0/init.mp4\"\n"
+          + "#EXTINF:6,\n"
+          + "0/0.m4s\n"
+          + "#EXTINF:6,\n"
+          + "0/1.m4s\n"
+          + "#EXT-X-ENDLIST\n";
+  // The initialization segment of the variant is clear, and its media segments are encrypted.
+  private static final String VARIANT_1_PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:6\n"
+          + "#EXT-X-INDEPENDENT-SEGMENTS\n"
+          + "#EXT-X-MAP:URI=\"1/init.mp4\"\n"
+          + "#EXT-X-KEY:METHOD=AES-128,URI=\"1/key\",IV=0x1\n"
+          + "#EXTINF:6,\n"
+          + "1/0.m4s\n"
+          + "#EXTINF:6,\n"
+          + "1/1.m4s\n"
+          + "#EXT-X-ENDLIST\n";
+
+  private HlsPlaylistTracker mockPlaylistTracker;
+  private HlsChunkSource chunkSource;
+  private List<HlsMediaChunk> queue;
+  private HlsChunkHolder output;
+
+  @Before
+  public void setUp() {
+    mockPlaylistTracker = mock(HlsPlaylistTracker.class);
+    when(mockPlaylistTracker.isSnapshotValid(any())).thenReturn(true);
+    when(mockPlaylistTracker.isLive()).thenReturn(true);
+    when(mockPlaylistTracker.getInitialStartTimeUs()).thenReturn(0L);
+    Format format =
+        Format.createVideoContainerFormat(
+            /* id= */ null,
+            /* label= */ null,
+            /* containerMimeType= */ MimeTypes.APPLICATION_M3U8,
+            /* sampleMimeType= */ null,
+            /* codecs= */ "avc1.100.41",
+            /* metadata= */ null,
+            /* bitrate= */ 1000000,
+            /* width= */ Format.NO_VALUE,
+            /* height= */ Format.NO_VALUE,
+            /* frameRate= */ Format.NO_VALUE,
+            /* initializationData= */ null,
+            /* selectionFlags= */ 0,
+            /* roleFlags= */ 0);
+    chunkSource =
+        new HlsChunkSource(
+            HlsExtractorFactory.DEFAULT,
+            mockPlaylistTracker,
+            new Uri[] {PLAYLIST_URI},
+            new Format[] {format},
+            new DefaultHlsDataSourceFactory(
+                new FakeDataSource.Factory().setFakeDataSet(new FakeDataSet())),
+            /* mediaTransferListener= */ null,
+            new TimestampAdjusterProvider(),
+            /* muxedCaptionFormats= */ null,
+            /* prewarmAdjacentVariants= */ false);
+    queue = new ArrayList<>();
+    output = new HlsChunkHolder();
+  }
+
+  @Test
+  public void getNextChunk_atLiveEdge_loadsPartsFromIndependentPart() throws IOException {
+    setPlaylist(LOW_LATENCY_PLAYLIST);
+
+    // The load position is in the second part, which isn't independent.
+    assertNextChunk(/* loadPositionUs= */ 5000000, "11.0.ts", /* partIndex= */ 0);
+    assertNextChunk(/* loadPositionUs= */ 5000000, "11.1.ts", /* partIndex= */ 1);
+    // The preload hint is requested before it's published.
+    assertNextChunk(/* loadPositionUs= */ 6000000, "11.2.ts", /* partIndex= */ 2);
+    assertThat(queue.get(2).endTimeUs).isEqualTo(queue.get(2).startTimeUs);
+
+    getNextChunk(/* loadPositionUs= */ 6000000);
+    assertThat(output.chunk).isNull();
+    assertThat(output.playlistUrl).isEqualTo(PLAYLIST_URI);
+  }
+
+  @Test
+  public void getNextChunk_afterLastCompleteSegment_loadsFirstPart() throws IOException {
+    setPlaylist(LOW_LATENCY_PLAYLIST);
+
+    assertNextChunk(/* loadPositionUs= */ 0, "10.ts", /* partIndex= */ C.INDEX_UNSET);
+    assertNextChunk(/* loadPositionUs= */ 4000000, "11.0.ts", /* partIndex= */ 0);
+  }
+
+  @Test
+  public void getNextChunk_afterSegmentCompleted_loadsRemainingPartsThenNextSegment()
+      throws IOException {
+    setPlaylist(LOW_LATENCY_PLAYLIST);
+    assertNextChunk(/* loadPositionUs= */ 4000000, "11.0.ts", /* partIndex= */ 0);
+    assertNextChunk(/* loadPositionUs= */ 5000000, "11.1.ts", /* partIndex= */ 1);
+    assertNextChunk(/* loadPositionUs= */ 6000000, "11.2.ts", /* partIndex= */ 2);
+
+    setPlaylist(LOW_LATENCY_PLAYLIST_WITH_COMPLETE_SEGMENT);
+
+    HlsMediaChunk chunk = assertNextChunk(/* loadPositionUs= */ 6000000, "11.3.ts", 3);
+    assertThat(chunk.startTimeUs).isEqualTo(7000000);
+    assertThat(chunk.endTimeUs).isEqualTo(8000000);
+    chunk = assertNextChunk(/* loadPositionUs= */ 8000000, "12.0.ts", /* partIndex= */ 0);
+    assertThat(chunk.chunkIndex).isEqualTo(12);
+  }
+
+  @Test
+  public void getNextChunk_withPrewarming_prefetchesAdjacentVariantInitSegmentAndKey()
+      throws Exception {
+    HlsChunkSource chunkSource = createTwoVariantChunkSource(/* prewarmAdjacentVariants= */ true);
+    queue.add((HlsMediaChunk) getNextChunk(chunkSource, /* loadPositionUs= */ 0));
+
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+    assertThat(chunk.type).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/1/init.mp4");
+    load(chunkSource, chunk);
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+    assertThat(chunk.type).isEqualTo(C.DATA_TYPE_DRM);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/1/key");
+    load(chunkSource, chunk);
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+
+    // Switching to the prewarmed variant only requires loading media.
+    chunkSource.setTrackSelection(
+        new FixedTrackSelection(chunkSource.getTrackGroup(), /* track= */ 1));
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/1/1.m4s");
+  }
+
+  @Test
+  public void getNextChunk_withPrewarmingError_suspendsPrewarming() throws Exception {
+    HlsChunkSource chunkSource = createTwoVariantChunkSource(/* prewarmAdjacentVariants= */ true);
+    HlsMediaChunk mediaChunk = (HlsMediaChunk) getNextChunk(chunkSource, /* loadPositionUs= */ 0);
+    queue.add(mediaChunk);
+    Chunk prewarmingChunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+
+    assertThat(chunkSource.onChunkLoadError(mediaChunk)).isFalse();
+    assertThat(chunkSource.onChunkLoadError(prewarmingChunk)).isTrue();
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+  }
+
+  @Test
+  public void getNextChunk_withPrewarmingAndInvalidAdjacentPlaylist_refreshesPlaylist() {
+    HlsChunkSource chunkSource = createTwoVariantChunkSource(/* prewarmAdjacentVariants= */ true);
+    when(mockPlaylistTracker.isSnapshotValid(VARIANT_1_PLAYLIST_URI)).thenReturn(false);
+    queue.add((HlsMediaChunk) getNextChunk(chunkSource, /* loadPositionUs= */ 0));
+
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+    verify(mockPlaylistTracker).refreshPlaylist(VARIANT_1_PLAYLIST_URI);
+  }
+
+  @Test
+  public void getNextChunk_withoutPrewarming_doesNotLoadAdjacentVariant() {
+    HlsChunkSource chunkSource = createTwoVariantChunkSource(/* prewarmAdjacentVariants= */ false);
+    when(mockPlaylistTracker.isSnapshotValid(VARIANT_1_PLAYLIST_URI)).thenReturn(false);
+    queue.add((HlsMediaChunk) getNextChunk(chunkSource, /* loadPositionUs= */ 0));
+
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 6000000);
+
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+    verify(mockPlaylistTracker, never()).refreshPlaylist(any());
+  }
+
+  @Test
+  public void getNextChunk_afterSeekIntoSegmentWithSegmentIndex_startsAtReference()
+      throws Exception {
+    HlsChunkSource chunkSource = createSingleVariantChunkSource(
+            buildSegmentWithSegmentIndex(/* secondReferenceStartsWithSap= */ true));
+
+    // The seek position is in the second reference of the second segment.
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    assertThat(chunk.type).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+    assertThat(chunk.dataSpec.absoluteStreamPosition).isEqualTo(0);
+    load(chunkSource, chunk);
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/1.m4s");
+    assertThat(chunk.dataSpec.absoluteStreamPosition)
+        .isEqualTo(SEGMENT_INDEX_LENGTH + SEGMENT_INDEX_REFERENCE_SIZE);
+    assertThat(chunk.startTimeUs).isEqualTo(8000000);
+    assertThat(chunk.endTimeUs).isEqualTo(12000000);
+  }
+
+  @Test
+  public void getNextChunk_afterSeekIntoSegmentWithoutSegmentIndex_loadsFullSegment()
+      throws Exception {
+    // The segment starts with a fragment rather than a segment index.
+    HlsChunkSource chunkSource =
+        createSingleVariantChunkSource(
+            TestUtil.joinByteArrays(
+                TestUtil.createByteArray(0, 0, 0, 8),
+                Util.getUtf8Bytes("moof"),
+                TestUtil.createByteArray(0, 0, 0, 8),
+                Util.getUtf8Bytes("mdat"),
+                new byte[4096]));
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    load(chunkSource, chunk);
+
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.absoluteStreamPosition).isEqualTo(0);
+    assertThat(chunk.startTimeUs).isEqualTo(6000000);
+    // The segment indices of other segments of the playlist are still loaded.
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 3000000);
+    assertThat(chunk.type).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/0.m4s");
+  }
+
+  @Test
+  public void getNextChunk_afterSeekIntoSegmentWithTruncatedSegmentIndex_loadsFullSegment()
+      throws Exception {
+    byte[] segment = buildSegmentWithSegmentIndex(/* secondReferenceStartsWithSap= */ true);
+    // The sidx box claims to be larger than the loaded start of the segment.
+    segment[2] = (byte) (5000 >> 8);
+    segment[3] = (byte) 5000;
+    HlsChunkSource chunkSource = createSingleVariantChunkSource(segment);
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    load(chunkSource, chunk);
+
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.absoluteStreamPosition).isEqualTo(0);
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 3000000);
+    assertThat(chunk.type).isEqualTo(C.DATA_TYPE_MEDIA_INITIALIZATION);
+    assertThat(chunk.dataSpec.uri.getPath()).isEqualTo("/0/0.m4s");
+  }
+
+  @Test
+  public void getNextChunk_afterSeekIntoReferenceWithoutSap_startsAtPreviousSap()
+      throws Exception {
+    HlsChunkSource chunkSource =
+        createSingleVariantChunkSource(
+            buildSegmentWithSegmentIndex(/* secondReferenceStartsWithSap= */ false));
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 11000000);
+    load(chunkSource, chunk);
+
+    // The seek position is in the third reference, which starts with a stream access point.
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 11000000);
+    assertThat(chunk.dataSpec.absoluteStreamPosition)
+        .isEqualTo(SEGMENT_INDEX_LENGTH + 2 * SEGMENT_INDEX_REFERENCE_SIZE);
+    assertThat(chunk.startTimeUs).isEqualTo(10000000);
+    // The seek position is in the second reference, which doesn't start with a stream access
+    // point, so loading starts at the first reference.
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.absoluteStreamPosition).isEqualTo(0);
+    assertThat(chunk.startTimeUs).isEqualTo(6000000);
+  }
+
+  @Test
+  public void getNextChunk_withSegmentIndexLoadError_loadsFullSegment() {
+    HlsChunkSource chunkSource = createSingleVariantChunkSource(
+            buildSegmentWithSegmentIndex(/* secondReferenceStartsWithSap= */ true));
+    Chunk chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+
+    assertThat(chunkSource.onChunkLoadError(chunk)).isTrue();
+    chunk = getNextChunk(chunkSource, /* loadPositionUs= */ 9000000);
+    assertThat(chunk).isInstanceOf(HlsMediaChunk.class);
+    assertThat(chunk.dataSpec.absoluteStreamPosition).isEqualTo(0);
+  }
+
+  private HlsChunkSource createSingleVariantChunkSource(byte[] segmentData) {
+    when(mockPlaylistTracker.getPlaylistSnapshot(eq(VARIANT_0_PLAYLIST_URI), anyBoolean()))
+        .thenReturn(parsePlaylist(VARIANT_0_PLAYLIST_URI, VARIANT_0_PLAYLIST));
+    FakeDataSet fakeDataSet = new FakeDataSet().setData("https://example.com/0/1.m4s", segmentData);
+    return new HlsChunkSource(
+        HlsExtractorFactory.DEFAULT,
+        mockPlaylistTracker,
+        new Uri[] {VARIANT_0_PLAYLIST_URI},
+        new Format[] {createVideoFormat(/* bitrate= */ 2000000)},
+        new DefaultHlsDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet)),
+        /* mediaTransferListener= */ null,
+        new TimestampAdjusterProvider(),
+        /* muxedCaptionFormats= */ null,
+        /* prewarmAdjacentVariants= */ false);
+  }
+
+  /**
+   * Returns a segment that starts with a segment index referencing three fragments of two seconds
+   * each, followed by the fragments. The first and third fragments start with a stream access
+   * point, and the second one does if {@code secondReferenceStartsWithSap} is true.
+   */
+  private static byte[] buildSegmentWithSegmentIndex(boolean secondReferenceStartsWithSap) {
+    byte[] segment = new byte[SEGMENT_INDEX_LENGTH + 3 * SEGMENT_INDEX_REFERENCE_SIZE];
+    segment[3] = SEGMENT_INDEX_LENGTH;
+    System.arraycopy(Util.getUtf8Bytes("sidx"), 0, segment, /* destPos= */ 4, /* length= */ 4);
+    // Version and flags, reference_ID, then the timescale of one unit per second. The earliest
+    // presentation time and the first offset are zero.
+    segment[19] = 1;
+    // Reference count.
+    segment[31] = 3;
+    for (int i = 0; i < 3; i++) {
+      int referencePosition = 32 + i * 12;
+      // Reference type and size, then the subsegment duration in seconds.
+      segment[referencePosition + 2] = (byte) (SEGMENT_INDEX_REFERENCE_SIZE >> 8);
+      segment[referencePosition + 3] = (byte) SEGMENT_INDEX_REFERENCE_SIZE;
+      segment[referencePosition + 7] = 2;
+      if (i != 1 || secondReferenceStartsWithSap) {
+        // starts_with_SAP and a SAP_type of 1.
+        segment[referencePosition + 8] = (byte) 0x90;
+      }
+    }
+    return segment;
+  }
+
+  private HlsChunkSource createTwoVariantChunkSource(boolean prewarmAdjacentVariants) {
+    when(mockPlaylistTracker.getPlaylistSnapshot(eq(VARIANT_0_PLAYLIST_URI), anyBoolean()))
+        .thenReturn(parsePlaylist(VARIANT_0_PLAYLIST_URI, VARIANT_0_PLAYLIST));
+    when(mockPlaylistTracker.getPlaylistSnapshot(eq(VARIANT_1_PLAYLIST_URI), anyBoolean()))
+        .thenReturn(parsePlaylist(VARIANT_1_PLAYLIST_URI, VARIANT_1_PLAYLIST));
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setRandomData("https://example.com/1/init.mp4", /* length= */ 100)
+            .setRandomData("https://example.com/1/key", /* length= */ 16);
+    return new HlsChunkSource(
+        HlsExtractorFactory.DEFAULT,
+        mockPlaylistTracker,
+        new Uri[] {VARIANT_0_PLAYLIST_URI, VARIANT_1_PLAYLIST_URI},
+        new Format[] {
+          createVideoFormat(/* bitrate= */ 2000000), createVideoFormat(/* bitrate= */ 1000000)
+        },
+        new DefaultHlsDataSourceFactory(new FakeDataSource.Factory().setFakeDataSet(fakeDataSet)),
+        /* mediaTransferListener= */ null,
+        new TimestampAdjusterProvider(),
+        /* muxedCaptionFormats= */ null,
+        prewarmAdjacentVariants);
+  }
+
+  private Chunk getNextChunk(HlsChunkSource chunkSource, long loadPositionUs) {
+    output.clear();
+    chunkSource.getNextChunk(
+        /* playbackPositionUs= */ 0,
+        loadPositionUs,
+        queue,
+        /* allowEndOfStream= */ true,
+        output);
+    assertThat(output.chunk).isNotNull();
+    return output.chunk;
+  }
+
+  private static void load(HlsChunkSource chunkSource, Chunk chunk) throws Exception {
+    chunk.load();
+    chunkSource.onChunkLoadCompleted(chunk);
+  }
+
+  private static HlsMediaPlaylist parsePlaylist(Uri uri, String playlistString) {
+    try {
+      return (HlsMediaPlaylist)
+          new HlsPlaylistParser()
+              .parse(uri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Format createVideoFormat(int bitrate) {
+    return Format.createVideoContainerFormat(
+        /* id= */ null,
+        /* label= */ null,
+        /* containerMimeType= */ MimeTypes.APPLICATION_M3U8,
+        /* sampleMimeType= */ null,
+        /* codecs= */ "avc1.100.41",
+        /* metadata= */ null,
+        bitrate,
+        /* width= */ Format.NO_VALUE,
+        /* height= */ Format.NO_VALUE,
+        /* frameRate= */ Format.NO_VALUE,
+        /* initializationData= */ null,
+        /* selectionFlags= */ 0,
+        /* roleFlags= */ 0);
+  }
+
+  private void setPlaylist(String playlistString) throws IOException {
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(PLAYLIST_URI, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+    when(mockPlaylistTracker.getPlaylistSnapshot(any(), anyBoolean())).thenReturn(playlist);
+  }
+
+  private void getNextChunk(long loadPositionUs) {
+    output.clear();
+    chunkSource.getNextChunk(
+        /* playbackPositionUs= */ 0,
+        loadPositionUs,
+        queue,
+        /* allowEndOfStream= */ true,
+        output);
+  }
+
+  private HlsMediaChunk assertNextChunk(long loadPositionUs, String url, int partIndex) {
+    getNextChunk(loadPositionUs);
+    assertThat(output.chunk).isInstanceOf(HlsMediaChunk.class);
+    HlsMediaChunk chunk = (HlsMediaChunk) output.chunk;
+    assertThat(chunk.dataSpec.uri.getLastPathSegment()).isEqualTo(url);
+    assertThat(chunk.partIndex).isEqualTo(partIndex);
+    queue.add(chunk);
+    return chunk;
+  }
+}
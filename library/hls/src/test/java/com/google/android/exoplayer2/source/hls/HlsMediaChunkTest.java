@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
+import com.google.android.exoplayer2.source.SampleQueue;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.TimestampAdjuster;
+import com.google.android.exoplayer2.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link HlsMediaChunk}. */
+@RunWith(AndroidJUnit4.class)
+public final class HlsMediaChunkTest {
+
+  private static final Uri PLAYLIST_URI = Uri.parse("https://example.com/media.m3u8");
+  private static final String PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:10\n"
+          + "#EXT-X-MEDIA-SEQUENCE:0\n"
+          + "#EXTINF:10.0,\n"
+          + "segment.ts\n"
+          + "#EXT-X-ENDLIST\n";
+  private static final int SAMPLE_SIZE = 10;
+  private static final long LOAD_TIMEOUT_MS = 10_000;
+
+  private TimestampAdjusterProvider timestampAdjusterProvider;
+
+  @Before
+  public void setUp() {
+    timestampAdjusterProvider = new TimestampAdjusterProvider();
+  }
+
+  @Test
+  public void load_nonMasterChunkBeforeMaster_rebasesSamplesOnceMasterLoads() throws Exception {
+    FakeExtractor audioExtractor =
+        new FakeExtractor(C.TRACK_TYPE_AUDIO, MimeTypes.AUDIO_AAC, 10_000_000, 10_040_000);
+    HlsSampleStreamWrapper audioWrapper = createSampleStreamWrapper();
+    HlsMediaChunk audioChunk =
+        createChunk(audioExtractor, audioWrapper, /* isMasterTimestampSource= */ false);
+    FakeExtractor videoExtractor =
+        new FakeExtractor(C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, 9_900_000);
+    HlsSampleStreamWrapper videoWrapper = createSampleStreamWrapper();
+    HlsMediaChunk videoChunk =
+        createChunk(videoExtractor, videoWrapper, /* isMasterTimestampSource= */ true);
+
+    // The non-master chunk must complete without waiting for the master.
+    loadOnLoaderThread(audioChunk);
+    audioWrapper.maybeThrowError();
+
+    assertThat(audioChunk.isLoadCompleted()).isTrue();
+    SampleQueue audioSampleQueue = audioExtractor.getSampleQueue();
+    assertThat(audioSampleQueue.getWriteIndex()).isEqualTo(0);
+
+    loadOnLoaderThread(videoChunk);
+    // The playback thread commits the held back samples while the wrapper isn't loading.
+    audioWrapper.maybeThrowError();
+
+    // The master's first sample is at the start of the period, and the audio samples start 100ms
+    // later.
+    assertThat(readTimestamps(videoExtractor.getSampleQueue())).asList().containsExactly(0L);
+    assertThat(readTimestamps(audioSampleQueue))
+        .asList()
+        .containsExactly(100_000L, 140_000L)
+        .inOrder();
+  }
+
+  @Test
+  public void load_nonMasterChunkAfterMaster_usesInitializedAdjuster() throws Exception {
+    FakeExtractor videoExtractor =
+        new FakeExtractor(C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, 9_900_000);
+    HlsMediaChunk videoChunk =
+        createChunk(
+            videoExtractor, createSampleStreamWrapper(), /* isMasterTimestampSource= */ true);
+    FakeExtractor audioExtractor =
+        new FakeExtractor(C.TRACK_TYPE_AUDIO, MimeTypes.AUDIO_AAC, 10_000_000);
+    HlsMediaChunk audioChunk =
+        createChunk(
+            audioExtractor, createSampleStreamWrapper(), /* isMasterTimestampSource= */ false);
+
+    loadOnLoaderThread(videoChunk);
+    loadOnLoaderThread(audioChunk);
+
+    assertThat(audioExtractor.timestampAdjuster)
+        .isSameInstanceAs(timestampAdjusterProvider.getAdjuster(/* discontinuitySequence= */ 0));
+    assertThat(readTimestamps(audioExtractor.getSampleQueue()))
+        .asList()
+        .containsExactly(100_000L);
+  }
+
+  private HlsMediaChunk createChunk(
+      FakeExtractor extractor, HlsSampleStreamWrapper output, boolean isMasterTimestampSource)
+      throws IOException {
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(PLAYLIST_URI, new ByteArrayInputStream(Util.getUtf8Bytes(PLAYLIST)));
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setData(
+                "https://example.com/segment.ts", new byte[extractor.sampleCount * SAMPLE_SIZE]);
+    HlsMediaChunk chunk =
+        HlsMediaChunk.createInstance(
+            new FakeExtractorFactory(extractor),
+            new FakeDataSource(fakeDataSet),
+            extractor.format,
+            /* startOfPlaylistInPeriodUs= */ 0,
+            playlist,
+            new HlsChunkSource.SegmentBaseHolder(
+                playlist.segments.get(0), /* mediaSequence= */ 0, /* partIndex= */ C.INDEX_UNSET),
+            PLAYLIST_URI,
+            /* muxedCaptionFormats= */ null,
+            C.SELECTION_REASON_INITIAL,
+            /* trackSelectionData= */ null,
+            isMasterTimestampSource,
+            timestampAdjusterProvider,
+            /* previousChunk= */ null,
+            /* lastLoadedPlaylistChunk= */ null,
+            /* mediaSegmentKey= */ null,
+            /* initSegmentKey= */ null,
+            /* initSegmentData= */ null);
+    chunk.init(output);
+    return chunk;
+  }
+
+  private static HlsSampleStreamWrapper createSampleStreamWrapper() {
+    return new HlsSampleStreamWrapper(
+        C.TRACK_TYPE_DEFAULT,
+        mock(HlsSampleStreamWrapper.Callback.class),
+        mock(HlsChunkSource.class),
+        /* overridingDrmInitData= */ Collections.emptyMap(),
+        new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+        /* positionUs= */ 0,
+        /* muxedAudioFormat= */ null,
+        DrmSessionManager.getDummyDrmSessionManager(),
+        new DefaultLoadErrorHandlingPolicy(),
+        new EventDispatcher());
+  }
+
+  /** Loads a chunk on a separate thread, as a {@code Loader} would. */
+  private static void loadOnLoaderThread(HlsMediaChunk chunk) throws Exception {
+    Exception[] loadException = new Exception[1];
+    Thread loaderThread =
+        new Thread(
+            () -> {
+              try {
+                chunk.load();
+              } catch (Exception e) {
+                loadException[0] = e;
+              }
+            });
+    loaderThread.start();
+    loaderThread.join(LOAD_TIMEOUT_MS);
+    assertThat(loaderThread.isAlive()).isFalse();
+    if (loadException[0] != null) {
+      throw loadException[0];
+    }
+  }
+
+  private static long[] readTimestamps(SampleQueue sampleQueue) {
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer =
+        new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+    long[] timestamps = new long[0];
+    int result;
+    do {
+      buffer.clear();
+      result =
+          sampleQueue.read(
+              formatHolder,
+              buffer,
+              /* formatRequired= */ false,
+              /* allowOnlyClearBuffers= */ false,
+              /* loadingFinished= */ false,
+              /* decodeOnlyUntilUs= */ 0);
+      if (result == C.RESULT_BUFFER_READ) {
+        timestamps = Arrays.copyOf(timestamps, timestamps.length + 1);
+        timestamps[timestamps.length - 1] = buffer.timeUs;
+      }
+    } while (result != C.RESULT_NOTHING_READ);
+    return timestamps;
+  }
+
+  /** Returns the given extractor, recording the timestamp adjuster it's created with. */
+  private static final class FakeExtractorFactory implements HlsExtractorFactory {
+
+    private final FakeExtractor extractor;
+
+    public FakeExtractorFactory(FakeExtractor extractor) {
+      this.extractor = extractor;
+    }
+
+    @Override
+    public Result createExtractor(
+        @Nullable Extractor previousExtractor,
+        Uri uri,
+        Format format,
+        @Nullable List<Format> muxedCaptionFormats,
+        @Nullable DrmInitData drmInitData,
+        TimestampAdjuster timestampAdjuster,
+        Map<String, List<String>> responseHeaders,
+        ExtractorInput sniffingExtractorInput) {
+      extractor.timestampAdjuster = timestampAdjuster;
+      return new Result(extractor, /* isPackedAudioExtractor= */ false, /* isReusable= */ true);
+    }
+  }
+
+  /**
+   * Outputs a sample of {@link #SAMPLE_SIZE} bytes per timestamp, adjusting the timestamps as a
+   * {@code TsExtractor} would.
+   */
+  private static final class FakeExtractor implements Extractor {
+
+    public final Format format;
+    public final int sampleCount;
+    public TimestampAdjuster timestampAdjuster;
+
+    private final int trackType;
+    private final long[] timestampsUs;
+
+    private ExtractorOutput output;
+    private TrackOutput trackOutput;
+    private int sampleIndex;
+
+    public FakeExtractor(int trackType, String sampleMimeType, long... timestampsUs) {
+      this.trackType = trackType;
+      this.timestampsUs = timestampsUs;
+      format =
+          Format.createSampleFormat(
+              /* id= */ null, sampleMimeType, Format.OFFSET_SAMPLE_RELATIVE);
+      sampleCount = timestampsUs.length;
+    }
+
+    public SampleQueue getSampleQueue() {
+      return (SampleQueue) trackOutput;
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      return true;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+      this.output = output;
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition)
+        throws IOException, InterruptedException {
+      if (trackOutput == null) {
+        trackOutput = output.track(/* id= */ 0, trackType);
+        trackOutput.format(format);
+        output.endTracks();
+      }
+      if (sampleIndex == sampleCount) {
+        return RESULT_END_OF_INPUT;
+      }
+      int bytesRemaining = SAMPLE_SIZE;
+      while (bytesRemaining > 0) {
+        bytesRemaining -=
+            trackOutput.sampleData(input, bytesRemaining, /* allowEndOfInput= */ false);
+      }
+      trackOutput.sampleMetadata(
+          timestampAdjuster.adjustSampleTimestamp(timestampsUs[sampleIndex++]),
+          C.BUFFER_FLAG_KEY_FRAME,
+          SAMPLE_SIZE,
+          /* offset= */ 0,
+          /* cryptoData= */ null);
+      return RESULT_CONTINUE;
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {
+      // Do nothing.
+    }
+
+    @Override
+    public void release() {
+      // Do nothing.
+    }
+  }
+}
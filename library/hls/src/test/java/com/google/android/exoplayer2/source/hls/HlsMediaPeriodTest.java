@@ -92,7 +92,8 @@ public final class HlsMediaPeriodTest {
               mock(Allocator.class),
               mock(CompositeSequenceableLoaderFactory.class),
               /* allowChunklessPreparation =*/ true,
-              /* useSessionKeys= */ false);
+              /* useSessionKeys= */ false,
+              /* prewarmAdjacentVariants= */ false);
         };
 
     MediaPeriodAsserts.assertGetStreamKeysAndManifestFilterIntegration(
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.TimestampAdjuster;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link ProvisionalSampleQueue}. */
+@RunWith(AndroidJUnit4.class)
+public final class ProvisionalSampleQueueTest {
+
+  private static final int ALLOCATION_SIZE = 16;
+  private static final Format FORMAT =
+      Format.createSampleFormat("id", "mimeType", Format.OFFSET_SAMPLE_RELATIVE);
+  private static final byte[] DATA = TestUtil.buildTestData(ALLOCATION_SIZE * 2);
+  private static final int SAMPLE_SIZE = ALLOCATION_SIZE + 1;
+
+  private ProvisionalSampleQueue sampleQueue;
+  private FormatHolder formatHolder;
+  private DecoderInputBuffer inputBuffer;
+
+  @Before
+  public void setUp() {
+    sampleQueue = new ProvisionalSampleQueue(new DefaultAllocator(false, ALLOCATION_SIZE));
+    formatHolder = new FormatHolder();
+    inputBuffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+  }
+
+  @Test
+  public void samplesWithoutProvisionalAdjuster_areCommittedImmediately() {
+    TimestampAdjuster timestampAdjuster = new TimestampAdjuster(/* firstSampleTimestampUs= */ 0);
+    sampleQueue.setTimestampAdjusters(/* provisionalTimestampAdjuster= */ null, timestampAdjuster);
+
+    writeSamples(timestampAdjuster);
+
+    assertThat(sampleQueue.hasPendingSamples()).isFalse();
+    assertReadFormat();
+    assertReadSample(/* timeUs= */ 0, /* offset= */ 0);
+    assertReadSample(/* timeUs= */ 40_000, /* offset= */ SAMPLE_SIZE);
+  }
+
+  @Test
+  public void provisionalSamples_areHeldBackUntilAdjusterIsInitialized() {
+    TimestampAdjuster provisionalTimestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 1_000_000);
+    TimestampAdjuster timestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 5_000_000);
+    sampleQueue.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
+
+    writeSamples(provisionalTimestampAdjuster);
+    sampleQueue.commitPendingSamples();
+
+    assertThat(sampleQueue.hasPendingSamples()).isTrue();
+    assertThat(sampleQueue.getWriteIndex()).isEqualTo(0);
+    assertReadFormat();
+    assertReadNothing();
+  }
+
+  @Test
+  public void provisionalSamples_areRebasedOnceAdjusterIsInitialized() {
+    TimestampAdjuster provisionalTimestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 1_000_000);
+    TimestampAdjuster timestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 5_000_000);
+    sampleQueue.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
+    writeSamples(provisionalTimestampAdjuster);
+
+    // The master initializes the adjuster with a sample starting 100ms before the provisional one.
+    timestampAdjuster.adjustSampleTimestamp(/* timeUs= */ 9_900_000);
+    sampleQueue.commitPendingSamples();
+
+    assertThat(sampleQueue.hasPendingSamples()).isFalse();
+    assertReadFormat();
+    assertReadSample(/* timeUs= */ 5_100_000, /* offset= */ 0);
+    assertReadSample(/* timeUs= */ 5_140_000, /* offset= */ SAMPLE_SIZE);
+  }
+
+  @Test
+  public void setTimestampAdjusters_commitsSamplesThatCanBeRebased() {
+    TimestampAdjuster provisionalTimestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 1_000_000);
+    TimestampAdjuster timestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 5_000_000);
+    sampleQueue.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
+    writeSamples(provisionalTimestampAdjuster);
+    timestampAdjuster.adjustSampleTimestamp(/* timeUs= */ 10_000_000);
+
+    // The next chunk starts after the adjuster is initialized, and so doesn't need a provisional
+    // adjuster.
+    sampleQueue.setTimestampAdjusters(/* provisionalTimestampAdjuster= */ null, timestampAdjuster);
+
+    assertThat(sampleQueue.hasPendingSamples()).isFalse();
+    assertThat(sampleQueue.getWriteIndex()).isEqualTo(2);
+  }
+
+  @Test
+  public void reset_discardsPendingSamples() {
+    TimestampAdjuster provisionalTimestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 1_000_000);
+    TimestampAdjuster timestampAdjuster =
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 5_000_000);
+    sampleQueue.setTimestampAdjusters(provisionalTimestampAdjuster, timestampAdjuster);
+    writeSamples(provisionalTimestampAdjuster);
+
+    sampleQueue.reset();
+    timestampAdjuster.adjustSampleTimestamp(/* timeUs= */ 10_000_000);
+    sampleQueue.commitPendingSamples();
+
+    assertThat(sampleQueue.hasPendingSamples()).isFalse();
+    assertThat(sampleQueue.getWriteIndex()).isEqualTo(0);
+  }
+
+  /**
+   * Writes two samples with timestamps of 10s and 10.04s adjusted by {@code timestampAdjuster}.
+   * The data of the second sample is written after the metadata of the first.
+   */
+  private void writeSamples(TimestampAdjuster timestampAdjuster) {
+    sampleQueue.format(FORMAT);
+    sampleQueue.sampleData(new ParsableByteArray(DATA), SAMPLE_SIZE);
+    sampleQueue.sampleMetadata(
+        timestampAdjuster.adjustSampleTimestamp(/* timeUs= */ 10_000_000),
+        C.BUFFER_FLAG_KEY_FRAME,
+        SAMPLE_SIZE,
+        /* offset= */ 0,
+        /* cryptoData= */ null);
+    ParsableByteArray secondSampleData = new ParsableByteArray(DATA);
+    secondSampleData.setPosition(SAMPLE_SIZE);
+    sampleQueue.sampleData(secondSampleData, DATA.length - SAMPLE_SIZE);
+    sampleQueue.sampleMetadata(
+        timestampAdjuster.adjustSampleTimestamp(/* timeUs= */ 10_040_000),
+        C.BUFFER_FLAG_KEY_FRAME,
+        DATA.length - SAMPLE_SIZE,
+        /* offset= */ 0,
+        /* cryptoData= */ null);
+  }
+
+  private void assertReadFormat() {
+    formatHolder.format = null;
+    assertThat(read()).isEqualTo(C.RESULT_FORMAT_READ);
+    assertThat(formatHolder.format).isEqualTo(FORMAT);
+  }
+
+  private void assertReadNothing() {
+    assertThat(read()).isEqualTo(C.RESULT_NOTHING_READ);
+  }
+
+  private void assertReadSample(long timeUs, int offset) {
+    inputBuffer.clear();
+    assertThat(read()).isEqualTo(C.RESULT_BUFFER_READ);
+    assertThat(inputBuffer.timeUs).isEqualTo(timeUs);
+    inputBuffer.flip();
+    byte[] readData = new byte[inputBuffer.data.limit()];
+    inputBuffer.data.get(readData);
+    int length = offset == 0 ? SAMPLE_SIZE : DATA.length - SAMPLE_SIZE;
+    assertThat(readData).isEqualTo(Arrays.copyOfRange(DATA, offset, offset + length));
+  }
+
+  private int read() {
+    return sampleQueue.read(
+        formatHolder,
+        inputBuffer,
+        /* formatRequired= */ false,
+        /* allowOnlyClearBuffers= */ false,
+        /* loadingFinished= */ false,
+        /* decodeOnlyUntilUs= */ 0);
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.source.DefaultMediaSourceEventListener;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import com.google.android.exoplayer2.source.hls.DefaultHlsDataSourceFactory;
+import com.google.android.exoplayer2.testutil.FakeDataSet;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultLoadErrorHandlingPolicy;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/** Unit tests for {@link DefaultHlsPlaylistTracker}. */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class DefaultHlsPlaylistTrackerTest {
+
+  private static final long TIMEOUT_MS = 10000;
+  private static final String PLAYLIST_URI = "https://example.com/media.m3u8";
+
+  private static final String LOW_LATENCY_PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3\n"
+          + "#EXT-X-PART-INF:PART-TARGET=1\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXTINF:4,\n"
+          + "10.ts\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.0.ts\",INDEPENDENT=YES\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.1.ts\"\n"
+          + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"11.2.ts\"\n";
+  private static final String LOW_LATENCY_PLAYLIST_WITH_NEXT_PART =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=3\n"
+          + "#EXT-X-PART-INF:PART-TARGET=1\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXTINF:4,\n"
+          + "10.ts\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.0.ts\",INDEPENDENT=YES\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.1.ts\"\n"
+          + "#EXT-X-PART:DURATION=1,URI=\"11.2.ts\"\n"
+          + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"11.3.ts\"\n";
+  private static final String DELTA_UPDATE_PLAYLIST =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,CAN-SKIP-UNTIL=24\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXTINF:4,\n"
+          + "10.ts\n"
+          + "#EXTINF:4,\n"
+          + "11.ts\n";
+  private static final String DELTA_UPDATE_PLAYLIST_WITH_SKIP =
+      "#EXTM3U\n"
+          + "#EXT-X-TARGETDURATION:4\n"
+          + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,CAN-SKIP-UNTIL=24\n"
+          + "#EXT-X-MEDIA-SEQUENCE:10\n"
+          + "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"
+          + "#EXTINF:4,\n"
+          + "12.ts\n";
+
+  private static final String DELTA_UPDATE_FULL_PLAYLIST =
+      DELTA_UPDATE_PLAYLIST + "#EXTINF:4,\n" + "12.ts\n";
+
+  private FakeDataSet fakeDataSet;
+  private List<FakeDataSource> dataSources;
+  private DataSource.Factory dataSourceFactory;
+  private DefaultHlsPlaylistTracker playlistTracker;
+  private List<HlsMediaPlaylist> primaryPlaylists;
+
+  @Before
+  public void setUp() {
+    fakeDataSet = new FakeDataSet();
+    dataSources = Collections.synchronizedList(new ArrayList<>());
+    dataSourceFactory =
+        () -> {
+          FakeDataSource dataSource = new FakeDataSource(fakeDataSet);
+          dataSources.add(dataSource);
+          return dataSource;
+        };
+    playlistTracker =
+        new DefaultHlsPlaylistTracker(
+            new DefaultHlsDataSourceFactory(dataSourceFactory),
+            new DefaultLoadErrorHandlingPolicy(),
+            new DefaultHlsPlaylistParserFactory());
+    primaryPlaylists = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    playlistTracker.stop();
+  }
+
+  @Test
+  public void start_withBlockingReload_requestsNextPartImmediately() throws Exception {
+    fakeDataSet
+        .setData(PLAYLIST_URI, Util.getUtf8Bytes(LOW_LATENCY_PLAYLIST))
+        // The blocking reload requests the part following the last published part of segment 11.
+        .setData(
+            PLAYLIST_URI + "?_HLS_msn=11&_HLS_part=2",
+            Util.getUtf8Bytes(LOW_LATENCY_PLAYLIST_WITH_NEXT_PART));
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), new EventDispatcher(), primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 2);
+
+    assertThat(getRequestedUris())
+        .containsAtLeast(PLAYLIST_URI, PLAYLIST_URI + "?_HLS_msn=11&_HLS_part=2")
+        .inOrder();
+    HlsMediaPlaylist playlist = primaryPlaylists.get(1);
+    assertThat(playlist.getPublishedTrailingPartCount()).isEqualTo(3);
+    assertThat(playlist.trailingParts.get(3).url).isEqualTo("11.3.ts");
+    assertThat(playlist.trailingParts.get(3).isPreload).isTrue();
+  }
+
+  @Test
+  public void start_withoutBlockingReload_doesNotReloadBeforeTargetDuration() throws Exception {
+    String playlistString = LOW_LATENCY_PLAYLIST.replace("CAN-BLOCK-RELOAD=YES,", "");
+    fakeDataSet.setData(PLAYLIST_URI, Util.getUtf8Bytes(playlistString));
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), new EventDispatcher(), primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 1);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    // The clock doesn't advance, so the playlist isn't reloaded within the part target duration.
+    assertThat(primaryPlaylists.get(0).serverControl.canBlockReload).isFalse();
+    assertThat(getRequestedUris()).containsExactly(PLAYLIST_URI);
+  }
+
+  @Test
+  public void start_withDeltaUpdates_requestsAndMergesDeltaUpdate() throws Exception {
+    fakeDataSet
+        .setData(PLAYLIST_URI, Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST))
+        .setData(
+            PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES",
+            Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST_WITH_SKIP));
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), new EventDispatcher(), primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 2);
+
+    assertThat(getRequestedUris())
+        .containsAtLeast(PLAYLIST_URI, PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES")
+        .inOrder();
+    List<HlsMediaPlaylist.Segment> segments = primaryPlaylists.get(1).segments;
+    assertThat(segments).hasSize(3);
+    assertThat(segments.get(0)).isSameInstanceAs(primaryPlaylists.get(0).segments.get(0));
+    assertThat(segments.get(1)).isSameInstanceAs(primaryPlaylists.get(0).segments.get(1));
+    assertThat(segments.get(2).url).isEqualTo("12.ts");
+  }
+
+  @Test
+  public void start_withFailedDeltaUpdate_requestsFullPlaylist() throws Exception {
+    // The delta update skips more segments than the previous snapshot contains.
+    String playlistWithInvalidSkip =
+        DELTA_UPDATE_PLAYLIST_WITH_SKIP.replace("SKIPPED-SEGMENTS=2", "SKIPPED-SEGMENTS=3");
+    fakeDataSet
+        .setData(PLAYLIST_URI, Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST))
+        .setData(
+            PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES", Util.getUtf8Bytes(playlistWithInvalidSkip))
+        .setData(PLAYLIST_URI + "?_HLS_msn=12", Util.getUtf8Bytes(DELTA_UPDATE_FULL_PLAYLIST));
+    List<IOException> loadErrors = new ArrayList<>();
+    List<Boolean> loadErrorsWereCanceled = new ArrayList<>();
+    EventDispatcher eventDispatcher = new EventDispatcher();
+    eventDispatcher.addEventListener(
+        new Handler(Looper.getMainLooper()),
+        new DefaultMediaSourceEventListener() {
+          @Override
+          public void onLoadError(
+              int windowIndex,
+              @Nullable MediaPeriodId mediaPeriodId,
+              LoadEventInfo loadEventInfo,
+              MediaLoadData mediaLoadData,
+              IOException error,
+              boolean wasCanceled) {
+            loadErrors.add(error);
+            loadErrorsWereCanceled.add(wasCanceled);
+          }
+        });
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), eventDispatcher, primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 2);
+
+    assertThat(getRequestedUris())
+        .containsAtLeast(
+            PLAYLIST_URI,
+            PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES",
+            PLAYLIST_URI + "?_HLS_msn=12")
+        .inOrder();
+    assertThat(primaryPlaylists.get(1).segments).hasSize(3);
+    // The failed delta update is reported as an error that didn't cancel loading.
+    assertThat(loadErrors.get(0)).isInstanceOf(HlsPlaylistParser.DeltaUpdateException.class);
+    assertThat(loadErrorsWereCanceled.get(0)).isFalse();
+  }
+
+  @Test
+  public void start_withFactoryWithoutDeltaUpdateSupport_doesNotRequestDeltaUpdate()
+      throws Exception {
+    // A factory that doesn't override the method that passes the previous snapshot to the parser.
+    HlsPlaylistParserFactory playlistParserFactory =
+        new HlsPlaylistParserFactory() {
+          @Override
+          public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser() {
+            return new HlsPlaylistParser();
+          }
+
+          @Override
+          public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
+              HlsMasterPlaylist masterPlaylist) {
+            return new HlsPlaylistParser(masterPlaylist);
+          }
+        };
+    playlistTracker = createPlaylistTracker(playlistParserFactory);
+    fakeDataSet
+        .setData(PLAYLIST_URI, Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST))
+        .setData(PLAYLIST_URI + "?_HLS_msn=12", Util.getUtf8Bytes(DELTA_UPDATE_FULL_PLAYLIST));
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), new EventDispatcher(), primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 2);
+
+    assertThat(getRequestedUris())
+        .containsAtLeast(PLAYLIST_URI, PLAYLIST_URI + "?_HLS_msn=12")
+        .inOrder();
+    assertThat(primaryPlaylists.get(1).segments).hasSize(3);
+  }
+
+  @Test
+  public void start_withParserWithoutPreviousSnapshot_stopsRequestingDeltaUpdates()
+      throws Exception {
+    // A factory that claims delta update support, but doesn't pass the previous snapshot.
+    HlsPlaylistParserFactory playlistParserFactory =
+        new HlsPlaylistParserFactory() {
+          @Override
+          public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser() {
+            return new HlsPlaylistParser();
+          }
+
+          @Override
+          public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(
+              HlsMasterPlaylist masterPlaylist) {
+            return new HlsPlaylistParser(masterPlaylist);
+          }
+
+          @Override
+          public boolean supportsDeltaUpdates() {
+            return true;
+          }
+        };
+    playlistTracker = createPlaylistTracker(playlistParserFactory);
+    fakeDataSet
+        .setData(PLAYLIST_URI, Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST))
+        .setData(
+            PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES",
+            Util.getUtf8Bytes(DELTA_UPDATE_PLAYLIST_WITH_SKIP))
+        .setData(PLAYLIST_URI + "?_HLS_msn=12", Util.getUtf8Bytes(DELTA_UPDATE_FULL_PLAYLIST))
+        .setData(
+            PLAYLIST_URI + "?_HLS_msn=13",
+            Util.getUtf8Bytes(DELTA_UPDATE_FULL_PLAYLIST + "#EXTINF:4,\n" + "13.ts\n"));
+
+    playlistTracker.start(Uri.parse(PLAYLIST_URI), new EventDispatcher(), primaryPlaylists::add);
+    runMainLooperUntil(() -> primaryPlaylists.size() >= 3);
+
+    // The delta update fails, and the following reloads request the full playlist.
+    assertThat(getRequestedUris())
+        .containsAtLeast(
+            PLAYLIST_URI,
+            PLAYLIST_URI + "?_HLS_msn=12&_HLS_skip=YES",
+            PLAYLIST_URI + "?_HLS_msn=12",
+            PLAYLIST_URI + "?_HLS_msn=13")
+        .inOrder();
+    assertThat(primaryPlaylists.get(2).segments).hasSize(4);
+  }
+
+  private DefaultHlsPlaylistTracker createPlaylistTracker(
+      HlsPlaylistParserFactory playlistParserFactory) {
+    return new DefaultHlsPlaylistTracker(
+        new DefaultHlsDataSourceFactory(dataSourceFactory),
+        new DefaultLoadErrorHandlingPolicy(),
+        playlistParserFactory);
+  }
+
+  private List<String> getRequestedUris() {
+    List<String> requestedUris = new ArrayList<>();
+    synchronized (dataSources) {
+      for (FakeDataSource dataSource : dataSources) {
+        for (DataSpec dataSpec : dataSource.getAndClearOpenedDataSpecs()) {
+          requestedUris.add(dataSpec.uri.toString());
+        }
+      }
+    }
+    return requestedUris;
+  }
+
+  private static void runMainLooperUntil(Condition condition) throws Exception {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!condition.isMet()) {
+      if (System.currentTimeMillis() > deadlineMs) {
+        throw new TimeoutException();
+      }
+      shadowOf(Looper.getMainLooper()).idle();
+      Thread.sleep(1);
+    }
+  }
+
+  private interface Condition {
+
+    boolean isMet();
+  }
+}
@@ -266,6 +266,16 @@ public class HlsMasterPlaylistParserTest {
     assertThat(closedCaptionFormat.language).isEqualTo("es");
   }
 
+  @Test
+  public void testPlaylistWithInvalidInstreamIdFails() throws IOException {
+    try {
+      parseMasterPlaylist(PLAYLIST_URI, PLAYLIST_WITH_CC.replace("SERVICE4", "SERVICEx"));
+      fail("Expected exception not thrown.");
+    } catch (ParserException e) {
+      // Expected due to invalid INSTREAM-ID.
+    }
+  }
+
   @Test
   public void testPlaylistWithChannelsAttribute() throws IOException {
     HlsMasterPlaylist playlist =
@@ -22,6 +22,8 @@ import android.net.Uri;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Part;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
 import com.google.android.exoplayer2.util.Util;
 import java.io.ByteArrayInputStream;
@@ -528,4 +530,489 @@ public class HlsMediaPlaylistParserTest {
       assertThat(playlist.segments.get(i - 1).url).isEqualTo("long_path" + i + ".ts");
     }
   }
+
+  @Test
+  public void testParseWithPreviousPlaylist_reusesUnchangedSegments() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n"
+            + "#EXTINF:4,\n"
+            + "11.ts\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:11\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:4,\n"
+            + "11.ts\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n"
+            + "#EXTINF:6,new segment\n"
+            + "13.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    List<Segment> segments = playlist.segments;
+    List<Segment> previousSegments = previousPlaylist.segments;
+    assertThat(segments).hasSize(3);
+    // The segments moved to the start of the playlist, so they are copies.
+    assertThat(segments.get(0).url).isEqualTo("11.ts");
+    assertThat(segments.get(0).durationUs).isEqualTo(4000000);
+    assertThat(segments.get(0).relativeStartTimeUs).isEqualTo(0);
+    assertThat(segments.get(0).relativeDiscontinuitySequence).isEqualTo(0);
+    assertThat(segments.get(1).url).isEqualTo("12.ts");
+    assertThat(segments.get(1).relativeStartTimeUs).isEqualTo(4000000);
+    assertThat(segments.get(1).relativeDiscontinuitySequence).isEqualTo(1);
+    assertThat(segments.get(2).url).isEqualTo("13.ts");
+    assertThat(segments.get(2).title).isEqualTo("new segment");
+    assertThat(segments.get(2).durationUs).isEqualTo(6000000);
+    assertThat(segments.get(2).relativeStartTimeUs).isEqualTo(9000000);
+    // Instances referenced by the segments are shared, including by the new segment.
+    Segment initializationSegment = previousSegments.get(0).initializationSegment;
+    for (Segment segment : segments) {
+      assertThat(segment.initializationSegment).isSameInstanceAs(initializationSegment);
+    }
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylist_sharesSegmentsIfPositionUnchanged()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-PLAYLIST-TYPE:EVENT\n"
+            + "#EXTINF:5,\n"
+            + "0.ts\n"
+            + "#EXTINF:5,\n"
+            + "1.ts\n";
+    String playlistString =
+        previousPlaylistString + "#EXTINF:5,\n" + "2.ts\n" + "#EXTINF:5,\n" + "3.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.segments).hasSize(4);
+    assertThat(playlist.segments.get(0)).isSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(playlist.segments.get(1)).isSameInstanceAs(previousPlaylist.segments.get(1));
+    assertThat(playlist.segments.get(2).url).isEqualTo("2.ts");
+    assertThat(playlist.segments.get(3).relativeStartTimeUs).isEqualTo(15000000);
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylist_reparsesChangedSegments() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n";
+    // The server reset the playlist, so the segment with the same media sequence is different.
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:4,\n"
+            + "reset/10.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    Segment segment = playlist.segments.get(0);
+    assertThat(segment).isNotSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(segment.url).isEqualTo("reset/10.ts");
+    assertThat(segment.durationUs).isEqualTo(4000000);
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylist_reparsesSegmentsWithChangedMediaDuration()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n"
+            + "#EXTINF:5,live\n"
+            + "11.ts\n";
+    // The server corrected the duration and title of the segments at the live edge.
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:4.5,\n"
+            + "10.ts\n"
+            + "#EXTINF:5,final\n"
+            + "11.ts\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    List<Segment> segments = playlist.segments;
+    assertThat(segments.get(0)).isNotSameInstanceAs(previousPlaylist.segments.get(0));
+    assertThat(segments.get(0).durationUs).isEqualTo(4500000);
+    assertThat(segments.get(1)).isNotSameInstanceAs(previousPlaylist.segments.get(1));
+    assertThat(segments.get(1).title).isEqualTo("final");
+    assertThat(segments.get(1).relativeStartTimeUs).isEqualTo(4500000);
+    assertThat(segments.get(2).relativeStartTimeUs).isEqualTo(9500000);
+  }
+
+  @Test
+  public void testParseLowLatencyPlaylist() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:2\n"
+            + "#EXT-X-VERSION:6\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.5,HOLD-BACK=6\n"
+            + "#EXT-X-PART-INF:PART-TARGET=0.5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:2,\n"
+            + "10.ts\n"
+            + "#EXT-X-PART:DURATION=1,URI=\"11.ts\",BYTERANGE=\"100@0\",INDEPENDENT=YES\n"
+            + "#EXT-X-PART:DURATION=1,URI=\"11.ts\",BYTERANGE=\"200\"\n"
+            + "#EXTINF:2,\n"
+            + "11.ts\n"
+            + "#EXT-X-PART:DURATION=0.5,URI=\"12.0.ts\",INDEPENDENT=YES\n"
+            + "#EXT-X-PART:DURATION=0.5,URI=\"12.1.ts\",GAP=YES\n"
+            + "#EXT-X-PRELOAD-HINT:TYPE=MAP,URI=\"init.mp4\"\n"
+            + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"12.2.ts\",BYTERANGE-START=10\n";
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.serverControl.canBlockReload).isTrue();
+    assertThat(playlist.serverControl.partHoldBackUs).isEqualTo(1500000);
+    assertThat(playlist.serverControl.holdBackUs).isEqualTo(6000000);
+    assertThat(playlist.partTargetDurationUs).isEqualTo(500000);
+    assertThat(playlist.durationUs).isEqualTo(4000000);
+
+    List<Segment> segments = playlist.segments;
+    assertThat(segments).hasSize(2);
+    assertThat(segments.get(0).parts).isEmpty();
+    List<Part> parts = segments.get(1).parts;
+    assertThat(parts).hasSize(2);
+    assertThat(parts.get(0).url).isEqualTo("11.ts");
+    assertThat(parts.get(0).relativeStartTimeUs).isEqualTo(2000000);
+    assertThat(parts.get(0).durationUs).isEqualTo(1000000);
+    assertThat(parts.get(0).byterangeOffset).isEqualTo(0);
+    assertThat(parts.get(0).byterangeLength).isEqualTo(100);
+    assertThat(parts.get(0).isIndependent).isTrue();
+    // Without an offset, the byte range continues the byte range of the previous part.
+    assertThat(parts.get(1).relativeStartTimeUs).isEqualTo(3000000);
+    assertThat(parts.get(1).byterangeOffset).isEqualTo(100);
+    assertThat(parts.get(1).byterangeLength).isEqualTo(200);
+    assertThat(parts.get(1).isIndependent).isFalse();
+
+    List<Part> trailingParts = playlist.trailingParts;
+    assertThat(trailingParts).hasSize(3);
+    assertThat(trailingParts.get(0).url).isEqualTo("12.0.ts");
+    assertThat(trailingParts.get(0).relativeStartTimeUs).isEqualTo(4000000);
+    assertThat(trailingParts.get(0).byterangeLength).isEqualTo(C.LENGTH_UNSET);
+    assertThat(trailingParts.get(0).isPreload).isFalse();
+    assertThat(trailingParts.get(1).url).isEqualTo("12.1.ts");
+    assertThat(trailingParts.get(1).relativeStartTimeUs).isEqualTo(4500000);
+    assertThat(trailingParts.get(1).hasGapTag).isTrue();
+    assertThat(trailingParts.get(2).url).isEqualTo("12.2.ts");
+    assertThat(trailingParts.get(2).relativeStartTimeUs).isEqualTo(5000000);
+    assertThat(trailingParts.get(2).byterangeOffset).isEqualTo(10);
+    assertThat(trailingParts.get(2).byterangeLength).isEqualTo(C.LENGTH_UNSET);
+    assertThat(trailingParts.get(2).isPreload).isTrue();
+    assertThat(playlist.getPublishedTrailingPartCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testParsePlaylistWithoutServerControl_hasDefaultServerControl() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n" + "#EXT-X-TARGETDURATION:5\n" + "#EXTINF:5,\n" + "0.ts\n";
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.serverControl.canBlockReload).isFalse();
+    assertThat(playlist.serverControl.partHoldBackUs).isEqualTo(C.TIME_UNSET);
+    assertThat(playlist.serverControl.skipUntilUs).isEqualTo(C.TIME_UNSET);
+    assertThat(playlist.partTargetDurationUs).isEqualTo(C.TIME_UNSET);
+    assertThat(playlist.trailingParts).isEmpty();
+  }
+
+  @Test
+  public void testParseDeltaUpdate_mergesSkippedSegmentsFromPreviousPlaylist() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-DISCONTINUITY-SEQUENCE:2\n"
+            + "#EXT-X-PROGRAM-DATE-TIME:2019-10-01T12:00:00.000Z\n"
+            + "#EXT-X-KEY:METHOD=AES-128,URI=\"key\"\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n"
+            + "#EXT-X-DISCONTINUITY\n"
+            + "#EXTINF:4,\n"
+            + "11.ts\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    // The first segment was removed and a new one was added. 11.ts and 12.ts are skipped.
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:11\n"
+            + "#EXT-X-DISCONTINUITY-SEQUENCE:3\n"
+            + "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"
+            + "#EXTINF:6,\n"
+            + "13.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.serverControl.skipUntilUs).isEqualTo(30000000);
+    assertThat(playlist.mediaSequence).isEqualTo(11);
+    assertThat(playlist.durationUs).isEqualTo(15000000);
+    // The start time is derived from the program date time of the skipped segments.
+    assertThat(playlist.hasProgramDateTime).isTrue();
+    assertThat(playlist.startTimeUs).isEqualTo(previousPlaylist.startTimeUs + 5000000);
+    List<Segment> segments = playlist.segments;
+    assertThat(segments).hasSize(3);
+    assertThat(segments.get(0).url).isEqualTo("11.ts");
+    assertThat(segments.get(0).relativeStartTimeUs).isEqualTo(0);
+    assertThat(segments.get(0).relativeDiscontinuitySequence).isEqualTo(0);
+    assertThat(segments.get(1).url).isEqualTo("12.ts");
+    assertThat(segments.get(1).relativeStartTimeUs).isEqualTo(4000000);
+    // The new segment inherits the state of the skipped segments.
+    Segment segment = segments.get(2);
+    assertThat(segment.url).isEqualTo("13.ts");
+    assertThat(segment.relativeStartTimeUs).isEqualTo(9000000);
+    assertThat(segment.relativeDiscontinuitySequence).isEqualTo(0);
+    assertThat(segment.fullSegmentEncryptionKeyUri).isEqualTo("key");
+    assertThat(segment.encryptionIV).isEqualTo(Long.toHexString(13));
+  }
+
+  @Test
+  public void testParseDeltaUpdate_keepsExplicitEncryptionIVOfSkippedSegments()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-KEY:METHOD=AES-128,URI=\"key\",IV=0x1234\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n"
+            + "#EXTINF:5,\n"
+            + "11.ts\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(previousPlaylist.segments.get(1).hasExplicitEncryptionIV).isTrue();
+    Segment segment = playlist.segments.get(2);
+    assertThat(segment.url).isEqualTo("12.ts");
+    assertThat(segment.encryptionIV).isEqualTo("0x1234");
+    assertThat(segment.hasExplicitEncryptionIV).isTrue();
+  }
+
+  @Test
+  public void testParseDeltaUpdate_mergesKeysWithKeysOfSkippedSegments() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-KEY:METHOD=SAMPLE-AES,"
+            + "KEYFORMAT=\"urn:uuid:edef8ba9-79d6-4ace-a3c8-27dcd51d21ed\","
+            + "KEYFORMATVERSIONS=\"1\","
+            + "URI=\"data:text/plain;base64,Tm90aGluZyB0byBzZWUgaGVyZQ==\"\n"
+            + "#EXT-X-KEY:METHOD=SAMPLE-AES,KEYFORMAT=\"com.microsoft.playready\","
+            + "KEYFORMATVERSIONS=\"1\","
+            + "URI=\"data:text/plain;charset=UTF-16;base64,VGhpcyBpcyBhbiBlYXN0ZXIgZWdn\"\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n"
+            + "#EXTINF:5,\n"
+            + "11.ts\n";
+    // The PlayReady key is rotated after the skipped segments.
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-SERVER-CONTROL:CAN-SKIP-UNTIL=30\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"
+            + "#EXT-X-KEY:METHOD=SAMPLE-AES,KEYFORMAT=\"com.microsoft.playready\","
+            + "KEYFORMATVERSIONS=\"1\","
+            + "URI=\"data:text/plain;charset=UTF-16;base64,T2ssIGl0J3Mgbm90IGZ1biBhbnltb3Jl\"\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    DrmInitData skippedDrmInitData = previousPlaylist.segments.get(1).drmInitData;
+    DrmInitData drmInitData = playlist.segments.get(2).drmInitData;
+    assertThat(drmInitData.schemeType).isEqualTo(C.CENC_TYPE_cbcs);
+    assertThat(drmInitData.schemeDataCount).isEqualTo(2);
+    assertThat(drmInitData.get(0).matches(C.PLAYREADY_UUID)).isTrue();
+    assertThat(drmInitData.get(0)).isNotEqualTo(skippedDrmInitData.get(0));
+    assertThat(drmInitData.get(1).matches(C.WIDEVINE_UUID)).isTrue();
+    assertThat(drmInitData.get(1)).isEqualTo(skippedDrmInitData.get(1));
+  }
+
+  @Test
+  public void testParseDeltaUpdate_withSegmentsMissingFromPreviousPlaylist_fails()
+      throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String previousPlaylistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXTINF:5,\n"
+            + "10.ts\n";
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE:10\n"
+            + "#EXT-X-SKIP:SKIPPED-SEGMENTS=2\n"
+            + "#EXTINF:5,\n"
+            + "12.ts\n";
+    HlsMediaPlaylist previousPlaylist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(
+                    playlistUri,
+                    new ByteArrayInputStream(Util.getUtf8Bytes(previousPlaylistString)));
+
+    try {
+      new HlsPlaylistParser(HlsMasterPlaylist.EMPTY, previousPlaylist)
+          .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+      fail();
+    } catch (HlsPlaylistParser.DeltaUpdateException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testParseByteRangeWithWhitespace() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-MEDIA-SEQUENCE: 10\n"
+            + "#EXTINF:5,\n"
+            + "#EXT-X-BYTERANGE: 100@200 \n"
+            + "10.ts\n";
+
+    HlsMediaPlaylist playlist =
+        (HlsMediaPlaylist)
+            new HlsPlaylistParser()
+                .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+
+    assertThat(playlist.mediaSequence).isEqualTo(10);
+    assertThat(playlist.segments.get(0).byterangeLength).isEqualTo(100);
+    assertThat(playlist.segments.get(0).byterangeOffset).isEqualTo(200);
+  }
+
+  @Test
+  public void testParseMalformedByteRangeFails() throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXTINF:5,\n"
+            + "#EXT-X-BYTERANGE:100@abc\n"
+            + "10.ts\n";
+
+    try {
+      new HlsPlaylistParser()
+          .parse(playlistUri, new ByteArrayInputStream(Util.getUtf8Bytes(playlistString)));
+      fail();
+    } catch (ParserException e) {
+      // Expected.
+    }
+  }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assume.assumeTrue;
+
+import android.net.Uri;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.testutil.AllocationCounter;
+import com.google.android.exoplayer2.util.Util;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the memory allocated by {@link HlsPlaylistParser} on playlists shaped like real-world live
+ * streams.
+ *
+ * <p>The memory allocated to parse a playlist is compared against just reading its lines, which is
+ * the lower bound for any line-based parser. The measured values are included in the failure
+ * messages.
+ *
+ * <p>Only allocations are measured. Parsing time isn't measured, and the parser isn't compared
+ * against the regular expression based parsing it replaced, which no longer exists.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class HlsPlaylistParserAllocationTest {
+
+  private static final Uri PLAYLIST_URI = Uri.parse("https://example.com/live/playlist.m3u8");
+  private static final int SEGMENT_COUNT = 1000;
+  private static final int VARIANT_COUNT = 50;
+  private static final int WARM_UP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 3;
+  // Parsing a media playlist allocates a Segment per segment in addition to the lines. Matching a
+  // regular expression per tag and attribute allocated more than five times as much as reading.
+  private static final int MAX_MEDIA_PLAYLIST_ALLOCATION_RATIO = 3;
+  // Parsing a master playlist allocates a Format and its metadata per variant and rendition, which
+  // is large relative to the short playlist. Regular expressions allocated more than eight times as
+  // much as reading.
+  private static final int MAX_MASTER_PLAYLIST_ALLOCATION_RATIO = 6;
+
+  private AllocationCounter allocationCounter;
+
+  @Before
+  public void setUp() {
+    allocationCounter = AllocationCounter.createIfSupported();
+    assumeTrue(allocationCounter != null);
+  }
+
+  @Test
+  public void parseLiveMediaPlaylist() throws IOException {
+    byte[] playlist = Util.getUtf8Bytes(buildLiveMediaPlaylist(SEGMENT_COUNT));
+
+    long parsingBytes = measureAllocatedBytes(() -> parse(playlist));
+    long readingLinesBytes = measureAllocatedBytes(() -> readLines(playlist));
+
+    HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) parse(playlist);
+    assertThat(mediaPlaylist.segments).hasSize(SEGMENT_COUNT);
+    assertAllocationRatio(parsingBytes, readingLinesBytes, MAX_MEDIA_PLAYLIST_ALLOCATION_RATIO);
+  }
+
+  @Test
+  public void parseMasterPlaylist() throws IOException {
+    byte[] playlist = Util.getUtf8Bytes(buildMasterPlaylist(VARIANT_COUNT));
+
+    long parsingBytes = measureAllocatedBytes(() -> parse(playlist));
+    long readingLinesBytes = measureAllocatedBytes(() -> readLines(playlist));
+
+    HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) parse(playlist);
+    assertThat(masterPlaylist.variants).hasSize(VARIANT_COUNT);
+    assertThat(masterPlaylist.audios).hasSize(VARIANT_COUNT / 10);
+    assertAllocationRatio(parsingBytes, readingLinesBytes, MAX_MASTER_PLAYLIST_ALLOCATION_RATIO);
+  }
+
+  private static void assertAllocationRatio(
+      long parsingBytes, long readingLinesBytes, int maxRatio) {
+    assertWithMessage(
+            String.format(
+                Locale.US,
+                "Parsing: %d bytes. Reading lines: %d bytes.",
+                parsingBytes,
+                readingLinesBytes))
+        .that(parsingBytes)
+        .isAtMost(readingLinesBytes * maxRatio);
+  }
+
+  private static HlsPlaylist parse(byte[] playlist) throws IOException {
+    return new HlsPlaylistParser().parse(PLAYLIST_URI, new ByteArrayInputStream(playlist));
+  }
+
+  private static int readLines(byte[] playlist) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(playlist)));
+    int lineCount = 0;
+    while (reader.readLine() != null) {
+      lineCount++;
+    }
+    return lineCount;
+  }
+
+  private static String buildLiveMediaPlaylist(int segmentCount) {
+    StringBuilder playlist =
+        new StringBuilder()
+            .append("#EXTM3U\n")
+            .append("#EXT-X-VERSION:6\n")
+            .append("#EXT-X-TARGETDURATION:6\n")
+            .append("#EXT-X-MEDIA-SEQUENCE:1234567\n")
+            .append("#EXT-X-DISCONTINUITY-SEQUENCE:12\n")
+            .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+            .append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+    for (int i = 0; i < segmentCount; i++) {
+      if (i % 500 == 0) {
+        playlist
+            .append("#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys.example.com/key?id=")
+            .append(i)
+            .append("\",IV=0x")
+            .append(Integer.toHexString(i + 1))
+            .append("\n");
+      }
+      if (i % 10 == 0) {
+        playlist
+            .append("#EXT-X-PROGRAM-DATE-TIME:2019-10-01T12:")
+            .append(String.format(Locale.US, "%02d:%02d", (i * 6 / 60) % 60, (i * 6) % 60))
+            .append(".000Z\n");
+      }
+      playlist
+          .append("#EXTINF:6.006,\n")
+          .append("https://cdn.example.com/live/1080p/segment_")
+          .append(1234567 + i)
+          .append(".m4s?token=abcdef0123456789\n");
+    }
+    return playlist.toString();
+  }
+
+  private static String buildMasterPlaylist(int variantCount) {
+    StringBuilder playlist =
+        new StringBuilder().append("#EXTM3U\n").append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+    for (int i = 0; i < variantCount / 10; i++) {
+      playlist
+          .append("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio")
+          .append(i)
+          .append("\",NAME=\"English\",LANGUAGE=\"en\",DEFAULT=YES,AUTOSELECT=YES,")
+          .append("CHANNELS=\"2\",URI=\"audio/")
+          .append(i)
+          .append("/playlist.m3u8\"\n");
+    }
+    for (int i = 0; i < variantCount; i++) {
+      playlist
+          .append("#EXT-X-STREAM-INF:BANDWIDTH=")
+          .append(500_000 + i * 10_000)
+          .append(",AVERAGE-BANDWIDTH=")
+          .append(450_000 + i * 10_000)
+          .append(",CODECS=\"avc1.640028,mp4a.40.2\",RESOLUTION=1920x1080,FRAME-RATE=29.970,")
+          .append("AUDIO=\"audio")
+          .append(i % (variantCount / 10))
+          .append("\",CLOSED-CAPTIONS=NONE\n")
+          .append("video/")
+          .append(i)
+          .append("/playlist.m3u8\n");
+    }
+    return playlist.toString();
+  }
+
+  /** Returns the average number of bytes allocated by a single run of {@code runnable}. */
+  private long measureAllocatedBytes(IoRunnable runnable) throws IOException {
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      runnable.run();
+    }
+    long startAllocatedBytes = allocationCounter.getAllocatedBytes();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      runnable.run();
+    }
+    return (allocationCounter.getAllocatedBytes() - startAllocatedBytes) / MEASURED_ITERATIONS;
+  }
+
+  private interface IoRunnable {
+
+    void run() throws IOException;
+  }
+}
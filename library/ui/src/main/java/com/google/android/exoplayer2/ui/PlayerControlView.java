@@ -33,6 +33,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerLibraryInfo;
 import com.google.android.exoplayer2.PlaybackPreparer;
 import com.google.android.exoplayer2.Player;
@@ -273,6 +274,7 @@ public class PlayerControlView extends FrameLayout {
   private boolean showMultiWindowTimeBar;
   private boolean multiWindowTimeBar;
   private boolean scrubbing;
+  private boolean seekWhileScrubbing;
   private int rewindMs;
   private int fastForwardMs;
   private int showTimeoutMs;
@@ -485,6 +487,17 @@ public class PlayerControlView extends FrameLayout {
     updateTimeline();
   }
 
+  /**
+   * Sets whether the player seeks while the user drags the time bar, rather than only once the user
+   * releases it. If the player is an {@link ExoPlayer}, it is put in scrubbing mode while the time
+   * bar is dragged (see {@link ExoPlayer#setScrubbingModeEnabled(boolean)}).
+   *
+   * @param seekWhileScrubbing Whether the player seeks while the user drags the time bar.
+   */
+  public void setSeekWhileScrubbing(boolean seekWhileScrubbing) {
+    this.seekWhileScrubbing = seekWhileScrubbing;
+  }
+
   /**
    * Sets the millisecond positions of extra ad markers relative to the start of the window (or
    * timeline, if in multi-window mode) and whether each extra ad has been played or not. The
@@ -1198,6 +1211,9 @@ public class PlayerControlView extends FrameLayout {
       if (positionView != null) {
         positionView.setText(Util.getStringForTime(formatBuilder, formatter, position));
       }
+      if (seekWhileScrubbing && player instanceof ExoPlayer) {
+        ((ExoPlayer) player).setScrubbingModeEnabled(true);
+      }
     }
 
     @Override
@@ -1205,11 +1221,18 @@ public class PlayerControlView extends FrameLayout {
       if (positionView != null) {
         positionView.setText(Util.getStringForTime(formatBuilder, formatter, position));
       }
+      if (seekWhileScrubbing && player != null) {
+        seekToTimeBarPosition(player, position);
+      }
     }
 
     @Override
     public void onScrubStop(TimeBar timeBar, long position, boolean canceled) {
       scrubbing = false;
+      if (seekWhileScrubbing && player instanceof ExoPlayer) {
+        // Disable scrubbing mode first, so that the final seek is to the exact position.
+        ((ExoPlayer) player).setScrubbingModeEnabled(false);
+      }
       if (!canceled && player != null) {
         seekToTimeBarPosition(player, position);
       }
@@ -55,6 +55,7 @@ import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.source.ads.AdsLoader;
 import com.google.android.exoplayer2.text.Cue;
 import com.google.android.exoplayer2.text.TextOutput;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.AspectRatioFrameLayout.ResizeMode;
@@ -291,6 +292,7 @@ public class PlayerView extends FrameLayout implements AdsLoader.AdViewProvider
   @Nullable private final FrameLayout overlayFrameLayout;
 
   private Player player;
+  @Nullable private DefaultTrackSelector viewportTrackSelector;
   private boolean useController;
   private boolean useArtwork;
   @Nullable private Drawable defaultArtwork;
@@ -606,6 +608,25 @@ public class PlayerView extends FrameLayout implements AdsLoader.AdViewProvider
     return contentFrame.getResizeMode();
   }
 
+  /**
+   * Sets a {@link DefaultTrackSelector} whose current viewport size is kept in sync with the size of
+   * this view, so that adaptive video selections don't load video of a higher resolution than can
+   * be displayed. See {@link DefaultTrackSelector#setCurrentViewportSize(int, int)}.
+   *
+   * @param trackSelector The {@link DefaultTrackSelector} used by the player, or {@code null} to
+   *     stop updating the current viewport size of the previously set track selector.
+   */
+  public void setViewportTrackSelector(@Nullable DefaultTrackSelector trackSelector) {
+    if (viewportTrackSelector == trackSelector) {
+      return;
+    }
+    if (viewportTrackSelector != null) {
+      viewportTrackSelector.clearCurrentViewportSize();
+    }
+    viewportTrackSelector = trackSelector;
+    updateViewportSize();
+  }
+
   /** Returns whether artwork is displayed if present in the media. */
   public boolean getUseArtwork() {
     return useArtwork;
@@ -1094,6 +1115,12 @@ public class PlayerView extends FrameLayout implements AdsLoader.AdViewProvider
     return true;
   }
 
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    super.onSizeChanged(width, height, oldWidth, oldHeight);
+    updateViewportSize();
+  }
+
   /**
    * Should be called when the player is visible to the user and if {@code surface_type} is {@code
    * spherical_view}. It is the counterpart to {@link #onPause()}.
@@ -1315,6 +1342,20 @@ public class PlayerView extends FrameLayout implements AdsLoader.AdViewProvider
     }
   }
 
+  private void updateViewportSize() {
+    if (viewportTrackSelector == null) {
+      return;
+    }
+    int width = getWidth();
+    int height = getHeight();
+    if (width > 0 && height > 0) {
+      viewportTrackSelector.setCurrentViewportSize(width, height);
+    } else {
+      // The view hasn't been laid out yet, or is hidden.
+      viewportTrackSelector.clearCurrentViewportSize();
+    }
+  }
+
   private void updateBuffering() {
     if (bufferingView != null) {
       boolean showBufferingSpinner =
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import androidx.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/** Counts the bytes allocated by the current thread, if supported by the JVM. */
+public final class AllocationCounter {
+
+  private final MethodHandle getThreadAllocatedBytes;
+
+  /** Returns an instance, or null if the JVM does not support measuring allocations. */
+  @Nullable
+  public static AllocationCounter createIfSupported() {
+    try {
+      Object threadMxBean =
+          Class.forName("java.lang.management.ManagementFactory")
+              .getMethod("getThreadMXBean")
+              .invoke(/* obj= */ null);
+      MethodHandle getThreadAllocatedBytes =
+          MethodHandles.publicLookup()
+              .findVirtual(
+                  Class.forName("com.sun.management.ThreadMXBean"),
+                  "getThreadAllocatedBytes",
+                  MethodType.methodType(long.class, long.class))
+              .bindTo(threadMxBean);
+      return new AllocationCounter(getThreadAllocatedBytes);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private AllocationCounter(MethodHandle getThreadAllocatedBytes) {
+    this.getThreadAllocatedBytes = getThreadAllocatedBytes;
+  }
+
+  /** Returns the total number of bytes allocated by the current thread. */
+  public long getAllocatedBytes() {
+    try {
+      return (long) getThreadAllocatedBytes.invokeExact(Thread.currentThread().getId());
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
@@ -46,13 +47,27 @@ public final class FakeChunkSource implements ChunkSource {
    */
   public static final class Factory {
 
-    private final FakeAdaptiveDataSet.Factory dataSetFactory;
+    @Nullable private final FakeAdaptiveDataSet.Factory dataSetFactory;
+    @Nullable private final FakeAdaptiveDataSet dataSet;
     private final FakeDataSource.Factory dataSourceFactory;
 
     public Factory(FakeAdaptiveDataSet.Factory dataSetFactory,
         FakeDataSource.Factory dataSourceFactory) {
       this.dataSetFactory = dataSetFactory;
       this.dataSourceFactory = dataSourceFactory;
+      dataSet = null;
+    }
+
+    /**
+     * Creates a factory whose chunk sources all load the chunks of the same data set.
+     *
+     * @param dataSet The {@link FakeAdaptiveDataSet} of the track group of the chunk sources.
+     * @param dataSourceFactory The {@link FakeDataSource.Factory} for loading the chunks.
+     */
+    public Factory(FakeAdaptiveDataSet dataSet, FakeDataSource.Factory dataSourceFactory) {
+      this.dataSet = dataSet;
+      this.dataSourceFactory = dataSourceFactory;
+      dataSetFactory = null;
     }
 
     public FakeChunkSource createChunkSource(
@@ -60,7 +75,10 @@ public final class FakeChunkSource implements ChunkSource {
         long durationUs,
         @Nullable TransferListener transferListener) {
       FakeAdaptiveDataSet dataSet =
-          dataSetFactory.createDataSet(trackSelection.getTrackGroup(), durationUs);
+          this.dataSet != null
+              ? this.dataSet
+              : Assertions.checkNotNull(dataSetFactory)
+                  .createDataSet(trackSelection.getTrackGroup(), durationUs);
       dataSourceFactory.setFakeDataSet(dataSet);
       DataSource dataSource = dataSourceFactory.createDataSource();
       if (transferListener != null) {
@@ -49,8 +49,8 @@ public class FakeClock implements Clock {
    */
   public synchronized void advanceTime(long timeDiffMs) {
     currentTimeMs += timeDiffMs;
-    for (Long wakeUpTime : wakeUpTimes) {
-      if (wakeUpTime <= currentTimeMs) {
+    for (int i = 0; i < wakeUpTimes.size(); i++) {
+      if (wakeUpTimes.get(i) <= currentTimeMs) {
         notifyAll();
         break;
       }
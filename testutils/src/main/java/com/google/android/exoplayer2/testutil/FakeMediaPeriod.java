@@ -30,6 +30,7 @@ import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Assertions;
 import java.io.IOException;
 import java.util.Collections;
 
@@ -139,14 +140,14 @@ public class FakeMediaPeriod implements MediaPeriod {
 
   @Override
   public TrackGroupArray getTrackGroups() {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     return trackGroupArray;
   }
 
   @Override
   public long selectTracks(TrackSelection[] selections, boolean[] mayRetainStreamFlags,
       SampleStream[] streams, boolean[] streamResetFlags, long positionUs) {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     int rendererCount = selections.length;
     for (int i = 0; i < rendererCount; i++) {
       if (streams[i] != null && (selections[i] == null || !mayRetainStreamFlags[i])) {
@@ -179,7 +180,7 @@ public class FakeMediaPeriod implements MediaPeriod {
 
   @Override
   public long readDiscontinuity() {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     if (!notifiedReadingStarted) {
       eventDispatcher.readingStarted();
       notifiedReadingStarted = true;
@@ -191,13 +192,13 @@ public class FakeMediaPeriod implements MediaPeriod {
 
   @Override
   public long getBufferedPositionUs() {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     return C.TIME_END_OF_SOURCE;
   }
 
   @Override
   public long seekToUs(long positionUs) {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     return positionUs + seekOffsetUs;
   }
 
@@ -208,7 +209,7 @@ public class FakeMediaPeriod implements MediaPeriod {
 
   @Override
   public long getNextLoadPositionUs() {
-    assertThat(prepared).isTrue();
+    Assertions.checkState(prepared);
     return C.TIME_END_OF_SOURCE;
   }
 
@@ -16,9 +16,11 @@
 package com.google.android.exoplayer2.testutil;
 
 import android.os.Looper;
+import androidx.annotation.Nullable;
 import com.google.android.exoplayer2.BasePlayer;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.LivePlaybackSpeedControl;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.PlayerMessage;
@@ -160,6 +162,22 @@ public abstract class StubExoPlayer extends BasePlayer implements ExoPlayer {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setScrubbingModeEnabled(boolean scrubbingModeEnabled) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isScrubbingModeEnabled() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setLivePlaybackSpeedControl(
+      @Nullable LivePlaybackSpeedControl livePlaybackSpeedControl) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void stop(boolean resetStateAndPosition) {
     throw new UnsupportedOperationException();
@@ -0,0 +1,856 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.analytics.PlaybackStats;
+import com.google.android.exoplayer2.analytics.PlaybackStatsListener;
+import com.google.android.exoplayer2.source.DefaultMediaSourceEventListener;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.MediaSource.MediaPeriodId;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo;
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.FakeTimeline.TimelineWindowDefinition;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.HandlerWrapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates the adaptive playback of a {@link FakeAdaptiveDataSet} over a network whose throughput
+ * follows a {@link NetworkTrace}, and reports the quality of experience achieved by a {@link
+ * TrackSelection}.
+ *
+ * <p>{@link #simulate(TrackSelection.Factory)} runs a model of the player that loads one chunk at
+ * a time. Before each chunk, the track selection is updated with the current buffered duration and
+ * with {@link FakeAdaptiveDataSet.Iterator}s for the upcoming chunks. Each chunk is then
+ * transferred at the throughput of the network trace, which is reported to a {@link
+ * DefaultBandwidthMeter}. Playback consumes the buffer in real time while it is not stalled. Time
+ * is measured by a {@link FakeClock}, so a simulation completes immediately.
+ *
+ * <p>{@link #simulatePlayback(TrackSelection.Factory, LoadControl)} plays the data set with a full
+ * {@link com.google.android.exoplayer2.ExoPlayer} instead, which also evaluates the {@link
+ * LoadControl} and the interaction of concurrent loads. Network reads block the loading thread
+ * until a {@link FakeClock} reaches the time at which the read would have completed on the
+ * simulated network. The clock is advanced by a simulation thread whenever the player has settled,
+ * which makes these simulations reproducible too. {@link Result#fromPlaybackStats(PlaybackStats)}
+ * reports the {@link PlaybackStats} of such a playback in the same terms as the model.
+ */
+public final class TrackSelectionSimulator {
+
+  /** The throughput of a simulated network over time. The trace repeats once it has ended. */
+  public static final class NetworkTrace {
+
+    private final List<Long> durationsUs;
+    private final List<Long> bitrates;
+    private long totalDurationUs;
+
+    /** Creates an empty trace. At least one period must be added before it is used. */
+    public NetworkTrace() {
+      durationsUs = new ArrayList<>();
+      bitrates = new ArrayList<>();
+    }
+
+    /**
+     * Appends a period of constant throughput to the trace.
+     *
+     * @param durationMs The duration of the period, in milliseconds.
+     * @param bitrate The throughput during the period, in bits per second.
+     * @return This trace.
+     */
+    public NetworkTrace addPeriod(long durationMs, long bitrate) {
+      Assertions.checkArgument(durationMs > 0 && bitrate > 0);
+      durationsUs.add(C.msToUs(durationMs));
+      bitrates.add(bitrate);
+      totalDurationUs += C.msToUs(durationMs);
+      return this;
+    }
+
+    /**
+     * Returns the time it takes to transfer a number of bytes, in microseconds.
+     *
+     * @param startTimeUs The time since the start of the trace at which the transfer starts, in
+     *     microseconds.
+     * @param bytes The number of bytes to transfer.
+     */
+    /* package */ long getTransferDurationUs(long startTimeUs, long bytes) {
+      Assertions.checkState(totalDurationUs > 0);
+      int periodIndex = 0;
+      long periodEndTimeUs = 0;
+      long timeUs = startTimeUs % totalDurationUs;
+      while (periodEndTimeUs + durationsUs.get(periodIndex) <= timeUs) {
+        periodEndTimeUs += durationsUs.get(periodIndex++);
+      }
+      periodEndTimeUs += durationsUs.get(periodIndex);
+      double remainingBits = bytes * 8.0;
+      long durationUs = 0;
+      while (true) {
+        long bitrate = bitrates.get(periodIndex);
+        double periodBits = (periodEndTimeUs - timeUs) * bitrate / (double) C.MICROS_PER_SECOND;
+        if (remainingBits <= periodBits) {
+          return durationUs + (long) Math.ceil(remainingBits * C.MICROS_PER_SECOND / bitrate);
+        }
+        remainingBits -= periodBits;
+        durationUs += periodEndTimeUs - timeUs;
+        timeUs = periodEndTimeUs;
+        periodIndex = (periodIndex + 1) % durationsUs.size();
+        if (periodIndex == 0) {
+          timeUs = 0;
+          periodEndTimeUs = 0;
+        }
+        periodEndTimeUs += durationsUs.get(periodIndex);
+      }
+    }
+  }
+
+  /** The quality of experience achieved in a simulation. */
+  public static final class Result {
+
+    /** The delay between the start of loading and the start of playback, in microseconds. */
+    public final long startupDelayUs;
+    /** The total duration of media that was played, in microseconds. */
+    public final long playbackDurationUs;
+    /** The total duration of stalls after playback started, in microseconds. */
+    public final long rebufferDurationUs;
+    /** The number of stalls after playback started. */
+    public final int rebufferCount;
+    /** The average bitrate of the loaded chunks, weighted by their duration, in bits per second. */
+    public final long averageBitrate;
+    /** The number of switches between tracks. */
+    public final int switchCount;
+
+    /* package */ Result(
+        long startupDelayUs,
+        long playbackDurationUs,
+        long rebufferDurationUs,
+        int rebufferCount,
+        long averageBitrate,
+        int switchCount) {
+      this.startupDelayUs = startupDelayUs;
+      this.playbackDurationUs = playbackDurationUs;
+      this.rebufferDurationUs = rebufferDurationUs;
+      this.rebufferCount = rebufferCount;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+    }
+
+    /**
+     * Returns the quality of experience recorded in {@link PlaybackStats}, for example by the
+     * {@link PlaybackStatsListener} of a playback simulated by {@link
+     * #simulatePlayback(TrackSelection.Factory, LoadControl)}.
+     *
+     * <p>The {@link #startupDelayUs} is the mean join time, or {@link C#TIME_UNSET} if playback
+     * never joined. The {@link #averageBitrate} is the mean bitrate of the played video formats,
+     * weighted by their play time, or {@link C#LENGTH_UNSET} if no video format was played. The
+     * {@link #switchCount} is the number of video format changes.
+     *
+     * @param playbackStats The {@link PlaybackStats} of a playback.
+     * @return The {@link Result} of the playback.
+     */
+    public static Result fromPlaybackStats(PlaybackStats playbackStats) {
+      long meanJoinTimeMs = playbackStats.getMeanJoinTimeMs();
+      return new Result(
+          meanJoinTimeMs == C.TIME_UNSET ? C.TIME_UNSET : C.msToUs(meanJoinTimeMs),
+          C.msToUs(playbackStats.getTotalPlayTimeMs()),
+          C.msToUs(playbackStats.getTotalRebufferTimeMs()),
+          playbackStats.totalRebufferCount,
+          playbackStats.getMeanVideoFormatBitrate(),
+          Math.max(0, playbackStats.videoFormatHistory.size() - 1));
+    }
+
+    /** Returns the ratio of the rebuffer duration to the sum of playback and rebuffer duration. */
+    public double getRebufferRatio() {
+      return rebufferDurationUs / (double) (playbackDurationUs + rebufferDurationUs);
+    }
+
+    @Override
+    public String toString() {
+      return "Result[startupDelayMs="
+          + C.usToMs(startupDelayUs)
+          + ", rebufferRatio="
+          + getRebufferRatio()
+          + ", rebufferCount="
+          + rebufferCount
+          + ", averageBitrate="
+          + averageBitrate
+          + ", switchCount="
+          + switchCount
+          + "]";
+    }
+  }
+
+  private static final long PLAYBACK_TIMEOUT_MS = 60_000;
+
+  private final Context context;
+  private final FakeAdaptiveDataSet dataSet;
+  private final TrackGroup trackGroup;
+  private final NetworkTrace networkTrace;
+
+  private long maxBufferUs;
+  private long bufferForPlaybackUs;
+  private long bufferForPlaybackAfterRebufferUs;
+  private long initialBitrateEstimate;
+
+  /**
+   * Creates a simulator with the default buffer durations of {@link DefaultLoadControl}.
+   *
+   * @param context A {@link Context}.
+   * @param dataSet The {@link FakeAdaptiveDataSet} defining the chunks of the media.
+   * @param trackGroup The {@link TrackGroup} from which {@code dataSet} was created.
+   * @param networkTrace The {@link NetworkTrace} of the simulated network.
+   */
+  public TrackSelectionSimulator(
+      Context context,
+      FakeAdaptiveDataSet dataSet,
+      TrackGroup trackGroup,
+      NetworkTrace networkTrace) {
+    this.context = context;
+    this.dataSet = dataSet;
+    this.trackGroup = trackGroup;
+    this.networkTrace = networkTrace;
+    maxBufferUs = C.msToUs(DefaultLoadControl.DEFAULT_MAX_BUFFER_MS);
+    bufferForPlaybackUs = C.msToUs(DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS);
+    bufferForPlaybackAfterRebufferUs =
+        C.msToUs(DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+    initialBitrateEstimate = DefaultBandwidthMeter.DEFAULT_INITIAL_BITRATE_ESTIMATE;
+  }
+
+  /**
+   * Sets the buffer durations of the player simulated by {@link #simulate(TrackSelection.Factory)}.
+   * Playback simulated by {@link #simulatePlayback(TrackSelection.Factory, LoadControl)} uses the
+   * buffer durations of its {@link LoadControl} instead.
+   *
+   * @param maxBufferMs The buffered duration above which loading pauses, in milliseconds.
+   * @param bufferForPlaybackMs The buffered duration required to start playback, in milliseconds.
+   * @param bufferForPlaybackAfterRebufferMs The buffered duration required to resume playback
+   *     after a stall, in milliseconds.
+   * @return This simulator.
+   */
+  public TrackSelectionSimulator setBufferDurationsMs(
+      int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs) {
+    this.maxBufferUs = C.msToUs(maxBufferMs);
+    this.bufferForPlaybackUs = C.msToUs(bufferForPlaybackMs);
+    this.bufferForPlaybackAfterRebufferUs = C.msToUs(bufferForPlaybackAfterRebufferMs);
+    return this;
+  }
+
+  /**
+   * Sets the initial bitrate estimate of the {@link DefaultBandwidthMeter}.
+   *
+   * @param initialBitrateEstimate The initial bitrate estimate, in bits per second.
+   * @return This simulator.
+   */
+  public TrackSelectionSimulator setInitialBitrateEstimate(long initialBitrateEstimate) {
+    this.initialBitrateEstimate = initialBitrateEstimate;
+    return this;
+  }
+
+  /**
+   * Simulates playback with a track selection adapting between all tracks of the track group.
+   *
+   * @param trackSelectionFactory The {@link TrackSelection.Factory} creating the track selection.
+   * @return The {@link Result} of the simulation.
+   */
+  public Result simulate(TrackSelection.Factory trackSelectionFactory) {
+    FakeClock clock = new FakeClock(/* initialTimeMs= */ 0);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(context)
+            .setClock(clock)
+            .setInitialBitrateEstimate(initialBitrateEstimate)
+            .setResetOnNetworkTypeChange(false)
+            .build();
+    int[] tracks = new int[trackGroup.length];
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i] = i;
+    }
+    TrackSelection trackSelection =
+        Assertions.checkNotNull(
+            trackSelectionFactory.createTrackSelections(
+                new TrackSelection.Definition[] {new TrackSelection.Definition(trackGroup, tracks)},
+                bandwidthMeter)[0]);
+    trackSelection.enable();
+    FakeDataSource dataSource = new FakeDataSource(dataSet);
+    List<MediaChunk> queue = new ArrayList<>();
+    MediaChunkIterator[] mediaChunkIterators = new MediaChunkIterator[trackSelection.length()];
+
+    long timeUs = 0;
+    long loadedDurationUs = 0;
+    long bufferedDurationUs = 0;
+    long startupDelayUs = C.TIME_UNSET;
+    long rebufferDurationUs = 0;
+    int rebufferCount = 0;
+    boolean isPlaying = false;
+    double bitrateDurationProduct = 0;
+    int switchCount = 0;
+    int previousTrackIndex = C.INDEX_UNSET;
+    for (int chunkIndex = 0; chunkIndex < dataSet.getChunkCount(); chunkIndex++) {
+      if (bufferedDurationUs > maxBufferUs) {
+        // Loading pauses until the buffer has been played out to its maximum duration.
+        long idleDurationUs = bufferedDurationUs - maxBufferUs;
+        timeUs += idleDurationUs;
+        bufferedDurationUs = maxBufferUs;
+      }
+      clock.advanceTime(C.usToMs(timeUs) - clock.elapsedRealtime());
+      for (int i = 0; i < queue.size(); i++) {
+        if (queue.get(i).endTimeUs <= loadedDurationUs - bufferedDurationUs) {
+          queue.remove(i--);
+        }
+      }
+      for (int i = 0; i < mediaChunkIterators.length; i++) {
+        mediaChunkIterators[i] =
+            new FakeAdaptiveDataSet.Iterator(
+                dataSet, trackSelection.getIndexInTrackGroup(i), chunkIndex);
+      }
+      trackSelection.updateSelectedTrack(
+          /* playbackPositionUs= */ loadedDurationUs - bufferedDurationUs,
+          bufferedDurationUs,
+          /* availableDurationUs= */ C.TIME_UNSET,
+          queue,
+          mediaChunkIterators);
+      int trackIndex = trackSelection.getSelectedIndexInTrackGroup();
+      if (previousTrackIndex != C.INDEX_UNSET && trackIndex != previousTrackIndex) {
+        switchCount++;
+      }
+      previousTrackIndex = trackIndex;
+
+      // Transfer the chunk while playing out the buffer.
+      FakeAdaptiveDataSet.Iterator chunkIterator =
+          new FakeAdaptiveDataSet.Iterator(dataSet, trackIndex, chunkIndex);
+      chunkIterator.next();
+      DataSpec dataSpec = chunkIterator.getDataSpec();
+      long transferDurationUs = networkTrace.getTransferDurationUs(timeUs, dataSpec.length);
+      bandwidthMeter.onTransferStart(dataSource, dataSpec, /* isNetwork= */ true);
+      timeUs += transferDurationUs;
+      clock.advanceTime(C.usToMs(timeUs) - clock.elapsedRealtime());
+      bandwidthMeter.onBytesTransferred(
+          dataSource, dataSpec, /* isNetwork= */ true, (int) dataSpec.length);
+      bandwidthMeter.onTransferEnd(dataSource, dataSpec, /* isNetwork= */ true);
+      if (isPlaying) {
+        if (transferDurationUs > bufferedDurationUs) {
+          rebufferDurationUs += transferDurationUs - bufferedDurationUs;
+          rebufferCount++;
+          bufferedDurationUs = 0;
+          isPlaying = false;
+        } else {
+          bufferedDurationUs -= transferDurationUs;
+        }
+      } else if (startupDelayUs != C.TIME_UNSET) {
+        rebufferDurationUs += transferDurationUs;
+      }
+
+      Format format = trackGroup.getFormat(trackIndex);
+      long chunkDurationUs = dataSet.getChunkDuration(chunkIndex);
+      queue.add(
+          new FakeMediaChunk(
+              dataSpec,
+              format,
+              chunkIterator.getChunkStartTimeUs(),
+              chunkIterator.getChunkEndTimeUs()));
+      bitrateDurationProduct += (double) format.bitrate * chunkDurationUs;
+      loadedDurationUs += chunkDurationUs;
+      bufferedDurationUs += chunkDurationUs;
+      if (!isPlaying) {
+        boolean isStartup = startupDelayUs == C.TIME_UNSET;
+        long requiredBufferUs = isStartup ? bufferForPlaybackUs : bufferForPlaybackAfterRebufferUs;
+        if (bufferedDurationUs >= requiredBufferUs
+            || bufferedDurationUs >= maxBufferUs
+            || chunkIndex == dataSet.getChunkCount() - 1) {
+          isPlaying = true;
+          if (isStartup) {
+            startupDelayUs = timeUs;
+          }
+        }
+      }
+    }
+    trackSelection.disable();
+
+    return new Result(
+        startupDelayUs,
+        loadedDurationUs,
+        rebufferDurationUs,
+        rebufferCount,
+        (long) (bitrateDurationProduct / loadedDurationUs),
+        switchCount);
+  }
+
+  /**
+   * Simulates playback with a full player, using a {@link FakeRenderer} and a {@link
+   * DefaultTrackSelector} whose adaptive track selections are created by {@code
+   * trackSelectionFactory}. The playback ends once all chunks of the data set have been played.
+   *
+   * @param trackSelectionFactory The {@link TrackSelection.Factory} creating the track selection.
+   * @param loadControl The {@link LoadControl} of the player.
+   * @return The {@link PlaybackStats} of the playback, including its event history. Use {@link
+   *     Result#fromPlaybackStats(PlaybackStats)} to compare it with the results of {@link
+   *     #simulate(TrackSelection.Factory)}.
+   * @throws Exception If the playback failed or timed out.
+   */
+  public PlaybackStats simulatePlayback(
+      TrackSelection.Factory trackSelectionFactory, LoadControl loadControl) throws Exception {
+    ThrottledDataSourceFactory dataSourceFactory = new ThrottledDataSourceFactory();
+    dataSourceFactory.setIsNetwork(true);
+    int lastChunkIndex = dataSet.getChunkCount() - 1;
+    long mediaDurationUs =
+        dataSet.getStartTime(lastChunkIndex) + dataSet.getChunkDuration(lastChunkIndex);
+    MediaSource mediaSource =
+        new FakeAdaptiveMediaSource(
+            new FakeTimeline(
+                new TimelineWindowDefinition(
+                    /* isSeekable= */ true, /* isDynamic= */ false, mediaDurationUs)),
+            new TrackGroupArray(trackGroup),
+            new FakeChunkSource.Factory(dataSet, dataSourceFactory));
+    SimulationClock clock = new SimulationClock(networkTrace, mediaSource);
+    dataSourceFactory.setClock(clock);
+    DefaultBandwidthMeter bandwidthMeter =
+        new DefaultBandwidthMeter.Builder(context)
+            .setClock(clock)
+            .setInitialBitrateEstimate(initialBitrateEstimate)
+            .setResetOnNetworkTypeChange(false)
+            .build();
+    PlaybackStatsListener playbackStatsListener =
+        new PlaybackStatsListener(/* keepHistory= */ true, /* callback= */ null);
+    Format[] formats = new Format[trackGroup.length];
+    for (int i = 0; i < formats.length; i++) {
+      formats[i] = trackGroup.getFormat(i);
+    }
+
+    ExoPlayerTestRunner testRunner =
+        new ExoPlayerTestRunner.Builder()
+            .setMediaSource(mediaSource)
+            .setRenderers(new FakeRenderer(formats))
+            .setTrackSelector(new DefaultTrackSelector(trackSelectionFactory))
+            .setLoadControl(loadControl)
+            .setBandwidthMeter(bandwidthMeter)
+            .setClock(clock)
+            .setAnalyticsListener(playbackStatsListener)
+            .build(context);
+    clock.start();
+    try {
+      testRunner.start().blockUntilEnded(PLAYBACK_TIMEOUT_MS);
+    } finally {
+      clock.release();
+    }
+    return Assertions.checkNotNull(playbackStatsListener.getPlaybackStats());
+  }
+
+  /**
+   * A {@link FakeClock} that is advanced by a simulation thread, and that blocks transfers until
+   * their data has arrived on the simulated network.
+   *
+   * <p>To make simulations reproducible, the clock only advances once the player has settled: the
+   * application and playback threads have handled all their messages, and each load has either
+   * been handled by the playback thread or is waiting for data from the network. The clock then
+   * advances to the earliest time at which a delayed message is due or a transfer receives data.
+   */
+  private static final class SimulationClock extends FakeClock {
+
+    private final NetworkTrace networkTrace;
+    private final MediaSource mediaSource;
+    private final HandlerThread simulationThread;
+    private final AtomicLong dispatchedMessageCount;
+    private final List<Long> messageTimesMs;
+    private final List<Long> transferWakeUpTimesMs;
+    private final List<String> pendingLoadKeys;
+    private final List<String> earlyTransferLoadKeys;
+    private final List<String> canceledLoadKeys;
+    private final List<String> finishingLoadKeys;
+
+    @Nullable private Handler simulationHandler;
+    @Nullable private Handler applicationHandler;
+    @Nullable private Handler playbackHandler;
+    private int activeTransferCount;
+    private long networkTimeUs;
+    private boolean released;
+
+    public SimulationClock(NetworkTrace networkTrace, MediaSource mediaSource) {
+      super(/* initialTimeMs= */ 0);
+      this.networkTrace = networkTrace;
+      this.mediaSource = mediaSource;
+      simulationThread = new HandlerThread("TrackSelectionSimulator");
+      dispatchedMessageCount = new AtomicLong();
+      messageTimesMs = new ArrayList<>();
+      transferWakeUpTimesMs = new ArrayList<>();
+      pendingLoadKeys = new ArrayList<>();
+      earlyTransferLoadKeys = new ArrayList<>();
+      canceledLoadKeys = new ArrayList<>();
+      finishingLoadKeys = new ArrayList<>();
+    }
+
+    /** Starts advancing the clock on the simulation thread. */
+    public void start() {
+      simulationThread.start();
+      simulationHandler = new Handler(simulationThread.getLooper());
+      simulationHandler.post(this::advanceTimeOnceSettled);
+    }
+
+    /** Stops advancing the clock and releases the simulation thread. */
+    public void release() {
+      synchronized (this) {
+        released = true;
+      }
+      simulationThread.quit();
+      // Unblock the simulation thread if it's waiting for the player.
+      simulationThread.interrupt();
+    }
+
+    /** Blocks until the given number of bytes has been transferred over the simulated network. */
+    public synchronized void transfer(int bytes) {
+      long nowUs = C.msToUs(elapsedRealtime());
+      long startTimeUs = Math.max(networkTimeUs, nowUs);
+      networkTimeUs = startTimeUs + networkTrace.getTransferDurationUs(startTimeUs, bytes);
+      Long wakeUpTimeMs = (networkTimeUs + 999) / 1000;
+      transferWakeUpTimesMs.add(wakeUpTimeMs);
+      activeTransferCount--;
+      notifyAll();
+      sleep(wakeUpTimeMs - elapsedRealtime());
+      transferWakeUpTimesMs.remove(wakeUpTimeMs);
+      activeTransferCount++;
+    }
+
+    public synchronized void onTransferStart(DataSpec dataSpec) {
+      String loadKey = getLoadKey(dataSpec);
+      if (!pendingLoadKeys.remove(loadKey)) {
+        // The loading thread may start the transfer before the playback thread reports the load.
+        earlyTransferLoadKeys.add(loadKey);
+      }
+      activeTransferCount++;
+    }
+
+    public synchronized void onTransferEnd(DataSpec dataSpec) {
+      String loadKey = getLoadKey(dataSpec);
+      activeTransferCount--;
+      if (!canceledLoadKeys.remove(loadKey)) {
+        // The load finishes once the playback thread has handled its completion.
+        finishingLoadKeys.add(loadKey);
+      }
+      notifyAll();
+    }
+
+    @Override
+    public HandlerWrapper createHandler(Looper looper, @Nullable Handler.Callback callback) {
+      synchronized (this) {
+        if (callback == null && applicationHandler == null) {
+          // The test runner creates its handler on the application looper before the player.
+          applicationHandler = createSettlingHandler(looper);
+        } else if (callback != null && playbackHandler == null) {
+          playbackHandler = createSettlingHandler(looper);
+          // Track load starts synchronously on the playback thread, before the loading thread
+          // runs.
+          mediaSource.addEventListener(playbackHandler, new LoadTracker());
+          notifyAll();
+        }
+      }
+      return super.createHandler(looper, callback);
+    }
+
+    @Override
+    protected synchronized boolean addHandlerMessageAtTime(
+        HandlerWrapper handler, Runnable runnable, long timeMs) {
+      onHandlerMessageAdded(timeMs);
+      return super.addHandlerMessageAtTime(handler, runnable, timeMs);
+    }
+
+    @Override
+    protected synchronized boolean addHandlerMessageAtTime(
+        HandlerWrapper handler, int message, long timeMs) {
+      onHandlerMessageAdded(timeMs);
+      return super.addHandlerMessageAtTime(handler, message, timeMs);
+    }
+
+    private void onHandlerMessageAdded(long timeMs) {
+      if (timeMs > elapsedRealtime()) {
+        messageTimesMs.add(timeMs);
+        notifyAll();
+      }
+    }
+
+    private synchronized void onLoadStarted(DataSpec dataSpec) {
+      String loadKey = getLoadKey(dataSpec);
+      if (!earlyTransferLoadKeys.remove(loadKey)) {
+        pendingLoadKeys.add(loadKey);
+      }
+    }
+
+    private synchronized void onLoadFinished(DataSpec dataSpec) {
+      String loadKey = getLoadKey(dataSpec);
+      // Failed loads may not have started their transfer.
+      if (!finishingLoadKeys.remove(loadKey)) {
+        pendingLoadKeys.remove(loadKey);
+      }
+      notifyAll();
+    }
+
+    private synchronized void onLoadCanceled(DataSpec dataSpec) {
+      String loadKey = getLoadKey(dataSpec);
+      if (!finishingLoadKeys.remove(loadKey)) {
+        // Canceled loads are reported before their transfer ends, and the playback thread ignores
+        // the completion of the transfer.
+        pendingLoadKeys.remove(loadKey);
+        canceledLoadKeys.add(loadKey);
+      }
+      notifyAll();
+    }
+
+    /**
+     * Waits until the player has settled and advances the clock to the time of the next event. Runs
+     * on the simulation thread, and posts itself again for the next event.
+     */
+    private void advanceTimeOnceSettled() {
+      try {
+        waitUntilSettled();
+        synchronized (this) {
+          long nextEventTimeMs = getNextEventTimeMs();
+          while (!released && nextEventTimeMs == C.TIME_UNSET) {
+            wait();
+            nextEventTimeMs = getNextEventTimeMs();
+          }
+          if (released) {
+            return;
+          }
+          advanceTime(nextEventTimeMs - elapsedRealtime());
+          long nowMs = elapsedRealtime();
+          for (int i = messageTimesMs.size() - 1; i >= 0; i--) {
+            if (messageTimesMs.get(i) <= nowMs) {
+              messageTimesMs.remove(i);
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        // The simulation has been released.
+        return;
+      }
+      Assertions.checkNotNull(simulationHandler).post(this::advanceTimeOnceSettled);
+    }
+
+    private void waitUntilSettled() throws InterruptedException {
+      while (true) {
+        Handler applicationHandler;
+        Handler playbackHandler;
+        synchronized (this) {
+          // The player is created on the application thread once the simulation has started.
+          while (!released && (this.playbackHandler == null || !areLoadsSettled())) {
+            wait();
+          }
+          if (released) {
+            return;
+          }
+          applicationHandler = Assertions.checkNotNull(this.applicationHandler);
+          playbackHandler = Assertions.checkNotNull(this.playbackHandler);
+        }
+        // Check the application thread before and after the playback thread, and require that no
+        // other messages were dispatched in between, so that messages the threads send each other
+        // while they are checked are noticed.
+        long previousDispatchedMessageCount = dispatchedMessageCount.get();
+        boolean threadsIdle =
+            isIdle(applicationHandler) & isIdle(playbackHandler) & isIdle(applicationHandler);
+        synchronized (this) {
+          if (threadsIdle
+              && areLoadsSettled()
+              && dispatchedMessageCount.get() == previousDispatchedMessageCount + 3) {
+            return;
+          }
+        }
+      }
+    }
+
+    private boolean areLoadsSettled() {
+      if (!pendingLoadKeys.isEmpty()
+          || !finishingLoadKeys.isEmpty()
+          || activeTransferCount > 0) {
+        return false;
+      }
+      long nowMs = elapsedRealtime();
+      for (int i = 0; i < transferWakeUpTimesMs.size(); i++) {
+        if (transferWakeUpTimesMs.get(i) <= nowMs) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the earliest time at which a delayed message is due or a transfer receives data, or
+     * {@link C#TIME_UNSET} if there is no such event.
+     */
+    private long getNextEventTimeMs() {
+      long nextEventTimeMs = Long.MAX_VALUE;
+      for (int i = 0; i < messageTimesMs.size(); i++) {
+        nextEventTimeMs = Math.min(nextEventTimeMs, messageTimesMs.get(i));
+      }
+      for (int i = 0; i < transferWakeUpTimesMs.size(); i++) {
+        nextEventTimeMs = Math.min(nextEventTimeMs, transferWakeUpTimesMs.get(i));
+      }
+      return nextEventTimeMs == Long.MAX_VALUE ? C.TIME_UNSET : nextEventTimeMs;
+    }
+
+    /**
+     * Returns a handler on the given looper, and counts the messages the looper dispatches in
+     * {@link #dispatchedMessageCount}.
+     */
+    private Handler createSettlingHandler(Looper looper) {
+      looper.setMessageLogging(
+          message -> {
+            // The looper logs the start and the end of each dispatched message.
+            if (message.startsWith(">")) {
+              dispatchedMessageCount.incrementAndGet();
+            }
+          });
+      return new Handler(looper);
+    }
+
+    /**
+     * Returns whether the thread of the handler has no further messages to handle once it handles a
+     * message posted by this method. The message is dispatched by the thread and counted in {@link
+     * #dispatchedMessageCount}.
+     */
+    private static boolean isIdle(Handler handler) throws InterruptedException {
+      CountDownLatch handledCountDownLatch = new CountDownLatch(1);
+      boolean[] isIdle = new boolean[1];
+      handler.post(
+          () -> {
+            isIdle[0] = Looper.myQueue().isIdle();
+            handledCountDownLatch.countDown();
+          });
+      handledCountDownLatch.await();
+      return isIdle[0];
+    }
+
+    private static String getLoadKey(DataSpec dataSpec) {
+      return dataSpec.uri + "@" + dataSpec.absoluteStreamPosition;
+    }
+
+    /**
+     * Tracks chunk loads, which are started synchronously on the playback thread before the loading
+     * thread runs. Placeholder load events without a track format are ignored.
+     */
+    private final class LoadTracker extends DefaultMediaSourceEventListener {
+
+      @Override
+      public void onLoadStarted(
+          int windowIndex,
+          @Nullable MediaPeriodId mediaPeriodId,
+          LoadEventInfo loadEventInfo,
+          MediaLoadData mediaLoadData) {
+        if (mediaLoadData.trackFormat != null) {
+          SimulationClock.this.onLoadStarted(loadEventInfo.dataSpec);
+        }
+      }
+
+      @Override
+      public void onLoadCompleted(
+          int windowIndex,
+          @Nullable MediaPeriodId mediaPeriodId,
+          LoadEventInfo loadEventInfo,
+          MediaLoadData mediaLoadData) {
+        if (mediaLoadData.trackFormat != null) {
+          onLoadFinished(loadEventInfo.dataSpec);
+        }
+      }
+
+      @Override
+      public void onLoadCanceled(
+          int windowIndex,
+          @Nullable MediaPeriodId mediaPeriodId,
+          LoadEventInfo loadEventInfo,
+          MediaLoadData mediaLoadData) {
+        if (mediaLoadData.trackFormat != null) {
+          SimulationClock.this.onLoadCanceled(loadEventInfo.dataSpec);
+        }
+      }
+
+      @Override
+      public void onLoadError(
+          int windowIndex,
+          @Nullable MediaPeriodId mediaPeriodId,
+          LoadEventInfo loadEventInfo,
+          MediaLoadData mediaLoadData,
+          IOException error,
+          boolean wasCanceled) {
+        if (mediaLoadData.trackFormat != null) {
+          onLoadFinished(loadEventInfo.dataSpec);
+        }
+      }
+    }
+  }
+
+  /** Creates {@link FakeDataSource}s whose reads are throttled by a {@link SimulationClock}. */
+  private static final class ThrottledDataSourceFactory extends FakeDataSource.Factory {
+
+    @Nullable private SimulationClock clock;
+
+    public void setClock(SimulationClock clock) {
+      this.clock = clock;
+    }
+
+    @Override
+    public DataSource createDataSource() {
+      SimulationClock clock = Assertions.checkNotNull(this.clock);
+      FakeDataSource dataSource =
+          new FakeDataSource(fakeDataSet, isNetwork) {
+            @Override
+            protected void onDataRead(int bytesRead) {
+              clock.transfer(bytesRead);
+            }
+          };
+      dataSource.addTransferListener(
+          new TransferListener() {
+            @Override
+            public void onTransferInitializing(
+                DataSource source, DataSpec dataSpec, boolean isNetwork) {
+              // Do nothing.
+            }
+
+            @Override
+            public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+              clock.onTransferStart(dataSpec);
+            }
+
+            @Override
+            public void onBytesTransferred(
+                DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+              // Do nothing.
+            }
+
+            @Override
+            public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+              clock.onTransferEnd(dataSpec);
+            }
+          });
+      return dataSource;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.NetworkTrace;
+import com.google.android.exoplayer2.testutil.TrackSelectionSimulator.Result;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link TrackSelectionSimulator}. */
+@RunWith(AndroidJUnit4.class)
+public final class TrackSelectionSimulatorTest {
+
+  private static final TrackGroup TRACK_GROUP =
+      new TrackGroup(
+          Format.createVideoSampleFormat(
+              /* id= */ null,
+              MimeTypes.VIDEO_H264,
+              /* codecs= */ null,
+              /* bitrate= */ 1_000_000,
+              /* maxInputSize= */ Format.NO_VALUE,
+              /* width= */ 1280,
+              /* height= */ 720,
+              /* frameRate= */ Format.NO_VALUE,
+              /* initializationData= */ null,
+              /* drmInitData= */ null));
+
+  @Test
+  public void networkTrace_getTransferDurationUs_spansAndRepeatsPeriods() {
+    NetworkTrace networkTrace =
+        new NetworkTrace()
+            .addPeriod(/* durationMs= */ 1000, /* bitrate= */ 8_000)
+            .addPeriod(/* durationMs= */ 1000, /* bitrate= */ 16_000);
+
+    assertThat(networkTrace.getTransferDurationUs(/* startTimeUs= */ 0, /* bytes= */ 500))
+        .isEqualTo(500_000);
+    // 500 bytes in the first period, then 1000 bytes in 500ms of the second period.
+    assertThat(networkTrace.getTransferDurationUs(/* startTimeUs= */ 500_000, /* bytes= */ 1500))
+        .isEqualTo(1_000_000);
+    // 1000 bytes in 500ms of the second period, then 500 bytes in the repeated first period.
+    assertThat(networkTrace.getTransferDurationUs(/* startTimeUs= */ 1_500_000, /* bytes= */ 1500))
+        .isEqualTo(1_000_000);
+  }
+
+  @Test
+  public void simulate_withSufficientThroughput_doesNotRebuffer() {
+    Result result =
+        createSimulator(/* bitrate= */ 4_000_000).simulate(new FixedTrackSelection.Factory());
+
+    assertThat(result.playbackDurationUs).isEqualTo(60 * C.MICROS_PER_SECOND);
+    assertThat(result.rebufferCount).isEqualTo(0);
+    assertThat(result.getRebufferRatio()).isEqualTo(0.0);
+    assertThat(result.switchCount).isEqualTo(0);
+    assertThat(result.averageBitrate).isEqualTo(1_000_000);
+  }
+
+  @Test
+  public void simulate_withInsufficientThroughput_rebuffers() {
+    Result result =
+        createSimulator(/* bitrate= */ 500_000).simulate(new FixedTrackSelection.Factory());
+
+    assertThat(result.rebufferCount).isGreaterThan(0);
+    // Loading takes twice as long as playback, so about half of the time is spent rebuffering.
+    assertThat(result.getRebufferRatio()).isWithin(0.1).of(0.5);
+  }
+
+  private static TrackSelectionSimulator createSimulator(long bitrate) {
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(
+                /* chunkDurationUs= */ 2 * C.MICROS_PER_SECOND,
+                /* bitratePercentStdDev= */ 0,
+                new Random(/* seed= */ 0))
+            .createDataSet(TRACK_GROUP, /* mediaDurationUs= */ 60 * C.MICROS_PER_SECOND);
+    return new TrackSelectionSimulator(
+        ApplicationProvider.getApplicationContext(),
+        dataSet,
+        TRACK_GROUP,
+        new NetworkTrace().addPeriod(/* durationMs= */ 10_000, bitrate));
+  }
+}